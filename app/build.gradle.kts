@@ -35,6 +35,8 @@ android {
 }
 
 dependencies {
+    // Modelo, línea de tiempo y almacenamiento local: Java puro, compartido con las pruebas de rendimiento
+    implementation(project(":core"))
     implementation(libs.appcompat)
     implementation(libs.material)
     implementation(libs.activity)
@@ -54,5 +56,5 @@ dependencies {
     implementation("androidx.recyclerview:recyclerview:1.3.2")
 
     // MQTT — SOLO CLIENTE JAVA (el correcto)
-    implementation("org.eclipse.paho:org.eclipse.paho.client.mqttv3:1.2.5")
+    implementation(libs.paho)
 }
\ No newline at end of file
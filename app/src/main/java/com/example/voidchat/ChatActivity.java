@@ -1,53 +1,154 @@
 // RUTA: com.example.voidchat/ChatActivity.java
 package com.example.voidchat;
 
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.OpenableColumns;
 import android.text.Editable;
 import android.text.TextWatcher;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ImageButton;
+import android.widget.TextView;
 import android.widget.Toast;
+import androidx.activity.OnBackPressedCallback;
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import com.example.voidchat.adapter.MessageAdapter;
+import com.example.voidchat.data.MessageStore;
 import com.example.voidchat.model.Message;
+import com.example.voidchat.mqtt.MessagePayload;
+import com.example.voidchat.receipts.ReadWatermark;
+import com.example.voidchat.search.MessageSearch;
+import com.example.voidchat.sync.HistoryPager;
+import com.example.voidchat.sync.MessageSyncEngine;
+import com.example.voidchat.timeline.MessageTimeline;
+import com.example.voidchat.timeline.TimelineBuilder;
+import com.example.voidchat.timeline.TimelineCache;
+import com.example.voidchat.trace.TraceStage;
+import com.example.voidchat.trace.Tracer;
+import com.example.voidchat.typing.TypingSender;
+import com.example.voidchat.typing.TypingSignal;
+import com.example.voidchat.typing.TypingTracker;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.database.*;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Calendar;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
 import java.util.List;
-import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class ChatActivity extends AppCompatActivity {
 
+    private static final String TAG_STORE_ERROR = "MESSAGE_STORE_ERROR";
+    private static final String TAG_MQTT_ERROR = "MQTT_ERROR";
+    private static final String TAG_WRITE_ERROR = "MESSAGE_WRITE_ERROR";
+    private static final String TAG_RECEIPT_ERROR = "READ_RECEIPT_ERROR";
+    // Filas de margen antes de llegar a un extremo de la ventana para pedir la siguiente página
+    private static final int PREFETCH_DISTANCE = 10;
+    // Resultados de búsqueda que se pueden recorrer con las flechas
+    private static final int MAX_SEARCH_HITS = 500;
+
     private RecyclerView recyclerView;
     private EditText messageInput;
     private ImageButton sendButton;
+    private LinearLayoutManager layoutManager;
     private MessageAdapter messageAdapter;
+    private MessageTimeline timeline;
+    private TimelineBuilder timelineBuilder;
+    private HistoryPager historyPager;
+    // Las páginas de la línea de tiempo se construyen aquí; al hilo principal sólo llegan terminadas.
+    // Es compartido y vive con la app: las líneas de tiempo de TimelineCache también sobreviven a la pantalla
+    private static final ExecutorService timelineExecutor = Executors.newSingleThreadExecutor();
 
     // --- Firebase & MQTT ---
     private FirebaseAuth auth;
     private DatabaseReference messagesRef;
-    private DatabaseReference typingStatusRef;
-    private ValueEventListener messagesListener;
-    private ValueEventListener typingListener;
+    // Marcas de lectura de la sala: reads/{uid} = clave del último mensaje que ese usuario vio
+    private DatabaseReference readsRef;
+    private ValueEventListener readsListener;
+    private MessageSyncEngine syncEngine;
+    // Conexión compartida de MyApp; esta pantalla sólo registra su listener en el tema del chat
     private MQTTManager mqttManager;
+    private MQTTManager.MQTTListener mqttListener;
+    private boolean mqttSubscribed;
+
+    // --- Persistencia local ---
+    private MessageStore messageStore;
+    // Un único hilo para el disco: las escrituras quedan en el mismo orden en que llegan los eventos
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+
+    // --- Búsqueda en el historial ---
+    // Índice local de la sala en su propio hilo: buscar no espera a las escrituras del log
+    private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor();
+    private MessageSearch messageSearch;
+    private View searchBar;
+    private EditText searchInput;
+    private TextView searchCount;
+    // Claves de los resultados, de más reciente a más antiguo, y el que se está mostrando
+    private List<String> searchHits = Collections.emptyList();
+    private int searchHit;
+    // Cada salto invalida los anteriores que aún no terminaron
+    private int searchJump;
+    private final OnBackPressedCallback closeSearchOnBack = new OnBackPressedCallback(false) {
+        @Override
+        public void handleOnBackPressed() {
+            closeSearch();
+        }
+    };
+
+    // --- Adjuntos ---
+    // Por MQTT en trozos; el mensaje de Firebase sólo los anuncia y su clave identifica la transferencia.
+    // Enviados y recibidos se guardan igual: attachments/{sala}/{clave}
+    private File attachmentsDir;
+    private MQTTManager.AttachmentListener attachmentListener;
+    private final ActivityResultLauncher<String> pickAttachment =
+            registerForActivityResult(new ActivityResultContracts.GetContent(), this::onAttachmentPicked);
 
     // --- Datos del Chat ---
     private String currentUserId;
     private String contactId;
     private String chatRoomId;
     private String mqttTopic;
+    // Latencia de los mensajes trazados, sólo si se encendió en la pantalla de métricas
+    private final Tracer tracer = MyApp.getTracer();
 
     // --- Lógica para "Está escribiendo..." ---
+    // Viaja por MQTT (QoS 0, sin retener), no por Firebase: los avisos son efímeros y caducan solos
     private final Handler typingHandler = new Handler();
-    private Runnable typingTimeoutRunnable;
+    private TypingSender typingSender;
+    private final TypingTracker typingTracker = new TypingTracker();
+    private MQTTManager.SignalListener typingListener;
+    private final Runnable typingIdleCheck = this::checkTypingIdle;
+    private final Runnable typingExpiryCheck = this::expireTyping;
+
+    // --- Confirmaciones de lectura ---
+    // Una marca acumulada por usuario y sala, no una escritura por mensaje; se juntan los avances
+    private final Handler receiptHandler = new Handler(Looper.getMainLooper());
+    private ReadWatermark readWatermark;
+    private final Runnable receiptFlush = this::flushReadWatermark;
+
+    // Retira los mensajes llegados por MQTT que Firebase nunca confirma (p. ej. porque rechazó la escritura)
+    private final Handler provisionalHandler = new Handler(Looper.getMainLooper());
+    private final Runnable provisionalSweep = this::expireProvisional;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -65,6 +166,9 @@ public class ChatActivity extends AppCompatActivity {
         setupViews();
         setupFirebase();
         setupRecyclerView();
+        setupLocalStore();
+        setupPaging();
+        setupSearch();
         setupClickListeners();
         setupMqtt();
     }
@@ -74,23 +178,40 @@ public class ChatActivity extends AppCompatActivity {
         super.onStart();
         // Empezamos a escuchar cambios en la base de datos cuando la pantalla es visible
         attachFirebaseListeners();
+        // La línea de tiempo puede venir de TimelineCache con provisionales que ya vencieron
+        expireProvisional();
     }
     @Override
     protected void onStop() {
         super.onStop();
         // Dejamos de escuchar para ahorrar recursos cuando la pantalla no es visible
         detachFirebaseListeners();
+        messageSearch.save();
     }
     @Override
     protected void onDestroy() {
         super.onDestroy();
         // Limpieza final para evitar fugas de memoria
-        if (currentUserId != null && typingStatusRef != null) {
-            typingStatusRef.child(currentUserId).setValue(false);
+        if (typingSender != null) {
+            typingSender.stop();
         }
-        if (mqttManager != null) {
-            mqttManager.disconnect();
+        typingHandler.removeCallbacksAndMessages(null);
+        receiptHandler.removeCallbacksAndMessages(null);
+        provisionalHandler.removeCallbacksAndMessages(null);
+        unsubscribeMqtt();
+        if (timeline != null) {
+            // La línea de tiempo sobrevive en TimelineCache; no debe retener el adaptador de esta pantalla
+            timeline.setListener(null);
         }
+        if (messageSearch != null) {
+            messageSearch.cancel();
+        }
+        // El índice lee del log al ponerse al día: el log se cierra cuando el índice ha terminado con él
+        searchExecutor.execute(() -> {
+            persist(MessageStore::close);
+            diskExecutor.shutdown();
+        });
+        searchExecutor.shutdown();
     }
 
     // --- MÉTODOS DE CONFIGURACIÓN (Setup) ---
@@ -126,17 +247,154 @@ public class ChatActivity extends AppCompatActivity {
     private void setupFirebase() {
         DatabaseReference chatRootRef = FirebaseDatabase.getInstance().getReference("chats").child(chatRoomId);
         messagesRef = chatRootRef.child("messages");
-        typingStatusRef = chatRootRef.child("typing_status");
+        readsRef = chatRootRef.child("reads");
+        readWatermark = new ReadWatermark(messageId -> readsRef.child(currentUserId).setValue(messageId));
+        syncEngine = new MessageSyncEngine(messagesRef, new MessageSyncEngine.Listener() {
+            @Override public void onInitialWindow(List<Message> messages) {
+                timelineBuilder.appendAll(messages);
+                persist(store -> store.appendAll(messages));
+                messageSearch.addAll(messages);
+                for (Message message : messages) {
+                    onAttachmentMessage(message);
+                }
+            }
+            @Override public void onMessageAdded(Message message) {
+                if (!currentUserId.equals(message.getUserId())) {
+                    tracer.mark(Tracer.parse(message.getTraceId()), TraceStage.FIREBASE_ARRIVED);
+                }
+                timelineBuilder.append(message);
+                timelineBuilder.post(() -> historyPager.onLiveMessage(isAtBottom()));
+                persist(store -> store.append(message));
+                messageSearch.add(message);
+                onAttachmentMessage(message);
+            }
+            @Override public void onMessageChanged(Message message) {
+                timelineBuilder.update(message);
+                persist(store -> store.append(message));
+                messageSearch.add(message);
+            }
+            @Override public void onMessageRemoved(String messageId) {
+                timelineBuilder.post(() -> timeline.remove(messageId));
+                persist(store -> store.delete(messageId));
+                messageSearch.remove(messageId);
+            }
+            @Override public void onError(String error) {
+                Toast.makeText(ChatActivity.this, "Failed to load messages.", Toast.LENGTH_SHORT).show();
+            }
+        });
     }
     private void setupRecyclerView() {
-        messageAdapter = new MessageAdapter();
-        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        // Si la sala ya se abrió antes, sus mensajes siguen en memoria y se muestran al instante
+        timeline = TimelineCache.get(chatRoomId, currentUserId);
+        timelineBuilder = new TimelineBuilder(timeline, timelineExecutor, getMainExecutor());
+        messageAdapter = new MessageAdapter(tracer);
+        messageAdapter.setTimeline(timeline);
+        messageAdapter.setRetryListener(this::retryMessage);
+        layoutManager = new LinearLayoutManager(this);
         layoutManager.setStackFromEnd(true); // Los mensajes nuevos aparecen abajo
         recyclerView.setLayoutManager(layoutManager);
         recyclerView.setAdapter(messageAdapter);
+        // Al llegar mensajes al final de la lista, desplazamos la vista hasta el último
+        messageAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                if (positionStart + itemCount == messageAdapter.getItemCount()) {
+                    recyclerView.scrollToPosition(messageAdapter.getItemCount() - 1);
+                }
+            }
+            @Override
+            public void onChanged() {
+                // Ventana reemplazada (p. ej. al volver al final desde el historial)
+                if (!timeline.isDetached() && messageAdapter.getItemCount() > 0) {
+                    recyclerView.scrollToPosition(messageAdapter.getItemCount() - 1);
+                }
+            }
+        });
+    }
+    private void setupLocalStore() {
+        try {
+            messageStore = MessageStore.open(new File(getFilesDir(), "messages/" + chatRoomId));
+            if (timeline.isEmpty()) {
+                // Sólo se lee la cola del log (unos pocos KB) y se construye aquí mismo, sin pasar por
+                // TimelineBuilder: así el historial se pinta en el primer frame y Firebase continúa desde
+                // la última clave guardada
+                timeline.appendAll(messageStore.readLast(MessageSyncEngine.INITIAL_WINDOW));
+            }
+        } catch (IOException e) {
+            // Sin almacenamiento local el chat sigue funcionando, sólo que depende de la red
+            Log.e(TAG_STORE_ERROR, "Failed to open local messages", e);
+            messageStore = null;
+        }
+    }
+    private void setupPaging() {
+        historyPager = new HistoryPager(messagesRef, timeline, timelineBuilder, messageStore, diskExecutor, getMainExecutor());
+        // Al acercarse a un extremo de la ventana se pide la página siguiente; la ventana se mantiene acotada
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView rv, int dx, int dy) {
+                int first = layoutManager.findFirstVisibleItemPosition();
+                if (first != RecyclerView.NO_POSITION && first < PREFETCH_DISTANCE) {
+                    historyPager.loadOlder();
+                }
+                if (isAtBottom()) {
+                    historyPager.loadNewer();
+                }
+                // También llega tras cada layout que cambia lo visible, p. ej. al insertar un mensaje abajo
+                onMessagesVisible();
+            }
+        });
+    }
+    private void setupSearch() {
+        // Indexa lo mismo que guarda el log, que es a donde se salta desde un resultado
+        messageSearch = new MessageSearch(new File(getFilesDir(), "search/" + chatRoomId + ".idx"),
+                searchExecutor, getMainExecutor());
+        messageSearch.open(messageStore);
+        searchBar = findViewById(R.id.searchBar);
+        searchInput = findViewById(R.id.searchMessages);
+        searchCount = findViewById(R.id.searchCount);
+        searchInput.addTextChangedListener(new TextWatcher() {
+            @Override public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+            @Override public void onTextChanged(CharSequence s, int start, int before, int count) {}
+            @Override public void afterTextChanged(Editable s) {
+                runSearch();
+            }
+        });
+        // Los resultados van de más reciente a más antiguo: subir es ir hacia atrás en la conversación
+        findViewById(R.id.btnSearchOlder).setOnClickListener(v -> {
+            if (searchHit + 1 < searchHits.size()) {
+                searchHit++;
+                showSearchHit();
+            }
+        });
+        findViewById(R.id.btnSearchNewer).setOnClickListener(v -> {
+            if (searchHit > 0) {
+                searchHit--;
+                showSearchHit();
+            }
+        });
+        findViewById(R.id.btnSearchClose).setOnClickListener(v -> closeSearch());
+        getOnBackPressedDispatcher().addCallback(this, closeSearchOnBack);
+    }
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_chat, menu);
+        return true;
+    }
+    @Override
+    public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        if (item.getItemId() == R.id.action_search) {
+            openSearch();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+    private boolean isAtBottom() {
+        int last = layoutManager.findLastVisibleItemPosition();
+        return last == RecyclerView.NO_POSITION || last >= messageAdapter.getItemCount() - PREFETCH_DISTANCE;
     }
     private void setupClickListeners() {
         sendButton.setOnClickListener(v -> sendMessage());
+        findViewById(R.id.btnAttach).setOnClickListener(v -> pickAttachment.launch("*/*"));
         setupTypingDetector();
     }
     private void setupMqtt() {
@@ -144,7 +402,11 @@ public class ChatActivity extends AppCompatActivity {
         Button btnMqttConnect = findViewById(R.id.btnMqttConnect);
         Button btnMqttDisconnect = findViewById(R.id.btnMqttDisconnect);
 
-        mqttManager = new MQTTManager(new MQTTManager.MQTTListener() {
+        mqttManager = MyApp.getMqttManager();
+        attachmentsDir = new File(getFilesDir(), "attachments/" + chatRoomId);
+        // El gestor conserva los adjuntos ofrecidos más allá de esta pantalla: el aviso no la retiene
+        attachmentListener = new AttachmentToasts(getApplicationContext());
+        mqttListener = new MQTTManager.MQTTListener() {
             @Override public void onConnected() {
                 runOnUiThread(() -> Toast.makeText(ChatActivity.this, "MQTT Conectado", Toast.LENGTH_SHORT).show());
             }
@@ -152,20 +414,51 @@ public class ChatActivity extends AppCompatActivity {
                 runOnUiThread(() -> Toast.makeText(ChatActivity.this, "MQTT Desconectado", Toast.LENGTH_SHORT).show());
             }
             @Override public void onMessage(String topic, String msg, String senderUid) {
-                // Solo reacciona si el mensaje es para este chat y no es mío
-                if (topic.equals(mqttTopic) && !senderUid.equals(currentUserId)) {
-                    // Podríamos mostrar una notificación aquí en lugar de un Toast
-                }
+                // Todo llega por onPayload
+            }
+            @Override public void onPayload(String topic, MessagePayload payload) {
+                // Sólo llegan mensajes de este chat (el gestor reparte por tema); se ignoran los míos.
+                // Sin id no hay forma de reconocer la copia de Firebase: ese mensaje espera a Firebase.
+                if (payload.id == null || currentUserId.equals(payload.userId)) return;
+                Message message = new Message(payload.userId, payload.username, payload.text, payload.time);
+                message.setId(payload.id);
+                if (payload.traceId != 0) message.setTraceId(Tracer.format(payload.traceId));
+                // Provisional hasta que llegue por Firebase, que es quien lo guarda y lo indexa
+                timelineBuilder.appendProvisional(message);
+                timelineBuilder.post(() -> {
+                    historyPager.onLiveMessage(isAtBottom());
+                    expireProvisional();
+                });
+            }
+            @Override public void onDelivered(long publishId) {
+                // Los mensajes de la sala se reconocen por su id en onMessageDelivered
+            }
+            @Override public void onMessageDelivered(String messageId) {
+                timelineBuilder.setSendState(messageId, Message.SendState.DELIVERED);
+            }
+            @Override public void onPublishFailed(long publishId, String error) {
+                Log.w(TAG_MQTT_ERROR, "Publish " + publishId + " failed: " + error);
             }
             @Override public void onError(String error) {
                 runOnUiThread(() -> Toast.makeText(ChatActivity.this, "Error MQTT: " + error, Toast.LENGTH_SHORT).show());
             }
-        });
-        // Conectar automáticamente al entrar al chat
-        mqttManager.connectAndSubscribe(mqttTopic);
+        };
+        // Suscribirse automáticamente al entrar al chat; la conexión ya suele estar abierta
+        subscribeMqtt();
 
-        btnMqttConnect.setOnClickListener(v -> mqttManager.connectAndSubscribe(mqttTopic));
-        btnMqttDisconnect.setOnClickListener(v -> mqttManager.disconnect());
+        btnMqttConnect.setOnClickListener(v -> subscribeMqtt());
+        btnMqttDisconnect.setOnClickListener(v -> unsubscribeMqtt());
+    }
+    private void subscribeMqtt() {
+        if (mqttSubscribed) return;
+        mqttSubscribed = true;
+        mqttManager.subscribe(mqttTopic, mqttListener);
+    }
+    private void unsubscribeMqtt() {
+        // Cada registro cuenta como una referencia: sólo se da de baja el que se hizo
+        if (!mqttSubscribed) return;
+        mqttSubscribed = false;
+        mqttManager.unsubscribe(mqttTopic, mqttListener);
     }
     // --- LÓGICA PRINCIPAL DEL CHAT ---
 
@@ -178,105 +471,327 @@ public class ChatActivity extends AppCompatActivity {
         FirebaseUser currentUser = auth.getCurrentUser();
         String displayName = (currentUser != null && currentUser.getDisplayName() != null) ? currentUser.getDisplayName() : "Yo";
 
+        // Si el usuario está leyendo el historial, volvemos al final para que vea su mensaje
+        historyPager.jumpToLatest();
+        long traceId = tracer.newTraceId();
+        tracer.mark(traceId, TraceStage.INPUT);
         Message message = new Message(currentUserId, displayName, text, System.currentTimeMillis());
-        // Envía el mensaje a Firebase Realtime Database
-        messagesRef.push().setValue(message);
-        // Opcional: envía una notificación a través de MQTT
-        mqttManager.sendMessage(mqttTopic, text, currentUserId);
+        if (traceId != 0) message.setTraceId(Tracer.format(traceId));
+        // La clave se genera aquí, sin red: identifica el mensaje en pantalla, en Firebase y en MQTT
+        DatabaseReference messageRef = messagesRef.push();
+        message.setId(messageRef.getKey());
+        // Se muestra ya, pendiente. Va a la cola antes de escribir: el eco local de Firebase lo confirma
+        message.advanceSendState(Message.SendState.PENDING);
+        timelineBuilder.appendProvisional(message);
+        write(message);
+        tracer.mark(traceId, TraceStage.FIREBASE_PUSH);
         messageInput.setText("");
-        typingStatusRef.child(currentUserId).setValue(false); // Deja de mostrar "está escribiendo"
+        typingSender.stop(); // Deja de mostrar "está escribiendo"
     }
-    private void attachFirebaseListeners() {
-        // Listener para leer los mensajes
-        messagesListener = new ValueEventListener() {
-            @Override
-            public void onDataChange(@NonNull DataSnapshot snapshot) {
-                List<Message> messageList = new ArrayList<>();
-                long lastDate = -1;
-                for (DataSnapshot s : snapshot.getChildren()) {
-                    Message message = s.getValue(Message.class);
-                    if (message == null) continue;
-
-                    // Agrega un separador de fecha si el día del mensaje es diferente al anterior
-                    long messageDay = getDayStart(message.getTime());
-                    if (messageDay != lastDate) {
-                        lastDate = messageDay;
-                        messageList.add(Message.createSeparator(getLabelForDate(message.getTime())));
-                    }
-                    messageList.add(message);
-                }
-                // ListAdapter se encarga de las animaciones y la actualización
-                messageAdapter.submitList(messageList);
-                if (!messageList.isEmpty()) {
-                    recyclerView.scrollToPosition(messageList.size() - 1);
+
+    /** Un mensaje propio que Firebase rechazó: se vuelve a escribir con la misma clave. */
+    private void retryMessage(Message message) {
+        timelineBuilder.setSendState(message.getId(), Message.SendState.PENDING);
+        write(message);
+    }
+
+    // Escribe el mensaje en Firebase Realtime Database y envía a la vez la copia por MQTT, que llega antes; lleva
+    // la clave de Firebase para que el otro la reconozca después. Si Firebase rechaza la escritura, el otro
+    // retira la copia cuando vence (ver MessageTimeline.expireProvisional)
+    private void write(Message message) {
+        final String key = message.getId();
+        messagesRef.child(key).setValue(MessageSyncEngine.toValue(message), (error, ref) -> {
+            if (error == null) {
+                timelineBuilder.setSendState(key, Message.SendState.SENT);
+                return;
+            }
+            Log.w(TAG_WRITE_ERROR, "Write " + key + " failed: " + error.getMessage());
+            // Firebase deshace el eco local al fallar: la fila vuelve para poder reintentarla
+            timelineBuilder.appendProvisional(message);
+            timelineBuilder.setSendState(key, Message.SendState.FAILED);
+        });
+        mqttManager.sendMessage(mqttTopic, new MessagePayload(key, message.getText(), currentUserId,
+                message.getUsername(), message.getTime(), Tracer.parse(message.getTraceId())));
+    }
+    // --- ADJUNTOS ---
+
+    private void onAttachmentPicked(Uri uri) {
+        if (uri == null) return;
+        FirebaseUser currentUser = auth.getCurrentUser();
+        String displayName = (currentUser != null && currentUser.getDisplayName() != null) ? currentUser.getDisplayName() : "Yo";
+        String mimeType = getContentResolver().getType(uri);
+        final String type = mimeType != null ? mimeType : "application/octet-stream";
+        // La clave se reserva antes de copiar: nombra la transferencia y el fichero local
+        final DatabaseReference messageRef = messagesRef.push();
+        final String transferId = messageRef.getKey();
+        historyPager.jumpToLatest();
+        diskExecutor.submit(() -> {
+            String name = displayNameOf(uri);
+            File file = new File(attachmentsDir, transferId);
+            try {
+                copy(uri, file);
+            } catch (IOException e) {
+                Log.e(TAG_STORE_ERROR, "Failed to copy attachment", e);
+                runOnUiThread(() -> Toast.makeText(this, "No se pudo adjuntar el archivo", Toast.LENGTH_SHORT).show());
+                return;
+            }
+            Message message = new Message(currentUserId, displayName, name, System.currentTimeMillis());
+            message.setAttachment(name, type, file.length());
+            messageRef.setValue(MessageSyncEngine.toValue(message));
+            mqttManager.sendAttachment(chatRoomId, transferId, file, name, type, attachmentListener);
+        });
+    }
+
+    /**
+     * Los adjuntos propios que siguen en disco se ofrecen a quien los pida; los ajenos que faltan se descargan.
+     * Mirar el disco va en su hilo.
+     */
+    private void onAttachmentMessage(Message message) {
+        if (!message.hasAttachment() || message.getId() == null || diskExecutor.isShutdown()) return;
+        final File file = new File(attachmentsDir, message.getId());
+        final boolean mine = currentUserId.equals(message.getUserId());
+        diskExecutor.submit(() -> {
+            if (mine && file.exists()) {
+                mqttManager.offerAttachment(chatRoomId, message.getId(), file, message.getAttachmentName(),
+                        message.getAttachmentType(), attachmentListener);
+            } else if (!mine && !file.exists()) {
+                mqttManager.receiveAttachment(chatRoomId, message.getId(), attachmentsDir, attachmentListener);
+            }
+        });
+    }
+
+    private String displayNameOf(Uri uri) {
+        try (Cursor cursor = getContentResolver().query(uri, new String[] {OpenableColumns.DISPLAY_NAME}, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+                return cursor.getString(0);
+            }
+        }
+        String last = uri.getLastPathSegment();
+        return last != null ? last : "archivo";
+    }
+
+    // El contenido elegido puede dejar de estar accesible: se copia por bloques a un fichero propio
+    private void copy(Uri uri, File target) throws IOException {
+        File dir = target.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+        try (InputStream in = getContentResolver().openInputStream(uri);
+             OutputStream out = new FileOutputStream(target)) {
+            if (in == null) throw new IOException("Cannot open " + uri);
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+
+    private static final class AttachmentToasts implements MQTTManager.AttachmentListener {
+        private final Context context;
+        private final Handler main = new Handler(Looper.getMainLooper());
+
+        AttachmentToasts(Context context) {
+            this.context = context;
+        }
+
+        @Override public void onProgress(String transferId, int percent) {
+            Log.d("ATTACHMENT", transferId + ": " + percent + "%");
+        }
+        @Override public void onComplete(String transferId, File file) {
+            main.post(() -> Toast.makeText(context, "Adjunto listo", Toast.LENGTH_SHORT).show());
+        }
+        @Override public void onFailed(String transferId, String error) {
+            Log.w(TAG_MQTT_ERROR, "Attachment " + transferId + ": " + error);
+            main.post(() -> Toast.makeText(context, "Error en el adjunto", Toast.LENGTH_SHORT).show());
+        }
+    }
+
+    // --- BÚSQUEDA EN EL HISTORIAL ---
+
+    private void openSearch() {
+        searchBar.setVisibility(View.VISIBLE);
+        searchInput.requestFocus();
+        closeSearchOnBack.setEnabled(true);
+    }
+    private void closeSearch() {
+        closeSearchOnBack.setEnabled(false);
+        searchBar.setVisibility(View.GONE);
+        searchInput.setText(""); // Cancela la búsqueda en curso
+        // Se vuelve a la conversación actual, como al enviar un mensaje desde el historial
+        historyPager.jumpToLatest();
+    }
+    private void runSearch() {
+        String query = searchInput.getText().toString();
+        if (query.trim().isEmpty()) {
+            messageSearch.cancel();
+            showSearchResults(Collections.emptyList(), false);
+            return;
+        }
+        messageSearch.search(query, MAX_SEARCH_HITS, (q, messageIds) -> showSearchResults(messageIds, true));
+    }
+    private void showSearchResults(List<String> messageIds, boolean showCount) {
+        searchHits = messageIds;
+        searchHit = 0;
+        searchJump++;
+        if (messageIds.isEmpty()) {
+            searchCount.setText(showCount ? "0/0" : "");
+            return;
+        }
+        showSearchHit();
+    }
+    private void showSearchHit() {
+        searchCount.setText((searchHit + 1) + "/" + searchHits.size());
+        final int jump = ++searchJump;
+        final String messageId = searchHits.get(searchHit);
+        historyPager.jumpTo(messageId, position -> {
+            if (jump != searchJump) return;
+            if (position < 0) {
+                // Borrado después de guardarse el índice: se quita de la lista y se pasa al siguiente
+                searchHits.remove(searchHit);
+                if (searchHit == searchHits.size()) searchHit = Math.max(0, searchHit - 1);
+                if (searchHits.isEmpty()) {
+                    searchCount.setText("0/0");
+                } else {
+                    showSearchHit();
                 }
+                return;
             }
-            @Override
-            public void onCancelled(@NonNull DatabaseError error) {
-                Toast.makeText(ChatActivity.this, "Failed to load messages.", Toast.LENGTH_SHORT).show();
+            // El resultado queda en el tercio superior, con contexto posterior a la vista
+            layoutManager.scrollToPositionWithOffset(position, recyclerView.getHeight() / 3);
+        });
+    }
+    private void attachFirebaseListeners() {
+        // Sincronización incremental: sólo se piden los mensajes posteriores a la última clave conocida
+        syncEngine.start(timeline.getLastId());
+        // Avisos de escritura de la sala: llegan en el hilo de reparto de MQTT y se aplican en el principal
+        typingListener = (topic, payload) -> {
+            String userId = TypingSignal.userIdOf(topic);
+            if (userId == null || userId.equals(currentUserId)) return;
+            boolean typing;
+            try {
+                typing = TypingSignal.decode(payload);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG_MQTT_ERROR, "Bad typing signal on " + topic);
+                return;
             }
+            runOnUiThread(() -> onTypingSignal(userId, typing));
         };
-        messagesRef.addValueEventListener(messagesListener);
-        // Listener para saber si el otro usuario está escribiendo
-        typingListener = new ValueEventListener() {
-            @Override
-            public void onDataChange(@NonNull DataSnapshot snapshot) {
-                Boolean isTyping = snapshot.getValue(Boolean.class);
-                if (getSupportActionBar() != null) {
-                    getSupportActionBar().setSubtitle(Boolean.TRUE.equals(isTyping) ? "Está escribiendo..." : null);
-                }
+        mqttManager.subscribeSignals(TypingSignal.roomFilter(chatRoomId), typingListener);
+        // Sólo dos hijos: la marca propia (quizá de otro dispositivo) y la del contacto
+        readsListener = new ValueEventListener() {
+            @Override public void onDataChange(@NonNull DataSnapshot snapshot) {
+                readWatermark.onStored(snapshot.child(currentUserId).getValue(String.class));
+                messageAdapter.setSeenUpTo(snapshot.child(contactId).getValue(String.class));
+            }
+            @Override public void onCancelled(@NonNull DatabaseError error) {
+                Log.w(TAG_RECEIPT_ERROR, "Read receipts: " + error.getMessage());
             }
-            @Override public void onCancelled(@NonNull DatabaseError error) {}
         };
-        typingStatusRef.child(contactId).addValueEventListener(typingListener);
+        readsRef.addValueEventListener(readsListener);
     }
     private void detachFirebaseListeners() {
-        if (messagesListener != null) {
-            messagesRef.removeEventListener(messagesListener);
+        syncEngine.stop();
+        if (readsListener != null) {
+            readsRef.removeEventListener(readsListener);
+            readsListener = null;
         }
+        // Lo leído hasta ahora sale ya; fuera de la pantalla no se lee nada más
+        receiptHandler.removeCallbacks(receiptFlush);
+        readWatermark.flushNow(SystemClock.uptimeMillis());
         if (typingListener != null) {
-            typingStatusRef.child(contactId).removeEventListener(typingListener);
+            mqttManager.unsubscribeSignals(TypingSignal.roomFilter(chatRoomId), typingListener);
+            typingListener = null;
+        }
+        // Fuera de la pantalla no se escribe ni se muestra a nadie escribiendo
+        typingSender.stop();
+        typingHandler.removeCallbacks(typingIdleCheck);
+        typingTracker.clear();
+        typingHandler.removeCallbacks(typingExpiryCheck);
+        updateTypingSubtitle();
+    }
+    // El último mensaje visible marca hasta dónde se ha leído; sólo con la pantalla delante
+    private void onMessagesVisible() {
+        if (readsListener == null) return;
+        int last = layoutManager.findLastVisibleItemPosition();
+        if (last == RecyclerView.NO_POSITION) return;
+        Message message = messageAdapter.getItem(last);
+        if (message.isSeparator()) return;
+        long delay = readWatermark.onSeen(message.getId(), SystemClock.uptimeMillis());
+        if (delay >= 0) {
+            receiptHandler.postDelayed(receiptFlush, delay);
+        }
+    }
+    private void expireProvisional() {
+        provisionalHandler.removeCallbacks(provisionalSweep);
+        long delay = timeline.expireProvisional(System.currentTimeMillis());
+        if (delay >= 0) {
+            provisionalHandler.postDelayed(provisionalSweep, delay);
         }
     }
+    private void flushReadWatermark() {
+        long delay = readWatermark.flush(SystemClock.uptimeMillis());
+        if (delay >= 0) {
+            receiptHandler.postDelayed(receiptFlush, delay);
+        }
+    }
+    private void persist(StoreTask task) {
+        if (messageStore == null || diskExecutor.isShutdown()) return;
+        final MessageStore store = messageStore;
+        diskExecutor.submit(() -> {
+            try {
+                task.run(store);
+            } catch (IOException e) {
+                Log.e(TAG_STORE_ERROR, "Failed to write local messages", e);
+            }
+        });
+    }
+    private interface StoreTask {
+        void run(MessageStore store) throws IOException;
+    }
     private void setupTypingDetector() {
-        typingTimeoutRunnable = () -> typingStatusRef.child(currentUserId).setValue(false);
+        typingSender = new TypingSender(typing ->
+                mqttManager.publishSignal(TypingSignal.topic(chatRoomId, currentUserId), TypingSignal.encode(typing)));
 
         messageInput.addTextChangedListener(new TextWatcher() {
             @Override public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
             @Override public void onTextChanged(CharSequence s, int start, int before, int count) {
-                typingHandler.removeCallbacks(typingTimeoutRunnable); // Reinicia el temporizador
-                if (s.length() > 0) {
-                    typingStatusRef.child(currentUserId).setValue(true);
-                    typingHandler.postDelayed(typingTimeoutRunnable, 1500); // Se marcará como "no escribiendo" tras 1.5s de inactividad
-                } else {
-                    typingStatusRef.child(currentUserId).setValue(false);
+                // Como mucho un aviso por intervalo, no uno por pulsación
+                typingHandler.removeCallbacks(typingIdleCheck);
+                long delay = typingSender.onInput(s.length() > 0, SystemClock.uptimeMillis());
+                if (delay >= 0) {
+                    typingHandler.postDelayed(typingIdleCheck, delay);
                 }
             }
             @Override public void afterTextChanged(Editable s) {}
         });
     }
-    // --- MÉTODOS DE UTILIDAD PARA FECHAS ---
-    private long getDayStart(long time) {
-        Calendar calendar = Calendar.getInstance();
-        calendar.setTimeInMillis(time);
-        calendar.set(Calendar.HOUR_OF_DAY, 0);
-        calendar.set(Calendar.MINUTE, 0);
-        calendar.set(Calendar.SECOND, 0);
-        calendar.set(Calendar.MILLISECOND, 0);
-        return calendar.getTimeInMillis();
-    }
-    private String getLabelForDate(long time) {
-        Calendar today = Calendar.getInstance();
-        Calendar yesterday = Calendar.getInstance();
-        yesterday.add(Calendar.DAY_OF_YEAR, -1);
-        Calendar messageDate = Calendar.getInstance();
-        messageDate.setTimeInMillis(time);
-        if (isSameDay(messageDate, today)) return "Hoy";
-        if (isSameDay(messageDate, yesterday)) return "Ayer";
-        return new SimpleDateFormat("dd MMM yyyy", Locale.getDefault()).format(time);
-    }
-    private boolean isSameDay(Calendar c1, Calendar c2) {
-        return c1.get(Calendar.YEAR) == c2.get(Calendar.YEAR) &&
-                c1.get(Calendar.DAY_OF_YEAR) == c2.get(Calendar.DAY_OF_YEAR);
+    private void checkTypingIdle() {
+        long delay = typingSender.checkIdle(SystemClock.uptimeMillis());
+        if (delay >= 0) {
+            typingHandler.postDelayed(typingIdleCheck, delay);
+        }
+    }
+    private void onTypingSignal(String userId, boolean typing) {
+        if (typingTracker.onSignal(userId, typing, SystemClock.uptimeMillis())) {
+            updateTypingSubtitle();
+        }
+        scheduleTypingExpiry();
+    }
+    private void expireTyping() {
+        if (typingTracker.expire(SystemClock.uptimeMillis())) {
+            updateTypingSubtitle();
+        }
+        scheduleTypingExpiry();
+    }
+    private void scheduleTypingExpiry() {
+        typingHandler.removeCallbacks(typingExpiryCheck);
+        long delay = typingTracker.millisUntilNextExpiry(SystemClock.uptimeMillis());
+        if (delay >= 0) {
+            typingHandler.postDelayed(typingExpiryCheck, delay);
+        }
+    }
+    private void updateTypingSubtitle() {
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setSubtitle(typingTracker.isTyping(contactId) ? "Está escribiendo..." : null);
+        }
     }
 }
@@ -1,27 +1,59 @@
 package com.example.voidchat;
 import android.content.Intent;
 import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.util.Log;
 import android.widget.Button;
+import android.widget.EditText;
 import android.widget.Toast;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import com.example.voidchat.adapter.ContactAdapter;
+import com.example.voidchat.contacts.ContactDirectory;
+import com.example.voidchat.contacts.ContactSearch;
+import com.example.voidchat.contacts.ContactSearchIndex;
+import com.example.voidchat.data.ContactCache;
 import com.example.voidchat.model.User;
+import com.example.voidchat.presence.PresenceSignal;
+import com.example.voidchat.presence.PresenceTracker;
+import com.example.voidchat.sync.ContactSyncEngine;
 import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
-import com.google.firebase.database.ValueEventListener;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class ContactListActivity extends AppCompatActivity {
+    private static final String TAG_CONTACTS_ERROR = "CONTACTS_ERROR";
+    // Filas que faltan para el final de la lista cuando se pide la página siguiente
+    private static final int PREFETCH_DISTANCE = 20;
+    // El directorio sobrevive a la pantalla, como las líneas de tiempo de TimelineCache: al volver se pinta
+    // en el primer frame sin leer siquiera el disco
+    private static ContactDirectory sharedDirectory;
+
+    private ContactDirectory directory;
     private ContactAdapter adapter;
+    private LinearLayoutManager layoutManager;
     private DatabaseReference usersRef;
-    private ValueEventListener usersListener;
+    private ContactSyncEngine syncEngine;
+    private ContactCache contactCache;
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+    // Índice de búsqueda sobre lo que tiene el directorio (copia local y páginas cargadas); se construye y se
+    // consulta en su propio hilo para que escribir no espere nunca a la búsqueda
+    private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor();
+    private ContactSearch contactSearch;
+    private EditText searchInput;
+    // Presencia de los contactos por MQTT: el broker entrega el último estado retenido de cada uno al suscribirse
+    private final PresenceTracker presenceTracker = new PresenceTracker();
+    private MQTTManager.SignalListener presenceListener;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -29,23 +61,52 @@ public class ContactListActivity extends AppCompatActivity {
         setContentView(R.layout.activity_contact_list);
 
         usersRef = FirebaseDatabase.getInstance().getReference("users");
+        String currentUserId = FirebaseAuth.getInstance().getUid();
+        contactCache = new ContactCache(new File(getFilesDir(), "contacts/" + currentUserId + ".bin"));
 
+        setupDirectory(currentUserId);
         setupProfileButton();
         setupRecyclerView();
+        setupSearch();
+        setupSync();
     }
     @Override
     protected void onStart() {
         super.onStart();
         // Inicia la escucha de datos cuando la actividad se vuelve visible
-        loadContacts();
+        if (FirebaseAuth.getInstance().getUid() != null) {
+            syncEngine.start();
+        }
+        watchPresence();
     }
     @Override
     protected void onStop() {
         super.onStop();
         // Detiene la escucha para ahorrar recursos cuando la actividad no está visible
-        if (usersListener != null) {
-            usersRef.removeEventListener(usersListener);
+        syncEngine.stop();
+        saveCache();
+        if (presenceListener != null) {
+            MyApp.getMqttManager().unsubscribeSignals(PresenceSignal.FILTER, presenceListener);
+            presenceListener = null;
+        }
+    }
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // El directorio sobrevive a la pantalla; no debe retener el adaptador de esta
+        directory.setListener(null);
+        contactSearch.cancel();
+        diskExecutor.shutdown();
+        searchExecutor.shutdown();
+    }
+    private void setupDirectory(String currentUserId) {
+        if (sharedDirectory == null || currentUserId == null || !currentUserId.equals(sharedDirectory.getOwnUid())) {
+            sharedDirectory = new ContactDirectory(currentUserId);
+            // La copia local es pequeña: se lee aquí mismo para que la lista salga en el primer frame,
+            // antes de que responda Firebase
+            sharedDirectory.resetTo(contactCache.load());
         }
+        directory = sharedDirectory;
     }
     private void setupProfileButton() {
         Button btnGoToProfile = findViewById(R.id.btnGoToProfile);
@@ -55,38 +116,118 @@ public class ContactListActivity extends AppCompatActivity {
     }
     private void setupRecyclerView() {
         RecyclerView recyclerContacts = findViewById(R.id.recyclerContacts);
-        adapter = new ContactAdapter(); // ListAdapter ya no necesita el contexto en el constructor
-        recyclerContacts.setLayoutManager(new LinearLayoutManager(this));
+        adapter = new ContactAdapter(directory, presenceTracker, MyApp.getAvatarLoader());
+        layoutManager = new LinearLayoutManager(this);
+        recyclerContacts.setLayoutManager(layoutManager);
         recyclerContacts.setAdapter(adapter);
-    }
-    private void loadContacts() {
-        String currentUserId = FirebaseAuth.getInstance().getUid();
-        if (currentUserId == null) return;
-
-        // El listener se activa cada vez que hay un cambio en el nodo 'users'
-        usersListener = new ValueEventListener() {
+        // Los directorios grandes llegan por páginas: se pide la siguiente al acercarse al final
+        recyclerContacts.addOnScrollListener(new RecyclerView.OnScrollListener() {
             @Override
-            public void onDataChange(@NonNull DataSnapshot snapshot) {
-                List<User> contactList = new ArrayList<>();
-                for (DataSnapshot ds : snapshot.getChildren()) {
-                    User user = ds.getValue(User.class);
-                    // Excluye al usuario actual de la lista de contactos
-                    if (user != null && !user.getUid().equals(currentUserId)) {
-                        contactList.add(user);
-                    }
+            public void onScrolled(@NonNull RecyclerView rv, int dx, int dy) {
+                if (adapter.isShowingResults()) return;
+                int last = layoutManager.findLastVisibleItemPosition();
+                if (last != RecyclerView.NO_POSITION && last >= adapter.getItemCount() - PREFETCH_DISTANCE) {
+                    syncEngine.loadNextPage();
                 }
-                // submitList se encarga de las animaciones y actualizaciones de forma eficiente
-                adapter.submitList(contactList);
-
-                if (contactList.isEmpty()) {
+            }
+        });
+    }
+    private void setupSearch() {
+        contactSearch = new ContactSearch(searchExecutor, getMainExecutor());
+        contactSearch.rebuild(directory.getUsers());
+        searchInput = findViewById(R.id.searchContacts);
+        searchInput.addTextChangedListener(new TextWatcher() {
+            @Override public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+            @Override public void onTextChanged(CharSequence s, int start, int before, int count) {}
+            @Override public void afterTextChanged(Editable s) {
+                runSearch();
+            }
+        });
+    }
+    private void runSearch() {
+        String query = searchInput.getText().toString();
+        if (query.trim().isEmpty()) {
+            contactSearch.cancel();
+            adapter.clearResults();
+            return;
+        }
+        // Cada pulsación lanza una búsqueda; sólo la última llega a la lista
+        contactSearch.search(query, ContactSearchIndex.DEFAULT_LIMIT, (q, results) -> adapter.showResults(results));
+    }
+    private void refreshSearch() {
+        // Con resultados a la vista, un contacto que cambia se ve al repetir la búsqueda
+        if (adapter.isShowingResults()) runSearch();
+    }
+    private void setupSync() {
+        syncEngine = new ContactSyncEngine(usersRef, new ContactSyncEngine.Listener() {
+            @Override public void onPage(@Nullable User after, @Nullable User through, List<User> users) {
+                for (String uid : directory.applyPage(after, through, users)) {
+                    contactSearch.remove(uid);
+                }
+                for (User user : users) {
+                    if (directory.indexOf(user.getUid()) >= 0) contactSearch.upsert(user);
+                }
+                refreshSearch();
+                if (through == null && directory.isEmpty()) {
                     Toast.makeText(ContactListActivity.this, "No other users found", Toast.LENGTH_LONG).show();
                 }
+                // Si la página no llenó la pantalla no habrá desplazamiento que pida la siguiente
+                int last = layoutManager.findLastVisibleItemPosition();
+                if (through != null && last >= directory.size() - PREFETCH_DISTANCE) {
+                    syncEngine.loadNextPage();
+                }
+                saveCache();
             }
-            @Override
-            public void onCancelled(@NonNull DatabaseError error) {
-                Toast.makeText(ContactListActivity.this, "Failed to load contacts: " + error.getMessage(), Toast.LENGTH_SHORT).show();
+            @Override public void onContactChanged(User user) {
+                if (directory.upsert(user)) {
+                    contactSearch.upsert(user);
+                    refreshSearch();
+                }
+            }
+            @Override public void onContactRemoved(String uid) {
+                if (directory.remove(uid)) {
+                    contactSearch.remove(uid);
+                    refreshSearch();
+                }
+            }
+            @Override public void onError(String error) {
+                Toast.makeText(ContactListActivity.this, "Failed to load contacts: " + error, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+    private void saveCache() {
+        if (diskExecutor.isShutdown()) return;
+        // Copia de la lista en el hilo principal; la escritura, fuera de él
+        final List<User> snapshot = new ArrayList<>(directory.getUsers());
+        diskExecutor.submit(() -> {
+            try {
+                contactCache.save(snapshot);
+            } catch (IOException e) {
+                Log.e(TAG_CONTACTS_ERROR, "Failed to save contacts", e);
             }
+        });
+    }
+    private void watchPresence() {
+        presenceListener = (topic, payload) -> {
+            String uid = PresenceSignal.userIdOf(topic);
+            if (uid == null) return;
+            boolean online;
+            long changedAt;
+            try {
+                online = PresenceSignal.isOnline(payload);
+                changedAt = PresenceSignal.changedAt(payload);
+            } catch (IllegalArgumentException e) {
+                return;
+            }
+            runOnUiThread(() -> onPresence(uid, online, changedAt));
         };
-        usersRef.addValueEventListener(usersListener);
+        // Un solo filtro con comodín para todos los contactos, en lugar de un tema por fila
+        MyApp.getMqttManager().subscribeSignals(PresenceSignal.FILTER, presenceListener);
+    }
+    private void onPresence(String uid, boolean online, long changedAt) {
+        // Sólo se redibuja la fila del contacto, y sólo si de verdad cambió
+        if (presenceTracker.onSignal(uid, online, changedAt, System.currentTimeMillis())) {
+            adapter.notifyPresenceChanged(uid);
+        }
     }
 }
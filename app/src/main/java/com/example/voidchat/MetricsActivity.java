@@ -0,0 +1,111 @@
+package com.example.voidchat;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.Button;
+import android.widget.TextView;
+import android.widget.Toast;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.SwitchCompat;
+import com.example.voidchat.metrics.MetricsSnapshot;
+import com.example.voidchat.trace.Tracer;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Pantalla de depuración, sin entrada en el menú: muestra las métricas de la conexión MQTT y las refresca
+ * cada segundo mientras está visible. El texto se puede seleccionar y copiar; al abrirla también se vuelca
+ * en el logcat.
+ *
+ * Desde aquí también se encienden las trazas de latencia de los mensajes: debajo de las métricas sale el
+ * desglose por tramos y el botón de exportar deja el fichero de este teléfono en files/traces, listo para
+ * abrirlo en Perfetto o juntarlo con el del otro teléfono en {@link com.example.voidchat.trace.TraceReport}.
+ * Los clientes anteriores a las trazas rechazan los mensajes trazados: sólo para teléfonos de pruebas.
+ */
+public class MetricsActivity extends AppCompatActivity {
+    private static final String TAG = "MqttMetrics";
+    private static final long REFRESH_MILLIS = 1_000;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Tracer tracer = MyApp.getTracer();
+    // Escribir el fichero no bloquea la pantalla
+    private final ExecutorService exportExecutor = Executors.newSingleThreadExecutor();
+    private TextView textMetrics;
+
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            show(MyApp.getMqttManager().getMetricsSnapshot());
+            handler.postDelayed(this, REFRESH_MILLIS);
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_metrics);
+        textMetrics = findViewById(R.id.textMetrics);
+        SwitchCompat switchTracing = findViewById(R.id.switchTracing);
+        switchTracing.setChecked(tracer.isEnabled());
+        switchTracing.setOnCheckedChangeListener((button, checked) -> tracer.setEnabled(checked));
+        Button btnExportTrace = findViewById(R.id.btnExportTrace);
+        btnExportTrace.setOnClickListener(v -> exportTrace());
+        Log.i(TAG, MyApp.getMqttManager().getMetricsSnapshot().dump());
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        exportExecutor.shutdown();
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        handler.post(refresh);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        handler.removeCallbacks(refresh);
+    }
+
+    private void show(MetricsSnapshot snapshot) {
+        String taken = DateFormat.getTimeInstance(DateFormat.MEDIUM).format(new Date(snapshot.takenAtMillis));
+        String text = taken + "\n\n" + snapshot.dump();
+        if (tracer.isEnabled()) {
+            text += "\n" + tracer.report().format();
+        }
+        textMetrics.setText(text);
+    }
+
+    private void exportTrace() {
+        File file = new File(getFilesDir(), "traces/" + tracer.getDevice().replaceAll("[^A-Za-z0-9_-]", "_") + "-"
+                + System.currentTimeMillis() + ".json");
+        exportExecutor.execute(() -> {
+            String result;
+            try {
+                File dir = file.getParentFile();
+                if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+                try (Writer out = new FileWriter(file)) {
+                    tracer.export(out);
+                }
+                result = "Trazas en " + file.getAbsolutePath();
+                Log.i(TAG, result);
+            } catch (IOException e) {
+                Log.w(TAG, "Trace export failed", e);
+                result = "No se pudieron exportar las trazas: " + e.getMessage();
+            }
+            String message = result;
+            runOnUiThread(() -> Toast.makeText(this, message, Toast.LENGTH_LONG).show());
+        });
+    }
+}
@@ -1,15 +1,38 @@
 package com.example.voidchat;
 import android.app.Application;
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Build;
+import com.example.voidchat.images.AvatarLoader;
+import com.example.voidchat.images.ImageLoader;
+import com.example.voidchat.trace.Tracer;
 public class MyApp extends Application {
     private static Context context;
+    // Una sola conexión MQTT para toda la app: las pantallas sólo se suscriben y se dan de baja
+    private static MQTTManager mqttManager;
+    // Avatares compartidos entre pantallas: lo que ya se decodificó no se vuelve a decodificar al volver
+    private static ImageLoader<Bitmap> avatarLoader;
+    // Trazas de latencia de los mensajes, apagadas hasta que se encienden en la pantalla de métricas
+    private static Tracer tracer;
 
     @Override
     public void onCreate() {
         super.onCreate();
         context = getApplicationContext();
+        tracer = new Tracer(Build.MODEL, Tracer.DEFAULT_CAPACITY);
+        mqttManager = new MQTTManager(this, MQTTManager.DEFAULT_MAX_IN_FLIGHT, tracer);
+        avatarLoader = AvatarLoader.create(this);
     }
     public static Context getAppContext() {
         return context;
     }
+    public static MQTTManager getMqttManager() {
+        return mqttManager;
+    }
+    public static ImageLoader<Bitmap> getAvatarLoader() {
+        return avatarLoader;
+    }
+    public static Tracer getTracer() {
+        return tracer;
+    }
 }
@@ -19,6 +19,7 @@ public class ProfileActivity extends AppCompatActivity {
 
         loadProfileData();
         setupLogoutButton();
+        setupMetricsShortcut();
     }
     private void loadProfileData() {
         TextView textProfileName = findViewById(R.id.textProfileName);
@@ -34,10 +35,21 @@ public class ProfileActivity extends AppCompatActivity {
         Button btnLogout = findViewById(R.id.btnLogout);
         btnLogout.setOnClickListener(v -> signOut());
     }
+    // Acceso oculto a las métricas de la conexión, para depurar en un dispositivo sin cable
+    private void setupMetricsShortcut() {
+        TextView title = findViewById(R.id.textProfileTitle);
+        title.setOnLongClickListener(v -> {
+            startActivity(new Intent(this, MetricsActivity.class));
+            return true;
+        });
+    }
     private void signOut() {
         // Cierra la sesión de Firebase
         auth.signOut();
 
+        // La conexión MQTT compartida era de este usuario
+        MyApp.getMqttManager().disconnect();
+
         // Cierra la sesión de Google para permitir volver a elegir una cuenta
         if (MainActivity.googleClient != null) {
             MainActivity.googleClient.signOut();
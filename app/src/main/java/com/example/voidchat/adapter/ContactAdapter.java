@@ -1,23 +1,135 @@
 package com.example.voidchat.adapter;
 import android.content.Context;
 import android.content.Intent;
+import android.graphics.Bitmap;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.ImageView;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.recyclerview.widget.DiffUtil;
-import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 import com.example.voidchat.ChatActivity;
 import com.example.voidchat.R;
+import com.example.voidchat.contacts.ContactDirectory;
+import com.example.voidchat.images.ImageLoader;
 import com.example.voidchat.model.User;
+import com.example.voidchat.presence.PresenceTracker;
+import java.util.List;
 
-// Usamos ListAdapter para un manejo de listas más eficiente y con animaciones automáticas
-public class ContactAdapter extends ListAdapter<User, ContactAdapter.ContactViewHolder> {
+// El adaptador lee directamente la lista de ContactDirectory y recibe sus cambios como notificaciones
+// puntuales: un perfil que cambia no obliga a comparar el directorio completo
+public class ContactAdapter extends RecyclerView.Adapter<ContactAdapter.ContactViewHolder> implements ContactDirectory.Listener {
 
-    public ContactAdapter() {
-        super(USER_DIFF_CALLBACK);
+    // Carga de notifyItemChanged: sólo cambió la presencia, no hace falta volver a enlazar toda la fila
+    private static final Object PAYLOAD_PRESENCE = new Object();
+
+    private final ContactDirectory directory;
+    private final PresenceTracker presence;
+    private final ImageLoader<Bitmap> avatars;
+    // Resultados de la búsqueda en curso; null muestra el directorio entero
+    @Nullable private List<User> results;
+
+    public ContactAdapter(@NonNull ContactDirectory directory, @NonNull PresenceTracker presence,
+                          @NonNull ImageLoader<Bitmap> avatars) {
+        this.directory = directory;
+        this.presence = presence;
+        this.avatars = avatars;
+        directory.setListener(this);
+    }
+
+    public User getItem(int position) {
+        return results != null ? results.get(position) : directory.get(position);
+    }
+
+    @Override
+    public int getItemCount() {
+        return results != null ? results.size() : directory.size();
+    }
+
+    public boolean isShowingResults() {
+        return results != null;
+    }
+
+    /**
+     * Muestra los resultados de una búsqueda en lugar del directorio. Son pocos (un límite fijo): la
+     * diferencia con los anteriores se calcula aquí mismo y sólo se animan las filas que cambian.
+     */
+    public void showResults(@NonNull List<User> newResults) {
+        final List<User> old = results;
+        results = newResults;
+        if (old == null) {
+            notifyDataSetChanged();
+            return;
+        }
+        DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override public int getOldListSize() { return old.size(); }
+            @Override public int getNewListSize() { return newResults.size(); }
+            @Override public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                return old.get(oldPosition).getUid().equals(newResults.get(newPosition).getUid());
+            }
+            @Override public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                // El índice guarda el mismo objeto mientras el perfil no cambia
+                return old.get(oldPosition) == newResults.get(newPosition);
+            }
+        }).dispatchUpdatesTo(this);
+    }
+
+    /**
+     * Vuelve a mostrar el directorio entero.
+     */
+    public void clearResults() {
+        if (results == null) return;
+        results = null;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Redibuja sólo el indicador de presencia del contacto, si está en la lista.
+     */
+    public void notifyPresenceChanged(String uid) {
+        int position = results != null ? indexOfResult(uid) : directory.indexOf(uid);
+        if (position >= 0) {
+            notifyItemChanged(position, PAYLOAD_PRESENCE);
+        }
+    }
+
+    // --- CAMBIOS DEL DIRECTORIO ---
+    // Con resultados a la vista las posiciones del directorio no son las de la lista: la pantalla repite la
+    // búsqueda y los cambios llegan con los resultados nuevos
+
+    @Override
+    public void onInserted(int position) {
+        if (results == null) notifyItemInserted(position);
+    }
+
+    @Override
+    public void onChanged(int position) {
+        if (results == null) notifyItemChanged(position);
+    }
+
+    @Override
+    public void onMoved(int from, int to) {
+        if (results == null) notifyItemMoved(from, to);
+    }
+
+    @Override
+    public void onRemoved(int position) {
+        if (results == null) notifyItemRemoved(position);
+    }
+
+    @Override
+    public void onReset() {
+        if (results == null) notifyDataSetChanged();
+    }
+
+    private int indexOfResult(String uid) {
+        for (int i = 0; i < results.size(); i++) {
+            if (results.get(i).getUid().equals(uid)) return i;
+        }
+        return -1;
     }
 
     @NonNull
@@ -31,6 +143,24 @@ public class ContactAdapter extends ListAdapter<User, ContactAdapter.ContactView
     public void onBindViewHolder(@NonNull ContactViewHolder holder, int position) {
         User user = getItem(position);
         holder.bind(user);
+        holder.bindAvatar(user.getProfileImageUrl(), avatars);
+        holder.bindPresence(presence.isOnline(user.getUid()));
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ContactViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        // Todas las cargas que usa este adapter son de presencia
+        holder.bindPresence(presence.isOnline(getItem(position).getUid()));
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull ContactViewHolder holder) {
+        // La fila va a mostrar otro contacto: su avatar ya no hace falta y deja sitio a los visibles
+        holder.cancelAvatar();
     }
 
     // Clase interna estática para el ViewHolder, una buena práctica para evitar fugas de memoria
@@ -38,12 +168,20 @@ public class ContactAdapter extends ListAdapter<User, ContactAdapter.ContactView
         private final TextView textInitial;
         private final TextView textName;
         private final TextView textEmail;
+        private final View presenceDot;
+        private final ImageView imageAvatar;
+        private final int avatarSize;
+        @Nullable private ImageLoader<Bitmap>.Request avatarRequest;
 
         public ContactViewHolder(@NonNull View itemView) {
             super(itemView);
             textInitial = itemView.findViewById(R.id.textInitial);
             textName = itemView.findViewById(R.id.textName);
             textEmail = itemView.findViewById(R.id.textEmail);
+            presenceDot = itemView.findViewById(R.id.presenceDot);
+            imageAvatar = itemView.findViewById(R.id.imageAvatar);
+            imageAvatar.setClipToOutline(true);
+            avatarSize = itemView.getResources().getDimensionPixelSize(R.dimen.avatar_size);
         }
         // Método para "enlazar" los datos del usuario con las vistas del item
         public void bind(final User user) {
@@ -63,19 +201,35 @@ public class ContactAdapter extends ListAdapter<User, ContactAdapter.ContactView
                 context.startActivity(intent);
             });
         }
-    }
 
-    // Objeto DiffUtil para que ListAdapter sepa qué ha cambiado y cómo animar la lista
-    private static final DiffUtil.ItemCallback<User> USER_DIFF_CALLBACK = new DiffUtil.ItemCallback<User>() {
-        @Override
-        public boolean areItemsTheSame(@NonNull User oldItem, @NonNull User newItem) {
-            // Los items son los mismos si sus IDs son iguales
-            return oldItem.getUid().equals(newItem.getUid());
+        /**
+         * La inicial queda debajo hasta que llega la foto; un acierto de memoria se pinta en esta misma llamada.
+         */
+        public void bindAvatar(@Nullable String url, ImageLoader<Bitmap> avatars) {
+            cancelAvatar();
+            imageAvatar.setImageDrawable(null);
+            imageAvatar.setVisibility(View.GONE);
+            if (url == null || url.isEmpty()) return;
+            avatarRequest = avatars.load(url, avatarSize, avatarSize, new ImageLoader.Target<Bitmap>() {
+                @Override public void onLoaded(Bitmap image) {
+                    imageAvatar.setImageBitmap(image);
+                    imageAvatar.setVisibility(View.VISIBLE);
+                }
+                @Override public void onFailed() {
+                    // Se queda la inicial
+                }
+            });
+        }
+
+        public void cancelAvatar() {
+            if (avatarRequest != null) {
+                avatarRequest.cancel();
+                avatarRequest = null;
+            }
         }
-        @Override
-        public boolean areContentsTheSame(@NonNull User oldItem, @NonNull User newItem) {
-            // El contenido es el mismo si los campos relevantes no han cambiado
-            return oldItem.getDisplayName().equals(newItem.getDisplayName()) && oldItem.getEmail().equals(newItem.getEmail());
+
+        public void bindPresence(boolean online) {
+            presenceDot.setVisibility(online ? View.VISIBLE : View.GONE);
         }
-    };
+    }
 }
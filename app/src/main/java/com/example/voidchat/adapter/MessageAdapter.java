@@ -1,41 +1,125 @@
 // RUTA: com.example.voidchat.adapter/MessageAdapter.javapackage com.example.voidchat.adapter;
 package com.example.voidchat.adapter;
-import android.content.Context;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
-import android.widget.LinearLayout;
-import android.widget.RelativeLayout;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
-import androidx.core.content.ContextCompat;
-import androidx.recyclerview.widget.DiffUtil;
-import androidx.recyclerview.widget.ListAdapter;
+import androidx.annotation.Nullable;
 import androidx.recyclerview.widget.RecyclerView;
 import com.example.voidchat.R;
 import com.example.voidchat.model.Message;
-import com.google.firebase.auth.FirebaseAuth;
-import java.text.SimpleDateFormat;
-import java.util.Locale;
-import java.util.Objects; // <-- Importación necesaria para la corrección
+import com.example.voidchat.receipts.ReadWatermark;
+import com.example.voidchat.timeline.DayBuckets;
+import com.example.voidchat.timeline.MessageTimeline;
+import com.example.voidchat.trace.TraceStage;
+import com.example.voidchat.trace.Tracer;
+import java.util.Collections;
+import java.util.List;
 
-public class MessageAdapter extends ListAdapter<Message, RecyclerView.ViewHolder> {
+// El adaptador lee directamente la lista de MessageTimeline y recibe sus cambios como
+// notificaciones puntuales, así un mensaje nuevo no obliga a comparar el historial completo
+public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> implements MessageTimeline.Listener {
 
-    private static final int VIEW_TYPE_MESSAGE = 1;
+    private static final int VIEW_TYPE_SENT = 1;
     private static final int VIEW_TYPE_SEPARATOR = 2;
+    private static final int VIEW_TYPE_RECEIVED = 3;
 
-    private final String currentUserId;
+    private static final String STATUS_PENDING = "🕓";
+    private static final String STATUS_SENT = "✓";
+    private static final String STATUS_DELIVERED = "✓✓";
+    private static final String STATUS_FAILED = "⚠ Reintentar";
+    private static final String STATUS_SEEN = "✓✓ Visto";
 
-    public MessageAdapter() {
-        super(MESSAGE_DIFF_CALLBACK);
-        this.currentUserId = FirebaseAuth.getInstance().getUid();
+    // Se pulsa el estado de un mensaje propio que no se pudo guardar
+    public interface RetryListener {
+        void onRetry(Message message);
+    }
+
+    private List<Message> items = Collections.emptyList();
+    // Marca la entrada en la línea de tiempo y el primer enlace de los mensajes trazados de los demás
+    private final Tracer tracer;
+    private RetryListener retryListener;
+    // Marca de lectura del contacto: los mensajes propios con clave hasta aquí se muestran vistos
+    private String seenUpTo;
+    // Etiquetas de los separadores, resueltas al enlazar: la línea de tiempo puede venir de otro día
+    private final DayBuckets dayBuckets = new DayBuckets();
+
+    public MessageAdapter(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    public void setRetryListener(RetryListener retryListener) {
+        this.retryListener = retryListener;
+    }
+
+    public void setTimeline(MessageTimeline timeline) {
+        timeline.setListener(this);
+        items = timeline.getItems();
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Nueva marca de lectura del contacto. Sólo se redibujan las filas propias que pasan a vistas, que están
+     * al final de la lista porque las claves van en orden.
+     */
+    public void setSeenUpTo(String watermark) {
+        if (watermark == null || ReadWatermark.isRead(watermark, seenUpTo)) return;
+        String previous = seenUpTo;
+        seenUpTo = watermark;
+        for (int i = items.size() - 1; i >= 0; i--) {
+            Message message = items.get(i);
+            if (message.isSeparator() || !message.sentByMe()) continue;
+            if (ReadWatermark.isRead(message.getId(), previous)) break;
+            if (ReadWatermark.isRead(message.getId(), watermark)) notifyItemChanged(i);
+        }
+    }
+
+    public Message getItem(int position) {
+        return items.get(position);
+    }
+
+    @Override
+    public int getItemCount() {
+        return items.size();
+    }
+
+    // --- CAMBIOS DE LA LÍNEA DE TIEMPO ---
+
+    @Override
+    public void onInserted(int position, int count) {
+        if (tracer.isEnabled()) {
+            for (int i = position; i < position + count; i++) {
+                Message message = items.get(i);
+                if (message.isSeparator() || message.sentByMe()) continue;
+                tracer.mark(Tracer.parse(message.getTraceId()), TraceStage.TIMELINE_INSERTED);
+            }
+        }
+        notifyItemRangeInserted(position, count);
+    }
+
+    @Override
+    public void onChanged(int position) {
+        notifyItemChanged(position);
+    }
+
+    @Override
+    public void onRemoved(int position, int count) {
+        notifyItemRangeRemoved(position, count);
+    }
+
+    @Override
+    public void onReset() {
+        notifyDataSetChanged();
     }
 
     @Override
     public int getItemViewType(int position) {
-        return getItem(position).isSeparator() ? VIEW_TYPE_SEPARATOR : VIEW_TYPE_MESSAGE;
+        Message message = getItem(position);
+        if (message.isSeparator()) return VIEW_TYPE_SEPARATOR;
+        return message.sentByMe() ? VIEW_TYPE_SENT : VIEW_TYPE_RECEIVED;
     }
 
     @NonNull
@@ -46,53 +130,85 @@ public class MessageAdapter extends ListAdapter<Message, RecyclerView.ViewHolder
             View view = inflater.inflate(R.layout.item_separator, parent, false);
             return new SeparatorViewHolder(view);
         }
-        View view = inflater.inflate(R.layout.item_message, parent, false);
-        return new MessageViewHolder(view);
+        int layout = viewType == VIEW_TYPE_SENT ? R.layout.item_message_sent : R.layout.item_message_received;
+        MessageViewHolder holder = new MessageViewHolder(inflater.inflate(layout, parent, false));
+        if (holder.textStatus != null) {
+            // Una vez por fila, no en cada enlace: el mensaje se busca al pulsar
+            holder.textStatus.setOnClickListener(v -> {
+                int position = holder.getBindingAdapterPosition();
+                if (position == RecyclerView.NO_POSITION || retryListener == null) return;
+                Message message = items.get(position);
+                if (message.sendState() == Message.SendState.FAILED) retryListener.onRetry(message);
+            });
+        }
+        return holder;
     }
 
     @Override
     public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
         Message message = getItem(position);
         if (holder.getItemViewType() == VIEW_TYPE_SEPARATOR) {
-            ((SeparatorViewHolder) holder).bind(message);
+            ((SeparatorViewHolder) holder).bind(dayBuckets.labelFor(message.getSeparatorDay()));
         } else {
-            ((MessageViewHolder) holder).bind(message, currentUserId);
+            ((MessageViewHolder) holder).bind(message, ReadWatermark.isRead(message.getId(), seenUpTo));
+            // La primera vez que se ve la burbuja; las siguientes son desplazamientos
+            if (message.getTraceId() != null && !message.sentByMe() && message.markTraceBound()) {
+                tracer.mark(Tracer.parse(message.getTraceId()), TraceStage.FIRST_BIND);
+            }
         }
     }
 
-    // --- VIEW HOLDERS (SIN CAMBIOS) ---
+    // --- VIEW HOLDERS ---
 
+    // Enlazar no crea objetos ni cambia el layout: la hora, el texto y el lado de la burbuja vienen calculados
+    // en el mensaje, y la alineación y los colores los fija el tipo de vista
     static class MessageViewHolder extends RecyclerView.ViewHolder {
         private final TextView textMsg, textUser, textHour;
-        private final LinearLayout contentLayout;
+        // Sólo en las burbujas propias
+        @Nullable private final TextView textStatus;
+        // Se carga una vez por fila y se reinicia en cada mensaje nuevo
+        private final Animation popAnimation;
         MessageViewHolder(@NonNull View itemView) {
             super(itemView);
             textMsg = itemView.findViewById(R.id.textMsg);
             textUser = itemView.findViewById(R.id.textUser);
             textHour = itemView.findViewById(R.id.textHour);
-            contentLayout = itemView.findViewById(R.id.message_content_layout);
+            textStatus = itemView.findViewById(R.id.textStatus);
+            popAnimation = AnimationUtils.loadAnimation(itemView.getContext(), R.anim.msg_pop);
         }
-        void bind(Message message, String currentUserId) {
-            textMsg.setText(message.getText());
+        void bind(Message message, boolean seen) {
+            textMsg.setText(message.bodyLabel());
             textUser.setText(message.getUsername());
-            textHour.setText(new SimpleDateFormat("HH:mm", Locale.getDefault()).format(message.getTime()));
-            boolean isSentByMe = message.getUserId().equals(currentUserId);
-            Context context = itemView.getContext();
-            RelativeLayout.LayoutParams params = (RelativeLayout.LayoutParams) contentLayout.getLayoutParams();
-            if (isSentByMe) {
-                params.removeRule(RelativeLayout.ALIGN_PARENT_START);
-                params.addRule(RelativeLayout.ALIGN_PARENT_END);
-                textMsg.setBackgroundResource(R.drawable.bubble_chatvoid_my);
-                textUser.setTextColor(ContextCompat.getColor(context, R.color.cream_primary_variant));
+            textHour.setText(message.hourLabel());
+            if (textStatus != null) bindStatus(seen, message.sendState());
+            if (message.newlyArrived()) {
+                // Sólo los mensajes que acaban de llegar; al volver a desplazarse no se repite
+                message.markShown();
+                itemView.startAnimation(popAnimation);
             } else {
-                params.removeRule(RelativeLayout.ALIGN_PARENT_END);
-                params.addRule(RelativeLayout.ALIGN_PARENT_START);
-                textMsg.setBackgroundResource(R.drawable.voidchat_bubble_glow);
-                textUser.setTextColor(ContextCompat.getColor(context, R.color.cream_primary));
+                // La fila reciclada puede traer a medias la animación de otro mensaje
+                itemView.clearAnimation();
+            }
+        }
+        // Visto gana a todo menos a un fallo, que no llegó a guardarse; los mensajes que no se enviaron desde
+        // esta pantalla (el historial) y aún no se han visto no muestran estado
+        private void bindStatus(boolean seen, @Nullable Message.SendState state) {
+            if (seen && state != Message.SendState.FAILED) {
+                textStatus.setVisibility(View.VISIBLE);
+                textStatus.setText(STATUS_SEEN);
+                return;
+            }
+            if (state == null) {
+                textStatus.setVisibility(View.GONE);
+                return;
+            }
+            textStatus.setVisibility(View.VISIBLE);
+            switch (state) {
+                case PENDING: textStatus.setText(STATUS_PENDING); break;
+                case SENT: textStatus.setText(STATUS_SENT); break;
+                case DELIVERED: textStatus.setText(STATUS_DELIVERED); break;
+                default: textStatus.setText(STATUS_FAILED); break;
             }
-            contentLayout.setLayoutParams(params);
-            Animation anim = AnimationUtils.loadAnimation(context, R.anim.msg_pop);
-            itemView.startAnimation(anim);
         }
     }
 
@@ -102,43 +218,8 @@ public class MessageAdapter extends ListAdapter<Message, RecyclerView.ViewHolder
             super(itemView);
             textSeparator = (TextView) itemView;
         }
-        void bind(Message message) {
-            textSeparator.setText(message.getSeparatorLabel());
+        void bind(String label) {
+            textSeparator.setText(label);
         }
     }
-
-    // =============================================================
-    //              ¡AQUÍ ESTÁ LA CORRECCIÓN!
-    // =============================================================
-    private static final DiffUtil.ItemCallback<Message> MESSAGE_DIFF_CALLBACK = new DiffUtil.ItemCallback<Message>() {
-        @Override
-        public boolean areItemsTheSame(@NonNull Message oldItem, @NonNull Message newItem) {
-            // Si ambos son separadores, compáralos por su etiqueta.
-            if (oldItem.isSeparator() && newItem.isSeparator()) {
-                return Objects.equals(oldItem.getSeparatorLabel(), newItem.getSeparatorLabel());
-            }
-            // Si ambos son mensajes, compáralos por su timestamp (que actúa como ID único).
-            if (!oldItem.isSeparator() && !newItem.isSeparator()) {
-                return oldItem.getTime() == newItem.getTime();
-            }
-            // Si uno es separador y el otro no, definitivamente no son el mismo item.
-            return false;
-        }
-
-        @Override
-        public boolean areContentsTheSame(@NonNull Message oldItem, @NonNull Message newItem) {
-            // Si ambos son separadores, el contenido es el mismo si las etiquetas son iguales.
-            if (oldItem.isSeparator() && newItem.isSeparator()) {
-                return Objects.equals(oldItem.getSeparatorLabel(), newItem.getSeparatorLabel());
-            }
-            // Si ambos son mensajes, el contenido es el mismo si el texto es igual.
-            // Usamos Objects.equals para manejar de forma segura si alguno de los textos fuera null.
-            if (!oldItem.isSeparator() && !newItem.isSeparator()) {
-                return Objects.equals(oldItem.getText(), newItem.getText());
-            }
-            // Si son de tipos diferentes, su contenido no es el mismo.
-            return false;
-        }
-    };
 }
-
@@ -0,0 +1,60 @@
+package com.example.voidchat.images;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+
+/**
+ * Construye el {@link ImageLoader} de los avatares: Bitmaps decodificados con submuestreo al tamaño de la
+ * vista, una caché en memoria de 1/8 del heap y una caché en disco dentro de la carpeta de caché de la app,
+ * que el sistema puede vaciar si le falta espacio.
+ */
+public final class AvatarLoader {
+
+    private static final String TAG_AVATAR_ERROR = "AVATAR_ERROR";
+    private static final long DISK_CACHE_BYTES = 20L * 1024 * 1024;
+    private static final int MAX_DOWNLOAD_BYTES = 2 * 1024 * 1024;
+    // Dos descargas a la vez: una foto lenta no retiene a las de las filas siguientes
+    private static final int THREADS = 2;
+
+    private AvatarLoader() {}
+
+    public static ImageLoader<Bitmap> create(@NonNull Context context) {
+        MemoryCache<String, Bitmap> memory = new MemoryCache<>(Runtime.getRuntime().maxMemory() / 8,
+                Bitmap::getAllocationByteCount);
+        DiskCache disk;
+        try {
+            disk = DiskCache.open(new File(context.getCacheDir(), "avatars"), DISK_CACHE_BYTES);
+        } catch (IOException e) {
+            // Sin disco se descarga cada vez que la imagen salga de la memoria
+            Log.e(TAG_AVATAR_ERROR, "Failed to open avatar cache", e);
+            disk = null;
+        }
+        return new ImageLoader<>(memory, disk, new HttpFetcher(MAX_DOWNLOAD_BYTES), AvatarLoader::decode,
+                Executors.newFixedThreadPool(THREADS), context.getMainExecutor());
+    }
+
+    /**
+     * Primero sólo se leen las dimensiones; después se decodifica reducida, sin llegar a tener en memoria la
+     * foto a tamaño completo.
+     */
+    private static Bitmap decode(byte[] data, int targetWidth, int targetHeight) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Not an image");
+        }
+        options.inSampleSize = ImageLoader.sampleSize(options.outWidth, options.outHeight, targetWidth, targetHeight);
+        options.inJustDecodeBounds = false;
+        Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (bitmap == null) {
+            throw new IOException("Cannot decode image");
+        }
+        return bitmap;
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.voidchat.sync;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.example.voidchat.model.User;
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sincroniza el directorio {@code users} por páginas ordenadas por nombre, con eventos por hijo, en lugar de
+ * volver a descargar todos los perfiles con cada cambio.
+ *
+ * Cada página se pide con {@code orderByChild("displayName")} y limitToFirst a partir del último contacto
+ * de la anterior (requiere {@code .indexOn: displayName} en las reglas). Después se escucha en vivo el tramo
+ * que cubre, acotado por valor y no por límite: con limitToFirst, un contacto nuevo al principio empujaría al
+ * último fuera de la consulta y llegaría un child_removed de alguien que sigue existiendo.
+ * Todos los métodos públicos se llaman desde el hilo principal.
+ */
+public class ContactSyncEngine {
+
+    public static final int PAGE_SIZE = 100;
+    private static final String ORDER_FIELD = "displayName";
+
+    // --- Interfaz de Callback ---
+    public interface Listener {
+        // Página completa del tramo (after, through]; through null: la última, hasta el final
+        void onPage(@Nullable User after, @Nullable User through, List<User> users);
+        void onContactChanged(User user);
+        void onContactRemoved(String uid);
+        void onError(String error);
+    }
+
+    @NonNull private final DatabaseReference usersRef;
+    @NonNull private final Listener listener;
+
+    private boolean running;
+    private boolean loadingPage;
+    // Último contacto de la última página cargada; null antes de la primera
+    private User cursor;
+    private boolean reachedEnd;
+    private Query pageQuery;
+    private ValueEventListener pageListener;
+    private final List<Query> rangeQueries = new ArrayList<>();
+    private final List<ChildEventListener> rangeListeners = new ArrayList<>();
+
+    public ContactSyncEngine(@NonNull DatabaseReference usersRef, @NonNull Listener listener) {
+        this.usersRef = usersRef;
+        this.listener = listener;
+    }
+
+    // --- Métodos Públicos ---
+
+    /**
+     * Empieza por la primera página; las siguientes se piden con {@link #loadNextPage()}.
+     */
+    public void start() {
+        stop();
+        running = true;
+        cursor = null;
+        reachedEnd = false;
+        loadNextPage();
+    }
+
+    public void stop() {
+        running = false;
+        loadingPage = false;
+        if (pageListener != null) {
+            pageQuery.removeEventListener(pageListener);
+            pageListener = null;
+        }
+        for (int i = 0; i < rangeQueries.size(); i++) {
+            rangeQueries.get(i).removeEventListener(rangeListeners.get(i));
+        }
+        rangeQueries.clear();
+        rangeListeners.clear();
+    }
+
+    /**
+     * Pide la página siguiente si no hay una en camino y quedan contactos por cargar.
+     */
+    public void loadNextPage() {
+        if (!running || loadingPage || reachedEnd) return;
+        loadingPage = true;
+        final User after = cursor;
+        pageQuery = after(usersRef.orderByChild(ORDER_FIELD), after).limitToFirst(PAGE_SIZE);
+        pageListener = new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                pageListener = null;
+                loadingPage = false;
+                if (!running) return;
+                List<User> users = new ArrayList<>((int) snapshot.getChildrenCount());
+                User last = null;
+                for (DataSnapshot s : snapshot.getChildren()) {
+                    // El cursor avanza también sobre perfiles ilegibles, para no pedir otra vez la misma página
+                    last = cursorOf(s);
+                    User user = readUser(s);
+                    if (user != null) users.add(user);
+                }
+                reachedEnd = snapshot.getChildrenCount() < PAGE_SIZE;
+                User through = reachedEnd ? null : last;
+                listener.onPage(after, through, users);
+                watchRange(after, through);
+                cursor = last != null ? last : after;
+            }
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                pageListener = null;
+                loadingPage = false;
+                listener.onError(error.getMessage());
+            }
+        };
+        pageQuery.addListenerForSingleValueEvent(pageListener);
+    }
+
+    public boolean hasReachedEnd() {
+        return reachedEnd;
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    /**
+     * Escucha en vivo el tramo (after, through]. Los child_added iniciales repiten la página recién leída;
+     * el directorio los descarta porque llegan iguales.
+     */
+    private void watchRange(@Nullable User after, @Nullable User through) {
+        Query query = after(usersRef.orderByChild(ORDER_FIELD), after);
+        if (through != null) {
+            query = query.endAt(through.getDisplayName(), through.getUid());
+        }
+        ChildEventListener rangeListener = new ChildEventListener() {
+            @Override
+            public void onChildAdded(@NonNull DataSnapshot snapshot, @Nullable String previousChildName) {
+                User user = readUser(snapshot);
+                if (user != null) listener.onContactChanged(user);
+            }
+            @Override
+            public void onChildChanged(@NonNull DataSnapshot snapshot, @Nullable String previousChildName) {
+                User user = readUser(snapshot);
+                if (user != null) listener.onContactChanged(user);
+            }
+            @Override
+            public void onChildRemoved(@NonNull DataSnapshot snapshot) {
+                // También cuando alguien cambia de nombre y sale del tramo: si entra en otro ya cargado,
+                // ese tramo lo vuelve a añadir
+                listener.onContactRemoved(snapshot.getKey());
+            }
+            @Override
+            public void onChildMoved(@NonNull DataSnapshot snapshot, @Nullable String previousChildName) {
+                // El directorio ordena por su cuenta
+            }
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                listener.onError(error.getMessage());
+            }
+        };
+        query.addChildEventListener(rangeListener);
+        rangeQueries.add(query);
+        rangeListeners.add(rangeListener);
+    }
+
+    private static Query after(Query ordered, @Nullable User after) {
+        return after == null ? ordered : ordered.startAfter(after.getDisplayName(), after.getUid());
+    }
+
+    /**
+     * Lo que hace falta para continuar desde este hijo: su nombre y su clave, aunque el perfil no sea válido.
+     */
+    private static User cursorOf(@NonNull DataSnapshot snapshot) {
+        Object name = snapshot.child(ORDER_FIELD).getValue();
+        return new User(snapshot.getKey(), null, name instanceof String ? (String) name : null, null);
+    }
+
+    @Nullable
+    static User readUser(@NonNull DataSnapshot snapshot) {
+        User user;
+        try {
+            user = snapshot.getValue(User.class);
+        } catch (RuntimeException e) {
+            // Un perfil con campos de otro tipo no debe tumbar la lista entera
+            return null;
+        }
+        if (user != null && user.getUid() == null) {
+            user.setUid(snapshot.getKey());
+        }
+        return user;
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.voidchat.sync;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.example.voidchat.data.MessageStore;
+import com.example.voidchat.model.Message;
+import com.example.voidchat.timeline.MessageTimeline;
+import com.example.voidchat.timeline.TimelineBuilder;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Carga el historial por páginas según el desplazamiento y mantiene acotada la ventana de MessageTimeline.
+ *
+ * Cada página se busca primero en el MessageStore local y, si ahí no hay nada, en Firebase con
+ * endBefore/limitToLast (hacia atrás) o startAfter/limitToFirst (hacia delante). Las páginas de Firebase
+ * no se guardan en el log: éste sólo contiene el tramo continuo más reciente de la sala.
+ * Todos los métodos públicos se llaman desde el hilo principal.
+ */
+public class HistoryPager {
+
+    private static final String TAG_PAGER_ERROR = "HISTORY_PAGER_ERROR";
+    public static final int PAGE_SIZE = 50;
+    // Mensajes que se conservan en memoria; el resto se vuelve a leer al desplazarse
+    public static final int MAX_WINDOW = 300;
+
+    @NonNull private final DatabaseReference messagesRef;
+    @NonNull private final MessageTimeline timeline;
+    @NonNull private final TimelineBuilder timelineBuilder;
+    @Nullable private final MessageStore store;
+    @NonNull private final Executor diskExecutor;
+    @NonNull private final Executor mainExecutor;
+
+    private boolean loadingOlder;
+    private boolean loadingNewer;
+    // Clave más antigua de la ventana cuando se comprobó que no hay nada anterior
+    private String reachedStartAt;
+
+    public HistoryPager(@NonNull DatabaseReference messagesRef, @NonNull MessageTimeline timeline,
+                        @NonNull TimelineBuilder timelineBuilder, @Nullable MessageStore store,
+                        @NonNull Executor diskExecutor, @NonNull Executor mainExecutor) {
+        this.messagesRef = messagesRef;
+        this.timeline = timeline;
+        this.timelineBuilder = timelineBuilder;
+        this.store = store;
+        this.diskExecutor = diskExecutor;
+        this.mainExecutor = mainExecutor;
+    }
+
+    // --- Interfaz de Callback ---
+    public interface JumpCallback {
+        // position: fila del mensaje en la línea de tiempo, o -1 si ya no existe
+        void onJumped(int position);
+    }
+
+    // --- Métodos Públicos ---
+
+    public void loadOlder() {
+        final String oldestId = timeline.getOldestLoadedId();
+        if (loadingOlder || oldestId == null || oldestId.equals(reachedStartAt)) return;
+        loadingOlder = true;
+        readFromStore(() -> store.readBefore(oldestId, PAGE_SIZE), page -> {
+            if (!page.isEmpty()) {
+                onOlderPage(oldestId, page);
+                return;
+            }
+            Query query = messagesRef.orderByKey().endBefore(oldestId).limitToLast(PAGE_SIZE);
+            readFromFirebase(query, remotePage -> {
+                if (remotePage.isEmpty()) {
+                    loadingOlder = false;
+                    reachedStartAt = oldestId;
+                } else {
+                    onOlderPage(oldestId, remotePage);
+                }
+            }, () -> loadingOlder = false);
+        });
+    }
+
+    /**
+     * Sólo tiene efecto si la ventana está desenganchada del final (el usuario subió por el historial).
+     */
+    public void loadNewer() {
+        final String newestId = timeline.getNewestLoadedId();
+        if (loadingNewer || !timeline.isDetached() || newestId == null) return;
+        loadingNewer = true;
+        readFromStore(() -> store.readAfter(newestId, PAGE_SIZE), page -> {
+            if (!page.isEmpty()) {
+                onNewerPage(newestId, page);
+                return;
+            }
+            Query query = messagesRef.orderByKey().startAfter(newestId).limitToFirst(PAGE_SIZE);
+            readFromFirebase(query, remotePage -> onNewerPage(newestId, remotePage), () -> loadingNewer = false);
+        });
+    }
+
+    /**
+     * Vuelve a los mensajes más recientes, por ejemplo al enviar un mensaje desde el historial.
+     */
+    public void jumpToLatest() {
+        if (!timeline.isDetached()) return;
+        readFromStore(() -> store.readLast(PAGE_SIZE), page -> {
+            if (!page.isEmpty()) {
+                timelineBuilder.resetTo(page);
+                return;
+            }
+            readFromFirebase(messagesRef.limitToLast(PAGE_SIZE), timelineBuilder::resetTo, () -> {});
+        });
+    }
+
+    /**
+     * Lleva la ventana hasta un mensaje, por ejemplo un resultado de búsqueda: si no está cargado, se sustituye la
+     * ventana por una página del log alrededor de él, sin leer el historial intermedio. Desde ahí se pagina
+     * hacia los dos lados como siempre.
+     */
+    public void jumpTo(String messageId, JumpCallback callback) {
+        int position = timeline.positionOf(messageId);
+        if (position >= 0 || store == null) {
+            callback.onJumped(position);
+            return;
+        }
+        readFromStore(() -> store.readAround(messageId, PAGE_SIZE), page -> {
+            if (page.isEmpty()) {
+                callback.onJumped(-1);
+                return;
+            }
+            timelineBuilder.resetTo(page);
+            timelineBuilder.post(() -> callback.onJumped(timeline.positionOf(messageId)));
+        });
+    }
+
+    /**
+     * Tras un mensaje en vivo: si el usuario está abajo, recorta la cabeza para que la ventana no crezca sin límite.
+     * Se deja un margen de una página para no recortar con cada mensaje.
+     */
+    public void onLiveMessage(boolean userAtBottom) {
+        if (userAtBottom && timeline.getMessageCount() > MAX_WINDOW + PAGE_SIZE) {
+            timeline.trimHead(MAX_WINDOW);
+        }
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    private void onOlderPage(String requestedBefore, List<Message> page) {
+        loadingOlder = false;
+        // La ventana pudo cambiar mientras leíamos (p. ej. un salto al final): la página ya no encaja
+        if (!requestedBefore.equals(timeline.getOldestLoadedId())) return;
+        timelineBuilder.prependPage(page);
+        timelineBuilder.post(() -> timeline.trimTail(MAX_WINDOW));
+    }
+
+    private void onNewerPage(String requestedAfter, List<Message> page) {
+        loadingNewer = false;
+        if (!requestedAfter.equals(timeline.getNewestLoadedId())) return;
+        timelineBuilder.appendPage(page);
+        timelineBuilder.post(() -> timeline.trimHead(MAX_WINDOW));
+    }
+
+    private interface StoreRead {
+        List<Message> read() throws IOException;
+    }
+
+    private interface PageCallback {
+        void onPage(List<Message> page);
+    }
+
+    private void readFromStore(StoreRead read, PageCallback callback) {
+        if (store == null) {
+            callback.onPage(Collections.emptyList());
+            return;
+        }
+        diskExecutor.execute(() -> {
+            List<Message> page;
+            try {
+                page = read.read();
+            } catch (IOException e) {
+                Log.e(TAG_PAGER_ERROR, "Failed to read local page", e);
+                page = Collections.emptyList();
+            }
+            final List<Message> result = page;
+            mainExecutor.execute(() -> callback.onPage(result));
+        });
+    }
+
+    private void readFromFirebase(Query query, PageCallback callback, Runnable onFailure) {
+        query.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                List<Message> page = new ArrayList<>((int) snapshot.getChildrenCount());
+                for (DataSnapshot s : snapshot.getChildren()) {
+                    Message message = MessageSyncEngine.readMessage(s);
+                    if (message != null) page.add(message);
+                }
+                callback.onPage(page);
+            }
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                Log.e(TAG_PAGER_ERROR, "Failed to load page: " + error.getMessage());
+                onFailure.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.voidchat.sync;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.example.voidchat.model.Message;
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sincroniza los mensajes de una sala con eventos por hijo (added/changed/removed) en lugar de
+ * volver a descargar la sala completa con cada cambio.
+ *
+ * Sin cursor, primero se lee una ventana con limitToLast y después se escucha en vivo desde la
+ * última clave recibida. Con cursor (la última clave push vista) sólo se piden los mensajes posteriores.
+ * Los cambios y borrados de mensajes anteriores al cursor no se observan: la app no edita mensajes.
+ */
+public class MessageSyncEngine {
+
+    public static final int INITIAL_WINDOW = 50;
+
+    // --- Interfaz de Callback ---
+    public interface Listener {
+        void onInitialWindow(List<Message> messages);
+        void onMessageAdded(Message message);
+        void onMessageChanged(Message message);
+        void onMessageRemoved(String messageId);
+        void onError(String error);
+    }
+
+    @NonNull private final DatabaseReference messagesRef;
+    @NonNull private final Listener listener;
+
+    private String cursor;
+    private boolean running;
+    private Query windowQuery;
+    private ValueEventListener windowListener;
+    private Query liveQuery;
+    private ChildEventListener liveListener;
+
+    public MessageSyncEngine(@NonNull DatabaseReference messagesRef, @NonNull Listener listener) {
+        this.messagesRef = messagesRef;
+        this.listener = listener;
+    }
+
+    // --- Métodos Públicos ---
+
+    /**
+     * Empieza a sincronizar.
+     * @param cursor Última clave push ya conocida por la sala, o null si no hay nada local.
+     */
+    public void start(@Nullable String cursor) {
+        stop();
+        this.cursor = cursor;
+        running = true;
+        if (cursor == null) {
+            loadInitialWindow();
+        } else {
+            attachLiveListener();
+        }
+    }
+
+    public void stop() {
+        running = false;
+        if (windowListener != null) {
+            windowQuery.removeEventListener(windowListener);
+            windowListener = null;
+        }
+        if (liveListener != null) {
+            liveQuery.removeEventListener(liveListener);
+            liveListener = null;
+        }
+    }
+
+    @Nullable
+    public String getCursor() {
+        return cursor;
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    private void loadInitialWindow() {
+        windowQuery = messagesRef.limitToLast(INITIAL_WINDOW);
+        windowListener = new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                windowListener = null;
+                if (!running) return;
+                List<Message> messages = new ArrayList<>((int) snapshot.getChildrenCount());
+                for (DataSnapshot s : snapshot.getChildren()) {
+                    Message message = readMessage(s);
+                    if (message == null) continue;
+                    messages.add(message);
+                    cursor = s.getKey();
+                }
+                listener.onInitialWindow(messages);
+                // La escucha en vivo arranca después de la última clave de la ventana, sin huecos ni duplicados
+                attachLiveListener();
+            }
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                windowListener = null;
+                listener.onError(error.getMessage());
+            }
+        };
+        windowQuery.addListenerForSingleValueEvent(windowListener);
+    }
+
+    private void attachLiveListener() {
+        // Sin limitToLast: una consulta limitada emitiría child_removed al desplazar la ventana
+        liveQuery = cursor == null
+                ? messagesRef.orderByKey()
+                : messagesRef.orderByKey().startAfter(cursor);
+        liveListener = new ChildEventListener() {
+            @Override
+            public void onChildAdded(@NonNull DataSnapshot snapshot, @Nullable String previousChildName) {
+                Message message = readMessage(snapshot);
+                if (message == null) return;
+                cursor = snapshot.getKey();
+                listener.onMessageAdded(message);
+            }
+            @Override
+            public void onChildChanged(@NonNull DataSnapshot snapshot, @Nullable String previousChildName) {
+                Message message = readMessage(snapshot);
+                if (message != null) {
+                    listener.onMessageChanged(message);
+                }
+            }
+            @Override
+            public void onChildRemoved(@NonNull DataSnapshot snapshot) {
+                listener.onMessageRemoved(snapshot.getKey());
+            }
+            @Override
+            public void onChildMoved(@NonNull DataSnapshot snapshot, @Nullable String previousChildName) {
+                // El orden es por clave: un mensaje nunca cambia de posición
+            }
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                listener.onError(error.getMessage());
+            }
+        };
+        liveQuery.addChildEventListener(liveListener);
+    }
+
+    /**
+     * Valor que se escribe en Firebase para un mensaje. Se arma a mano en lugar de dejar que Firebase lea los
+     * getters: la clave ya es el nombre del hijo, y los campos de adjunto o de traza vacíos no se guardan.
+     */
+    @NonNull
+    public static Map<String, Object> toValue(@NonNull Message message) {
+        Map<String, Object> value = new HashMap<>();
+        value.put("userId", message.getUserId());
+        value.put("username", message.getUsername());
+        value.put("text", message.getText());
+        value.put("time", message.getTime());
+        if (message.getTraceId() != null) value.put("traceId", message.getTraceId());
+        if (message.hasAttachment()) {
+            value.put("attachmentName", message.getAttachmentName());
+            value.put("attachmentType", message.getAttachmentType());
+            value.put("attachmentSize", message.getAttachmentSize());
+        }
+        return value;
+    }
+
+    @Nullable
+    static Message readMessage(@NonNull DataSnapshot snapshot) {
+        Message message = snapshot.getValue(Message.class);
+        if (message != null) {
+            message.setId(snapshot.getKey());
+        }
+        return message;
+    }
+}
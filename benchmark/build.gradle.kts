@@ -0,0 +1,26 @@
+// Pruebas de rendimiento con JMH sobre el código de :core, en la JVM normal.
+//   ./gradlew :benchmark:jmh
+// Los resultados quedan en build/results/jmh/results.json para comparar entre commits.
+plugins {
+    java
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+dependencies {
+    implementation(project(":core"))
+    implementation(libs.json)
+}
+
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("results/jmh/results.json"))
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+}
@@ -0,0 +1,111 @@
+package com.example.voidchat.benchmark;
+
+import com.example.voidchat.contacts.ContactSearchIndex;
+import com.example.voidchat.model.User;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Búsqueda de contactos mientras se escribe, con un directorio de nombres españoles. Cada pulsación es una
+ * búsqueda nueva de hasta {@link ContactSearchIndex#DEFAULT_LIMIT} resultados: una letra (casi todos
+ * coinciden), un prefijo de apellido, texto en medio de palabra y dos palabras. {@code linearScan} es la
+ * alternativa de normalizar y comparar cada contacto en cada pulsación; {@code update} mide un perfil que cambia.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ContactSearchBenchmark {
+
+    private static final String[] FIRST = {"José", "María", "Ana", "Ángel", "Lucía", "Iñaki", "Sofía", "Martín",
+            "Mariana", "Ramón", "Begoña", "Óscar", "Anaís", "Jesús", "Raúl", "Camila", "Benjamín", "Valentina",
+            "Tomás", "Agustín", "Florencia", "Matías", "Josefa", "Vicente", "Catalina", "Ignacio", "Antonia"};
+    private static final String[] LAST = {"Hernández", "Núñez", "García", "Martínez", "Peña", "López", "Ibáñez",
+            "Muñoz", "Fernández", "Sánchez", "Álvarez", "Castaño", "Rojas", "Díaz", "Pérez", "Soto", "Contreras",
+            "Silva", "Morales", "Gutiérrez", "Araya", "Espinoza", "Valenzuela", "Tapia", "Fuentes", "Cortés"};
+
+    @Param({"100000"})
+    public int userCount;
+
+    private ContactSearchIndex index;
+    private final List<User> users = new ArrayList<>();
+    private int update;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(7);
+        index = new ContactSearchIndex();
+        for (int i = 0; i < userCount; i++) {
+            String first = FIRST[random.nextInt(FIRST.length)];
+            String last = LAST[random.nextInt(LAST.length)];
+            String second = LAST[random.nextInt(LAST.length)];
+            String email = String.format(Locale.ROOT, "%s.%s%d@%s", strip(first), strip(last), i,
+                    random.nextBoolean() ? "gmail.com" : "uchile.cl");
+            User user = new User(String.format(Locale.ROOT, "uid-%06d", i), email, first + " " + last + " " + second, "");
+            users.add(user);
+            index.add(user);
+        }
+    }
+
+    @Benchmark
+    public List<User> oneLetter() {
+        return index.search("m", ContactSearchIndex.DEFAULT_LIMIT);
+    }
+
+    @Benchmark
+    public List<User> surnamePrefix() {
+        return index.search("ibañ", ContactSearchIndex.DEFAULT_LIMIT);
+    }
+
+    @Benchmark
+    public List<User> insideWord() {
+        return index.search("ndez", ContactSearchIndex.DEFAULT_LIMIT);
+    }
+
+    @Benchmark
+    public List<User> twoWords() {
+        return index.search("jose nu", ContactSearchIndex.DEFAULT_LIMIT);
+    }
+
+    @Benchmark
+    public List<User> noMatch() {
+        return index.search("xqz", ContactSearchIndex.DEFAULT_LIMIT);
+    }
+
+    @Benchmark
+    public List<User> linearScan() {
+        String query = strip("ibañ");
+        List<User> results = new ArrayList<>();
+        for (User user : users) {
+            if (strip(user.getDisplayName()).contains(query) || strip(user.getEmail()).contains(query)) {
+                results.add(user);
+                if (results.size() == ContactSearchIndex.DEFAULT_LIMIT) break;
+            }
+        }
+        return results;
+    }
+
+    @Benchmark
+    public ContactSearchIndex update() {
+        User previous = users.get(update++ % users.size());
+        index.add(new User(previous.getUid(), previous.getEmail(), "Renombrado " + update, ""));
+        return index;
+    }
+
+    private static String strip(String text) {
+        return Normalizer.normalize(text, Normalizer.Form.NFD).replaceAll("\\p{M}+", "").toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.voidchat.benchmark;
+
+import com.example.voidchat.model.Message;
+import com.example.voidchat.search.MessageIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Búsqueda en el historial de una sala de 1M de mensajes con un vocabulario de chat: unas pocas palabras
+ * muy frecuentes y muchas raras. Se mide indexar la sala entera ({@code indexRoom}, una vez por iteración),
+ * añadir un mensaje al índice ya lleno, y consultas de una palabra rara, una frecuente, un prefijo de dos
+ * letras y dos palabras. {@code linearScan} es la alternativa de recorrer los textos buscando la palabra rara.
+ * Al preparar se imprime lo que ocupa el índice en disco.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MessageSearchBenchmark {
+
+    private static final String[] COMMON = {"hola", "que", "tal", "si", "no", "ok", "jaja", "vale", "mañana",
+            "hoy", "nos", "vemos", "en", "la", "el", "de", "casa", "llego", "tarde", "bien", "gracias", "después"};
+    private static final String[] SYLLABLES = {"ca", "fe", "ri", "mo", "ta", "lu", "ne", "pi", "so", "da", "ve",
+            "go", "ba", "ñu", "zo", "que", "tri", "pla", "cho", "rra"};
+    private static final int LIMIT = 50;
+
+    @Param({"1000000"})
+    public int messageCount;
+
+    private String[] texts;
+    private String[] vocabulary;
+    private MessageIndex index;
+    private String rareWord;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(5);
+        vocabulary = new String[20_000];
+        for (int i = 0; i < vocabulary.length; i++) {
+            StringBuilder word = new StringBuilder();
+            for (int s = 2 + random.nextInt(3); s > 0; s--) word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            vocabulary[i] = word.toString();
+        }
+        texts = new String[messageCount];
+        for (int i = 0; i < messageCount; i++) {
+            texts[i] = text(random);
+        }
+        index = new MessageIndex();
+        for (int i = 0; i < messageCount; i++) {
+            index.add(message(i));
+        }
+        next = messageCount;
+        // Una palabra del final del vocabulario: aparece pocas veces en toda la sala
+        rareWord = vocabulary[vocabulary.length - 1];
+
+        File file = File.createTempFile("search", ".idx");
+        index.save(file);
+        long start = System.nanoTime();
+        MessageIndex.load(file);
+        System.out.printf(Locale.ROOT, "%nIndex on disk: %.1f MB for %d messages (%.1f bytes/message), load %d ms%n",
+                file.length() / 1e6, messageCount, (double) file.length() / messageCount,
+                (System.nanoTime() - start) / 1_000_000);
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public MessageIndex indexRoom() {
+        MessageIndex fresh = new MessageIndex();
+        for (int i = 0; i < messageCount; i++) {
+            fresh.add(message(i));
+        }
+        return fresh;
+    }
+
+    @Benchmark
+    public MessageIndex addOne() {
+        int i = next++;
+        Message message = new Message("u1", "User", texts[i % messageCount], i);
+        message.setId(Rooms.id(i));
+        index.add(message);
+        return index;
+    }
+
+    @Benchmark
+    public List<String> rareWord() {
+        return index.search(rareWord, LIMIT);
+    }
+
+    @Benchmark
+    public List<String> commonWord() {
+        return index.search("mañana", LIMIT);
+    }
+
+    @Benchmark
+    public List<String> twoLetterPrefix() {
+        return index.search("ca", LIMIT);
+    }
+
+    @Benchmark
+    public List<String> twoWords() {
+        return index.search("nos vem", LIMIT);
+    }
+
+    @Benchmark
+    public List<String> linearScan() {
+        List<String> results = new ArrayList<>();
+        for (int i = messageCount - 1; i >= 0 && results.size() < LIMIT; i--) {
+            if (texts[i].toLowerCase(Locale.ROOT).contains(rareWord)) results.add(Rooms.id(i));
+        }
+        return results;
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    private Message message(int i) {
+        Message message = new Message(i % 2 == 0 ? "u1" : "u2", "User", texts[i], i);
+        message.setId(Rooms.id(i));
+        return message;
+    }
+
+    private String text(Random random) {
+        StringBuilder text = new StringBuilder();
+        for (int w = 1 + random.nextInt(10); w > 0; w--) {
+            if (text.length() > 0) text.append(' ');
+            if (random.nextInt(3) > 0) {
+                text.append(COMMON[random.nextInt(COMMON.length)]);
+            } else {
+                // Distribución sesgada hacia el principio del vocabulario, como la de las palabras reales
+                double skew = random.nextDouble();
+                text.append(vocabulary[(int) (skew * skew * skew * vocabulary.length)]);
+            }
+        }
+        return text.toString();
+    }
+}
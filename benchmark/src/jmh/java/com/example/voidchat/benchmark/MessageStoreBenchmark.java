@@ -0,0 +1,102 @@
+package com.example.voidchat.benchmark;
+
+import com.example.voidchat.data.MessageStore;
+import com.example.voidchat.model.Message;
+import com.example.voidchat.timeline.MessageTimeline;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * El log de mensajes de una sala de 100k: cuánto se tarda desde abrirlo hasta tener la línea de tiempo lista
+ * para el primer frame ({@code openToFirstRender}), y cuántos mensajes por segundo se escriben en lotes como
+ * los de la sincronización ({@code appendBatch}, un lote por llamada, contado por mensaje).
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MessageStoreBenchmark {
+
+    private static final int BATCH = 500;
+    // Lo que ChatActivity lee del disco antes del primer frame
+    private static final int FIRST_SCREEN = 50;
+
+    @Param({"100000"})
+    public int roomSize;
+
+    private File room;
+    private File written;
+    private MessageStore writer;
+    private List<Message> batch;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        room = Files.createTempDirectory("store-room").toFile();
+        List<Message> messages = Rooms.room(roomSize);
+        try (MessageStore store = MessageStore.open(room)) {
+            for (int i = 0; i < roomSize; i += BATCH) {
+                store.appendAll(messages.subList(i, Math.min(i + BATCH, roomSize)));
+            }
+        }
+        written = Files.createTempDirectory("store-writes").toFile();
+        writer = MessageStore.open(written);
+        batch = messages.subList(0, BATCH);
+        next = roomSize;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        writer.close();
+        delete(room);
+        delete(written);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public MessageTimeline openToFirstRender() throws IOException {
+        MessageTimeline timeline = new MessageTimeline();
+        try (MessageStore store = MessageStore.open(room)) {
+            timeline.appendAll(store.readLast(FIRST_SCREEN));
+        }
+        return timeline;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OperationsPerInvocation(BATCH)
+    public void appendBatch() throws IOException {
+        // Claves siempre crecientes, como las que llegan de Firebase
+        for (int i = 0; i < BATCH; i++) {
+            batch.get(i).setId(Rooms.id(next++));
+        }
+        writer.appendAll(batch);
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    private static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        directory.delete();
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.voidchat.benchmark;
+
+import com.example.voidchat.metrics.Counter;
+import com.example.voidchat.metrics.Histogram;
+import com.example.voidchat.metrics.MetricsRegistry;
+import com.example.voidchat.metrics.MetricsSnapshot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lo que cuesta medir en el camino de cada mensaje (anotar una latencia, sumar un contador) y lo que cuesta
+ * la foto que saca la pantalla de métricas una vez por segundo. Con -prof gc se ve que anotar no reserva.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MetricsBenchmark {
+
+    private MetricsRegistry registry;
+    private Histogram latency;
+    private Counter counter;
+    private long value;
+
+    @Setup
+    public void setUp() {
+        registry = new MetricsRegistry();
+        latency = registry.histogram("mqtt.publish_ack_us");
+        counter = registry.counter("mqtt.messages_in");
+        for (int i = 0; i < 8; i++) registry.counter("mqtt.counter_" + i);
+        registry.histogram("mqtt.connect_ms");
+        registry.histogram("mqtt.handshake_ms");
+        registry.histogram("mqtt.network_queue");
+    }
+
+    @Benchmark
+    public void recordLatency() {
+        // Valores que recorren muchas cubetas, como latencias reales
+        value = (value * 31 + 7) & 0xFFFFF;
+        latency.record(value);
+    }
+
+    @Benchmark
+    public void incrementCounter() {
+        counter.increment();
+    }
+
+    @Benchmark
+    public MetricsSnapshot snapshot() {
+        return registry.snapshot();
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.voidchat.benchmark;
+
+import com.example.voidchat.mqtt.MessagePayload;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lo que hace MQTTManager con cada mensaje: leer la carga en messageArrived y escribirla en sendMessage,
+ * con el JSON de los clientes anteriores y con el formato binario. El tamaño de cada formato lo imprime
+ * MessagePayloadTest.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PayloadBenchmark {
+
+    private static final String TEXT = "¿Nos vemos mañana a las 18:00 en la cafetería de siempre? Llevo los apuntes";
+    private static final String USER_ID = "kQ3x9Vt2bWc7LmN1pRsT4uYz8Ae5";
+
+    private MessagePayload message;
+    private byte[] json;
+    private byte[] binary;
+
+    @Setup
+    public void setUp() throws JSONException {
+        message = new MessagePayload(TEXT, USER_ID);
+        json = message.encodeJson();
+        binary = message.encode();
+    }
+
+    @Benchmark
+    public MessagePayload parseJson() {
+        return MessagePayload.decode(json);
+    }
+
+    @Benchmark
+    public byte[] buildJson() throws JSONException {
+        return message.encodeJson();
+    }
+
+    @Benchmark
+    public MessagePayload parseBinary() {
+        return MessagePayload.decode(binary);
+    }
+
+    @Benchmark
+    public byte[] buildBinary() {
+        return message.encode();
+    }
+}
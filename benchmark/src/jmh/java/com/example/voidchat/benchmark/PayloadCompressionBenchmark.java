@@ -0,0 +1,83 @@
+package com.example.voidchat.benchmark;
+
+import com.example.voidchat.mqtt.MessagePayload;
+import com.example.voidchat.mqtt.PayloadCompressor;
+import com.example.voidchat.mqtt.PayloadDictionary;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lo que añade la compresión con diccionario a cada mensaje: comprimir en sendMessage y descomprimir antes de
+ * leer en messageArrived. Se compara con {@link PayloadBenchmark}, que no comprime. Lo que se ahorra en bytes
+ * se imprime aquí al preparar el estado y en PayloadCompressorTest.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PayloadCompressionBenchmark {
+
+    private static final String USER_ID = "kQ3x9Vt2bWc7LmN1pRsT4uYz8Ae5";
+    private static final String[] TEXTS = {
+            "¿Nos vemos mañana a las 18:00 en la cafetería de siempre? Llevo los apuntes",
+            "vale, te espero en la puerta del metro, no tardes",
+            "jajajaja no me lo puedo creer, ¿en serio te dijo eso?",
+            "Estoy llegando, hay muchísimo tráfico en la entrada de la ciudad",
+            "Ya he hecho el bizum de la cena, mira a ver si te ha llegado",
+            "¿Has visto el mensaje del grupo? Han cambiado la hora de la reunión",
+            "llámame cuando puedas, tengo que contarte una cosa",
+            "¿Qué tal te fue la entrevista? Cuéntame todo",
+    };
+
+    private PayloadCompressor compressor;
+    private byte[][] plain;
+    private byte[][] compressed;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        compressor = new PayloadCompressor(PayloadDictionary.builtIn());
+        plain = new byte[TEXTS.length][];
+        compressed = new byte[TEXTS.length][];
+        int plainBytes = 0;
+        int compressedBytes = 0;
+        for (int i = 0; i < TEXTS.length; i++) {
+            plain[i] = new MessagePayload(null, TEXTS[i], USER_ID, null, 1_700_000_000_123L).encode();
+            compressed[i] = compressor.compress(plain[i]);
+            plainBytes += plain[i].length;
+            compressedBytes += compressed[i].length;
+        }
+        System.out.printf(Locale.ROOT, "%nPayload bytes: plain %d, compressed %d (%.2f)%n",
+                plainBytes, compressedBytes, (double) compressedBytes / plainBytes);
+    }
+
+    @TearDown
+    public void tearDown() {
+        compressor.close();
+    }
+
+    @Benchmark
+    public byte[] buildCompressed() {
+        return compressor.compress(plain[nextIndex()]);
+    }
+
+    @Benchmark
+    public MessagePayload parseCompressed() {
+        return MessagePayload.decode(compressor.decompress(compressed[nextIndex()]));
+    }
+
+    private int nextIndex() {
+        int index = next;
+        next = (index + 1) % TEXTS.length;
+        return index;
+    }
+}
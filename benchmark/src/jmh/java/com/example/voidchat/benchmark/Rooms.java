@@ -0,0 +1,38 @@
+package com.example.voidchat.benchmark;
+
+import com.example.voidchat.model.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Salas sintéticas para las pruebas: claves crecientes como las push de Firebase y un mensaje cada 30 minutos,
+ * así hay unos 48 mensajes por separador de día.
+ */
+final class Rooms {
+
+    static final long MINUTE = 60L * 1000;
+    static final long STEP = 30 * MINUTE;
+
+    private Rooms() {}
+
+    static List<Message> room(int size) {
+        List<Message> messages = new ArrayList<>(size);
+        long start = System.currentTimeMillis() - size * STEP;
+        for (int i = 0; i < size; i++) {
+            messages.add(message(i, start + i * STEP));
+        }
+        return messages;
+    }
+
+    static Message message(int index, long time) {
+        Message message = new Message(index % 2 == 0 ? "u1" : "u2", "User", "hola " + index, time);
+        message.setId(id(index));
+        return message;
+    }
+
+    static String id(int index) {
+        return String.format(Locale.ROOT, "-N%08d", index);
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.voidchat.benchmark;
+
+import com.example.voidchat.model.Message;
+import com.example.voidchat.timeline.RowPreparer;
+import com.example.voidchat.timeline.TimelinePage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construcción de la lista con separadores de fecha para una sala completa.
+ *
+ * {@code legacyRebuild} es el bucle que hacía ChatActivity.onDataChange en cada cambio (un Calendar por mensaje
+ * y tres más un SimpleDateFormat por separador); se conserva como referencia. {@code buildPage} es lo que hace
+ * ahora TimelineBuilder en su hilo, incluida la preparación de la hora y el lado de cada fila.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TimelineBuildBenchmark {
+
+    @Param({"1000", "10000"})
+    public int roomSize;
+
+    private List<Message> room;
+    private RowPreparer rows;
+
+    @Setup
+    public void setUp() {
+        room = Rooms.room(roomSize);
+        rows = new RowPreparer("u1");
+    }
+
+    @Benchmark
+    public List<Object> legacyRebuild() {
+        // Entonces cada separador era un Message con la etiqueta ya puesta; aquí la fila es la etiqueta
+        List<Object> messageList = new ArrayList<>();
+        long lastDate = -1;
+        for (Message message : room) {
+            long messageDay = getDayStart(message.getTime());
+            if (messageDay != lastDate) {
+                lastDate = messageDay;
+                messageList.add(getLabelForDate(message.getTime()));
+            }
+            messageList.add(message);
+        }
+        return messageList;
+    }
+
+    @Benchmark
+    public TimelinePage buildPage() {
+        return TimelinePage.build(room, rows, false);
+    }
+
+    // --- Copia de los métodos de ChatActivity que usaba onDataChange ---
+
+    private static long getDayStart(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    private static String getLabelForDate(long time) {
+        Calendar today = Calendar.getInstance();
+        Calendar yesterday = Calendar.getInstance();
+        yesterday.add(Calendar.DAY_OF_YEAR, -1);
+        Calendar messageDate = Calendar.getInstance();
+        messageDate.setTimeInMillis(time);
+        if (isSameDay(messageDate, today)) return "Hoy";
+        if (isSameDay(messageDate, yesterday)) return "Ayer";
+        return new SimpleDateFormat("dd MMM yyyy", Locale.getDefault()).format(time);
+    }
+
+    private static boolean isSameDay(Calendar c1, Calendar c2) {
+        return c1.get(Calendar.YEAR) == c2.get(Calendar.YEAR) &&
+                c1.get(Calendar.DAY_OF_YEAR) == c2.get(Calendar.DAY_OF_YEAR);
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.voidchat.benchmark;
+
+import com.example.voidchat.model.Message;
+import com.example.voidchat.timeline.MessageTimeline;
+import com.example.voidchat.timeline.RowPreparer;
+import com.example.voidchat.timeline.TimelinePage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Trabajo del hilo principal cuando cambia una sala grande.
+ *
+ * MessageAdapter ya no compara listas con DiffUtil: MessageTimeline le avisa de las filas insertadas o
+ * quitadas. Aquí se mide ese camino con un listener que sólo cuenta, igual que haría el adaptador
+ * antes de pasar los avisos a RecyclerView: un mensaje en vivo con la ventana llena y una página de
+ * historial anterior que entra por arriba.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TimelineUpdateBenchmark {
+
+    private static final int PAGE_SIZE = 50;
+
+    @Param({"1000", "10000"})
+    public int roomSize;
+
+    private MessageTimeline timeline;
+    private TimelinePage olderPage;
+    private final CountingListener listener = new CountingListener();
+    private int nextIndex;
+    private long nextTime;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        List<Message> room = Rooms.room(PAGE_SIZE + roomSize);
+        olderPage = TimelinePage.build(room.subList(0, PAGE_SIZE), new RowPreparer("u1"), false);
+        timeline = new MessageTimeline("u1");
+        timeline.appendAll(room.subList(PAGE_SIZE, room.size()));
+        timeline.setListener(listener);
+        nextIndex = room.size();
+        nextTime = room.get(room.size() - 1).getTime();
+    }
+
+    @Benchmark
+    public int liveMessage() {
+        nextTime += Rooms.MINUTE;
+        timeline.append(Rooms.message(nextIndex++, nextTime));
+        timeline.trimHead(roomSize);
+        return listener.events;
+    }
+
+    @Benchmark
+    public int olderPage() {
+        // La página entra y se vuelve a recortar, así la ventana no crece entre invocaciones
+        timeline.prependPage(olderPage);
+        timeline.trimHead(roomSize);
+        return listener.events;
+    }
+
+    private static final class CountingListener implements MessageTimeline.Listener {
+        int events;
+        @Override public void onInserted(int position, int count) { events++; }
+        @Override public void onChanged(int position) { events++; }
+        @Override public void onRemoved(int position, int count) { events++; }
+        @Override public void onReset() { events++; }
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.voidchat.benchmark;
+
+import com.example.voidchat.mqtt.TopicRouter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reparto de un mensaje recibido con muchos filtros registrados: salas ("chat/{sala}"), escritura
+ * ("typing/{sala}/+") y presencia ("presence/+"). {@code linearScan} es la alternativa de comparar el tema
+ * con cada filtro, como hacía cada pantalla con {@code topic.equals}; {@code churn} mide altas y bajas.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TopicRouterBenchmark {
+
+    @Param({"10000"})
+    public int filterCount;
+
+    private TopicRouter<Object> router;
+    private final List<String> filters = new ArrayList<>();
+    private String roomTopic;
+    private String typingTopic;
+    private String presenceTopic;
+    private String missTopic;
+    private int churn;
+
+    @Setup
+    public void setUp() {
+        router = new TopicRouter<>();
+        Object listener = new Object();
+        // Casi todo salas y escritura; un único filtro de presencia con comodín
+        for (int i = 0; filters.size() < filterCount - 1; i++) {
+            filters.add(String.format(Locale.ROOT, "chat/room%05d", i));
+            filters.add(String.format(Locale.ROOT, "typing/room%05d/+", i));
+        }
+        filters.add("presence/+");
+        for (String filter : filters) {
+            router.add(filter, listener);
+        }
+        roomTopic = "chat/room04321";
+        typingTopic = "typing/room04321/uid-7";
+        presenceTopic = "presence/uid-7";
+        missTopic = "chat/unknown";
+    }
+
+    @Benchmark
+    public List<Object> matchRoom() {
+        return router.match(roomTopic);
+    }
+
+    @Benchmark
+    public List<Object> matchTypingWildcard() {
+        return router.match(typingTopic);
+    }
+
+    @Benchmark
+    public List<Object> matchPresenceWildcard() {
+        return router.match(presenceTopic);
+    }
+
+    @Benchmark
+    public List<Object> matchMiss() {
+        return router.match(missTopic);
+    }
+
+    @Benchmark
+    public int linearScan() {
+        int matched = 0;
+        for (String filter : filters) {
+            if (TopicRouter.matches(filter, typingTopic)) matched++;
+        }
+        return matched;
+    }
+
+    @Benchmark
+    public boolean churn() {
+        String filter = filters.get(churn++ % filters.size());
+        Object screen = new Object();
+        router.add(filter, screen);
+        return router.remove(filter, screen);
+    }
+}
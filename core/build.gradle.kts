@@ -0,0 +1,32 @@
+plugins {
+    `java-library`
+    `java-test-fixtures`
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+dependencies {
+    api(libs.paho)
+    // En Android org.json viene con la plataforma; fuera de ella hay que traerlo
+    compileOnly(libs.json)
+    testImplementation(libs.junit)
+    testImplementation(libs.json)
+    // Broker MQTT embebido para las pruebas de carga y para :loadtest
+    testFixturesApi(libs.moquette)
+}
+
+// Regenera el diccionario de compresión de las cargas MQTT. Un diccionario nuevo necesita otro id
+// (PayloadDictionary): los clientes ya publicados sólo conocen los anteriores.
+tasks.register<JavaExec>("trainDictionary") {
+    group = "build"
+    description = "Trains the MQTT payload dictionary from a message corpus"
+    classpath = sourceSets.main.get().runtimeClasspath
+    mainClass.set("com.example.voidchat.mqtt.DictionaryTrainer")
+    args(
+        (findProperty("corpus") ?: "dictionary/chat-es.txt").toString(),
+        (findProperty("dictionary") ?: "src/main/resources/com/example/voidchat/mqtt/chat-1.dict").toString()
+    )
+}
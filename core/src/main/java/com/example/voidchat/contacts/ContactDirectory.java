@@ -0,0 +1,176 @@
+package com.example.voidchat.contacts;
+import com.example.voidchat.model.User;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Directorio de contactos ordenado como {@code orderByChild("displayName")} de Firebase: primero los que no
+ * tienen nombre, después por nombre y, a igual nombre, por UID. Así cada página de Firebase es un tramo
+ * continuo de la lista y se puede sustituir tal cual.
+ *
+ * Cada cambio se notifica como una operación puntual sobre una fila (insertada, cambiada, movida, quitada):
+ * un perfil que cambia no obliga a comparar la lista entera. Un contacto que llega igual que estaba no
+ * notifica nada. Se usa sólo desde el hilo principal.
+ */
+public class ContactDirectory {
+
+    // Mismo orden que Firebase para valores de texto: null primero, luego por código UTF-16, y la clave desempata
+    public static final Comparator<User> ORDER = (a, b) -> {
+        int byName = compareNullFirst(a.getDisplayName(), b.getDisplayName());
+        return byName != 0 ? byName : a.getUid().compareTo(b.getUid());
+    };
+
+    // --- Interfaz de Callback ---
+    public interface Listener {
+        void onInserted(int position);
+        void onChanged(int position);
+        void onMoved(int from, int to);
+        void onRemoved(int position);
+        void onReset();
+    }
+
+    private final List<User> users = new ArrayList<>();
+    private final List<User> readOnlyUsers = Collections.unmodifiableList(users);
+    private final Map<String, User> byUid = new HashMap<>();
+    // El usuario de la sesión no aparece en su propia lista de contactos
+    private final String ownUid;
+    private Listener listener;
+
+    public ContactDirectory(String ownUid) {
+        this.ownUid = ownUid;
+    }
+
+    public String getOwnUid() { return ownUid; }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public List<User> getUsers() { return readOnlyUsers; }
+    public int size() { return users.size(); }
+    public boolean isEmpty() { return users.isEmpty(); }
+    public User get(int position) { return users.get(position); }
+
+    /**
+     * Posición del contacto en O(log n), o -1 si no está.
+     */
+    public int indexOf(String uid) {
+        User user = byUid.get(uid);
+        return user != null ? Collections.binarySearch(users, user, ORDER) : -1;
+    }
+
+    public User last() {
+        return users.isEmpty() ? null : users.get(users.size() - 1);
+    }
+
+    // --- Cambios ---
+
+    /**
+     * Añade o actualiza un contacto y lo coloca en su sitio si cambió de nombre.
+     * @return true si la lista cambió.
+     */
+    public boolean upsert(User user) {
+        if (!isValid(user)) return false;
+        User previous = byUid.get(user.getUid());
+        if (previous != null && sameContents(previous, user)) return false;
+        int from = previous != null ? Collections.binarySearch(users, previous, ORDER) : -1;
+        if (from >= 0) users.remove(from);
+        int to = insertionPoint(user);
+        users.add(to, user);
+        byUid.put(user.getUid(), user);
+        if (listener != null) {
+            if (from < 0) {
+                listener.onInserted(to);
+            } else {
+                if (from != to) listener.onMoved(from, to);
+                listener.onChanged(to);
+            }
+        }
+        return true;
+    }
+
+    public boolean remove(String uid) {
+        User previous = byUid.remove(uid);
+        if (previous == null) return false;
+        int index = Collections.binarySearch(users, previous, ORDER);
+        users.remove(index);
+        if (listener != null) {
+            listener.onRemoved(index);
+        }
+        return true;
+    }
+
+    /**
+     * Sustituye el tramo de la lista que cubre una página de Firebase: lo que había en el tramo y no vino en
+     * la página se borró en el servidor mientras no mirábamos (por ejemplo, desde la copia local).
+     *
+     * @param after   Último contacto de la página anterior (excluido), o null si la página es la primera.
+     * @param through Último contacto de la página (incluido), o null si es la última y llega hasta el final.
+     * @return Los UID que se quitaron.
+     */
+    public List<String> applyPage(User after, User through, Collection<User> page) {
+        Set<String> present = new HashSet<>();
+        for (User user : page) {
+            if (isValid(user)) present.add(user.getUid());
+        }
+        List<String> stale = new ArrayList<>();
+        for (User user : users) {
+            boolean inRange = (after == null || ORDER.compare(user, after) > 0)
+                    && (through == null || ORDER.compare(user, through) <= 0);
+            if (inRange && !present.contains(user.getUid())) stale.add(user.getUid());
+        }
+        for (String uid : stale) {
+            remove(uid);
+        }
+        for (User user : page) {
+            upsert(user);
+        }
+        return stale;
+    }
+
+    /**
+     * Sustituye todo el contenido, por ejemplo con la copia local al abrir la pantalla.
+     */
+    public void resetTo(Collection<User> snapshot) {
+        users.clear();
+        byUid.clear();
+        for (User user : snapshot) {
+            if (isValid(user) && byUid.put(user.getUid(), user) == null) users.add(user);
+        }
+        users.sort(ORDER);
+        if (listener != null) {
+            listener.onReset();
+        }
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    private boolean isValid(User user) {
+        return user != null && user.getUid() != null && !user.getUid().equals(ownUid);
+    }
+
+    private int insertionPoint(User user) {
+        int index = Collections.binarySearch(users, user, ORDER);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private static boolean sameContents(User a, User b) {
+        return Objects.equals(a.getDisplayName(), b.getDisplayName())
+                && Objects.equals(a.getEmail(), b.getEmail())
+                && Objects.equals(a.getProfileImageUrl(), b.getProfileImageUrl());
+    }
+
+    private static int compareNullFirst(String a, String b) {
+        if (a == null) return b == null ? 0 : -1;
+        if (b == null) return 1;
+        return a.compareTo(b);
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.voidchat.contacts;
+import com.example.voidchat.model.User;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Mantiene un {@link ContactSearchIndex} en un hilo de fondo y responde a las búsquedas en el principal.
+ *
+ * Los cambios y las búsquedas van al mismo hilo, en orden: una búsqueda ve siempre los cambios anteriores.
+ * Al escribir rápido sólo importa la última consulta; las que se quedaron atrás se descartan sin ejecutarse
+ * o, si ya se ejecutaron, sin entregar su resultado.
+ */
+public class ContactSearch {
+
+    // --- Interfaz de Callback ---
+    public interface Callback {
+        void onResults(String query, List<User> results);
+    }
+
+    private final ContactSearchIndex index = new ContactSearchIndex();
+    // Debe ser de un solo hilo: de eso depende el orden entre cambios y búsquedas
+    private final Executor worker;
+    private final Executor main;
+    private final AtomicInteger latestQuery = new AtomicInteger();
+
+    public ContactSearch(Executor worker, Executor main) {
+        this.worker = worker;
+        this.main = main;
+    }
+
+    /**
+     * Vuelve a construir el índice con todos los contactos, por ejemplo al cargar la copia local.
+     */
+    public void rebuild(Collection<User> users) {
+        List<User> snapshot = new ArrayList<>(users);
+        worker.execute(() -> {
+            index.clear();
+            for (User user : snapshot) {
+                index.add(user);
+            }
+        });
+    }
+
+    public void upsert(User user) {
+        worker.execute(() -> index.add(user));
+    }
+
+    public void remove(String uid) {
+        worker.execute(() -> index.remove(uid));
+    }
+
+    /**
+     * Busca en segundo plano y entrega el resultado en el hilo principal, salvo que entre tanto llegue otra.
+     */
+    public void search(String query, int limit, Callback callback) {
+        int generation = latestQuery.incrementAndGet();
+        worker.execute(() -> {
+            if (generation != latestQuery.get()) return;
+            List<User> results = index.search(query, limit);
+            main.execute(() -> {
+                if (generation == latestQuery.get()) callback.onResults(query, results);
+            });
+        });
+    }
+
+    /**
+     * Descarta las búsquedas en curso: su resultado ya no se entregará.
+     */
+    public void cancel() {
+        latestQuery.incrementAndGet();
+    }
+}
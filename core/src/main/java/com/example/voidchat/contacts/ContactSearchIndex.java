@@ -0,0 +1,419 @@
+package com.example.voidchat.contacts;
+import com.example.voidchat.model.User;
+import com.example.voidchat.search.Words;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Índice de búsqueda de contactos por nombre y email, sin distinguir mayúsculas ni acentos ("jose" encuentra
+ * a "José", "nunez" a "Núñez").
+ *
+ * Cada palabra del nombre y de la parte local del email entra en un árbol de prefijos. Hay tres árboles, uno
+ * por campo, que también marcan el orden de los resultados:
+ * <ol>
+ *   <li>la primera palabra del nombre empieza por lo buscado;</li>
+ *   <li>otra palabra del nombre empieza por lo buscado;</li>
+ *   <li>una palabra del email empieza por lo buscado;</li>
+ *   <li>lo buscado aparece en medio del nombre o del email ("ndez" en "Hernández"), mediante listas de
+ *   trigramas.</li>
+ * </ol>
+ * Dentro de cada grupo el orden es alfabético por la palabra que coincide. Un árbol se recorre en ese orden y
+ * el recorrido se corta al reunir el límite de resultados: una búsqueda de una letra no toca los miles de
+ * contactos que coinciden, sólo los primeros.
+ *
+ * Con varias palabras ("ana ma"), la más larga elige los candidatos y el resto debe empezar alguna palabra del
+ * contacto (o, si mide tres letras o más, aparecer en él, en el último grupo).
+ *
+ * Se actualiza contacto a contacto. No es seguro entre hilos: {@link ContactSearch} lo usa desde un único
+ * hilo de fondo.
+ */
+public final class ContactSearchIndex {
+
+    public static final int DEFAULT_LIMIT = 50;
+    // Las búsquedas más cortas sólo usan prefijos: un bigrama en medio de palabra coincide con casi todos
+    private static final int GRAM = 3;
+    private static final int[] NO_IDS = new int[0];
+    private static final long[] NO_GRAMS = new long[0];
+
+    private final Trie firstNames = new Trie();
+    private final Trie otherNames = new Trie();
+    private final Trie emails = new Trie();
+    private final Map<Long, Postings> trigrams = new HashMap<>();
+    private final Map<String, Integer> idByUid = new HashMap<>();
+    // Los identificadores de los contactos borrados se reutilizan para que las tablas no crezcan sin límite
+    private Doc[] docs = new Doc[64];
+    private int[] freeIds = new int[16];
+    private int freeCount;
+    private int nextId;
+    // Marcas por búsqueda para no repetir un contacto que coincide en varios grupos, sin crear un Set cada vez
+    private int[] seen = new int[64];
+    private int stamp;
+
+    // --- Cambios ---
+
+    /**
+     * Añade el contacto, o lo actualiza si ya estaba.
+     */
+    public void add(User user) {
+        if (user == null || user.getUid() == null) return;
+        Integer existing = idByUid.get(user.getUid());
+        Doc doc = new Doc(user);
+        long[] grams = doc.trigrams();
+        int id;
+        long[] previousGrams;
+        if (existing != null) {
+            id = existing;
+            unindexTokens(id);
+            previousGrams = docs[id].trigrams();
+        } else {
+            id = freeCount > 0 ? freeIds[--freeCount] : nextId++;
+            idByUid.put(user.getUid(), id);
+            previousGrams = NO_GRAMS;
+        }
+        ensureCapacity(id);
+        docs[id] = doc;
+        for (int i = 0; i < doc.nameTokens.length; i++) {
+            (i == 0 ? firstNames : otherNames).add(doc.nameTokens[i], id);
+        }
+        for (String token : doc.emailTokens) {
+            emails.add(token, id);
+        }
+        // Sólo se tocan los trigramas que cambian: los del dominio del email tienen listas enormes y un cambio
+        // de nombre no debería moverlas
+        for (long gram : previousGrams) {
+            if (Arrays.binarySearch(grams, gram) < 0) removeGram(gram, id);
+        }
+        for (long gram : grams) {
+            if (Arrays.binarySearch(previousGrams, gram) < 0) {
+                trigrams.computeIfAbsent(gram, key -> new Postings()).add(id);
+            }
+        }
+    }
+
+    public boolean remove(String uid) {
+        Integer id = idByUid.remove(uid);
+        if (id == null) return false;
+        unindexTokens(id);
+        for (long gram : docs[id].trigrams()) {
+            removeGram(gram, id);
+        }
+        docs[id] = null;
+        if (freeCount == freeIds.length) freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        freeIds[freeCount++] = id;
+        return true;
+    }
+
+    public void clear() {
+        firstNames.clear();
+        otherNames.clear();
+        emails.clear();
+        trigrams.clear();
+        idByUid.clear();
+        Arrays.fill(docs, null);
+        freeCount = 0;
+        nextId = 0;
+    }
+
+    public int size() {
+        return idByUid.size();
+    }
+
+    // --- Búsqueda ---
+
+    /**
+     * @return Como mucho {@code limit} contactos, de mejor a peor coincidencia. Vacío si la consulta no
+     * tiene letras ni números.
+     */
+    public List<User> search(String query, int limit) {
+        String[] terms = Words.tokenize(Words.normalize(query));
+        List<User> results = new ArrayList<>(Math.min(limit, 16));
+        if (terms.length == 0 || limit <= 0) return results;
+        int driver = 0;
+        for (int i = 1; i < terms.length; i++) {
+            if (terms[i].length() > terms[driver].length()) driver = i;
+        }
+        if (++stamp == 0) {
+            // Tras dar la vuelta, ninguna marca vieja puede confundirse con la actual
+            Arrays.fill(seen, 0);
+            stamp = 1;
+        }
+        Collector collector = new Collector(terms, driver, results, limit);
+        if (firstNames.collect(terms[driver], collector)
+                && otherNames.collect(terms[driver], collector)
+                && emails.collect(terms[driver], collector)
+                && terms[driver].length() >= GRAM) {
+            collectSubstrings(terms[driver], collector);
+        }
+        return results;
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    private void unindexTokens(int id) {
+        Doc doc = docs[id];
+        for (int i = 0; i < doc.nameTokens.length; i++) {
+            (i == 0 ? firstNames : otherNames).remove(doc.nameTokens[i], id);
+        }
+        for (String token : doc.emailTokens) {
+            emails.remove(token, id);
+        }
+    }
+
+    private void removeGram(long gram, int id) {
+        Postings postings = trigrams.get(gram);
+        if (postings != null && postings.remove(id) && postings.size == 0) trigrams.remove(gram);
+    }
+
+    /**
+     * Último grupo: contactos cuyo texto contiene lo buscado. Se recorre la lista de trigramas más corta y se
+     * comprueba cada candidato; no hace falta cruzar las listas porque la comprobación es la definitiva.
+     */
+    private void collectSubstrings(String term, Collector collector) {
+        Postings shortest = null;
+        for (int i = 0; i + GRAM <= term.length(); i++) {
+            Postings postings = trigrams.get(pack(term, i));
+            if (postings == null) return;
+            if (shortest == null || postings.size < shortest.size) shortest = postings;
+        }
+        for (int i = 0; i < shortest.size; i++) {
+            if (!collector.acceptSubstring(shortest.ids[i])) return;
+        }
+    }
+
+    private void ensureCapacity(int id) {
+        if (id >= docs.length) {
+            int capacity = Math.max(docs.length * 2, id + 1);
+            docs = Arrays.copyOf(docs, capacity);
+            seen = Arrays.copyOf(seen, capacity);
+        }
+    }
+
+    private static long pack(String text, int start) {
+        return ((long) text.charAt(start) << 32) | ((long) text.charAt(start + 1) << 16) | text.charAt(start + 2);
+    }
+
+    /**
+     * Reúne resultados en orden y dice cuándo parar.
+     */
+    private final class Collector {
+        final String[] terms;
+        final int driver;
+        final List<User> results;
+        final int limit;
+
+        Collector(String[] terms, int driver, List<User> results, int limit) {
+            this.terms = terms;
+            this.driver = driver;
+            this.results = results;
+            this.limit = limit;
+        }
+
+        /**
+         * @return false cuando ya hay suficientes resultados.
+         */
+        boolean acceptPrefix(int id) {
+            if (seen[id] == stamp) return true;
+            Doc doc = docs[id];
+            for (int i = 0; i < terms.length; i++) {
+                if (i != driver && !doc.hasTokenStartingWith(terms[i])) return true;
+            }
+            return add(id, doc);
+        }
+
+        boolean acceptSubstring(int id) {
+            if (seen[id] == stamp) return true;
+            Doc doc = docs[id];
+            for (String term : terms) {
+                // Lo corto sólo cuenta como principio de palabra, igual que en los demás grupos
+                boolean matches = term.length() >= GRAM ? doc.text.contains(term) : doc.hasTokenStartingWith(term);
+                if (!matches) return true;
+            }
+            return add(id, doc);
+        }
+
+        private boolean add(int id, Doc doc) {
+            seen[id] = stamp;
+            results.add(doc.user);
+            return results.size() < limit;
+        }
+    }
+
+    /**
+     * Lo indexado de un contacto.
+     */
+    private static final class Doc {
+        final User user;
+        final String[] nameTokens;
+        final String[] emailTokens;
+        // Nombre y email completos, normalizados, para comprobar coincidencias en medio de palabra
+        final String text;
+
+        Doc(User user) {
+            this.user = user;
+            String name = Words.normalize(user.getDisplayName());
+            String email = Words.normalize(user.getEmail());
+            int at = email.indexOf('@');
+            this.nameTokens = Words.tokenize(name);
+            // El dominio (gmail, hotmail...) lo comparte casi todo el mundo: sólo vale como coincidencia en medio
+            this.emailTokens = Words.tokenize(at >= 0 ? email.substring(0, at) : email);
+            this.text = name + '\n' + email;
+        }
+
+        boolean hasTokenStartingWith(String prefix) {
+            for (String token : nameTokens) {
+                if (token.startsWith(prefix)) return true;
+            }
+            for (String token : emailTokens) {
+                if (token.startsWith(prefix)) return true;
+            }
+            return false;
+        }
+
+        /**
+         * Trigramas distintos del texto, sin cruzar de una palabra a otra.
+         */
+        long[] trigrams() {
+            long[] grams = new long[Math.max(0, text.length() - GRAM + 1)];
+            int count = 0;
+            for (int i = 0; i + GRAM <= text.length(); i++) {
+                if (Character.isLetterOrDigit(text.charAt(i)) && Character.isLetterOrDigit(text.charAt(i + 1))
+                        && Character.isLetterOrDigit(text.charAt(i + 2))) {
+                    grams[count++] = pack(text, i);
+                }
+            }
+            Arrays.sort(grams, 0, count);
+            int unique = 0;
+            for (int i = 0; i < count; i++) {
+                if (unique == 0 || grams[unique - 1] != grams[i]) grams[unique++] = grams[i];
+            }
+            return Arrays.copyOf(grams, unique);
+        }
+    }
+
+    /**
+     * Identificadores ordenados, en un array sin objetos por elemento.
+     */
+    private static final class Postings {
+        int[] ids = NO_IDS;
+        int size;
+
+        void add(int id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index >= 0) return;
+            index = -index - 1;
+            if (size == ids.length) ids = Arrays.copyOf(ids, Math.max(4, size * 2));
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            ids[index] = id;
+            size++;
+        }
+
+        boolean remove(int id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index < 0) return false;
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            size--;
+            return true;
+        }
+    }
+
+    /**
+     * Árbol de prefijos por caracteres. Los hijos están ordenados, así el recorrido en profundidad sale en
+     * orden alfabético de palabra.
+     */
+    private static final class Trie {
+        private Node root = new Node();
+
+        void add(String token, int id) {
+            Node node = root;
+            for (int i = 0; i < token.length(); i++) {
+                node = node.childOrCreate(token.charAt(i));
+            }
+            node.postings.add(id);
+        }
+
+        void remove(String token, int id) {
+            Node[] path = new Node[token.length() + 1];
+            path[0] = root;
+            for (int i = 0; i < token.length(); i++) {
+                path[i + 1] = path[i].child(token.charAt(i));
+                if (path[i + 1] == null) return;
+            }
+            path[token.length()].postings.remove(id);
+            // Poda las ramas que se quedan sin nada
+            for (int i = token.length(); i > 0; i--) {
+                Node node = path[i];
+                if (node.postings.size > 0 || node.childCount > 0) break;
+                path[i - 1].removeChild(token.charAt(i - 1));
+            }
+        }
+
+        void clear() {
+            root = new Node();
+        }
+
+        /**
+         * @return false si el recolector ya tiene suficientes resultados.
+         */
+        boolean collect(String prefix, Collector collector) {
+            Node node = root;
+            for (int i = 0; i < prefix.length() && node != null; i++) {
+                node = node.child(prefix.charAt(i));
+            }
+            return node == null || collect(node, collector);
+        }
+
+        private static boolean collect(Node node, Collector collector) {
+            for (int i = 0; i < node.postings.size; i++) {
+                if (!collector.acceptPrefix(node.postings.ids[i])) return false;
+            }
+            for (int i = 0; i < node.childCount; i++) {
+                if (!collect(node.children[i], collector)) return false;
+            }
+            return true;
+        }
+    }
+
+    private static final class Node {
+        private static final char[] NO_KEYS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        char[] keys = NO_KEYS;
+        Node[] children = NO_CHILDREN;
+        int childCount;
+        final Postings postings = new Postings();
+
+        Node child(char key) {
+            int index = Arrays.binarySearch(keys, 0, childCount, key);
+            return index >= 0 ? children[index] : null;
+        }
+
+        Node childOrCreate(char key) {
+            int index = Arrays.binarySearch(keys, 0, childCount, key);
+            if (index >= 0) return children[index];
+            index = -index - 1;
+            if (childCount == keys.length) {
+                int capacity = Math.max(2, childCount * 2);
+                keys = Arrays.copyOf(keys, capacity);
+                children = Arrays.copyOf(children, capacity);
+            }
+            System.arraycopy(keys, index, keys, index + 1, childCount - index);
+            System.arraycopy(children, index, children, index + 1, childCount - index);
+            Node child = new Node();
+            keys[index] = key;
+            children[index] = child;
+            childCount++;
+            return child;
+        }
+
+        void removeChild(char key) {
+            int index = Arrays.binarySearch(keys, 0, childCount, key);
+            if (index < 0) return;
+            System.arraycopy(keys, index + 1, keys, index, childCount - index - 1);
+            System.arraycopy(children, index + 1, children, index, childCount - index - 1);
+            children[--childCount] = null;
+        }
+    }
+}
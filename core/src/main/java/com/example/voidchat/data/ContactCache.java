@@ -0,0 +1,105 @@
+package com.example.voidchat.data;
+import com.example.voidchat.model.User;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Copia local del directorio de contactos, para pintar la lista al abrir la pantalla sin esperar a la red.
+ *
+ * A diferencia de {@link MessageStore} no es un log: el directorio es pequeño y cambia poco, así que se
+ * reescribe entero en un fichero temporal que sustituye al anterior con un rename. Un CRC al final descarta
+ * una copia a medio escribir; en ese caso se empieza sin contactos y Firebase los vuelve a traer.
+ */
+public final class ContactCache {
+
+    private static final int MAGIC = 0x434F4E31; // "CON1"
+
+    private final File file;
+
+    public ContactCache(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return Los contactos guardados, o una lista vacía si no hay copia o no es válida.
+     */
+    public List<User> load() {
+        if (!file.isFile()) return Collections.emptyList();
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(file)), crc))) {
+            if (in.readInt() != MAGIC) return Collections.emptyList();
+            int count = in.readInt();
+            if (count < 0) return Collections.emptyList();
+            List<User> users = new ArrayList<>(Math.min(count, 4096));
+            for (int i = 0; i < count; i++) {
+                users.add(new User(in.readUTF(), readNullable(in), readNullable(in), readNullable(in)));
+            }
+            int expected = (int) crc.getValue();
+            // El CRC guardado no entra en su propio cálculo
+            if (in.readInt() != expected) return Collections.emptyList();
+            return users;
+        } catch (IOException e) {
+            // Copia truncada o ilegible: se trata como si no la hubiera
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Sustituye la copia. Escribe en disco: no llamar desde el hilo principal.
+     */
+    public void save(Collection<User> users) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+        File temporary = new File(file.getPath() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (FileOutputStream fileOut = new FileOutputStream(temporary)) {
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(fileOut), crc));
+            out.writeInt(MAGIC);
+            out.writeInt(users.size());
+            for (User user : users) {
+                out.writeUTF(user.getUid());
+                writeNullable(out, user.getEmail());
+                writeNullable(out, user.getDisplayName());
+                writeNullable(out, user.getProfileImageUrl());
+            }
+            out.writeInt((int) crc.getValue());
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        if (!temporary.renameTo(file)) {
+            throw new IOException("Cannot replace " + file);
+        }
+    }
+
+    public void delete() {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,423 @@
+package com.example.voidchat.data;
+import com.example.voidchat.model.Message;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Registro local de mensajes de una sala, guardado como log de sólo-añadir dividido en segmentos.
+ *
+ * Cada registro lleva su longitud al principio y al final, así la cola del log se puede leer hacia atrás
+ * sin recorrer el historial: abrir una sala de 100k mensajes sólo lee los últimos registros.
+ * Las ediciones y borrados se añaden como registros nuevos; al leer hacia atrás gana el más reciente.
+ * Para paginar se construye, sólo cuando hace falta, un índice compacto clave → posición ordenado por clave.
+ *
+ * Los accesos se serializan con métodos synchronized; las escrituras deben hacerse fuera del hilo principal.
+ */
+public class MessageStore implements Closeable {
+
+    static final long SEGMENT_MAX_BYTES = 4 * 1024 * 1024;
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE = 2;
+    // Cabecera (longitud + CRC) y cola (longitud) de cada registro
+    private static final int HEADER_BYTES = 8;
+    private static final int TRAILER_BYTES = 4;
+
+    private final File directory;
+    private final List<File> segments = new ArrayList<>();
+    private DataOutputStream output;
+    private long activeSegmentBytes;
+    private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(256);
+    private final DataOutputStream recordOutput = new DataOutputStream(recordBuffer);
+    private final CRC32 crc = new CRC32();
+
+    // Índice para paginar: claves ordenadas y posición de su registro más reciente (segmento << 32 | offset).
+    // Arrays paralelos en lugar de un TreeMap para no pagar un objeto por entrada en salas de 100k mensajes.
+    private String[] indexIds;
+    private long[] indexPositions;
+    private int indexSize = -1;
+
+    private MessageStore(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Abre (o crea) el log de una sala. Si la app murió a mitad de una escritura, descarta el registro incompleto.
+     * @param directory Carpeta exclusiva de la sala.
+     */
+    public static MessageStore open(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        MessageStore store = new MessageStore(directory);
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (files != null) {
+            // Los nombres tienen ancho fijo, el orden alfabético es el orden de creación
+            Arrays.sort(files);
+            store.segments.addAll(Arrays.asList(files));
+        }
+        if (store.segments.isEmpty()) {
+            store.segments.add(store.segmentFile(1));
+        }
+        store.repairTail();
+        store.openActiveSegment();
+        return store;
+    }
+
+    // --- Escritura ---
+
+    public synchronized void append(Message message) throws IOException {
+        writePut(message);
+        output.flush();
+    }
+
+    /**
+     * Escribe un lote de mensajes con un único vaciado del buffer al final.
+     */
+    public synchronized void appendAll(List<Message> messages) throws IOException {
+        for (Message message : messages) {
+            writePut(message);
+        }
+        output.flush();
+    }
+
+    public synchronized void delete(String messageId) throws IOException {
+        recordBuffer.reset();
+        recordOutput.writeByte(OP_DELETE);
+        writeString(recordOutput, messageId);
+        writeRecord();
+        output.flush();
+        if (indexSize >= 0) {
+            indexRemove(messageId);
+        }
+    }
+
+    // --- Lectura ---
+
+    /**
+     * Devuelve los últimos mensajes vivos de la sala, ordenados por clave.
+     * Lee el log hacia atrás y se detiene al reunir {@code count} mensajes.
+     */
+    public synchronized List<Message> readLast(int count) throws IOException {
+        output.flush();
+        List<Message> result = new ArrayList<>(count);
+        Set<String> seen = new HashSet<>();
+        for (int i = segments.size() - 1; i >= 0 && result.size() < count; i--) {
+            File segment = segments.get(i);
+            try (RandomAccessFile file = new RandomAccessFile(segment, "r")) {
+                long end = file.length();
+                while (end > 0 && result.size() < count) {
+                    file.seek(end - TRAILER_BYTES);
+                    int length = file.readInt();
+                    long start = end - TRAILER_BYTES - length - HEADER_BYTES;
+                    byte[] payload = new byte[length];
+                    file.seek(start + HEADER_BYTES);
+                    file.readFully(payload);
+                    end = start;
+
+                    DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+                    byte op = in.readByte();
+                    String id = readString(in);
+                    // Sólo cuenta el registro más reciente de cada clave
+                    if (!seen.add(id) || op != OP_PUT) continue;
+                    result.add(readMessage(in, id));
+                }
+            }
+        }
+        Collections.reverse(result);
+        // El log está en orden de llegada; casi siempre coincide con el de clave
+        Collections.sort(result, (a, b) -> a.getId().compareTo(b.getId()));
+        return result;
+    }
+
+    /**
+     * Página de hasta {@code count} mensajes anteriores a {@code messageId}, ordenados por clave.
+     * La primera llamada construye el índice recorriendo el log: hay que hacerla fuera del hilo principal.
+     */
+    public synchronized List<Message> readBefore(String messageId, int count) throws IOException {
+        ensureIndex();
+        int end = Arrays.binarySearch(indexIds, 0, indexSize, messageId);
+        if (end < 0) end = -end - 1;
+        return readIndexRange(Math.max(0, end - count), end);
+    }
+
+    /**
+     * Página de hasta {@code count} mensajes posteriores a {@code messageId}, ordenados por clave.
+     */
+    public synchronized List<Message> readAfter(String messageId, int count) throws IOException {
+        ensureIndex();
+        int start = Arrays.binarySearch(indexIds, 0, indexSize, messageId);
+        start = start < 0 ? -start - 1 : start + 1;
+        return readIndexRange(start, Math.min(indexSize, start + count));
+    }
+
+    /**
+     * Página de hasta {@code count} mensajes que contiene a {@code messageId}, con él en medio si el historial
+     * lo permite. Vacía si el mensaje no está en el log: así se salta a un resultado de búsqueda.
+     */
+    public synchronized List<Message> readAround(String messageId, int count) throws IOException {
+        ensureIndex();
+        int index = Arrays.binarySearch(indexIds, 0, indexSize, messageId);
+        if (index < 0 || count <= 0) return Collections.emptyList();
+        int from = Math.max(0, Math.min(index - count / 2, indexSize - count));
+        return readIndexRange(from, Math.min(indexSize, from + count));
+    }
+
+    /**
+     * Última clave escrita: el cursor desde el que reanudar la sincronización con Firebase.
+     */
+    public synchronized String getLastId() throws IOException {
+        List<Message> last = readLast(1);
+        return last.isEmpty() ? null : last.get(0).getId();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (output != null) {
+            output.close();
+            output = null;
+        }
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    private void writePut(Message message) throws IOException {
+        recordBuffer.reset();
+        recordOutput.writeByte(OP_PUT);
+        writeString(recordOutput, message.getId());
+        writeString(recordOutput, message.getUserId());
+        writeString(recordOutput, message.getUsername());
+        writeString(recordOutput, message.getText());
+        recordOutput.writeLong(message.getTime());
+        // Campos opcionales al final: los registros anteriores terminan en la hora
+        if (message.hasAttachment()) {
+            writeString(recordOutput, message.getAttachmentName());
+            writeString(recordOutput, message.getAttachmentType());
+            recordOutput.writeLong(message.getAttachmentSize());
+        }
+        long position = writeRecord();
+        if (indexSize >= 0) {
+            indexPut(message.getId(), position);
+        }
+    }
+
+    private long writeRecord() throws IOException {
+        int length = recordBuffer.size();
+        if (activeSegmentBytes > 0 && activeSegmentBytes + length + HEADER_BYTES + TRAILER_BYTES > SEGMENT_MAX_BYTES) {
+            rollSegment();
+        }
+        long position = ((long) (segments.size() - 1) << 32) | activeSegmentBytes;
+        crc.reset();
+        crc.update(recordBuffer.toByteArray(), 0, length);
+        output.writeInt(length);
+        output.writeInt((int) crc.getValue());
+        recordBuffer.writeTo(output);
+        output.writeInt(length);
+        activeSegmentBytes += length + HEADER_BYTES + TRAILER_BYTES;
+        return position;
+    }
+
+    // --- Índice ---
+
+    private void ensureIndex() throws IOException {
+        if (indexSize >= 0) return;
+        output.flush();
+        indexIds = new String[1024];
+        indexPositions = new long[1024];
+        indexSize = 0;
+        for (int segment = 0; segment < segments.size(); segment++) {
+            File file = segments.get(segment);
+            if (!file.exists()) continue;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+                long offset = 0;
+                long end = file.length();
+                while (offset < end) {
+                    int length = in.readInt();
+                    in.readInt(); // CRC: ya validado al abrir para la cola
+                    byte op = in.readByte();
+                    int idLength = in.readInt();
+                    byte[] idBytes = new byte[idLength];
+                    in.readFully(idBytes);
+                    String id = new String(idBytes, StandardCharsets.UTF_8);
+                    in.skipBytes(length - 1 - 4 - idLength + TRAILER_BYTES);
+                    if (op == OP_PUT) {
+                        indexPut(id, ((long) segment << 32) | offset);
+                    } else {
+                        indexRemove(id);
+                    }
+                    offset += HEADER_BYTES + length + TRAILER_BYTES;
+                }
+            }
+        }
+    }
+
+    private void indexPut(String id, long position) {
+        int index = indexSize > 0 && id.compareTo(indexIds[indexSize - 1]) > 0
+                ? -indexSize - 1 // Caso habitual: la clave más nueva va al final sin buscar
+                : Arrays.binarySearch(indexIds, 0, indexSize, id);
+        if (index >= 0) {
+            indexPositions[index] = position;
+            return;
+        }
+        index = -index - 1;
+        if (indexSize == indexIds.length) {
+            indexIds = Arrays.copyOf(indexIds, indexSize * 2);
+            indexPositions = Arrays.copyOf(indexPositions, indexSize * 2);
+        }
+        System.arraycopy(indexIds, index, indexIds, index + 1, indexSize - index);
+        System.arraycopy(indexPositions, index, indexPositions, index + 1, indexSize - index);
+        indexIds[index] = id;
+        indexPositions[index] = position;
+        indexSize++;
+    }
+
+    private void indexRemove(String id) {
+        int index = Arrays.binarySearch(indexIds, 0, indexSize, id);
+        if (index < 0) return;
+        System.arraycopy(indexIds, index + 1, indexIds, index, indexSize - index - 1);
+        System.arraycopy(indexPositions, index + 1, indexPositions, index, indexSize - index - 1);
+        indexIds[--indexSize] = null;
+    }
+
+    private List<Message> readIndexRange(int from, int to) throws IOException {
+        output.flush();
+        List<Message> result = new ArrayList<>(Math.max(0, to - from));
+        RandomAccessFile file = null;
+        int openSegment = -1;
+        try {
+            for (int i = from; i < to; i++) {
+                int segment = (int) (indexPositions[i] >>> 32);
+                if (segment != openSegment) {
+                    if (file != null) file.close();
+                    file = new RandomAccessFile(segments.get(segment), "r");
+                    openSegment = segment;
+                }
+                file.seek(indexPositions[i] & 0xFFFFFFFFL);
+                byte[] payload = new byte[file.readInt()];
+                file.readInt();
+                file.readFully(payload);
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+                in.readByte();
+                result.add(readMessage(in, readString(in)));
+            }
+        } finally {
+            if (file != null) file.close();
+        }
+        return result;
+    }
+
+    private void rollSegment() throws IOException {
+        output.close();
+        String name = segments.get(segments.size() - 1).getName();
+        int number = Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        segments.add(segmentFile(number + 1));
+        openActiveSegment();
+    }
+
+    private void openActiveSegment() throws IOException {
+        File active = segments.get(segments.size() - 1);
+        activeSegmentBytes = active.length();
+        output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(active, true), 64 * 1024));
+    }
+
+    private File segmentFile(int number) {
+        return new File(directory, String.format(Locale.ROOT, "%08d%s", number, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Comprueba el último registro del segmento activo. Si está incompleto o corrupto, recorre el segmento
+     * desde el principio y lo trunca tras el último registro válido.
+     */
+    private void repairTail() throws IOException {
+        File active = segments.get(segments.size() - 1);
+        if (!active.exists()) return;
+        try (RandomAccessFile file = new RandomAccessFile(active, "rw")) {
+            long end = file.length();
+            if (end == 0 || isValidRecordEndingAt(file, end)) return;
+
+            long position = 0;
+            while (position + HEADER_BYTES + TRAILER_BYTES <= end) {
+                file.seek(position);
+                int length = file.readInt();
+                long next = position + HEADER_BYTES + length + TRAILER_BYTES;
+                if (length < 0 || next > end || !isValidRecordEndingAt(file, next)) break;
+                position = next;
+            }
+            file.setLength(position);
+        }
+    }
+
+    private boolean isValidRecordEndingAt(RandomAccessFile file, long end) throws IOException {
+        if (end < HEADER_BYTES + TRAILER_BYTES) return false;
+        file.seek(end - TRAILER_BYTES);
+        int length = file.readInt();
+        long start = end - TRAILER_BYTES - length - HEADER_BYTES;
+        if (length < 0 || start < 0) return false;
+        file.seek(start);
+        if (file.readInt() != length) return false;
+        int expectedCrc = file.readInt();
+        byte[] payload = new byte[length];
+        file.readFully(payload);
+        CRC32 check = new CRC32();
+        check.update(payload, 0, length);
+        return (int) check.getValue() == expectedCrc;
+    }
+
+    private static Message readMessage(DataInputStream in, String id) throws IOException {
+        String userId = readString(in);
+        String username = readString(in);
+        String text = readString(in);
+        long time = in.readLong();
+        Message message = new Message(userId, username, text, time);
+        message.setId(id);
+        if (in.available() > 0) {
+            String attachmentName = readString(in);
+            String attachmentType = readString(in);
+            message.setAttachment(attachmentName, attachmentType, in.readLong());
+        }
+        return message;
+    }
+
+    // Sin el límite de 64 KB de writeUTF; -1 representa null
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        try {
+            in.readFully(bytes);
+        } catch (EOFException e) {
+            throw new IOException("Truncated record", e);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
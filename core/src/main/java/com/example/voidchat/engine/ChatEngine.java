@@ -0,0 +1,918 @@
+package com.example.voidchat.engine;
+import com.example.voidchat.mqtt.Backoff;
+import com.example.voidchat.metrics.MeteredExecutor;
+import com.example.voidchat.metrics.MetricsSnapshot;
+import com.example.voidchat.mqtt.MessagePayload;
+import com.example.voidchat.mqtt.MqttMetrics;
+import com.example.voidchat.mqtt.PayloadCompressor;
+import com.example.voidchat.mqtt.PayloadDictionary;
+import com.example.voidchat.mqtt.MqttSession;
+import com.example.voidchat.mqtt.Outbox;
+import com.example.voidchat.mqtt.TopicRouter;
+import com.example.voidchat.presence.PresenceSignal;
+import com.example.voidchat.trace.TraceStage;
+import com.example.voidchat.trace.Tracer;
+import com.example.voidchat.transfer.AttachmentManifest;
+import com.example.voidchat.transfer.AttachmentReceiver;
+import com.example.voidchat.transfer.AttachmentSender;
+import com.example.voidchat.transfer.TransferFrame;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.json.JSONException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * La lógica de mensajería de un cliente, sin nada de Android: la conexión, el formato de las cargas, el reparto
+ * por temas y los adjuntos. En la app la subclase es {@code MQTTManager}, que pone el broker, las credenciales
+ * y el usuario de Firebase; fuera de ella se puede crear uno por cliente simulado (pruebas de carga).
+ *
+ * La subclase dice quién es el cliente ({@link #getClientId()}), dónde guarda su outbox
+ * ({@link #getOutboxDirectory()}) y qué usuario anuncia su presencia ({@link #getSignedInUserId()}). Se leen
+ * al crear la sesión, en el hilo de red.
+ *
+ * Las pantallas no conectan ni desconectan: se registran en los temas que les interesan con
+ * {@link #subscribe} y se dan de baja con {@link #unsubscribe}. Cada registro es una referencia, así que
+ * cambiar de chat sólo cuesta un SUBSCRIBE y un UNSUBSCRIBE sobre la conexión ya abierta.
+ *
+ * La sesión es persistente ({@link MqttSession}): el identificador de cliente es el mismo en cada arranque,
+ * el broker guarda lo que llega durante un corte y lo que se envía sin conexión espera en un outbox en disco.
+ *
+ * La conexión también es la presencia del usuario: al conectar publica "en línea" retenido en
+ * {@code presence/{uid}} y deja registrado un Last Will con "desconectado", que el broker publica si la
+ * conexión cae sin despedirse.
+ *
+ * Los adjuntos viajan aparte, en trozos, con {@link #sendAttachment} y {@link #receiveAttachment}: el emisor
+ * los envía de uno en uno con su propia ventana y atiende las peticiones de reanudación de los receptores.
+ */
+public abstract class ChatEngine {
+
+    // --- Constantes ---
+    /**
+     * Cómo salen los mensajes. La lectura acepta los tres, pero los clientes ya instalados sólo entienden JSON:
+     * el binario se activa cuando ya no quedan.
+     */
+    public enum PayloadFormat {
+        // JSON, el formato anterior al binario de MessagePayload; lo leen todas las versiones
+        LEGACY_JSON,
+        // Binario sin comprimir, para clientes que no conocen la bandera de compresión
+        BINARY,
+        // Binario, comprimido con el diccionario de la app a partir de PayloadCompressor.DEFAULT_THRESHOLD bytes
+        COMPRESSED
+    }
+    public static final PayloadFormat DEFAULT_PAYLOAD_FORMAT = PayloadFormat.LEGACY_JSON;
+    // Mensajes QoS 1 que pueden esperar su confirmación a la vez
+    public static final int DEFAULT_MAX_IN_FLIGHT = 16;
+    // --- Variables de Instancia ---
+    private final String serverUri;
+    // @Volatile asegura que los cambios en esta variable sean visibles para todos los hilos inmediatamente.
+    // Es crucial porque la sesión se crea y destruye en un hilo de fondo.
+    private volatile MqttSession session;
+    // Usuario cuya presencia anuncia la sesión actual; se fija al crearla, el Last Will no se puede cambiar después
+    private volatile String presenceUserId;
+    private final int maxInFlight;
+    private final PayloadFormat payloadFormat;
+    // Marca la publicación y la llegada de los mensajes trazados; apagado salvo que lo enciendan
+    private final Tracer tracer;
+    // Se crean antes que los ejecutores, que anotan en ellas su cola; duran lo que la app, no lo que la sesión
+    private final MqttMetrics metrics = new MqttMetrics();
+    // Filtros registrados, con comodines: cada mensaje llega sólo a quien escucha un filtro que coincide
+    private final TopicRouter<MQTTListener> subscriptions = new TopicRouter<>();
+    // Avisos efímeros (QoS 0): llegan en bruto, sin pasar por MessagePayload
+    private final TopicRouter<SignalListener> signals = new TopicRouter<>();
+    // Trozos de adjuntos y peticiones de reanudación: también en bruto, pero con QoS 1
+    private final TopicRouter<SignalListener> transfers = new TopicRouter<>();
+    // Adjuntos propios que se pueden volver a enviar a quien los pida, por clave. Sólo desde executorService
+    private final Map<String, AttachmentSender> outgoing = new HashMap<>();
+    // Los envíos van de uno en uno para no pasar de MqttSession.DIRECT_IN_FLIGHT. Sólo desde executorService
+    private final ArrayDeque<SendJob> sendQueue = new ArrayDeque<>();
+    private SendJob activeSend;
+    // Recepciones en curso, por clave. Sólo desde dispatchExecutor, que es donde llegan sus trozos
+    private final Map<String, Incoming> incoming = new HashMap<>();
+    // Mensajes con id aún sin PUBACK, por identificador del outbox. Se publica y se anota bajo su cerrojo:
+    // así la confirmación, que llega en el hilo de Paho, no puede adelantarse a la anotación. Al abrir el
+    // outbox se rellena con lo que quedó pendiente de la ejecución anterior, que se reenvía
+    private final Map<Long, String> unacknowledged = new HashMap<>();
+    // Cambios de registros hechos sin conexión, que el broker no conoce aunque conserve la sesión
+    private volatile boolean subscriptionsChangedOffline;
+    private final Set<String> pendingUnsubscribes = ConcurrentHashMap.newKeySet();
+    // Usamos un ejecutor con un solo hilo para poner todas las operaciones de red en una cola.
+    // Esto es más eficiente que crear un 'new Thread()' cada vez. Anota la cola que se va formando.
+    private final MeteredExecutor executorService;
+    // Los mensajes recibidos se decodifican y reparten en otro hilo, también en orden de llegada: el hilo
+    // de Paho queda libre para seguir leyendo de la red y confirmando.
+    private final MeteredExecutor dispatchExecutor;
+    // Reutilizan su Deflater/Inflater, así que uno por hilo: se crean la primera vez que se usan
+    private PayloadCompressor publishCompressor; // Sólo desde executorService
+    private PayloadCompressor arrivalCompressor; // Sólo desde dispatchExecutor
+
+    // --- Interfaz de Callback ---
+    public interface MQTTListener {
+        void onConnected();
+        void onDisconnected();
+        void onMessage(String topic, String msg, String senderUid);
+        // La carga completa, con su id, su hora y su traza; quien sólo quiere el texto se queda con onMessage
+        default void onPayload(String topic, MessagePayload payload) {
+            onMessage(topic, payload.text, payload.userId);
+        }
+        // El broker confirmó la publicación con ese identificador del outbox
+        void onDelivered(long publishId);
+        // Lo mismo, para los enviados con id: el de la carga, que es la clave del mensaje en Firebase
+        default void onMessageDelivered(String messageId) { }
+        void onPublishFailed(long publishId, String error);
+        void onError(String error);
+    }
+    // Avisos efímeros como "está escribiendo": la carga tal cual llegó; cada tipo de aviso tiene su formato
+    public interface SignalListener {
+        void onSignal(String topic, byte[] payload);
+    }
+    // Progreso de un adjunto, en hilos de fondo; la clave es la del mensaje de Firebase que lo anuncia
+    public interface AttachmentListener {
+        void onProgress(String transferId, int percent);
+        void onComplete(String transferId, File file);
+        void onFailed(String transferId, String error);
+    }
+    protected ChatEngine(String serverUri, int maxInFlight, Tracer tracer) {
+        this(serverUri, maxInFlight, tracer, Executors.defaultThreadFactory());
+    }
+
+    /**
+     * @param threadFactory Crea los hilos de red y de reparto; los clientes simulados los piden virtuales. Los
+     *                      de Paho y el de la sesión son siempre de plataforma.
+     */
+    protected ChatEngine(String serverUri, int maxInFlight, Tracer tracer, ThreadFactory threadFactory) {
+        this(serverUri, maxInFlight, DEFAULT_PAYLOAD_FORMAT, tracer, threadFactory);
+    }
+
+    /**
+     * @param payloadFormat Formato en que se publican los mensajes; ver {@link PayloadFormat}.
+     */
+    protected ChatEngine(String serverUri, int maxInFlight, PayloadFormat payloadFormat, Tracer tracer,
+                         ThreadFactory threadFactory) {
+        this.serverUri = serverUri;
+        this.maxInFlight = maxInFlight;
+        this.payloadFormat = payloadFormat;
+        this.tracer = tracer;
+        this.executorService = new MeteredExecutor(metrics.registry.histogram("mqtt.network_queue"), threadFactory);
+        this.dispatchExecutor = new MeteredExecutor(metrics.registry.histogram("mqtt.dispatch_queue"), threadFactory);
+        registerGauges();
+    }
+    // --- Métodos Públicos ---
+
+    /**
+     * Registra al listener en el tema. Conecta si hace falta y sólo envía SUBSCRIBE si nadie escuchaba ya
+     * ese tema. Cuando la suscripción está activa, el listener recibe onConnected.
+     */
+    public void subscribe(final String topic, final MQTTListener listener) {
+        final boolean first = subscriptions.add(topic, listener);
+        executorService.submit(() -> {
+            try {
+                MqttSession current = ensureSession();
+                if (!current.isConnected()) {
+                    // Al conectar se suscribe a todos los temas registrados y avisa a todos los listeners
+                    if (first) subscriptionsChangedOffline = true;
+                    return;
+                }
+                if (first) {
+                    pendingUnsubscribes.remove(topic);
+                    current.subscribe(new String[] {topic}, new int[] {1}).waitForCompletion(); // QoS 1: At least once
+                }
+                listener.onConnected();
+            } catch (Exception e) {
+                e.printStackTrace();
+                listener.onError("Connection or Subscription Failed: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Da de baja el registro. La conexión sigue abierta; si era el último interesado en el tema,
+     * se envía UNSUBSCRIBE.
+     */
+    public void unsubscribe(final String topic, final MQTTListener listener) {
+        if (!subscriptions.remove(topic, listener)) {
+            return;
+        }
+        executorService.submit(() -> unsubscribeIfUnused(topic));
+    }
+
+    /**
+     * Registra un listener de avisos efímeros en el filtro (admite comodines). Se suscribe con QoS 0:
+     * lo que se pierde no se reenvía. No conecta por sí solo si no hay ya una sesión.
+     */
+    public void subscribeSignals(final String filter, final SignalListener listener) {
+        subscribeRaw(signals, filter, 0, listener);
+    }
+
+    public void unsubscribeSignals(final String filter, final SignalListener listener) {
+        if (!signals.remove(filter, listener)) {
+            return;
+        }
+        executorService.submit(() -> unsubscribeIfUnused(filter));
+    }
+
+    /**
+     * Envía un adjunto a la sala en trozos. El fichero debe quedarse donde está mientras alguien pueda pedirlo:
+     * quien llegue tarde pide lo que le falta y se le reenvía desde ahí. Calcular el manifiesto lee el fichero
+     * entero una vez, en el hilo de fondo.
+     * @param transferId Clave del mensaje de Firebase que anuncia el adjunto.
+     */
+    public void sendAttachment(final String room, final String transferId, final File file, final String name,
+                               final String mimeType, final AttachmentListener listener) {
+        executorService.submit(() -> {
+            AttachmentSender sender = offer(room, transferId, file, name, mimeType, listener);
+            if (sender != null) enqueueSend(sender, sender::start);
+        });
+    }
+
+    /**
+     * Vuelve a ofrecer un adjunto ya enviado (p. ej. tras reiniciar la app) sin publicar nada: sólo se envía
+     * si un receptor lo pide.
+     */
+    public void offerAttachment(final String room, final String transferId, final File file, final String name,
+                                final String mimeType, final AttachmentListener listener) {
+        executorService.submit(() -> {
+            offer(room, transferId, file, name, mimeType, listener);
+        });
+    }
+
+    /**
+     * Recibe un adjunto de la sala en {@code directory}, retomando lo que hubiera de un intento anterior.
+     * Se suscribe a sus trozos y pide al emisor que reanude desde el primero que falta.
+     */
+    public void receiveAttachment(final String room, final String transferId, final File directory,
+                                  final AttachmentListener listener) {
+        dispatchExecutor.execute(() -> {
+            if (incoming.containsKey(transferId)) return;
+            AttachmentReceiver receiver;
+            try {
+                receiver = AttachmentReceiver.open(directory, transferId);
+            } catch (IOException e) {
+                listener.onFailed(transferId, "Cannot open attachment: " + e.getMessage());
+                return;
+            }
+            if (receiver.isComplete()) {
+                listener.onComplete(transferId, receiver.getFile());
+                return;
+            }
+            Incoming transfer = new Incoming(room, transferId, receiver, listener);
+            incoming.put(transferId, transfer);
+            subscribeRaw(transfers, TransferFrame.dataTopic(room, transferId), TransferFrame.QOS, transfer);
+            // Va detrás del SUBSCRIBE en el mismo hilo: lo que se reenvíe ya encuentra la suscripción
+            requestResume(transfer);
+        });
+    }
+
+    /**
+     * Envía un aviso efímero con QoS 0 y sin retener: no pasa por el outbox y sin conexión se descarta.
+     */
+    public void publishSignal(final String topic, final byte[] payload) {
+        executorService.submit(() -> {
+            MqttSession current = session;
+            if (current != null) {
+                current.publishNow(topic, payload, 0, false);
+            }
+        });
+    }
+
+    /**
+     * Publica un mensaje en un tópico específico. Se guarda en el outbox en disco y se envía en orden en cuanto
+     * haya conexión, aunque la app se cierre antes; hasta {@code maxInFlight} mensajes viajan a la vez.
+     * La operación se ejecuta en un hilo de fondo. Las confirmaciones llegan a los listeners registrados en el tema.
+     * @param topic El tópico en el que publicar.
+     * @param text El texto del mensaje.
+     * @param userId El UID del usuario que envía el mensaje.
+     */
+    public void sendMessage(final String topic, final String text, final String userId) {
+        sendMessage(topic, text, userId, 0);
+    }
+
+    /**
+     * Como {@link #sendMessage(String, String, String)}, con el id de traza del mensaje (0 si no se traza).
+     * Se marca {@link TraceStage#MQTT_PUBLISH} con la hora en que se deja en el outbox, tomada antes de dejarlo:
+     * la sesión puede enviarlo, y el otro recibirlo, antes de que vuelva la llamada.
+     */
+    public void sendMessage(final String topic, final String text, final String userId, final long traceId) {
+        sendMessage(topic, new MessagePayload(null, text, userId, null, System.currentTimeMillis(), traceId));
+    }
+
+    /**
+     * Publica la carga tal cual. Con su id (la clave push del mensaje en Firebase) quien la recibe puede
+     * mostrarla antes de que llegue por Firebase y reconocerla después.
+     */
+    public void sendMessage(final String topic, final MessagePayload payload) {
+        executorService.submit(() -> {
+            try {
+                // Calidad de Servicio 1: "entregar al menos una vez".
+                byte[] bytes;
+                switch (payloadFormat) {
+                    case LEGACY_JSON: bytes = payload.encodeJson(); break;
+                    case BINARY: bytes = payload.encode(); break;
+                    default: bytes = publishCompressor().compress(payload.encode()); break;
+                }
+                MqttSession session = ensureSession();
+                long publishAt = tracer.nowMicros();
+                synchronized (unacknowledged) {
+                    long publishId = session.publish(topic, bytes, 1, payload.id);
+                    if (payload.id != null) unacknowledged.put(publishId, payload.id);
+                }
+                tracer.mark(payload.traceId, TraceStage.MQTT_PUBLISH, publishAt);
+            } catch (JSONException | IOException | MqttException e) {
+                for (MQTTListener listener : subscriptions.match(topic)) {
+                    listener.onPublishFailed(-1, "Cannot queue message: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Foto de las métricas de la conexión: latencia hasta el PUBACK, tiempos de conexión, colas de los hilos,
+     * reconexiones y cargas que no se pudieron leer. Se puede llamar desde cualquier hilo.
+     */
+    public MetricsSnapshot getMetricsSnapshot() {
+        return metrics.registry.snapshot();
+    }
+
+    /**
+     * Desconecta como {@link #disconnect()} y termina los hilos del motor; después ya no se puede usar. La app
+     * conserva el suyo mientras vive, esto es para quien crea y descarta motores, como las pruebas de carga.
+     */
+    public void shutdown() {
+        disconnect();
+        executorService.submit(() -> {
+            if (publishCompressor != null) publishCompressor.close();
+            // Detrás de lo que disconnect() dejó en su cola
+            dispatchExecutor.execute(() -> {
+                if (arrivalCompressor != null) arrivalCompressor.close();
+            });
+            dispatchExecutor.shutdown();
+        });
+        executorService.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        return executorService.awaitTermination(timeout, unit)
+                && dispatchExecutor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Cierra la conexión compartida al cerrar sesión. Los registros se conservan: la próxima llamada a
+     * subscribe vuelve a conectar. Lo que quedaba en el outbox era del usuario que sale y se descarta.
+     * La operación se ejecuta en un hilo de fondo.
+     */
+    public void disconnect() {
+        executorService.submit(() -> {
+            MqttSession current = session;
+            if (current == null) {
+                // Si ya está desconectado, no hacemos nada.
+                return;
+            }
+            try {
+                // Desconectar a propósito no dispara el Last Will: el "desconectado" se publica a mano
+                if (presenceUserId != null) {
+                    current.publishNow(PresenceSignal.topic(presenceUserId),
+                            PresenceSignal.encode(false, System.currentTimeMillis()), PresenceSignal.QOS, true);
+                }
+                // Sus suscripciones tampoco deben seguir en la sesión del broker
+                if (current.isConnected()) {
+                    for (String topic : allTopics()) {
+                        current.unsubscribe(topic).waitForCompletion();
+                    }
+                }
+                current.stop();
+                current.getOutbox().clear();
+                current.getOutbox().close();
+            } catch (Exception e) {
+                for (MQTTListener listener : subscriptions.allListeners()) {
+                    listener.onError("Disconnection Error: " + e.getMessage());
+                }
+            } finally {
+                // 'finally' asegura que estas líneas se ejecuten incluso si hay un error.
+                closeTransfers();
+                session = null;
+                presenceUserId = null;
+                pendingUnsubscribes.clear();
+                for (MQTTListener listener : subscriptions.allListeners()) {
+                    listener.onDisconnected();
+                }
+            }
+        });
+    }
+
+
+    // --- Métodos de la Subclase ---
+
+    /**
+     * Identificador de cliente estable: el broker sólo conserva la sesión si volvemos con el mismo.
+     */
+    protected abstract String getClientId();
+
+    /** Carpeta del outbox; lo que quede ahí se envía al volver a crear la sesión. */
+    protected abstract File getOutboxDirectory();
+
+    /**
+     * @return El usuario cuya presencia anuncia la conexión, o null si aún no hay sesión iniciada.
+     */
+    protected abstract String getSignedInUserId();
+
+    /**
+     * Credenciales y tiempos de la conexión. El motor añade el Last Will de la presencia; la sesión fija
+     * cleanSession, la reconexión y el máximo en vuelo.
+     */
+    protected MqttConnectOptions createConnectOptions() {
+        return new MqttConnectOptions();
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    /**
+     * Registra el listener en el filtro con la QoS dada y envía SUBSCRIBE si es el primero. No conecta por
+     * sí solo si no hay ya una sesión.
+     */
+    private void subscribeRaw(TopicRouter<SignalListener> router, final String filter, final int qos,
+                              final SignalListener listener) {
+        if (!router.add(filter, listener)) {
+            return;
+        }
+        executorService.submit(() -> {
+            try {
+                MqttSession current = ensureSession();
+                if (!current.isConnected()) {
+                    subscriptionsChangedOffline = true;
+                    return;
+                }
+                pendingUnsubscribes.remove(filter);
+                current.subscribe(new String[] {filter}, new int[] {qos}).waitForCompletion();
+            } catch (Exception e) {
+                // Se renueva en la próxima conexión
+                subscriptionsChangedOffline = true;
+                e.printStackTrace();
+            }
+        });
+    }
+
+    // --- Adjuntos ---
+
+    /**
+     * Prepara el emisor de un adjunto y escucha sus peticiones de reanudación. Sólo desde executorService.
+     * @return El emisor, o null si ya estaba ofrecido o no se pudo leer el fichero.
+     */
+    private AttachmentSender offer(String room, String transferId, File file, String name, String mimeType,
+                                   AttachmentListener listener) {
+        if (outgoing.containsKey(transferId)) return null;
+        AttachmentSender sender;
+        try {
+            AttachmentManifest manifest = AttachmentManifest.describe(file, name, mimeType,
+                    AttachmentManifest.DEFAULT_CHUNK_SIZE);
+            sender = new AttachmentSender(TransferFrame.dataTopic(room, transferId), file, manifest,
+                    directPublisher(), MqttSession.DIRECT_IN_FLIGHT, executorService,
+                    new SenderListener(transferId, file, listener));
+        } catch (IOException e) {
+            listener.onFailed(transferId, "Cannot read attachment: " + e.getMessage());
+            return null;
+        }
+        outgoing.put(transferId, sender);
+        final AttachmentSender target = sender;
+        subscribeRaw(transfers, TransferFrame.resumeTopic(room, transferId), TransferFrame.QOS, (topic, payload) -> {
+            try {
+                if (TransferFrame.kindOf(payload) != TransferFrame.KIND_RESUME) return;
+            } catch (IllegalArgumentException e) {
+                metrics.parseFailures.increment();
+                return;
+            }
+            final int from = TransferFrame.resumeFrom(payload);
+            final boolean needManifest = TransferFrame.resumeNeedsManifest(payload);
+            executorService.submit(() -> resumeSend(target, from, needManifest));
+        });
+        return sender;
+    }
+
+    /**
+     * Atiende una petición de reanudación. Si ese adjunto es el que se está enviando, sólo retrocede;
+     * si no, espera su turno en la cola. Sólo desde executorService.
+     */
+    private void resumeSend(AttachmentSender sender, int from, boolean needManifest) {
+        if (from >= sender.getManifest().getChunkCount() && !needManifest) return;
+        if (activeSend != null && activeSend.sender == sender) {
+            sender.resumeFrom(from, needManifest);
+        } else {
+            enqueueSend(sender, () -> sender.resumeFrom(from, needManifest));
+        }
+    }
+
+    private void enqueueSend(AttachmentSender sender, Runnable start) {
+        sendQueue.add(new SendJob(sender, start));
+        startNextSend();
+    }
+
+    private void startNextSend() {
+        if (activeSend != null || sendQueue.isEmpty()) return;
+        activeSend = sendQueue.poll();
+        activeSend.start.run();
+    }
+
+    private AttachmentSender.Publisher directPublisher() {
+        return (topic, payload, completion) -> {
+            MqttSession current = session;
+            return current != null && current.publishDirect(topic, payload, TransferFrame.QOS, new IMqttActionListener() {
+                @Override public void onSuccess(IMqttToken token) { completion.onAcked(); }
+                @Override public void onFailure(IMqttToken token, Throwable error) { completion.onFailed(error); }
+            });
+        };
+    }
+
+    /**
+     * Publica la petición de reanudación de una recepción. Sólo desde dispatchExecutor, donde vive el receptor.
+     */
+    private void requestResume(Incoming transfer) {
+        final byte[] request = transfer.receiver.resumeRequest();
+        if (request == null) return;
+        final String topic = TransferFrame.resumeTopic(transfer.room, transfer.transferId);
+        executorService.submit(() -> {
+            MqttSession current = session;
+            if (current != null) {
+                current.publishNow(topic, request, TransferFrame.QOS, false);
+            }
+        });
+    }
+
+    /**
+     * Tras reconectar: el envío en curso sigue desde lo último confirmado y cada recepción pide lo que le falta.
+     * Sólo desde executorService.
+     */
+    private void resumeTransfers() {
+        if (activeSend != null) {
+            activeSend.sender.resume();
+        }
+        dispatchExecutor.execute(() -> {
+            for (Incoming transfer : incoming.values()) {
+                requestResume(transfer);
+            }
+        });
+    }
+
+    /**
+     * Al cerrar sesión: los adjuntos eran del usuario que sale. Los ficheros parciales se quedan y una recepción
+     * posterior los retoma. Sólo desde executorService.
+     */
+    private void closeTransfers() {
+        for (AttachmentSender sender : outgoing.values()) {
+            try {
+                sender.close();
+            } catch (IOException ignored) {
+                // Sólo se leía
+            }
+        }
+        outgoing.clear();
+        sendQueue.clear();
+        activeSend = null;
+        transfers.clear();
+        dispatchExecutor.execute(() -> {
+            for (Incoming transfer : incoming.values()) {
+                try {
+                    transfer.receiver.close();
+                } catch (IOException ignored) {
+                    // Lo escrito ya está en el fichero parcial
+                }
+            }
+            incoming.clear();
+        });
+    }
+
+    private static final class SendJob {
+        final AttachmentSender sender;
+        final Runnable start;
+
+        SendJob(AttachmentSender sender, Runnable start) {
+            this.sender = sender;
+            this.start = start;
+        }
+    }
+
+    private final class SenderListener implements AttachmentSender.Listener {
+        private final String transferId;
+        private final File file;
+        private final AttachmentListener listener;
+        private int lastPercent = -1;
+        private volatile boolean completed;
+
+        SenderListener(String transferId, File file, AttachmentListener listener) {
+            this.transferId = transferId;
+            this.file = file;
+            this.listener = listener;
+        }
+
+        @Override
+        public synchronized void onProgress(int ackedChunks, int chunkCount) {
+            int percent = ackedChunks * 100 / chunkCount;
+            if (percent != lastPercent && !completed) {
+                lastPercent = percent;
+                listener.onProgress(transferId, percent);
+            }
+        }
+
+        @Override
+        public void onSent() {
+            executorService.submit(() -> {
+                AttachmentSender sender = outgoing.get(transferId);
+                if (activeSend != null && activeSend.sender == sender) {
+                    activeSend = null;
+                    startNextSend();
+                }
+                if (!completed) {
+                    completed = true;
+                    listener.onComplete(transferId, file);
+                }
+            });
+        }
+
+        @Override
+        public void onStalled(Throwable error) {
+            // Sin conexión: resumeTransfers lo retoma al reconectar
+        }
+    }
+
+    /**
+     * Una recepción en curso; recibe sus trozos en dispatchExecutor.
+     */
+    private final class Incoming implements SignalListener {
+        final String room;
+        final String transferId;
+        final AttachmentReceiver receiver;
+        final AttachmentListener listener;
+        private int lastPercent = -1;
+
+        Incoming(String room, String transferId, AttachmentReceiver receiver, AttachmentListener listener) {
+            this.room = room;
+            this.transferId = transferId;
+            this.receiver = receiver;
+            this.listener = listener;
+        }
+
+        @Override
+        public void onSignal(String topic, byte[] payload) {
+            if (incoming.get(transferId) != this) return;
+            AttachmentManifest manifest = receiver.getManifest();
+            boolean last;
+            try {
+                last = TransferFrame.kindOf(payload) == TransferFrame.KIND_CHUNK && manifest != null
+                        && TransferFrame.chunkIndex(payload) == manifest.getChunkCount() - 1;
+                if (receiver.onFrame(payload)) {
+                    finish();
+                    listener.onComplete(transferId, receiver.getFile());
+                    return;
+                }
+            } catch (IllegalArgumentException e) {
+                // Trozo dañado o ajeno: se descarta y se vuelve a pedir al terminar la pasada
+                metrics.parseFailures.increment();
+                last = false;
+            } catch (IOException e) {
+                finish();
+                listener.onFailed(transferId, "Cannot write attachment: " + e.getMessage());
+                return;
+            }
+            manifest = receiver.getManifest();
+            if (manifest != null && manifest.getChunkCount() > 0) {
+                int percent = receiver.getReceivedChunks() * 100 / manifest.getChunkCount();
+                if (percent != lastPercent) {
+                    lastPercent = percent;
+                    listener.onProgress(transferId, percent);
+                }
+            }
+            // El emisor llegó al final y faltan trozos: se piden desde el primero que falta
+            if (last) requestResume(this);
+        }
+
+        private void finish() {
+            incoming.remove(transferId);
+            try {
+                receiver.close();
+            } catch (IOException ignored) {
+                // Completo o fallido, ya no se escribe
+            }
+            String topic = TransferFrame.dataTopic(room, transferId);
+            if (transfers.remove(topic, this)) {
+                executorService.submit(() -> unsubscribeIfUnused(topic));
+            }
+        }
+    }
+
+    /**
+     * Crea y arranca la sesión si no existe; a partir de ahí conecta y reconecta sola.
+     * Sólo desde el hilo de executorService.
+     */
+    private MqttSession ensureSession() throws IOException, MqttException {
+        if (session == null) {
+            Outbox outbox = Outbox.open(getOutboxDirectory());
+            synchronized (unacknowledged) {
+                unacknowledged.clear();
+                unacknowledged.putAll(outbox.pendingKeys());
+            }
+            presenceUserId = getSignedInUserId();
+            session = new MqttSession(serverUri, getClientId(), connectOptions(presenceUserId), outbox,
+                    maxInFlight, new Backoff(), getSessionCallback(), metrics);
+            session.start();
+        }
+        return session;
+    }
+
+    /**
+     * Si el broker perdió la sesión, o los registros cambiaron sin conexión, se renuevan todos en un solo
+     * SUBSCRIBE (mensajes con QoS 1, avisos con QoS 0); las bajas pendientes se envían después.
+     */
+    private void syncSubscriptions(MqttSession current, boolean sessionPresent) throws MqttException {
+        Set<String> messageTopics = subscriptions.topics();
+        messageTopics.addAll(transfers.topics());
+        Set<String> signalTopics = signals.topics();
+        int count = messageTopics.size() + signalTopics.size();
+        if ((!sessionPresent || subscriptionsChangedOffline) && count > 0) {
+            String[] topics = new String[count];
+            int[] qos = new int[count];
+            int i = 0;
+            for (String topic : messageTopics) {
+                topics[i] = topic;
+                qos[i++] = 1;
+            }
+            for (String topic : signalTopics) {
+                topics[i] = topic;
+                qos[i++] = 0;
+            }
+            current.subscribe(topics, qos).waitForCompletion();
+        }
+        subscriptionsChangedOffline = false;
+        for (String topic : pendingUnsubscribes) {
+            if (!messageTopics.contains(topic) && !signalTopics.contains(topic)) {
+                current.unsubscribe(topic).waitForCompletion();
+            }
+            pendingUnsubscribes.remove(topic);
+        }
+    }
+
+    /**
+     * Envía UNSUBSCRIBE si nadie volvió a registrarse en el tema mientras tanto.
+     * Sólo desde el hilo de executorService.
+     */
+    private void unsubscribeIfUnused(String topic) {
+        MqttSession current = session;
+        if (current == null || subscriptions.referenceCount(topic) > 0 || signals.referenceCount(topic) > 0
+                || transfers.referenceCount(topic) > 0) {
+            return;
+        }
+        if (!current.isConnected()) {
+            // La sesión persistente recuerda la suscripción: se cancela al volver
+            pendingUnsubscribes.add(topic);
+            return;
+        }
+        try {
+            current.unsubscribe(topic).waitForCompletion();
+        } catch (MqttException e) {
+            pendingUnsubscribes.add(topic);
+            e.printStackTrace();
+        }
+    }
+
+    private Set<String> allTopics() {
+        Set<String> topics = subscriptions.topics();
+        topics.addAll(signals.topics());
+        topics.addAll(transfers.topics());
+        return topics;
+    }
+
+    /**
+     * Sólo desde el hilo de dispatchExecutor. Los listeners que se registran o se dan de baja mientras tanto
+     * no interrumpen el reparto: se usa la lista del momento.
+     * @param arrivedMicros Cuándo lo entregó Paho, según el tracer; la espera en la cola cuenta en la llegada.
+     */
+    private void dispatch(String topic, byte[] message, long arrivedMicros) {
+        for (SignalListener listener : transfers.match(topic)) {
+            listener.onSignal(topic, message);
+        }
+        for (SignalListener listener : signals.match(topic)) {
+            listener.onSignal(topic, message);
+        }
+        List<MQTTListener> listeners = subscriptions.match(topic);
+        if (listeners.isEmpty()) return;
+        try {
+            MessagePayload payload = MessagePayload.decode(arrivalCompressor().decompress(message));
+            // Los propios vuelven también por el tema; su llegada no es la del otro teléfono
+            if (payload.traceId != 0 && !Objects.equals(payload.userId, presenceUserId)) {
+                tracer.mark(payload.traceId, TraceStage.MQTT_ARRIVED, arrivedMicros);
+            }
+            for (MQTTListener listener : listeners) {
+                listener.onPayload(topic, payload);
+            }
+        } catch (IllegalArgumentException e) {
+            metrics.parseFailures.increment();
+            for (MQTTListener listener : listeners) {
+                listener.onError("Error parsing message: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Indicadores que se leen al sacar la foto. Leen la sesión del momento, que cambia al cerrar sesión.
+     */
+    private void registerGauges() {
+        metrics.registry.gauge("mqtt.network_queue_now", executorService::getQueueDepth);
+        metrics.registry.gauge("mqtt.dispatch_queue_now", dispatchExecutor::getQueueDepth);
+        metrics.registry.gauge("mqtt.outbox", () -> {
+            MqttSession current = session;
+            return current != null ? current.getOutbox().size() : 0;
+        });
+        metrics.registry.gauge("mqtt.in_flight", () -> {
+            MqttSession current = session;
+            return current != null ? current.getWindow().getInFlight() : 0;
+        });
+    }
+
+    private PayloadCompressor publishCompressor() {
+        if (publishCompressor == null) publishCompressor = new PayloadCompressor(PayloadDictionary.builtIn());
+        return publishCompressor;
+    }
+
+    private PayloadCompressor arrivalCompressor() {
+        if (arrivalCompressor == null) arrivalCompressor = new PayloadCompressor(PayloadDictionary.builtIn());
+        return arrivalCompressor;
+    }
+
+    /**
+     * @param userId Usuario cuyo Last Will se registra, o null si aún no hay sesión iniciada.
+     */
+    private MqttConnectOptions connectOptions(String userId) {
+        MqttConnectOptions options = createConnectOptions();
+        if (userId != null) {
+            PresenceSignal.setWill(options, userId);
+        }
+        return options;
+    }
+    private MqttSession.Callback getSessionCallback() {
+        return new MqttSession.Callback() {
+            @Override
+            public void onConnected(boolean sessionPresent) {
+                executorService.submit(() -> {
+                    MqttSession current = session;
+                    if (current == null) return;
+                    String userId = presenceUserId;
+                    if (userId != null) {
+                        // Sustituye al Last Will que el broker retuvo si la conexión anterior se cayó
+                        current.publishNow(PresenceSignal.topic(userId),
+                                PresenceSignal.encode(true, System.currentTimeMillis()), PresenceSignal.QOS, true);
+                    }
+                    try {
+                        syncSubscriptions(current, sessionPresent);
+                        resumeTransfers();
+                        for (MQTTListener listener : subscriptions.allListeners()) {
+                            listener.onConnected();
+                        }
+                    } catch (MqttException e) {
+                        for (MQTTListener listener : subscriptions.allListeners()) {
+                            listener.onError("Resubscription Failed: " + e.getMessage());
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onConnectionLost(Throwable cause) {
+                // Se llama si la conexión se pierde inesperadamente. La sesión reintenta sola.
+                for (MQTTListener listener : subscriptions.allListeners()) {
+                    listener.onError("Connection Lost");
+                    listener.onDisconnected();
+                }
+            }
+
+            @Override
+            public void onMessage(String topic, byte[] message) {
+                // Se llama cuando llega un nuevo mensaje. Se decodifica directamente del array recibido
+                // y se entrega sólo a las pantallas con un filtro que coincide con el tema.
+                long arrivedMicros = tracer.isEnabled() ? tracer.nowMicros() : 0;
+                dispatchExecutor.execute(() -> dispatch(topic, message, arrivedMicros));
+            }
+
+            @Override
+            public void onDelivered(long publishId, String topic) {
+                String messageId;
+                synchronized (unacknowledged) {
+                    messageId = unacknowledged.remove(publishId);
+                }
+                for (MQTTListener listener : subscriptions.match(topic)) {
+                    listener.onDelivered(publishId);
+                    if (messageId != null) listener.onMessageDelivered(messageId);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.voidchat.images;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caché en disco de imágenes descargadas, tal como llegaron (sin decodificar): un fichero por URL, con el
+ * SHA-1 de la URL como nombre. Acotada por bytes; al pasarse se borran las usadas hace más tiempo.
+ *
+ * El orden de uso se guarda en la fecha de modificación de cada fichero, así sobrevive a reiniciar la app.
+ * Las escrituras van a un temporal que se renombra: un fichero a medias nunca se lee como imagen.
+ * Es segura entre hilos.
+ */
+public final class DiskCache {
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File directory;
+    private final long maxBytes;
+    // Nombre de fichero → tamaño, del usado hace más tiempo al más reciente
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    private DiskCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Abre (o crea) la caché. Recorre la carpeta una vez para conocer su tamaño y su orden de uso.
+     */
+    public static DiskCache open(File directory, long maxBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        DiskCache cache = new DiskCache(directory, maxBytes);
+        File[] files = directory.listFiles();
+        if (files != null) {
+            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+            for (File file : files) {
+                if (file.getName().endsWith(TEMP_SUFFIX)) {
+                    // Escritura interrumpida por la muerte del proceso
+                    //noinspection ResultOfMethodCallIgnored
+                    file.delete();
+                    continue;
+                }
+                cache.entries.put(file.getName(), file.length());
+                cache.bytes += file.length();
+            }
+        }
+        cache.trim();
+        return cache;
+    }
+
+    /**
+     * @return Los bytes guardados para la URL, o null si no están.
+     */
+    public byte[] get(String url) {
+        String name = nameOf(url);
+        synchronized (this) {
+            if (entries.get(name) == null) return null;
+        }
+        File file = new File(directory, name);
+        try {
+            byte[] data = Files.readAllBytes(file.toPath());
+            //noinspection ResultOfMethodCallIgnored
+            file.setLastModified(System.currentTimeMillis());
+            return data;
+        } catch (IOException e) {
+            // Borrada entre tanto por trim(): cuenta como fallo de caché
+            return null;
+        }
+    }
+
+    public void put(String url, byte[] data) throws IOException {
+        String name = nameOf(url);
+        File file = new File(directory, name);
+        File temporary = File.createTempFile(name, TEMP_SUFFIX, directory);
+        try (FileOutputStream out = new FileOutputStream(temporary)) {
+            out.write(data);
+        }
+        synchronized (this) {
+            if (!temporary.renameTo(file)) {
+                //noinspection ResultOfMethodCallIgnored
+                temporary.delete();
+                throw new IOException("Cannot replace " + file);
+            }
+            Long previous = entries.put(name, (long) data.length);
+            if (previous != null) bytes -= previous;
+            bytes += data.length;
+            trim();
+        }
+    }
+
+    public synchronized long getBytes() { return bytes; }
+
+    // --- Métodos Privados de Utilidad ---
+
+    private synchronized void trim() {
+        Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            //noinspection ResultOfMethodCallIgnored
+            new File(directory, entry.getKey()).delete();
+            bytes -= entry.getValue();
+            eldest.remove();
+        }
+    }
+
+    static String nameOf(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-1 está en todas las JVM y en Android
+            throw new IllegalStateException(e);
+        }
+    }
+}
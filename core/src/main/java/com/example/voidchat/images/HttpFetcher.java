@@ -0,0 +1,56 @@
+package com.example.voidchat.images;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Descarga una imagen con HttpURLConnection, que está tanto en Android como en la JVM de las pruebas.
+ * Los plazos acotan lo que un hilo puede quedarse esperando a un servidor lento: una lectura bloqueada no
+ * responde a la interrupción.
+ */
+public final class HttpFetcher implements ImageLoader.Fetcher {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 10_000;
+    private static final int READ_TIMEOUT_MILLIS = 15_000;
+
+    private final int maxBytes;
+
+    /**
+     * @param maxBytes Tamaño máximo aceptado: una URL de perfil no debería traer una imagen de varios MB.
+     */
+    public HttpFetcher(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public byte[] fetch(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        try {
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + status + " for " + url);
+            }
+            long length = connection.getContentLengthLong();
+            if (length > maxBytes) {
+                throw new IOException("Image too large: " + length + " bytes");
+            }
+            try (InputStream in = connection.getInputStream()) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(length > 0 ? (int) length : 16 * 1024);
+                byte[] buffer = new byte[16 * 1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    if (out.size() + read > maxBytes) throw new IOException("Image too large");
+                    if (Thread.interrupted()) throw new IOException("Cancelled");
+                    out.write(buffer, 0, read);
+                }
+                return out.toByteArray();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
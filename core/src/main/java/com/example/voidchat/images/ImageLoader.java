@@ -0,0 +1,218 @@
+package com.example.voidchat.images;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Carga de imágenes pensada para listas que se desplazan rápido:
+ * <ol>
+ *   <li>{@link MemoryCache} de imágenes ya decodificadas al tamaño de la vista: un acierto se entrega en la
+ *   misma llamada, sin pasar por ningún hilo;</li>
+ *   <li>{@link DiskCache} con los bytes descargados;</li>
+ *   <li>red, con el {@link Fetcher}.</li>
+ * </ol>
+ * Dos peticiones iguales (misma URL y tamaño) mientras la primera está en curso comparten el trabajo. Cada
+ * petición se puede cancelar, por ejemplo al reciclar la fila; cuando nadie espera ya un trabajo, éste se
+ * abandona en la siguiente etapa (o se interrumpe si aún no había empezado).
+ *
+ * El tipo de imagen lo pone el {@link Decoder}: en la app es un Bitmap decodificado con submuestreo.
+ * {@link #load} y la cancelación se llaman desde el hilo principal, que es el del {@code main} recibido.
+ */
+public final class ImageLoader<T> {
+
+    // --- Interfaces ---
+
+    public interface Fetcher {
+        byte[] fetch(String url) throws IOException;
+    }
+
+    public interface Decoder<T> {
+        /**
+         * Decodifica reduciendo la imagen lo más posible sin quedar por debajo del tamaño pedido
+         * (ver {@link #sampleSize}).
+         */
+        T decode(byte[] data, int targetWidth, int targetHeight) throws IOException;
+    }
+
+    // Se llama en el hilo principal, sólo si la petición no se canceló
+    public interface Target<T> {
+        void onLoaded(T image);
+        void onFailed();
+    }
+
+    private final MemoryCache<String, T> memory;
+    private final DiskCache disk;
+    private final Fetcher fetcher;
+    private final Decoder<T> decoder;
+    private final ExecutorService worker;
+    private final Executor main;
+    // Trabajos en curso por clave; sólo se toca desde el hilo principal
+    private final Map<String, Job> inFlight = new HashMap<>();
+    private final AtomicInteger diskHits = new AtomicInteger();
+    private final AtomicInteger downloads = new AtomicInteger();
+    private final AtomicInteger coalesced = new AtomicInteger();
+    private final AtomicInteger abandoned = new AtomicInteger();
+
+    /**
+     * @param disk Puede ser null: sin caché en disco cada fallo de memoria va a la red.
+     * @param worker Hilos de carga; con varios, una imagen lenta no retiene a las demás.
+     */
+    public ImageLoader(MemoryCache<String, T> memory, DiskCache disk, Fetcher fetcher, Decoder<T> decoder,
+                       ExecutorService worker, Executor main) {
+        this.memory = memory;
+        this.disk = disk;
+        this.fetcher = fetcher;
+        this.decoder = decoder;
+        this.worker = worker;
+        this.main = main;
+    }
+
+    // --- Métodos Públicos ---
+
+    /**
+     * Pide la imagen de {@code url} para una vista de {@code width}×{@code height} píxeles.
+     * @return La petición, para cancelarla si la vista pasa a mostrar otra cosa.
+     */
+    public Request load(String url, int width, int height, Target<T> target) {
+        String key = url + '@' + width + 'x' + height;
+        T cached = memory.get(key);
+        if (cached != null) {
+            target.onLoaded(cached);
+            return new Request(null, target);
+        }
+        Job job = inFlight.get(key);
+        if (job != null) {
+            coalesced.incrementAndGet();
+        } else {
+            job = new Job(key, url, width, height);
+            try {
+                job.future = worker.submit(job);
+            } catch (RejectedExecutionException e) {
+                // El cargador ya se cerró
+                target.onFailed();
+                return new Request(null, target);
+            }
+            inFlight.put(key, job);
+        }
+        Request request = new Request(job, target);
+        job.waiters.add(request);
+        return request;
+    }
+
+    public MemoryCache<String, T> getMemoryCache() { return memory; }
+    public int getDiskHits() { return diskHits.get(); }
+    public int getDownloads() { return downloads.get(); }
+    public int getCoalesced() { return coalesced.get(); }
+    public int getAbandoned() { return abandoned.get(); }
+
+    /**
+     * Factor de submuestreo (potencia de dos) para decodificar una imagen de {@code width}×{@code height}
+     * en una vista de {@code targetWidth}×{@code targetHeight}: el mayor que deja ambos lados al menos del
+     * tamaño pedido. Es el {@code inSampleSize} de BitmapFactory.
+     */
+    public static int sampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int sample = 1;
+        if (targetWidth <= 0 || targetHeight <= 0) return sample;
+        while (width / (sample * 2) >= targetWidth && height / (sample * 2) >= targetHeight) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    // --- Petición ---
+
+    public final class Request {
+        private final Job job;
+        private final Target<T> target;
+        private boolean cancelled;
+
+        private Request(Job job, Target<T> target) {
+            this.job = job;
+            this.target = target;
+        }
+
+        /**
+         * El resultado ya no se entregará. Si era la última petición del trabajo, éste se abandona.
+         */
+        public void cancel() {
+            if (cancelled || job == null) return;
+            cancelled = true;
+            job.waiters.remove(this);
+            if (job.waiters.isEmpty() && inFlight.remove(job.key, job)) {
+                job.abandoned = true;
+                job.future.cancel(true);
+                abandoned.incrementAndGet();
+            }
+        }
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    private final class Job implements Runnable {
+        final String key;
+        final String url;
+        final int width;
+        final int height;
+        // Sólo desde el hilo principal
+        final List<Request> waiters = new ArrayList<>(2);
+        Future<?> future;
+        // Se comprueba entre etapas: una descarga ya empezada no se interrumpe, pero no se decodifica
+        volatile boolean abandoned;
+
+        Job(String key, String url, int width, int height) {
+            this.key = key;
+            this.url = url;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public void run() {
+            T image = null;
+            try {
+                byte[] data = disk != null ? disk.get(url) : null;
+                if (data != null) {
+                    diskHits.incrementAndGet();
+                } else {
+                    if (abandoned) return;
+                    data = fetcher.fetch(url);
+                    downloads.incrementAndGet();
+                    if (disk != null) {
+                        try {
+                            disk.put(url, data);
+                        } catch (IOException e) {
+                            // Sin copia en disco se volverá a descargar; la imagen sirve igual
+                        }
+                    }
+                }
+                if (abandoned) return;
+                image = decoder.decode(data, width, height);
+                if (image != null) memory.put(key, image);
+            } catch (IOException | RuntimeException e) {
+                image = null;
+            }
+            final T result = image;
+            main.execute(() -> finish(this, result));
+        }
+    }
+
+    private void finish(Job job, T image) {
+        inFlight.remove(job.key, job);
+        for (Request request : job.waiters) {
+            if (request.cancelled) continue;
+            if (image != null) {
+                request.target.onLoaded(image);
+            } else {
+                request.target.onFailed();
+            }
+        }
+        job.waiters.clear();
+    }
+}
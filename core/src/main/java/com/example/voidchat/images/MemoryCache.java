@@ -0,0 +1,69 @@
+package com.example.voidchat.images;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caché LRU acotada por bytes, no por número de entradas: un avatar de 48 dp y una foto a pantalla completa
+ * no ocupan lo mismo. Al pasarse del límite se descartan las menos usadas recientemente.
+ * Es segura entre hilos.
+ */
+public final class MemoryCache<K, V> {
+
+    // --- Interfaz de Callback ---
+    public interface Sizer<V> {
+        int sizeOf(V value);
+    }
+
+    private final long maxBytes;
+    private final Sizer<V> sizer;
+    // Con accessOrder, recorrer el mapa empieza por la entrada usada hace más tiempo
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private int hits;
+    private int misses;
+    private int evictions;
+
+    public MemoryCache(long maxBytes, Sizer<V> sizer) {
+        this.maxBytes = maxBytes;
+        this.sizer = sizer;
+    }
+
+    public synchronized V get(K key) {
+        V value = entries.get(key);
+        if (value != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return value;
+    }
+
+    /**
+     * Guarda el valor. Uno que por sí solo no cabe no se guarda, para no vaciar la caché entera por él.
+     */
+    public synchronized void put(K key, V value) {
+        int size = sizer.sizeOf(value);
+        if (size > maxBytes) return;
+        V previous = entries.put(key, value);
+        if (previous != null) bytes -= sizer.sizeOf(previous);
+        bytes += size;
+        Iterator<Map.Entry<K, V>> eldest = entries.entrySet().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= sizer.sizeOf(eldest.next().getValue());
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized long getBytes() { return bytes; }
+    public long getMaxBytes() { return maxBytes; }
+    public synchronized int getHits() { return hits; }
+    public synchronized int getMisses() { return misses; }
+    public synchronized int getEvictions() { return evictions; }
+}
@@ -0,0 +1,22 @@
+package com.example.voidchat.metrics;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Contador que sólo crece. Incrementarlo no reserva memoria y es seguro desde cualquier hilo.
+ */
+public final class Counter {
+
+    private final AtomicLong value = new AtomicLong();
+
+    public void increment() {
+        value.incrementAndGet();
+    }
+
+    public void add(long delta) {
+        value.addAndGet(delta);
+    }
+
+    public long get() {
+        return value.get();
+    }
+}
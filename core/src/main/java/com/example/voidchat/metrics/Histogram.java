@@ -0,0 +1,102 @@
+package com.example.voidchat.metrics;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma de valores no negativos (tiempos, profundidades de cola) con cubetas logarítmicas fijas, como
+ * HdrHistogram en pequeño: hasta 31 cada valor tiene la suya y por encima cada potencia de dos se parte en
+ * 16, así que un percentil se aleja como mucho un 6 % del valor real.
+ *
+ * Las cubetas se reservan al crearlo: {@link #record} sólo incrementa contadores atómicos, no reserva memoria
+ * ni toma cerrojos, y se puede llamar desde cualquier hilo. {@link #snapshot()} lee las cubetas sin parar a
+ * los que registran; con tráfico puede ver un valor a medias, que da igual para un percentil.
+ */
+public final class Histogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int LINEAR = 2 * SUB;
+    static final int BUCKETS = LINEAR + (63 - SUB_BITS - 1) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    // --- Métodos Públicos ---
+
+    /**
+     * Registra un valor; los negativos cuentan como 0.
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(index(value));
+        sum.addAndGet(value);
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // Otro hilo subió el máximo entre tanto: se vuelve a comparar
+        }
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, sum.get(), max.get());
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    static int index(long value) {
+        if (value < LINEAR) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        return LINEAR + (exponent - SUB_BITS - 1) * SUB + (int) ((value >>> (exponent - SUB_BITS)) & (SUB - 1));
+    }
+
+    /** El mayor valor que cae en la cubeta {@code index}. */
+    static long highestIn(int index) {
+        if (index < LINEAR) return index;
+        int offset = index - LINEAR;
+        int shift = offset / SUB + 1;
+        long lowest = (long) (SUB + offset % SUB) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Foto de un histograma: ya no cambia, se puede consultar y volcar con calma.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        public final long count;
+        public final long sum;
+        public final long max;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @param quantile Entre 0 y 1; 0,99 es el percentil 99.
+         * @return El mayor valor de la cubeta donde cae el percentil, sin pasar del máximo; 0 si está vacío.
+         */
+        public long percentile(double quantile) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(highestIn(i), max);
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.voidchat.metrics;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ejecutor de un solo hilo, como {@code Executors.newSingleThreadExecutor()}, que anota cuántas tareas hay
+ * esperando cada vez que llega una. Así se ve si el hilo se queda atrás con ráfagas, no sólo cuánto hay en
+ * cola en el momento de mirar ({@link #getQueueDepth()}).
+ */
+public final class MeteredExecutor extends ThreadPoolExecutor {
+
+    private final Histogram queueDepth;
+
+    /**
+     * @param queueDepth Donde se anota cuántas tareas esperan justo después de encolar cada una; 0 si el
+     *                   hilo la tomó enseguida.
+     */
+    public MeteredExecutor(Histogram queueDepth) {
+        this(queueDepth, Executors.defaultThreadFactory());
+    }
+
+    public MeteredExecutor(Histogram queueDepth, ThreadFactory threadFactory) {
+        super(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), threadFactory);
+        this.queueDepth = queueDepth;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        super.execute(command);
+        queueDepth.record(getQueue().size());
+    }
+
+    public int getQueueDepth() {
+        return getQueue().size();
+    }
+}
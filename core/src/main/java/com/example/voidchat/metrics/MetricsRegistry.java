@@ -0,0 +1,86 @@
+package com.example.voidchat.metrics;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Métricas con nombre de una parte de la app: contadores, histogramas e indicadores que se leen al sacar la
+ * foto. Se crean una vez, al arrancar, y quien mide se queda con la referencia; registrar con ese objeto no
+ * pasa por aquí, así que el registro sólo se consulta al crear métricas y al llamar a {@link #snapshot()}.
+ *
+ * Los nombres llevan la unidad al final ({@code _ms}, {@code _us}) porque un histograma no la conoce.
+ * Es seguro entre hilos.
+ */
+public final class MetricsRegistry {
+
+    // En el orden en que se registraron, que es el del volcado
+    private final Map<String, Object> metrics = new LinkedHashMap<>();
+
+    // --- Métodos Públicos ---
+
+    /**
+     * @return El contador con ese nombre, creado la primera vez.
+     */
+    public synchronized Counter counter(String name) {
+        return get(name, Counter.class, Counter::new);
+    }
+
+    /**
+     * @return El histograma con ese nombre, creado la primera vez.
+     */
+    public synchronized Histogram histogram(String name) {
+        return get(name, Histogram.class, Histogram::new);
+    }
+
+    /**
+     * Registra un indicador que se lee en cada {@link #snapshot()}, como el tamaño de una cola. Si ya había
+     * uno con ese nombre lo sustituye. {@code value} debe ser rápido y seguro desde cualquier hilo.
+     */
+    public synchronized void gauge(String name, LongSupplier value) {
+        Object existing = metrics.get(name);
+        if (existing != null && !(existing instanceof LongSupplier)) {
+            throw new IllegalArgumentException(name + " is already registered as another kind of metric");
+        }
+        metrics.put(name, value);
+    }
+
+    /**
+     * Lee todas las métricas. Los contadores y los histogramas se leen sin pararlos: la foto no es un corte
+     * exacto entre unos y otros.
+     */
+    public MetricsSnapshot snapshot() {
+        Map<String, Object> copy;
+        synchronized (this) {
+            copy = new LinkedHashMap<>(metrics);
+        }
+        Map<String, Long> values = new LinkedHashMap<>();
+        Map<String, Histogram.Snapshot> histograms = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : copy.entrySet()) {
+            Object metric = entry.getValue();
+            if (metric instanceof Counter) {
+                values.put(entry.getKey(), ((Counter) metric).get());
+            } else if (metric instanceof LongSupplier) {
+                values.put(entry.getKey(), ((LongSupplier) metric).getAsLong());
+            } else {
+                histograms.put(entry.getKey(), ((Histogram) metric).snapshot());
+            }
+        }
+        return new MetricsSnapshot(System.currentTimeMillis(), values, histograms);
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    private <T> T get(String name, Class<T> kind, Supplier<T> factory) {
+        Object existing = metrics.get(name);
+        if (existing == null) {
+            T created = factory.get();
+            metrics.put(name, created);
+            return created;
+        }
+        if (!kind.isInstance(existing)) {
+            throw new IllegalArgumentException(name + " is already registered as another kind of metric");
+        }
+        return kind.cast(existing);
+    }
+}
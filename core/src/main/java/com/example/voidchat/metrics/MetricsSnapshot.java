@@ -0,0 +1,67 @@
+package com.example.voidchat.metrics;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Lo que valían las métricas de un {@link MetricsRegistry} en un momento. Se vuelca como texto, una métrica
+ * por línea, para la pantalla de depuración, el logcat o un informe de error.
+ */
+public final class MetricsSnapshot {
+
+    public final long takenAtMillis;
+    private final Map<String, Long> values;
+    private final Map<String, Histogram.Snapshot> histograms;
+
+    MetricsSnapshot(long takenAtMillis, Map<String, Long> values, Map<String, Histogram.Snapshot> histograms) {
+        this.takenAtMillis = takenAtMillis;
+        this.values = values;
+        this.histograms = histograms;
+    }
+
+    // --- Métodos Públicos ---
+
+    /**
+     * @return El valor de un contador o indicador, o 0 si no hay ninguno con ese nombre.
+     */
+    public long value(String name) {
+        Long value = values.get(name);
+        return value != null ? value : 0;
+    }
+
+    /**
+     * @return El histograma con ese nombre, o null si no existe.
+     */
+    public Histogram.Snapshot histogram(String name) {
+        return histograms.get(name);
+    }
+
+    public Map<String, Long> values() { return Collections.unmodifiableMap(values); }
+    public Map<String, Histogram.Snapshot> histograms() { return Collections.unmodifiableMap(histograms); }
+
+    /**
+     * Una línea por métrica: primero contadores e indicadores, después histogramas con sus percentiles.
+     */
+    public String dump() {
+        int width = 0;
+        for (String name : values.keySet()) width = Math.max(width, name.length());
+        for (String name : histograms.keySet()) width = Math.max(width, name.length());
+        String format = "%-" + width + "s  ";
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Long> entry : values.entrySet()) {
+            out.append(String.format(Locale.ROOT, format, entry.getKey())).append(entry.getValue()).append('\n');
+        }
+        for (Map.Entry<String, Histogram.Snapshot> entry : histograms.entrySet()) {
+            Histogram.Snapshot h = entry.getValue();
+            out.append(String.format(Locale.ROOT, format, entry.getKey()))
+                    .append(String.format(Locale.ROOT, "n=%d mean=%.1f p50=%d p90=%d p99=%d max=%d%n",
+                            h.count, h.mean(), h.percentile(0.5), h.percentile(0.9), h.percentile(0.99), h.max));
+        }
+        return out.toString();
+    }
+
+    @Override
+    public String toString() {
+        return dump();
+    }
+}
@@ -0,0 +1,128 @@
+// RUTA: com.example.voidchat.model/Message.java
+package com.example.voidchat.model;
+public class Message {
+
+    /**
+     * Estado de un mensaje propio desde que se pulsa enviar. Sólo avanza: una escritura que falla se puede
+     * reintentar, y un mensaje que ya llegó por MQTT todavía puede fallar en Firebase, que es quien lo guarda.
+     */
+    public enum SendState {
+        PENDING,   // En pantalla, esperando a Firebase
+        SENT,      // Firebase confirmó la escritura
+        DELIVERED, // El broker MQTT confirmó la publicación (PUBACK)
+        FAILED;    // Firebase rechazó la escritura; se puede reintentar
+
+        public boolean canMoveTo(SendState next) {
+            switch (this) {
+                case PENDING: return next != PENDING;
+                case SENT: return next == DELIVERED;
+                case DELIVERED: return next == FAILED;
+                default: return next == PENDING;
+            }
+        }
+    }
+
+    // Clave push de Firebase: identifica el mensaje y ordena cronológicamente la sala
+    private String id;
+    private String userId;
+    private String username;
+    private String text;
+    private long time;
+    private boolean isSeparator = false;
+    // Día local del separador (ver DayBuckets.dayOf); la etiqueta se resuelve al mostrarlo
+    private int separatorDay;
+    // Adjunto enviado por MQTT (ver com.example.voidchat.transfer); la clave del mensaje identifica la transferencia
+    private String attachmentName;
+    private String attachmentType;
+    private long attachmentSize;
+    // Id de traza (ver com.example.voidchat.trace) de los mensajes que se están midiendo; null en los demás
+    private String traceId;
+
+    // Datos de presentación: los calcula la línea de tiempo fuera del hilo principal.
+    // No tienen getters JavaBean para que Firebase no los guarde ni intente leerlos
+    private transient String hourLabel;
+    // El texto de la burbuja: el del mensaje o, si lleva adjunto, su nombre y tamaño
+    private transient String bodyLabel;
+    private transient boolean sentByMe;
+    private transient boolean newlyArrived;
+    private transient boolean traceBound;
+    // Sólo en los mensajes enviados desde este dispositivo mientras la pantalla sigue abierta
+    private transient SendState sendState;
+
+    // Constructor vacío requerido por Firebase
+    public Message() {}
+
+    // Constructor para mensajes normales
+    public Message(String userId, String username, String text, long time) {
+        this.userId = userId;
+        this.username = username;
+        this.text = text;
+        this.time = time;
+    }
+
+    // Método de fábrica estático para crear separadores de fecha de forma limpia
+    public static Message createSeparator(int day) {
+        Message separator = new Message();
+        separator.isSeparator = true;
+        separator.separatorDay = day;
+        return separator;
+    }
+    // Getters para acceder a las propiedades del mensaje
+    public String getId() { return id; }
+    public String getUserId() { return userId; }
+    public String getUsername() { return username; }
+    public String getText() { return text; }
+    public long getTime() { return time; }
+    public boolean isSeparator() { return isSeparator; }
+    public int getSeparatorDay() { return separatorDay; }
+    public String getAttachmentName() { return attachmentName; }
+    public String getAttachmentType() { return attachmentType; }
+    public long getAttachmentSize() { return attachmentSize; }
+    public boolean hasAttachment() { return attachmentName != null; }
+    public String getTraceId() { return traceId; }
+
+    public void setAttachment(String name, String type, long size) {
+        this.attachmentName = name;
+        this.attachmentType = type;
+        this.attachmentSize = size;
+    }
+
+    public void setTraceId(String traceId) { this.traceId = traceId; }
+
+    // La clave no viaja dentro del valor (la app lo escribe campo a campo, sin pasar por estos getters):
+    // se asigna al leer el snapshot
+    public void setId(String id) { this.id = id; }
+
+    // --- Presentación ---
+
+    public void prepareRow(String hourLabel, String bodyLabel, boolean sentByMe, boolean newlyArrived) {
+        this.hourLabel = hourLabel;
+        this.bodyLabel = bodyLabel;
+        this.sentByMe = sentByMe;
+        this.newlyArrived = newlyArrived;
+    }
+    public boolean rowPrepared() { return hourLabel != null; }
+    public String hourLabel() { return hourLabel; }
+    public String bodyLabel() { return bodyLabel; }
+    public boolean sentByMe() { return sentByMe; }
+    public boolean newlyArrived() { return newlyArrived; }
+
+    public SendState sendState() { return sendState; }
+
+    // Devuelve false si el mensaje ya estaba en ese estado o más allá
+    public boolean advanceSendState(SendState next) {
+        if (sendState != null && !sendState.canMoveTo(next)) return false;
+        sendState = next;
+        return true;
+    }
+
+    // La animación de llegada se muestra una sola vez, aunque la fila se vuelva a enlazar
+    public void markShown() { newlyArrived = false; }
+
+    // Sólo el primer enlace de la fila cuenta para la traza; devuelve false en los siguientes
+    public boolean markTraceBound() {
+        if (traceBound) return false;
+        traceBound = true;
+        return true;
+    }
+}
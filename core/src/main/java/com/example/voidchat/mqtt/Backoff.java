@@ -0,0 +1,51 @@
+package com.example.voidchat.mqtt;
+import java.util.Random;
+
+/**
+ * Espera entre intentos de reconexión: crece exponencialmente hasta un máximo y lleva una parte aleatoria.
+ *
+ * Sin la parte aleatoria, todos los clientes que perdieron la red a la vez (un corte del broker, un ascensor
+ * lleno) volverían a llamar en el mismo instante en cada ronda. Cada espera está entre la mitad y el total
+ * del techo de su intento, así nunca se reintenta de inmediato. No es seguro entre hilos.
+ */
+public final class Backoff {
+
+    public static final long DEFAULT_BASE_MILLIS = 1_000;
+    public static final long DEFAULT_MAX_MILLIS = 60_000;
+
+    private final long baseMillis;
+    private final long maxMillis;
+    private final Random random;
+    private int attempt;
+
+    public Backoff() {
+        this(DEFAULT_BASE_MILLIS, DEFAULT_MAX_MILLIS, new Random());
+    }
+
+    public Backoff(long baseMillis, long maxMillis, Random random) {
+        if (baseMillis < 1 || maxMillis < baseMillis) throw new IllegalArgumentException("Invalid backoff range");
+        this.baseMillis = baseMillis;
+        this.maxMillis = maxMillis;
+        this.random = random;
+    }
+
+    /**
+     * Espera antes del siguiente intento; cada llamada cuenta como un intento fallido más.
+     */
+    public long nextDelayMillis() {
+        // Desplazar más de 30 posiciones desbordaría; para entonces el techo ya es el máximo
+        long ceiling = Math.min(maxMillis, baseMillis << Math.min(attempt, 30));
+        attempt++;
+        long half = ceiling / 2;
+        return half + (long) (random.nextDouble() * (ceiling - half + 1));
+    }
+
+    /**
+     * Vuelve a empezar desde la espera base, tras una conexión con éxito.
+     */
+    public void reset() {
+        attempt = 0;
+    }
+
+    public int getAttempt() { return attempt; }
+}
@@ -0,0 +1,157 @@
+package com.example.voidchat.mqtt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Genera un {@link PayloadDictionary} a partir de un corpus de mensajes, uno por línea.
+ *
+ * Cuenta en cuántos mensajes aparece cada fragmento de {@link #GRAM} bytes y elige, uno a uno, los trozos de
+ * mensaje que cubren más fragmentos frecuentes aún no cubiertos (lo que hace COVER en zstd, en pequeño). Los
+ * mejores van al final del diccionario: deflate codifica más barato las coincidencias más cercanas.
+ *
+ * Se ejecuta con {@code ./gradlew :core:trainDictionary -Pcorpus=... -Pdictionary=...}; el diccionario de la
+ * app sale de {@code core/dictionary/chat-es.txt}.
+ */
+public final class DictionaryTrainer {
+
+    public static final int DEFAULT_SIZE = 2048;
+    static final int GRAM = 5;
+    static final int SEGMENT = 24;
+
+    private DictionaryTrainer() {
+    }
+
+    /**
+     * @param samples Los mensajes del corpus, ya en UTF-8.
+     * @param size    Tamaño máximo del diccionario; puede salir menor si el corpus no da para más.
+     */
+    public static byte[] train(List<byte[]> samples, int size) {
+        if (size < 1 || size > PayloadDictionary.MAX_SIZE) throw new IllegalArgumentException("Bad size " + size);
+        // En cuántos mensajes aparece cada fragmento: uno que se repite dentro de un mismo mensaje ya lo comprime deflate
+        Map<Long, Integer> frequency = new HashMap<>();
+        for (byte[] sample : samples) {
+            Set<Long> seen = new HashSet<>();
+            for (int i = 0; i + GRAM <= sample.length; i++) {
+                if (seen.add(gram(sample, i))) frequency.merge(gram(sample, i), 1, Integer::sum);
+            }
+        }
+
+        PriorityQueue<Segment> queue = new PriorityQueue<>((a, b) -> Integer.compare(b.score, a.score));
+        Set<String> distinct = new HashSet<>();
+        for (byte[] sample : samples) {
+            for (int start = 0; start + GRAM <= sample.length; start++) {
+                Segment segment = new Segment(sample, start, Math.min(sample.length, start + SEGMENT));
+                if (!distinct.add(segment.key())) continue;
+                segment.score = segment.score(frequency);
+                if (segment.score > 0) queue.add(segment);
+            }
+        }
+
+        // Elección voraz perezosa: la puntuación sólo baja, así que basta con recalcular la del primero
+        List<Segment> chosen = new ArrayList<>();
+        int total = 0;
+        while (total < size && !queue.isEmpty()) {
+            Segment best = queue.poll();
+            int score = best.score(frequency);
+            if (score <= 0) continue;
+            if (!queue.isEmpty() && score < queue.peek().score) {
+                best.score = score;
+                queue.add(best);
+                continue;
+            }
+            for (int i = best.start; i + GRAM <= best.end; i++) {
+                frequency.put(gram(best.sample, i), 0);
+            }
+            chosen.add(best);
+            total += best.end - best.start;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(total);
+        for (int i = chosen.size() - 1; i >= 0; i--) {
+            Segment segment = chosen.get(i);
+            out.write(segment.sample, segment.start, segment.end - segment.start);
+        }
+        byte[] dictionary = out.toByteArray();
+        if (dictionary.length <= size) return dictionary;
+        // Sobra del primero elegido, que es el último: se recorta por el principio, donde va lo menos útil
+        byte[] trimmed = new byte[size];
+        System.arraycopy(dictionary, dictionary.length - size, trimmed, 0, size);
+        return trimmed;
+    }
+
+    /**
+     * Lee el corpus: una línea por mensaje, en UTF-8; las vacías se saltan.
+     */
+    public static List<byte[]> readCorpus(Path corpus) throws IOException {
+        List<byte[]> samples = new ArrayList<>();
+        for (String line : Files.readAllLines(corpus, StandardCharsets.UTF_8)) {
+            if (!line.trim().isEmpty()) samples.add(line.getBytes(StandardCharsets.UTF_8));
+        }
+        return samples;
+    }
+
+    /**
+     * {@code DictionaryTrainer <corpus> <diccionario> [tamaño]}
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: DictionaryTrainer <corpus> <dictionary> [size]");
+            System.exit(2);
+        }
+        List<byte[]> samples = readCorpus(Paths.get(args[0]));
+        int size = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_SIZE;
+        byte[] dictionary = train(samples, size);
+        Path target = Paths.get(args[1]);
+        if (target.getParent() != null) Files.createDirectories(target.getParent());
+        Files.write(target, dictionary);
+        System.out.printf("%d messages -> %d byte dictionary in %s%n", samples.size(), dictionary.length, target);
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    private static long gram(byte[] data, int pos) {
+        long value = 0;
+        for (int i = 0; i < GRAM; i++) value = value << 8 | (data[pos + i] & 0xFF);
+        return value;
+    }
+
+    private static final class Segment {
+        final byte[] sample;
+        final int start;
+        final int end;
+        int score;
+
+        Segment(byte[] sample, int start, int end) {
+            this.sample = sample;
+            this.start = start;
+            this.end = end;
+        }
+
+        /** Suma de frecuencias de los fragmentos distintos aún sin cubrir; los que salen una sola vez no cuentan. */
+        int score(Map<Long, Integer> frequency) {
+            int score = 0;
+            Set<Long> counted = new HashSet<>();
+            for (int i = start; i + GRAM <= end; i++) {
+                long gram = gram(sample, i);
+                int count = frequency.getOrDefault(gram, 0);
+                if (count > 1 && counted.add(gram)) score += count;
+            }
+            return score;
+        }
+
+        String key() {
+            return new String(sample, start, end - start, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.example.voidchat.mqtt;
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Contenido de un mensaje de chat publicado por MQTT. Está fuera de MQTTManager para poder probarlo
+ * y medirlo sin el cliente de Paho.
+ *
+ * Formato binario (versión 1):
+ * <pre>
+ *   byte     versión (1)
+ *   byte     banderas: 1 = id, 2 = hora, 4 = nombre, 8 = comprimido, 16 = traza
+ *   cadena   texto
+ *   cadena   uid del remitente
+ *   cadena   id                (si la bandera 1)
+ *   varint   hora en ms        (si la bandera 2)
+ *   cadena   nombre visible    (si la bandera 4)
+ *   varint   id de traza       (si la bandera 16)
+ * </pre>
+ * Cada cadena es su longitud en bytes como varint seguida del UTF-8. Los clientes anteriores publicaban
+ * {@code {"text": ..., "userId": ...}}; como un objeto JSON empieza por '{', que nunca es una versión válida,
+ * {@link #decode} acepta los dos formatos. En JSON los campos opcionales van como claves de más
+ * ({@code id}, {@code time}, {@code username}, {@code traceId}), que esos clientes no leen.
+ *
+ * Con la bandera 8 lo que sigue a las banderas es un byte con el id del diccionario y, comprimido con él,
+ * el resto de la carga; {@link PayloadCompressor} lo deshace antes de llamar a {@link #decode}.
+ */
+public final class MessagePayload {
+
+    public static final int VERSION = 1;
+
+    private static final int FLAG_ID = 1;
+    private static final int FLAG_TIME = 2;
+    private static final int FLAG_USERNAME = 4;
+    private static final int FLAG_TRACE = 16;
+    private static final int KNOWN_FLAGS = FLAG_ID | FLAG_TIME | FLAG_USERNAME | FLAG_TRACE;
+    static final int FLAG_COMPRESSED = 8;
+
+    public final String text;
+    public final String userId;
+    // Opcionales: null o 0 si el remitente no los envió
+    public final String id;
+    public final long time;
+    public final String username;
+    // Sólo en los mensajes que se están trazando (com.example.voidchat.trace); 0 en los demás
+    public final long traceId;
+
+    public MessagePayload(String text, String userId) {
+        this(null, text, userId, null, 0);
+    }
+
+    public MessagePayload(String id, String text, String userId, String username, long time) {
+        this(id, text, userId, username, time, 0);
+    }
+
+    public MessagePayload(String id, String text, String userId, String username, long time, long traceId) {
+        this.traceId = traceId;
+        this.id = id;
+        this.text = text;
+        this.userId = userId;
+        this.username = username;
+        this.time = time;
+    }
+
+    // --- Codificación ---
+
+    /**
+     * Codifica en binario. Se calcula el tamaño exacto antes, así sólo se reserva el array que se publica.
+     */
+    public byte[] encode() {
+        int flags = (id != null ? FLAG_ID : 0) | (time > 0 ? FLAG_TIME : 0) | (username != null ? FLAG_USERNAME : 0)
+                | (traceId != 0 ? FLAG_TRACE : 0);
+        int size = 2 + stringSize(text) + stringSize(userId);
+        if (id != null) size += stringSize(id);
+        if (time > 0) size += varintSize(time);
+        if (username != null) size += stringSize(username);
+        if (traceId != 0) size += varintSize(traceId);
+
+        byte[] out = new byte[size];
+        out[0] = VERSION;
+        out[1] = (byte) flags;
+        int pos = 2;
+        pos = writeString(out, pos, text);
+        pos = writeString(out, pos, userId);
+        if (id != null) pos = writeString(out, pos, id);
+        if (time > 0) pos = writeVarint(out, pos, time);
+        if (username != null) pos = writeString(out, pos, username);
+        if (traceId != 0) writeVarint(out, pos, traceId);
+        return out;
+    }
+
+    /**
+     * Formato JSON de los clientes anteriores, que sólo leen texto y remitente; los opcionales van detrás.
+     */
+    public byte[] encodeJson() throws JSONException {
+        JSONObject payload = new JSONObject();
+        payload.put("text", text);
+        payload.put("userId", userId);
+        if (id != null) payload.put("id", id);
+        if (time > 0) payload.put("time", time);
+        if (username != null) payload.put("username", username);
+        if (traceId != 0) payload.put("traceId", traceId);
+        return payload.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // --- Decodificación ---
+
+    /**
+     * Lee una carga binaria o JSON directamente del array recibido.
+     * @throws IllegalArgumentException si está truncada, es de una versión desconocida o le faltan campos.
+     */
+    public static MessagePayload decode(byte[] payload) {
+        if (payload.length == 0) throw new IllegalArgumentException("Empty payload");
+        if (payload[0] == '{') return decodeJson(payload);
+        if (payload[0] != VERSION) throw new IllegalArgumentException("Unsupported payload version " + payload[0]);
+        if (payload.length < 2) throw new IllegalArgumentException("Truncated payload");
+
+        int flags = payload[1];
+        if ((flags & FLAG_COMPRESSED) != 0) throw new IllegalArgumentException("Compressed payload");
+        if ((flags & ~KNOWN_FLAGS) != 0) throw new IllegalArgumentException("Unknown payload flags " + flags);
+        Reader reader = new Reader(payload, 2);
+        String text = reader.readString();
+        String userId = reader.readString();
+        String id = (flags & FLAG_ID) != 0 ? reader.readString() : null;
+        long time = (flags & FLAG_TIME) != 0 ? reader.readVarint() : 0;
+        String username = (flags & FLAG_USERNAME) != 0 ? reader.readString() : null;
+        long traceId = (flags & FLAG_TRACE) != 0 ? reader.readVarint() : 0;
+        return new MessagePayload(id, text, userId, username, time, traceId);
+    }
+
+    private static MessagePayload decodeJson(byte[] payload) {
+        try {
+            JSONObject obj = new JSONObject(new String(payload, StandardCharsets.UTF_8));
+            return new MessagePayload(obj.optString("id", null), obj.getString("text"), obj.getString("userId"),
+                    obj.optString("username", null), obj.optLong("time"), obj.optLong("traceId"));
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Malformed JSON payload: " + e.getMessage(), e);
+        }
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    private static int stringSize(String value) {
+        int length = utf8Length(value);
+        return varintSize(length) + length;
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) size++;
+        return size;
+    }
+
+    private static int writeVarint(byte[] out, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0, n = value.length(); i < n; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                // Un sustituto suelto se escribe como '?', igual que hace String.getBytes
+                length += Character.isSurrogate(c) ? 1 : 3;
+            }
+        }
+        return length;
+    }
+
+    private static int writeString(byte[] out, int pos, String value) {
+        pos = writeVarint(out, pos, utf8Length(value));
+        for (int i = 0, n = value.length(); i < n; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                out[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                out[pos++] = (byte) (0xC0 | (c >> 6));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out[pos++] = (byte) (0xF0 | (codePoint >> 18));
+                out[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                out[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                out[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                out[pos++] = '?';
+            } else {
+                out[pos++] = (byte) (0xE0 | (c >> 12));
+                out[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return pos;
+    }
+
+    /** Cursor sobre la carga recibida; comprueba cada longitud contra lo que queda. */
+    private static final class Reader {
+        private final byte[] data;
+        private int pos;
+
+        Reader(byte[] data, int pos) {
+            this.data = data;
+            this.pos = pos;
+        }
+
+        long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (pos >= data.length) throw new IllegalArgumentException("Truncated payload");
+                byte b = data[pos++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        String readString() {
+            long length = readVarint();
+            if (length > data.length - pos) throw new IllegalArgumentException("Truncated payload");
+            String value = new String(data, pos, (int) length, StandardCharsets.UTF_8);
+            pos += (int) length;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.voidchat.mqtt;
+import com.example.voidchat.metrics.Counter;
+import com.example.voidchat.metrics.Histogram;
+import com.example.voidchat.metrics.MetricsRegistry;
+
+/**
+ * Las métricas de la conexión MQTT, con nombre fijo en un {@link MetricsRegistry}. {@link MqttSession} anota
+ * las de la conexión y las publicaciones; quien reparte los mensajes, las de lectura.
+ *
+ * Sobrevive a las sesiones: al cerrar sesión y volver a entrar los contadores siguen sumando.
+ */
+public final class MqttMetrics {
+
+    public final MetricsRegistry registry;
+    /** Desde que una publicación de la ventana sale hacia el broker hasta su PUBACK. */
+    public final Histogram publishAck;
+    /** Desde que se empieza a conectar, o se pierde la conexión, hasta tenerla, con los reintentos. */
+    public final Histogram connectTime;
+    /** Un único intento de conexión que sale bien: TCP, TLS y CONNECT/CONNACK. */
+    public final Histogram handshakeTime;
+    public final Counter connects;
+    public final Counter reconnects;
+    public final Counter connectFailures;
+    public final Counter connectionsLost;
+    public final Counter publishFailures;
+    public final Counter messagesIn;
+    public final Counter parseFailures;
+
+    public MqttMetrics() {
+        this(new MetricsRegistry());
+    }
+
+    public MqttMetrics(MetricsRegistry registry) {
+        this.registry = registry;
+        connects = registry.counter("mqtt.connects");
+        reconnects = registry.counter("mqtt.reconnects");
+        connectFailures = registry.counter("mqtt.connect_failures");
+        connectionsLost = registry.counter("mqtt.connections_lost");
+        publishFailures = registry.counter("mqtt.publish_failures");
+        messagesIn = registry.counter("mqtt.messages_in");
+        parseFailures = registry.counter("mqtt.parse_failures");
+        publishAck = registry.histogram("mqtt.publish_ack_us");
+        connectTime = registry.histogram("mqtt.connect_ms");
+        handshakeTime = registry.histogram("mqtt.handshake_ms");
+    }
+}
@@ -0,0 +1,315 @@
+package com.example.voidchat.mqtt;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sesión MQTT persistente: un cliente con identificador estable que mantiene la conexión abierta y no pierde
+ * publicaciones mientras no la hay.
+ *
+ * <ul>
+ *   <li>Se conecta con {@code cleanSession(false)}: el broker recuerda las suscripciones y guarda los mensajes
+ *   QoS 1 que lleguen durante un corte. Al reconectar con la sesión presente no hace falta suscribirse otra vez.</li>
+ *   <li>Cada publicación se escribe primero en el {@link Outbox} y de ahí pasa, en orden y en lotes del tamaño
+ *   libre de la {@link PublishWindow}, a la conexión. Sólo sale del outbox cuando el broker la confirma.</li>
+ *   <li>La reconexión es propia, con {@link Backoff} exponencial y aleatorio, en lugar de la de Paho, que
+ *   reintenta a intervalos fijos.</li>
+ *   <li>Anota en {@link MqttMetrics} cuánto tarda en conectar, cada reconexión y la latencia hasta el PUBACK
+ *   de lo que sale por la ventana.</li>
+ * </ul>
+ *
+ * La persistencia de Paho queda en memoria a propósito: el outbox ya sobrevive a la muerte del proceso, y una
+ * segunda copia en disco haría que cada publicación pendiente se repitiera al volver.
+ */
+public final class MqttSession {
+
+    // Pausa antes de reintentar una publicación que Paho rechazó sin perder la conexión
+    private static final long RETRY_DELAY_MILLIS = 1_000;
+    // Sitio en vuelo de Paho para publishDirect, aparte de la ventana: los trozos de un adjunto no quitan
+    // hueco a los mensajes del outbox
+    public static final int DIRECT_IN_FLIGHT = 16;
+
+    // --- Interfaz de Callback ---
+    // Se llama desde hilos de Paho o de la sesión, nunca desde el principal
+    public interface Callback {
+        // sessionPresent: el broker conservaba la sesión, con sus suscripciones
+        void onConnected(boolean sessionPresent);
+        void onConnectionLost(Throwable cause);
+        void onMessage(String topic, byte[] payload);
+        void onDelivered(long publishId, String topic);
+    }
+
+    private final MqttAsyncClient client;
+    private final MqttConnectOptions options;
+    private final Outbox outbox;
+    private final PublishWindow window;
+    private final Backoff backoff;
+    private final Callback callback;
+    private final MqttMetrics metrics;
+    // Conexión, reconexión y paso del outbox a la ventana, siempre en este hilo y en orden
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "mqtt-session");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean running;
+    // Intento de conexión en curso, para que stop() lo deje terminar antes de cerrar el cliente
+    private volatile IMqttToken connecting;
+    private ScheduledFuture<?> pendingReconnect;
+    // Desde cuándo (System.nanoTime) se intenta tener conexión; 0 si la hay
+    private volatile long disconnectedSince;
+    private boolean connectedBefore; // Sólo desde el hilo de la sesión
+
+    /**
+     * @param options Credenciales y tiempos; la sesión fija cleanSession, la reconexión y el máximo en vuelo.
+     */
+    public MqttSession(String serverUri, String clientId, MqttConnectOptions options, Outbox outbox,
+                       int maxInFlight, Backoff backoff, Callback callback) throws MqttException {
+        this(serverUri, clientId, options, outbox, maxInFlight, backoff, callback, new MqttMetrics());
+    }
+
+    /**
+     * @param metrics Donde se anotan conexiones, confirmaciones y fallos; puede ser compartido entre sesiones.
+     */
+    public MqttSession(String serverUri, String clientId, MqttConnectOptions options, Outbox outbox,
+                       int maxInFlight, Backoff backoff, Callback callback, MqttMetrics metrics)
+            throws MqttException {
+        this.metrics = metrics;
+        this.client = new MqttAsyncClient(serverUri, clientId, new MemoryPersistence());
+        this.options = options;
+        this.outbox = outbox;
+        this.backoff = backoff;
+        this.callback = callback;
+        options.setCleanSession(false);
+        options.setAutomaticReconnect(false);
+        options.setMaxInflight(maxInFlight + DIRECT_IN_FLIGHT);
+        this.window = new PublishWindow(client, maxInFlight, new PublishWindow.Listener() {
+            @Override
+            public void onDelivered(long publishId) {
+                delivered(publishId);
+            }
+
+            @Override
+            public void onFailed(long publishId, Throwable error) {
+                // No se pierde: vuelve al outbox con las posteriores, para no desordenarlas, y sale en la
+                // siguiente ronda. Si alguna posterior ya viajaba llegará dos veces, que QoS 1 admite.
+                metrics.publishFailures.increment();
+                outbox.requeueFrom(publishId);
+                if (running) {
+                    scheduler.schedule(MqttSession.this::pump, RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+                }
+            }
+        }, true);
+        client.setCallback(new MqttCallback() {
+            @Override
+            public void connectionLost(Throwable cause) {
+                metrics.connectionsLost.increment();
+                disconnectedSince = System.nanoTime();
+                callback.onConnectionLost(cause);
+                if (running) {
+                    scheduler.execute(MqttSession.this::scheduleReconnect);
+                }
+            }
+
+            @Override
+            public void messageArrived(String topic, MqttMessage message) {
+                metrics.messagesIn.increment();
+                callback.onMessage(topic, message.getPayload());
+            }
+
+            @Override
+            public void deliveryComplete(IMqttDeliveryToken token) {
+                // Cada publicación se confirma por su token, a través de PublishWindow; aquí sólo se mide.
+                // Las directas no pasan por la ventana y no tienen hora de salida.
+                long sent = PublishWindow.sentAt(token);
+                if (sent != 0) metrics.publishAck.record((System.nanoTime() - sent) / 1_000);
+            }
+        });
+        // Lo que quedó en disco de una ejecución anterior no lo conoce este cliente: se envía de nuevo
+        outbox.requeueAll();
+    }
+
+    // --- Métodos Públicos ---
+
+    /**
+     * Empieza a conectar en segundo plano y no para de intentarlo hasta {@link #stop()}.
+     */
+    public void start() {
+        running = true;
+        disconnectedSince = System.nanoTime();
+        scheduler.execute(this::connect);
+    }
+
+    /**
+     * Guarda la publicación en el outbox y la envía en cuanto haya conexión y sitio en la ventana.
+     * Escribe en disco: no llamar desde el hilo principal.
+     * @return El identificador con el que llegará onDelivered.
+     */
+    public long publish(String topic, byte[] payload, int qos) throws IOException {
+        return publish(topic, payload, qos, null);
+    }
+
+    /**
+     * Como {@link #publish(String, byte[], int)}, con la clave del mensaje que lleva; se guarda con él en el
+     * outbox ({@link Outbox#pendingKeys}).
+     */
+    public long publish(String topic, byte[] payload, int qos, String key) throws IOException {
+        long publishId = outbox.add(topic, payload, qos, key);
+        if (running) {
+            scheduler.execute(this::pump);
+        }
+        return publishId;
+    }
+
+    /**
+     * Publica sin pasar por el outbox ni por la ventana, para avisos efímeros que no tiene sentido entregar
+     * tarde (escritura, presencia). Sin conexión se descartan.
+     * @return false si no se pudo enviar.
+     */
+    public boolean publishNow(String topic, byte[] payload, int qos, boolean retained) {
+        if (!client.isConnected()) return false;
+        try {
+            client.publish(topic, payload, qos, retained);
+            return true;
+        } catch (MqttException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Publica sin outbox ni ventana y avisa de la confirmación del broker por {@code listener}. Es para
+     * tráfico con su propia contrapresión, como los trozos de un adjunto, que no tiene sentido copiar al
+     * outbox en disco. Quien llama no debe tener más de {@link #DIRECT_IN_FLIGHT} sin confirmar a la vez.
+     * @return false si no se pudo enviar; entonces no habrá aviso.
+     */
+    public boolean publishDirect(String topic, byte[] payload, int qos, IMqttActionListener listener) {
+        if (!client.isConnected()) return false;
+        try {
+            client.publish(topic, payload, qos, false, null, listener);
+            return true;
+        } catch (MqttException e) {
+            return false;
+        }
+    }
+
+    public IMqttToken subscribe(String[] topics, int[] qos) throws MqttException {
+        return client.subscribe(topics, qos);
+    }
+
+    public IMqttToken unsubscribe(String topic) throws MqttException {
+        return client.unsubscribe(topic);
+    }
+
+    public boolean isConnected() {
+        return client.isConnected();
+    }
+
+    public Outbox getOutbox() { return outbox; }
+    public PublishWindow getWindow() { return window; }
+    public MqttMetrics getMetrics() { return metrics; }
+
+    /**
+     * Deja de reconectar, desconecta y libera el cliente. Lo que quede en el outbox sigue en disco.
+     * Bloquea hasta que el broker confirma la desconexión o vence el plazo.
+     */
+    public void stop() throws MqttException {
+        running = false;
+        scheduler.shutdownNow();
+        IMqttToken attempt = connecting;
+        if (attempt != null) {
+            // Paho no deja cerrar un cliente que está conectando
+            try {
+                attempt.waitForCompletion(options.getConnectionTimeout() * 1000L + 1_000);
+            } catch (MqttException ignored) {
+                // Que falle es lo que queremos
+            }
+        }
+        try {
+            if (client.isConnected()) {
+                client.disconnect().waitForCompletion(5_000);
+            }
+        } finally {
+            client.close(true);
+        }
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    private void connect() {
+        pendingReconnect = null;
+        if (!running || client.isConnected()) return;
+        boolean sessionPresent;
+        long attemptStart = System.nanoTime();
+        try {
+            IMqttToken token = client.connect(options);
+            connecting = token;
+            token.waitForCompletion();
+            sessionPresent = token.getSessionPresent();
+        } catch (MqttException e) {
+            metrics.connectFailures.increment();
+            scheduleReconnect();
+            return;
+        } finally {
+            connecting = null;
+        }
+        long now = System.nanoTime();
+        metrics.handshakeTime.record((now - attemptStart) / 1_000_000);
+        long since = disconnectedSince;
+        if (since != 0) metrics.connectTime.record((now - since) / 1_000_000);
+        disconnectedSince = 0;
+        metrics.connects.increment();
+        if (connectedBefore) metrics.reconnects.increment();
+        connectedBefore = true;
+        backoff.reset();
+        callback.onConnected(sessionPresent);
+        // Primero lo que Paho tenía a medias, después lo que esperaba en disco
+        window.resume();
+        pump();
+    }
+
+    private void scheduleReconnect() {
+        if (!running || client.isConnected() || pendingReconnect != null) return;
+        pendingReconnect = scheduler.schedule(this::connect, backoff.nextDelayMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Pasa a la ventana tantas publicaciones del outbox como quepan, en orden. Así la ventana nunca acumula
+     * cola propia y el orden lo decide siempre el outbox.
+     */
+    private void pump() {
+        if (!client.isConnected()) return;
+        int free = window.getMaxInFlight() - window.getInFlight() - window.getWaiting();
+        List<Outbox.Entry> batch = outbox.takeBatch(free);
+        for (Outbox.Entry entry : batch) {
+            window.publish(entry.id, entry.topic, entry.payload, entry.qos);
+        }
+    }
+
+    private void delivered(long publishId) {
+        String topic;
+        try {
+            topic = outbox.ack(publishId);
+        } catch (IOException e) {
+            // La confirmación no quedó en disco: como mucho se repetirá al reabrir el outbox
+            topic = null;
+        }
+        if (topic != null) {
+            callback.onDelivered(publishId, topic);
+        }
+        if (running) {
+            scheduler.execute(this::pump);
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package com.example.voidchat.mqtt;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Cola de salida de MQTT guardada en disco. Lo que se publica sin conexión, o lo que el broker aún no ha
+ * confirmado, sobrevive a una reconexión y a que el sistema mate la app; se envía en el orden en que se añadió.
+ *
+ * El fichero es un log de sólo-añadir con registros de longitud + CRC, como {@code MessageStore}: cada
+ * publicación es un registro y las confirmaciones se anotan como "confirmado hasta N", uno por lote. Una
+ * publicación puede llevar la clave del mensaje que contiene, para saber cuál se confirmó aunque la app se
+ * haya reiniciado entre medias ({@link #pendingKeys}).
+ * Al vaciarse la cola el fichero se trunca. Un registro a medio escribir se descarta al abrir.
+ *
+ * Es seguro entre hilos; añadir escribe en disco y debe hacerse fuera del hilo principal.
+ */
+public final class Outbox implements Closeable {
+
+    static final String FILE_NAME = "outbox.log";
+    private static final byte OP_PUT = 1;
+    private static final byte OP_ACK_UP_TO = 2;
+    // Como OP_PUT, con la clave del mensaje detrás; los registros sin clave siguen siendo OP_PUT
+    private static final byte OP_PUT_KEYED = 3;
+    private static final int HEADER_BYTES = 8;
+    // Confirmados que se toleran en el log antes de reescribirlo sólo con lo pendiente
+    private static final int COMPACT_AFTER_ACKS = 512;
+
+    // --- Entrada de la cola ---
+    public static final class Entry {
+        public final long id;
+        public final String topic;
+        public final byte[] payload;
+        public final int qos;
+        // Clave del mensaje de chat que lleva, o null
+        public final String key;
+        boolean sent;
+        boolean acked;
+
+        Entry(long id, String topic, byte[] payload, int qos, String key) {
+            this.id = id;
+            this.topic = topic;
+            this.payload = payload;
+            this.qos = qos;
+            this.key = key;
+        }
+    }
+
+    private final File file;
+    private RandomAccessFile output;
+    // Pendientes en orden de id; los confirmados salen por la cabeza
+    private final LinkedHashMap<Long, Entry> pending = new LinkedHashMap<>();
+    private long nextId = 1;
+    private int ackedInLog;
+    private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(256);
+    private final DataOutputStream recordOutput = new DataOutputStream(recordBuffer);
+    private final CRC32 crc = new CRC32();
+
+    private Outbox(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Abre (o crea) la cola y recupera lo que quedó sin confirmar.
+     * @param directory Carpeta exclusiva de la cola.
+     */
+    public static Outbox open(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        Outbox outbox = new Outbox(new File(directory, FILE_NAME));
+        outbox.load();
+        return outbox;
+    }
+
+    // --- Escritura ---
+
+    /**
+     * Añade una publicación al final de la cola y la lleva al disco antes de volver.
+     * @return Su identificador, creciente dentro de la cola.
+     */
+    public long add(String topic, byte[] payload, int qos) throws IOException {
+        return add(topic, payload, qos, null);
+    }
+
+    /**
+     * Como {@link #add(String, byte[], int)}, guardando también la clave del mensaje que lleva la publicación.
+     */
+    public synchronized long add(String topic, byte[] payload, int qos, String key) throws IOException {
+        Entry entry = new Entry(nextId++, topic, payload, qos, key);
+        writePut(entry);
+        output.getFD().sync();
+        pending.put(entry.id, entry);
+        return entry.id;
+    }
+
+    /**
+     * Marca la publicación como confirmada por el broker. Las confirmaciones pueden llegar desordenadas:
+     * la cola sólo avanza sobre las consecutivas y anota en el log hasta dónde llegó.
+     * @return El tema de la publicación, o null si no estaba pendiente o ya se había confirmado.
+     */
+    public synchronized String ack(long id) throws IOException {
+        Entry entry = pending.get(id);
+        if (entry == null || entry.acked) return null;
+        entry.acked = true;
+
+        long upTo = 0;
+        Iterator<Entry> iterator = pending.values().iterator();
+        while (iterator.hasNext()) {
+            Entry head = iterator.next();
+            if (!head.acked) break;
+            upTo = head.id;
+            iterator.remove();
+            ackedInLog++;
+        }
+        if (upTo > 0) {
+            // Sin sync: si se pierde, la publicación se repite al abrir, que QoS 1 ya admite
+            writeAckUpTo(upTo);
+            compactIfNeeded();
+        }
+        return entry.topic;
+    }
+
+    // --- Envío ---
+
+    /**
+     * Siguiente lote de publicaciones aún no entregadas a la conexión, en orden. Quedan marcadas como enviadas
+     * hasta que se confirmen o se devuelvan con {@link #requeueFrom}.
+     */
+    public synchronized List<Entry> takeBatch(int max) {
+        if (max <= 0) return Collections.emptyList();
+        List<Entry> batch = new ArrayList<>(Math.min(max, pending.size()));
+        for (Entry entry : pending.values()) {
+            if (batch.size() == max) break;
+            if (entry.sent) continue;
+            entry.sent = true;
+            batch.add(entry);
+        }
+        return batch;
+    }
+
+    /**
+     * Devuelve a la cola la publicación y todas las posteriores sin confirmar, para reenviarlas en orden.
+     */
+    public synchronized void requeueFrom(long id) {
+        for (Entry entry : pending.values()) {
+            if (entry.id >= id && !entry.acked) entry.sent = false;
+        }
+    }
+
+    /**
+     * Devuelve a la cola todo lo no confirmado, por ejemplo con un cliente MQTT nuevo que no conoce
+     * las publicaciones del anterior.
+     */
+    public synchronized void requeueAll() {
+        requeueFrom(Long.MIN_VALUE);
+    }
+
+    /**
+     * Vacía la cola, por ejemplo al cerrar sesión: lo pendiente era del usuario anterior.
+     */
+    public synchronized void clear() throws IOException {
+        pending.clear();
+        ackedInLog = 0;
+        output.setLength(0);
+    }
+
+    public synchronized int size() { return pending.size(); }
+
+    /**
+     * Claves de los mensajes aún sin confirmar, por identificador de publicación. Tras reabrir la cola es lo
+     * que permite saber qué mensaje confirma cada PUBACK de lo que se reenvía.
+     */
+    public synchronized Map<Long, String> pendingKeys() {
+        Map<Long, String> keys = new LinkedHashMap<>();
+        for (Entry entry : pending.values()) {
+            if (entry.key != null) keys.put(entry.id, entry.key);
+        }
+        return keys;
+    }
+
+    public synchronized int getUnsent() {
+        int unsent = 0;
+        for (Entry entry : pending.values()) {
+            if (!entry.sent) unsent++;
+        }
+        return unsent;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (output != null) {
+            output.close();
+            output = null;
+        }
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    /**
+     * Recorre el log aplicando publicaciones y confirmaciones. Trunca tras el último registro válido.
+     */
+    private void load() throws IOException {
+        output = new RandomAccessFile(file, "rw");
+        long end = output.length();
+        long position = 0;
+        while (position + HEADER_BYTES <= end) {
+            output.seek(position);
+            int length = output.readInt();
+            if (length <= 0 || position + HEADER_BYTES + length > end) break;
+            int expectedCrc = output.readInt();
+            byte[] record = new byte[length];
+            output.readFully(record);
+            crc.reset();
+            crc.update(record, 0, length);
+            if ((int) crc.getValue() != expectedCrc) break;
+            try {
+                apply(new DataInputStream(new ByteArrayInputStream(record)));
+            } catch (EOFException e) {
+                break;
+            }
+            position += HEADER_BYTES + length;
+        }
+        output.setLength(position);
+        output.seek(position);
+    }
+
+    private void apply(DataInputStream in) throws IOException {
+        byte op = in.readByte();
+        long id = in.readLong();
+        nextId = Math.max(nextId, id + 1);
+        if (op == OP_PUT || op == OP_PUT_KEYED) {
+            String topic = in.readUTF();
+            int qos = in.readByte();
+            byte[] payload = new byte[in.readInt()];
+            in.readFully(payload);
+            String key = op == OP_PUT_KEYED ? in.readUTF() : null;
+            pending.put(id, new Entry(id, topic, payload, qos, key));
+        } else if (op == OP_ACK_UP_TO) {
+            Iterator<Map.Entry<Long, Entry>> iterator = pending.entrySet().iterator();
+            while (iterator.hasNext() && iterator.next().getKey() <= id) {
+                iterator.remove();
+                ackedInLog++;
+            }
+        }
+    }
+
+    private void writePut(Entry entry) throws IOException {
+        recordBuffer.reset();
+        writePutTo(entry);
+        output.write(frame());
+    }
+
+    private void writeAckUpTo(long id) throws IOException {
+        recordBuffer.reset();
+        recordOutput.writeByte(OP_ACK_UP_TO);
+        recordOutput.writeLong(id);
+        output.write(frame());
+    }
+
+    /**
+     * Con la cola vacía basta truncar. Si siempre queda algo pendiente (sin conexión durante mucho tiempo),
+     * el log se reescribe sólo con lo pendiente cuando acumula demasiados confirmados.
+     */
+    private void compactIfNeeded() throws IOException {
+        if (pending.isEmpty()) {
+            output.setLength(0);
+            ackedInLog = 0;
+            return;
+        }
+        if (ackedInLog < COMPACT_AFTER_ACKS) return;
+        File compacted = new File(file.getParentFile(), FILE_NAME + ".tmp");
+        RandomAccessFile previous = output;
+        try (FileOutputStream out = new FileOutputStream(compacted)) {
+            for (Entry entry : pending.values()) {
+                recordBuffer.reset();
+                writePutTo(entry);
+                out.write(frame());
+            }
+            out.getFD().sync();
+        }
+        previous.close();
+        if (!compacted.renameTo(file)) {
+            throw new IOException("Cannot replace " + file);
+        }
+        output = new RandomAccessFile(file, "rw");
+        output.seek(output.length());
+        ackedInLog = 0;
+    }
+
+    private void writePutTo(Entry entry) throws IOException {
+        recordOutput.writeByte(entry.key == null ? OP_PUT : OP_PUT_KEYED);
+        recordOutput.writeLong(entry.id);
+        recordOutput.writeUTF(entry.topic);
+        recordOutput.writeByte(entry.qos);
+        recordOutput.writeInt(entry.payload.length);
+        recordOutput.write(entry.payload);
+        if (entry.key != null) recordOutput.writeUTF(entry.key);
+    }
+
+    // Cabecera y contenido en un solo array: un único write por registro
+    private byte[] frame() {
+        int length = recordBuffer.size();
+        byte[] record = recordBuffer.toByteArray();
+        crc.reset();
+        crc.update(record, 0, length);
+        byte[] framed = new byte[HEADER_BYTES + length];
+        writeInt(framed, 0, length);
+        writeInt(framed, 4, (int) crc.getValue());
+        System.arraycopy(record, 0, framed, HEADER_BYTES, length);
+        return framed;
+    }
+
+    private static void writeInt(byte[] target, int offset, int value) {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.voidchat.mqtt;
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Comprime y descomprime cargas binarias de {@link MessagePayload} con deflate y un {@link PayloadDictionary}.
+ * Se queda con la versión y las banderas en claro y comprime el resto:
+ * <pre>
+ *   byte     versión (1)
+ *   byte     banderas | 8
+ *   byte     id del diccionario
+ *   ...      deflate sin cabecera del resto de la carga original
+ * </pre>
+ * Sólo se comprime a partir de {@code threshold} bytes y sólo si el resultado ocupa menos; si no, la carga
+ * sale tal cual. Las que no llevan la bandera, incluido el JSON de los clientes anteriores, pasan sin tocar
+ * por {@link #decompress}.
+ *
+ * Reutiliza el Deflater y el Inflater entre mensajes, así que no es seguro entre hilos: una instancia por hilo.
+ */
+public final class PayloadCompressor implements Closeable {
+
+    /** Por debajo, el uid del remitente ocupa casi toda la carga y no queda texto que comprimir. */
+    public static final int DEFAULT_THRESHOLD = 48;
+    // Tope al descomprimir: una carga pequeña no puede hacer reservar memoria sin límite
+    static final int MAX_INFLATED = 256 * 1024;
+
+    private static final int HEADER = 3;
+
+    private final PayloadDictionary dictionary;
+    private final int threshold;
+    private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+    private final Inflater inflater = new Inflater(true);
+    private byte[] buffer = new byte[1024];
+
+    public PayloadCompressor(PayloadDictionary dictionary) {
+        this(dictionary, DEFAULT_THRESHOLD);
+    }
+
+    public PayloadCompressor(PayloadDictionary dictionary, int threshold) {
+        this.dictionary = dictionary;
+        this.threshold = threshold;
+    }
+
+    // --- Métodos Públicos ---
+
+    /**
+     * @return La carga comprimida, o la misma si es JSON, ya estaba comprimida, no llega al umbral o no
+     *         se gana nada.
+     */
+    public byte[] compress(byte[] payload) {
+        if (payload.length < Math.max(threshold, 2) || payload[0] != MessagePayload.VERSION
+                || (payload[1] & MessagePayload.FLAG_COMPRESSED) != 0) {
+            return payload;
+        }
+        deflater.reset();
+        deflater.setDictionary(dictionary.bytes());
+        deflater.setInput(payload, 2, payload.length - 2);
+        deflater.finish();
+        // Todo lo que no quepa en menos bytes que el original no merece la pena
+        int limit = payload.length - 1;
+        if (buffer.length < limit) buffer = new byte[limit];
+        int length = HEADER;
+        while (!deflater.finished() && length < limit) {
+            length += deflater.deflate(buffer, length, limit - length);
+        }
+        if (!deflater.finished()) return payload;
+        byte[] out = Arrays.copyOf(buffer, length);
+        out[0] = (byte) MessagePayload.VERSION;
+        out[1] = (byte) (payload[1] | MessagePayload.FLAG_COMPRESSED);
+        out[2] = (byte) dictionary.id;
+        return out;
+    }
+
+    /**
+     * @return La carga original si venía comprimida; si no, la misma.
+     * @throws IllegalArgumentException si está truncada o dañada, es de un diccionario que no es el nuestro
+     *                                  o descomprimida pasaría de {@link #MAX_INFLATED}.
+     */
+    public byte[] decompress(byte[] payload) {
+        if (payload.length < 2 || payload[0] != MessagePayload.VERSION
+                || (payload[1] & MessagePayload.FLAG_COMPRESSED) == 0) {
+            return payload;
+        }
+        if (payload.length < HEADER) throw new IllegalArgumentException("Truncated payload");
+        int dictionaryId = payload[2] & 0xFF;
+        if (dictionaryId != dictionary.id) {
+            throw new IllegalArgumentException("Unknown payload dictionary " + dictionaryId);
+        }
+        inflater.reset();
+        inflater.setDictionary(dictionary.bytes());
+        inflater.setInput(payload, HEADER, payload.length - HEADER);
+        int length = 2;
+        try {
+            while (!inflater.finished()) {
+                if (length == buffer.length) {
+                    if (length >= MAX_INFLATED + 2) throw new IllegalArgumentException("Payload too large");
+                    buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, MAX_INFLATED + 2));
+                }
+                int n = inflater.inflate(buffer, length, buffer.length - length);
+                if (n == 0 && inflater.needsInput()) throw new IllegalArgumentException("Truncated payload");
+                length += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt payload: " + e.getMessage(), e);
+        }
+        if (inflater.getRemaining() > 0) throw new IllegalArgumentException("Trailing bytes after payload");
+        byte[] out = Arrays.copyOf(buffer, length);
+        out[0] = (byte) MessagePayload.VERSION;
+        out[1] = (byte) (payload[1] & ~MessagePayload.FLAG_COMPRESSED);
+        return out;
+    }
+
+    public PayloadDictionary getDictionary() { return dictionary; }
+
+    @Override
+    public void close() {
+        deflater.end();
+        inflater.end();
+    }
+}
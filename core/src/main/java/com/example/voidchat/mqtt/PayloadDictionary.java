@@ -0,0 +1,68 @@
+package com.example.voidchat.mqtt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Diccionario compartido con el que se comprimen las cargas de chat. Un mensaje suelto es demasiado corto
+ * para que deflate encuentre repeticiones dentro de él; con un diccionario de fragmentos frecuentes
+ * ("nos vemos", "mañana", "jajaja"...) las encuentra ahí.
+ *
+ * Todos los clientes tienen que tener el mismo diccionario para cada id: uno nuevo se publica con otro id y
+ * se mantiene el anterior mientras queden clientes que lo usen. Se genera con {@link DictionaryTrainer}.
+ */
+public final class PayloadDictionary {
+
+    /** Id del diccionario que viaja con la app. */
+    public static final int BUILT_IN_ID = 1;
+    // Deflate sólo mira 32 KB hacia atrás; lo que pase de ahí no sirve
+    static final int MAX_SIZE = 32 * 1024;
+
+    private static final String BUILT_IN_RESOURCE = "chat-1.dict";
+
+    public final int id;
+    private final byte[] bytes;
+
+    private PayloadDictionary(int id, byte[] bytes) {
+        this.id = id;
+        this.bytes = bytes;
+    }
+
+    public static PayloadDictionary of(int id, byte[] bytes) {
+        if (id < 1 || id > 255) throw new IllegalArgumentException("Dictionary id must fit in a byte: " + id);
+        if (bytes.length == 0 || bytes.length > MAX_SIZE) {
+            throw new IllegalArgumentException("Dictionary size out of range: " + bytes.length);
+        }
+        return new PayloadDictionary(id, bytes.clone());
+    }
+
+    /**
+     * El diccionario que viaja en los recursos de core. Se lee una vez, la primera vez que se pide.
+     */
+    public static PayloadDictionary builtIn() {
+        return BuiltIn.INSTANCE;
+    }
+
+    public int size() { return bytes.length; }
+
+    byte[] bytes() { return bytes; }
+
+    // --- Métodos Privados de Utilidad ---
+
+    private static final class BuiltIn {
+        static final PayloadDictionary INSTANCE = load();
+
+        private static PayloadDictionary load() {
+            try (InputStream in = PayloadDictionary.class.getResourceAsStream(BUILT_IN_RESOURCE)) {
+                if (in == null) throw new IllegalStateException("Missing resource " + BUILT_IN_RESOURCE);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int n;
+                while ((n = in.read(buffer)) > 0) out.write(buffer, 0, n);
+                return of(BUILT_IN_ID, out.toByteArray());
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot read " + BUILT_IN_RESOURCE, e);
+            }
+        }
+    }
+}
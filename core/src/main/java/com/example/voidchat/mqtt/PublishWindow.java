@@ -0,0 +1,204 @@
+package com.example.voidchat.mqtt;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import java.util.ArrayDeque;
+
+/**
+ * Publica sobre el cliente asíncrono de Paho con varios mensajes a la vez esperando su confirmación.
+ *
+ * Con el cliente bloqueante cada publicación QoS 1 esperaba su PUBACK antes de empezar la siguiente, así que
+ * una ráfaga avanzaba a un mensaje por ida y vuelta. Aquí hasta {@code maxInFlight} mensajes viajan a la vez;
+ * los demás esperan en orden hasta que una confirmación libere sitio. Sin conexión tampoco se envía nada: la
+ * cola se retoma con {@link #resume()} al reconectar.
+ *
+ * La cola de espera tiene un máximo ({@code maxWaiting}): con ella llena {@link #publish} rechaza el mensaje y
+ * avisa de un fallo en lugar de seguir acumulando en memoria durante una ráfaga o un corte largo. Quien
+ * publica decide qué hacer con él; {@link MqttSession} lo deja en su outbox en disco y lo reintenta más tarde.
+ *
+ * El cliente debe conectarse con {@code MqttConnectOptions.setMaxInflight} al menos igual a la ventana,
+ * o Paho rechazará las publicaciones que la superen. Es seguro entre hilos.
+ *
+ * Con sesión persistente ({@code cleanSession(false)}) Paho conserva lo que estaba en vuelo al perder la
+ * conexión y lo reenvía al reconectar: avisa primero de un fallo y, con el mismo token, del éxito después.
+ * En ese modo el fallo por conexión perdida no se notifica y el mensaje sigue ocupando su sitio en la ventana.
+ */
+public final class PublishWindow {
+
+    // --- Interfaz de Callback ---
+    // Se llama desde los hilos de Paho, nunca con el cerrojo de la ventana tomado
+    public interface Listener {
+        void onDelivered(long publishId);
+        void onFailed(long publishId, Throwable error);
+    }
+
+    private final IMqttAsyncClient client;
+    // Lo que cabe esperando sitio en la ventana antes de rechazar; MqttSession nunca pasa de maxInFlight
+    public static final int DEFAULT_MAX_WAITING = 1_024;
+
+    private final int maxInFlight;
+    private final int maxWaiting;
+    private final Listener listener;
+    private final boolean persistentSession;
+    private final ArrayDeque<Pending> waiting = new ArrayDeque<>();
+    private int inFlight;
+
+    private final IMqttActionListener completion = new IMqttActionListener() {
+        @Override
+        public void onSuccess(IMqttToken token) {
+            Pending pending = (Pending) token.getUserContext();
+            if (!complete(pending)) return;
+            listener.onDelivered(pending.publishId);
+        }
+
+        @Override
+        public void onFailure(IMqttToken token, Throwable error) {
+            Pending pending = (Pending) token.getUserContext();
+            if (persistentSession && isConnectionLost(error)) {
+                // Paho lo reenviará al reconectar; el resultado llegará por este mismo token
+                return;
+            }
+            if (!complete(pending)) return;
+            listener.onFailed(pending.publishId, error);
+        }
+    };
+
+    public PublishWindow(IMqttAsyncClient client, int maxInFlight, Listener listener) {
+        this(client, maxInFlight, listener, false);
+    }
+
+    /**
+     * @param persistentSession El cliente conecta con {@code cleanSession(false)}.
+     */
+    public PublishWindow(IMqttAsyncClient client, int maxInFlight, Listener listener, boolean persistentSession) {
+        this(client, maxInFlight, DEFAULT_MAX_WAITING, listener, persistentSession);
+    }
+
+    /**
+     * @param maxWaiting Mensajes que pueden esperar sitio en la ventana; los siguientes se rechazan.
+     */
+    public PublishWindow(IMqttAsyncClient client, int maxInFlight, int maxWaiting, Listener listener,
+                         boolean persistentSession) {
+        if (maxInFlight < 1) throw new IllegalArgumentException("maxInFlight must be at least 1");
+        if (maxWaiting < 0) throw new IllegalArgumentException("maxWaiting must not be negative");
+        this.client = client;
+        this.maxInFlight = maxInFlight;
+        this.maxWaiting = maxWaiting;
+        this.listener = listener;
+        this.persistentSession = persistentSession;
+    }
+
+    /**
+     * Encola el mensaje y lo envía si hay sitio en la ventana. No bloquea.
+     * El resultado llega al listener con el mismo {@code publishId}; si la cola de espera está llena, antes de
+     * volver, como un fallo {@link MqttException#REASON_CODE_MAX_INFLIGHT}.
+     * @return false si se rechazó por estar la cola llena.
+     */
+    public boolean publish(long publishId, String topic, byte[] payload, int qos) {
+        boolean accepted;
+        synchronized (this) {
+            // Lo que cabe en la ventana no cuenta como espera, aunque pase un instante por la cola
+            accepted = inFlight + waiting.size() < maxInFlight + maxWaiting;
+            if (accepted) waiting.add(new Pending(publishId, topic, payload, qos));
+        }
+        if (!accepted) {
+            listener.onFailed(publishId, new MqttException(MqttException.REASON_CODE_MAX_INFLIGHT));
+            return false;
+        }
+        resume();
+        return true;
+    }
+
+    /**
+     * Reanuda el envío de lo que esperaba, por ejemplo tras una reconexión.
+     */
+    public void resume() {
+        while (true) {
+            Pending failed;
+            synchronized (this) {
+                failed = drain();
+            }
+            if (failed == null) return;
+            listener.onFailed(failed.publishId, failed.error);
+        }
+    }
+
+    /**
+     * @return Cuándo salió hacia el broker, en {@link System#nanoTime()}, la publicación de {@code token}, o 0
+     *         si no es de una ventana.
+     */
+    public static long sentAt(IMqttToken token) {
+        Object context = token.getUserContext();
+        return context instanceof Pending ? ((Pending) context).sentNanos : 0;
+    }
+
+    public synchronized int getInFlight() { return inFlight; }
+    public synchronized int getWaiting() { return waiting.size(); }
+    public int getMaxInFlight() { return maxInFlight; }
+    public int getMaxWaiting() { return maxWaiting; }
+
+    // --- Métodos Privados de Utilidad ---
+
+    /**
+     * Libera el sitio del mensaje la primera vez que termina; Paho puede avisar dos veces del mismo token.
+     * @return false si ya había terminado antes.
+     */
+    private boolean complete(Pending pending) {
+        synchronized (this) {
+            if (pending.completed) return false;
+            pending.completed = true;
+            inFlight--;
+        }
+        resume();
+        return true;
+    }
+
+    private static boolean isConnectionLost(Throwable error) {
+        return error instanceof MqttException
+                && ((MqttException) error).getReasonCode() == MqttException.REASON_CODE_CONNECTION_LOST;
+    }
+
+    /**
+     * Envía mientras haya sitio y conexión. Si Paho rechaza un mensaje se detiene y lo devuelve,
+     * para avisar fuera del cerrojo antes de seguir con el resto. Si el rechazo es porque la conexión acaba
+     * de caer, el mensaje vuelve a la cabeza de la cola y espera a {@link #resume()}, sin fallo y sin desorden.
+     */
+    private Pending drain() {
+        while (inFlight < maxInFlight && !waiting.isEmpty() && client.isConnected()) {
+            Pending pending = waiting.poll();
+            inFlight++;
+            pending.sentNanos = System.nanoTime();
+            try {
+                client.publish(pending.topic, pending.payload, pending.qos, false, pending, completion);
+            } catch (MqttException e) {
+                inFlight--;
+                if (e.getReasonCode() == MqttException.REASON_CODE_CLIENT_NOT_CONNECTED) {
+                    waiting.addFirst(pending);
+                    return null;
+                }
+                pending.error = e;
+                return pending;
+            }
+        }
+        return null;
+    }
+
+    private static final class Pending {
+        final long publishId;
+        final String topic;
+        final byte[] payload;
+        final int qos;
+        Throwable error;
+        boolean completed;
+        // Se lee desde el hilo de Paho que avisa de la entrega
+        volatile long sentNanos;
+
+        Pending(long publishId, String topic, byte[] payload, int qos) {
+            this.publishId = publishId;
+            this.topic = topic;
+            this.payload = payload;
+            this.qos = qos;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.example.voidchat.mqtt;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Quién escucha cada filtro de tema sobre una conexión MQTT compartida, organizado como un árbol por niveles
+ * del tema ("chat/sala1" son los niveles "chat" y "sala1"). Admite los comodines de MQTT: {@code +} vale por
+ * un nivel y {@code #}, al final, por el resto del tema, incluido ninguno.
+ *
+ * Cada registro cuenta como una referencia: sólo el primero de un filtro necesita SUBSCRIBE y sólo al quitar
+ * el último hace falta UNSUBSCRIBE. Encontrar los listeners de un tema recorre el árbol nivel a nivel, sin
+ * mirar los filtros que no pueden coincidir: el coste depende de la profundidad del tema, no de cuántos
+ * filtros haya registrados.
+ *
+ * Las listas de cada nodo no se modifican, se sustituyen, y los hijos están en mapas concurrentes: se puede
+ * despachar sin cerrojo mientras otro hilo añade o quita registros. Es seguro entre hilos.
+ */
+public final class TopicRouter<L> {
+
+    private static final String SINGLE_LEVEL = "+";
+    private static final String MULTI_LEVEL = "#";
+
+    private final Node<L> root = new Node<>(null, null);
+    // Nodo de cada filtro con algún registro, para llegar a él sin recorrer el árbol
+    private final Map<String, Node<L>> filters = new ConcurrentHashMap<>();
+
+    /**
+     * @return true si es el primer registro del filtro: hay que suscribirse en el broker.
+     * @throws IllegalArgumentException si el filtro no es válido en MQTT.
+     */
+    public synchronized boolean add(String filter, L listener) {
+        validate(filter);
+        Node<L> node = filters.get(filter);
+        boolean first = node == null;
+        if (first) {
+            node = root;
+            int start = 0;
+            while (true) {
+                int end = filter.indexOf('/', start);
+                String level = end < 0 ? filter.substring(start) : filter.substring(start, end);
+                node = node.childOrCreate(level);
+                if (end < 0) break;
+                start = end + 1;
+            }
+            filters.put(filter, node);
+        }
+        List<L> updated = new ArrayList<>(node.listeners.size() + 1);
+        updated.addAll(node.listeners);
+        updated.add(listener);
+        node.listeners = Collections.unmodifiableList(updated);
+        return first;
+    }
+
+    /**
+     * Quita un registro del listener en el filtro, si lo había. Los nodos que quedan vacíos se podan.
+     * @return true si era el último: hay que cancelar la suscripción en el broker.
+     */
+    public synchronized boolean remove(String filter, L listener) {
+        Node<L> node = filters.get(filter);
+        if (node == null || !node.listeners.contains(listener)) return false;
+        if (node.listeners.size() > 1) {
+            List<L> updated = new ArrayList<>(node.listeners);
+            updated.remove(listener);
+            node.listeners = Collections.unmodifiableList(updated);
+            return false;
+        }
+        node.listeners = Collections.emptyList();
+        filters.remove(filter);
+        // Quien esté despachando sobre una rama podada sólo ve listas vacías
+        while (node.parent != null && node.listeners.isEmpty() && node.children.isEmpty()) {
+            node.parent.children.remove(node.level);
+            node = node.parent;
+        }
+        return true;
+    }
+
+    /**
+     * Listeners de todos los filtros que coinciden con el tema, sin repetir, en orden de filtro más concreto
+     * a más general. Puede llamarse desde cualquier hilo, también mientras otro registra o da de baja.
+     */
+    public List<L> match(String topic) {
+        List<List<L>> found = new ArrayList<>(2);
+        collect(root, topic, 0, found);
+        if (found.isEmpty()) return Collections.emptyList();
+        if (found.size() == 1) return found.get(0);
+        // Un listener registrado en dos filtros que coinciden recibe el mensaje una vez
+        Map<L, Boolean> unique = new IdentityHashMap<>();
+        List<L> result = new ArrayList<>();
+        for (List<L> listeners : found) {
+            for (L listener : listeners) {
+                if (unique.put(listener, Boolean.TRUE) == null) result.add(listener);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Filtros con algún registro, por ejemplo para volver a suscribirse tras una reconexión.
+     */
+    public synchronized Set<String> topics() {
+        return new LinkedHashSet<>(filters.keySet());
+    }
+
+    /**
+     * Todos los listeners, sin repetir, para avisos de la conexión en general.
+     */
+    public synchronized Set<L> allListeners() {
+        Set<L> all = new LinkedHashSet<>();
+        for (Node<L> node : filters.values()) {
+            all.addAll(node.listeners);
+        }
+        return all;
+    }
+
+    /**
+     * Quita todos los registros, por ejemplo al cerrar sesión.
+     */
+    public synchronized void clear() {
+        for (Node<L> node : filters.values()) {
+            node.listeners = Collections.emptyList();
+        }
+        filters.clear();
+        root.children.clear();
+    }
+
+    public int referenceCount(String filter) {
+        Node<L> node = filters.get(filter);
+        return node != null ? node.listeners.size() : 0;
+    }
+
+    /**
+     * Comprueba un filtro contra un tema con las reglas de MQTT, sin árbol. Sirve de referencia en pruebas.
+     */
+    public static boolean matches(String filter, String topic) {
+        if (topic.startsWith("$") && (filter.startsWith(SINGLE_LEVEL) || filter.startsWith(MULTI_LEVEL))) {
+            return false;
+        }
+        String[] filterLevels = filter.split("/", -1);
+        String[] topicLevels = topic.split("/", -1);
+        for (int i = 0; i < filterLevels.length; i++) {
+            if (filterLevels[i].equals(MULTI_LEVEL)) return true;
+            if (i >= topicLevels.length) return false;
+            if (!filterLevels[i].equals(SINGLE_LEVEL) && !filterLevels[i].equals(topicLevels[i])) return false;
+        }
+        return filterLevels.length == topicLevels.length;
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    /**
+     * Baja por el nivel literal y por {@code +}; {@code #} coincide con lo que quede. Los temas de sistema
+     * ($SYS...) no coinciden con comodines en el primer nivel.
+     */
+    private void collect(Node<L> node, String topic, int start, List<List<L>> found) {
+        boolean system = start == 0 && topic.startsWith("$");
+        if (start > topic.length()) {
+            // Se consumió el tema entero: coinciden los filtros que terminan aquí
+            if (!node.listeners.isEmpty()) found.add(node.listeners);
+        } else {
+            int end = topic.indexOf('/', start);
+            if (end < 0) end = topic.length();
+            Node<L> exact = node.childAt(topic, start, end);
+            if (exact != null) collect(exact, topic, end + 1, found);
+            if (!system) {
+                Node<L> single = node.children.get(SINGLE_LEVEL);
+                if (single != null) collect(single, topic, end + 1, found);
+            }
+        }
+        if (!system) {
+            Node<L> multi = node.children.get(MULTI_LEVEL);
+            if (multi != null && !multi.listeners.isEmpty()) found.add(multi.listeners);
+        }
+    }
+
+    private static void validate(String filter) {
+        if (filter == null || filter.isEmpty()) throw new IllegalArgumentException("Empty topic filter");
+        int start = 0;
+        while (true) {
+            int end = filter.indexOf('/', start);
+            String level = end < 0 ? filter.substring(start) : filter.substring(start, end);
+            boolean wildcard = level.equals(SINGLE_LEVEL) || level.equals(MULTI_LEVEL);
+            if (!wildcard && (level.contains(SINGLE_LEVEL) || level.contains(MULTI_LEVEL))) {
+                throw new IllegalArgumentException("Wildcards must fill a whole level: " + filter);
+            }
+            if (level.equals(MULTI_LEVEL) && end >= 0) {
+                throw new IllegalArgumentException("# must be the last level: " + filter);
+            }
+            if (end < 0) return;
+            start = end + 1;
+        }
+    }
+
+    private static final class Node<L> {
+        final Node<L> parent;
+        final String level;
+        final Map<String, Node<L>> children = new ConcurrentHashMap<>();
+        volatile List<L> listeners = Collections.emptyList();
+
+        Node(Node<L> parent, String level) {
+            this.parent = parent;
+            this.level = level;
+        }
+
+        Node<L> childOrCreate(String level) {
+            Node<L> child = children.get(level);
+            if (child == null) {
+                child = new Node<>(this, level);
+                children.put(level, child);
+            }
+            return child;
+        }
+
+        /**
+         * Hijo del nivel {@code topic[start, end)}. Casi siempre hay uno o dos hijos: se comparan sin crear
+         * la subcadena; con muchos, se busca en el mapa.
+         */
+        Node<L> childAt(String topic, int start, int end) {
+            if (children.size() > 4) return children.get(topic.substring(start, end));
+            int length = end - start;
+            for (Node<L> child : children.values()) {
+                if (child.level.length() == length && topic.regionMatches(start, child.level, 0, length)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.voidchat.presence;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+
+/**
+ * Formato de la presencia por MQTT: cada usuario tiene el tema {@code presence/{uid}} con su último estado
+ * retenido en el broker, así quien se suscribe lo recibe al momento aunque nadie publique. La carga son 9
+ * bytes: 1 en línea / 0 desconectado y la hora del cambio en milisegundos (0 si no se conoce).
+ *
+ * El "desconectado" de una caída lo publica el broker con el Last Will registrado al conectar. Ese mensaje se
+ * fija antes de saber cuándo se caerá la conexión, por eso lleva hora 0: el receptor usa la de llegada.
+ */
+public final class PresenceSignal {
+
+    public static final String FILTER = "presence/+";
+    // QoS del Last Will y del estado retenido: un "desconectado" perdido dejaría al usuario en línea para siempre
+    public static final int QOS = 1;
+    private static final String PREFIX = "presence/";
+    private static final byte ONLINE = 1;
+    private static final byte OFFLINE = 0;
+    private static final int LENGTH = 9;
+
+    private PresenceSignal() {
+    }
+
+    public static String topic(String userId) {
+        return PREFIX + userId;
+    }
+
+    /**
+     * @return El UID del tema, o null si no es un tema de presencia.
+     */
+    public static String userIdOf(String topic) {
+        if (!topic.startsWith(PREFIX) || topic.length() == PREFIX.length()) return null;
+        return topic.indexOf('/', PREFIX.length()) < 0 ? topic.substring(PREFIX.length()) : null;
+    }
+
+    public static byte[] encode(boolean online, long changedAt) {
+        byte[] payload = new byte[LENGTH];
+        payload[0] = online ? ONLINE : OFFLINE;
+        for (int i = 0; i < 8; i++) {
+            payload[1 + i] = (byte) (changedAt >>> (56 - 8 * i));
+        }
+        return payload;
+    }
+
+    /**
+     * Una carga vacía es el broker borrando el retenido (cuenta eliminada, cierre de sesión): desconectado.
+     * @throws IllegalArgumentException si la carga no tiene este formato.
+     */
+    public static boolean isOnline(byte[] payload) {
+        if (payload.length == 0) return false;
+        check(payload);
+        return payload[0] == ONLINE;
+    }
+
+    /**
+     * @return La hora del cambio, o 0 si no viene (Last Will, retenido borrado).
+     * @throws IllegalArgumentException si la carga no tiene este formato.
+     */
+    public static long changedAt(byte[] payload) {
+        if (payload.length == 0) return 0;
+        check(payload);
+        long time = 0;
+        for (int i = 0; i < 8; i++) {
+            time = (time << 8) | (payload[1 + i] & 0xFF);
+        }
+        return time;
+    }
+
+    /**
+     * Registra en las opciones el Last Will del usuario: si la conexión cae sin DISCONNECT (proceso muerto,
+     * red perdida), el broker publica y retiene "desconectado" en su tema.
+     */
+    public static void setWill(MqttConnectOptions options, String userId) {
+        options.setWill(topic(userId), encode(false, 0), QOS, true);
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    private static void check(byte[] payload) {
+        if (payload.length != LENGTH || (payload[0] != ONLINE && payload[0] != OFFLINE)) {
+            throw new IllegalArgumentException("Not a presence signal");
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.voidchat.presence;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Último estado conocido de cada usuario, según los avisos de presencia recibidos. Sólo informa de cambios
+ * reales: el broker reenvía el retenido en cada suscripción y reconexión, y la lista no tiene por qué
+ * redibujar una fila que ya mostraba lo mismo.
+ *
+ * No es seguro entre hilos: desde el hilo principal.
+ */
+public final class PresenceTracker {
+
+    private final Map<String, Boolean> online = new HashMap<>();
+    private final Map<String, Long> lastSeen = new HashMap<>();
+
+    /**
+     * @param changedAt Hora del cambio según el emisor, o 0 si no la trae.
+     * @param now       Hora de llegada, que se usa cuando el aviso no trae la suya.
+     * @return true si cambió si el usuario está en línea.
+     */
+    public boolean onSignal(String userId, boolean isOnline, long changedAt, long now) {
+        if (!isOnline) {
+            lastSeen.put(userId, changedAt > 0 ? changedAt : now);
+        }
+        Boolean previous = online.put(userId, isOnline);
+        // Un usuario sin estado previo se mostraba desconectado
+        return previous == null ? isOnline : previous != isOnline;
+    }
+
+    public boolean isOnline(String userId) {
+        return Boolean.TRUE.equals(online.get(userId));
+    }
+
+    /**
+     * @return Cuándo se desconectó, o 0 si está en línea o no se sabe.
+     */
+    public long lastSeen(String userId) {
+        if (isOnline(userId)) return 0;
+        Long time = lastSeen.get(userId);
+        return time != null ? time : 0;
+    }
+
+    public void clear() {
+        online.clear();
+        lastSeen.clear();
+    }
+}
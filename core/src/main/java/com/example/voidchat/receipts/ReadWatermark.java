@@ -0,0 +1,94 @@
+package com.example.voidchat.receipts;
+
+/**
+ * Confirmaciones de lectura de un usuario en una sala, como una sola marca acumulada: "leído hasta esta clave".
+ * Las claves push de Firebase se ordenan por hora de creación, así que un mensaje está leído si su clave no
+ * es mayor que la marca; no hace falta guardar nada por mensaje ni escribir una vez por cada uno.
+ *
+ * La marca avanza a medida que los mensajes se ven en pantalla ({@link #onSeen}). Los avances se juntan
+ * durante {@link #WINDOW_MILLIS} y salen como mucho una vez cada {@link #INTERVAL_MILLIS}: al desplazarse
+ * por cien mensajes sólo se escribe la última clave.
+ *
+ * Igual que {@link com.example.voidchat.typing.TypingSender}, no tiene temporizadores propios: quien lo usa
+ * llama a {@link #flush} cuando se le indica, con el tiempo de cada llamada. No es seguro entre hilos: desde
+ * el hilo principal.
+ */
+public final class ReadWatermark {
+
+    public static final long WINDOW_MILLIS = 500;
+    public static final long INTERVAL_MILLIS = 2_000;
+
+    // --- Interfaz de Callback ---
+    public interface Transport {
+        void send(String messageId);
+    }
+
+    private final Transport transport;
+    // La clave más alta vista y la última que se escribió (o que ya estaba guardada)
+    private String seen;
+    private String sent;
+    private long lastSent = -INTERVAL_MILLIS;
+    // Cuándo sale el envío pendiente; -1 si no hay ninguno
+    private long dueAt = -1;
+
+    public ReadWatermark(Transport transport) {
+        this.transport = transport;
+    }
+
+    /** {@code true} si el mensaje con esa clave está dentro de la marca {@code watermark}. */
+    public static boolean isRead(String messageId, String watermark) {
+        return messageId != null && watermark != null && messageId.compareTo(watermark) <= 0;
+    }
+
+    /**
+     * Se vio en pantalla el mensaje con esa clave.
+     * @return Milisegundos tras los que llamar a {@link #flush}, o -1 si no hace falta programar nada.
+     */
+    public long onSeen(String messageId, long now) {
+        if (messageId == null || isRead(messageId, seen)) return -1;
+        seen = messageId;
+        if (dueAt >= 0 || isRead(seen, sent)) return -1; // Ya hay un envío programado: éste va en él
+        dueAt = Math.max(now + WINDOW_MILLIS, lastSent + INTERVAL_MILLIS);
+        return dueAt - now;
+    }
+
+    /**
+     * Marca ya guardada en Firebase, por ejemplo desde otro dispositivo: no se vuelve a escribir nada que no
+     * la supere, y la marca nunca retrocede.
+     */
+    public void onStored(String watermark) {
+        if (watermark == null) return;
+        if (!isRead(watermark, sent)) sent = watermark;
+        if (!isRead(watermark, seen)) seen = watermark;
+    }
+
+    /**
+     * Escribe la marca si ya toca.
+     * @return Milisegundos hasta la siguiente comprobación, o -1 si ya no hace falta.
+     */
+    public long flush(long now) {
+        if (dueAt < 0) return -1;
+        if (now < dueAt) return dueAt - now;
+        send(now);
+        return -1;
+    }
+
+    /**
+     * Pantalla cerrada: el avance pendiente sale ya, sin esperar al intervalo.
+     */
+    public void flushNow(long now) {
+        if (dueAt >= 0) send(now);
+    }
+
+    public String getSeen() { return seen; }
+
+    // --- Métodos Privados de Utilidad ---
+
+    private void send(long now) {
+        dueAt = -1;
+        if (isRead(seen, sent)) return;
+        sent = seen;
+        lastSent = now;
+        transport.send(seen);
+    }
+}
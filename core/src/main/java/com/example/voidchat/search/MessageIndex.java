@@ -0,0 +1,324 @@
+package com.example.voidchat.search;
+import com.example.voidchat.model.Message;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Índice invertido del texto de los mensajes de una sala, para buscar en el historial sin red: Firebase no
+ * sabe buscar dentro de un texto.
+ *
+ * Cada mensaje recibe un número de documento en orden de llegada y cada palabra (normalizada con
+ * {@link Words}) guarda la lista de documentos en que aparece, codificada en {@link PostingList}. Las palabras
+ * están ordenadas, así que una búsqueda por prefijo ("cumple" encuentra "cumpleaños") es un rango del
+ * diccionario. Con varias palabras, todas deben aparecer en el mensaje.
+ *
+ * Una edición o un borrado no reescriben las listas: el documento viejo se marca como borrado y, si es una
+ * edición, el texto nuevo entra como documento nuevo. Para reconocer un mensaje repetido sin guardar su texto
+ * se guarda un hash por documento.
+ *
+ * Se guarda entero en un fichero propio, con las claves y las palabras en codificación frontal y un CRC al
+ * final. No es seguro entre hilos: {@link MessageSearch} lo usa desde un único hilo de fondo.
+ */
+public final class MessageIndex {
+
+    private static final int MAGIC = 0x4D495831; // "MIX1"
+
+    private final TreeMap<String, PostingList> terms = new TreeMap<>();
+    // Claves de los documentos, una tras otra en UTF-8: un String por mensaje pesaría el triple
+    private byte[] idBytes = new byte[1024];
+    private int[] idEnds = new int[64];
+    private int[] textHashes = new int[64];
+    private int docCount;
+    private final BitSet deleted = new BitSet();
+    private int deletedCount;
+    // Clave más alta indexada: un mensaje posterior es nuevo seguro, sin buscarlo
+    private String lastId;
+
+    // --- Cambios ---
+
+    /**
+     * Indexa el mensaje. Si ya estaba con el mismo texto no hace nada; si cambió, sustituye la versión vieja.
+     * @return true si el índice cambió.
+     */
+    public boolean add(Message message) {
+        String id = message.getId();
+        if (id == null || message.isSeparator()) return false;
+        int hash = textHash(message.getText());
+        if (lastId != null && id.compareTo(lastId) <= 0) {
+            int doc = findDoc(id);
+            if (doc >= 0) {
+                if (textHashes[doc] == hash) return false;
+                markDeleted(doc);
+            }
+        } else {
+            lastId = id;
+        }
+        int doc = newDoc(id, hash);
+        for (String term : Words.tokenize(Words.normalize(message.getText()))) {
+            // Una palabra repetida en el mismo mensaje la descarta la propia lista
+            PostingList postings = terms.get(term);
+            if (postings == null) {
+                postings = new PostingList();
+                terms.put(term, postings);
+            }
+            postings.add(doc);
+        }
+        return true;
+    }
+
+    public boolean remove(String messageId) {
+        int doc = findDoc(messageId);
+        if (doc < 0) return false;
+        markDeleted(doc);
+        return true;
+    }
+
+    /**
+     * Mensajes indexados, sin contar los borrados.
+     */
+    public int size() {
+        return docCount - deletedCount;
+    }
+
+    /**
+     * Clave más alta indexada: el índice está al día con el log de la sala hasta ella.
+     */
+    public String getLastId() {
+        return lastId;
+    }
+
+    // --- Búsqueda ---
+
+    /**
+     * @return Claves de como mucho {@code limit} mensajes que contienen palabras que empiezan por cada palabra
+     * de la consulta, de más reciente a más antiguo según su llegada. Vacío si la consulta no tiene letras ni
+     * números.
+     */
+    public List<String> search(String query, int limit) {
+        String[] queryTerms = Words.tokenize(Words.normalize(query));
+        List<String> results = new ArrayList<>(Math.min(limit, 64));
+        if (queryTerms.length == 0 || limit <= 0) return results;
+
+        // Cada palabra de la consulta es la unión de las listas de su prefijo; se empieza por la más corta
+        // para que el resto se cruce con lo mínimo y se pueda parar en cuanto no quede nada
+        @SuppressWarnings("unchecked")
+        SortedMap<String, PostingList>[] ranges =
+                (SortedMap<String, PostingList>[]) new SortedMap<?, ?>[queryTerms.length];
+        long[] estimates = new long[queryTerms.length];
+        Integer[] order = new Integer[queryTerms.length];
+        for (int i = 0; i < queryTerms.length; i++) {
+            ranges[i] = terms.subMap(queryTerms[i], queryTerms[i] + Character.MAX_VALUE);
+            for (PostingList postings : ranges[i].values()) {
+                estimates[i] += postings.size();
+            }
+            if (estimates[i] == 0) return results;
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(estimates[a], estimates[b]));
+
+        BitSet matches = union(ranges[order[0]]);
+        for (int i = 1; i < order.length && !matches.isEmpty(); i++) {
+            matches.and(union(ranges[order[i]]));
+        }
+        matches.andNot(deleted);
+        for (int doc = matches.previousSetBit(docCount - 1); doc >= 0 && results.size() < limit;
+             doc = matches.previousSetBit(doc - 1)) {
+            results.add(idOf(doc));
+        }
+        return results;
+    }
+
+    // --- Persistencia ---
+
+    /**
+     * @return El índice guardado, o uno vacío si no hay copia o no es válida; en ese caso hay que volver a
+     * indexar el log de la sala.
+     */
+    public static MessageIndex load(File file) {
+        if (!file.isFile()) return new MessageIndex();
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(file), 64 * 1024), crc))) {
+            if (in.readInt() != MAGIC) return new MessageIndex();
+            MessageIndex index = new MessageIndex();
+            int docCount = Varint.read(in);
+            byte[] id = new byte[64];
+            int idLength = 0;
+            for (int doc = 0; doc < docCount; doc++) {
+                // Las claves push de una sala comparten casi todo el prefijo con la anterior
+                int shared = Varint.read(in);
+                int suffix = Varint.read(in);
+                if (shared > idLength) throw new IOException("Bad id");
+                idLength = shared + suffix;
+                if (idLength > id.length) id = Arrays.copyOf(id, idLength * 2);
+                in.readFully(id, shared, suffix);
+                index.newDoc(id, idLength, in.readInt());
+            }
+            int deletedCount = Varint.read(in);
+            for (int i = 0, doc = -1; i < deletedCount; i++) {
+                doc += Varint.read(in) + 1;
+                if (doc >= docCount) throw new IOException("Bad deleted doc");
+                index.markDeleted(doc);
+            }
+            index.lastId = in.readBoolean() ? in.readUTF() : null;
+            int termCount = Varint.read(in);
+            byte[] term = new byte[64];
+            int termLength = 0;
+            for (int i = 0; i < termCount; i++) {
+                int shared = Varint.read(in);
+                int suffix = Varint.read(in);
+                if (shared > termLength) throw new IOException("Bad term");
+                termLength = shared + suffix;
+                if (termLength > term.length) term = Arrays.copyOf(term, termLength * 2);
+                in.readFully(term, shared, suffix);
+                PostingList postings = PostingList.readFrom(in);
+                if (postings.last() >= docCount) throw new IOException("Bad postings");
+                index.terms.put(new String(term, 0, termLength, StandardCharsets.UTF_8), postings);
+            }
+            int expected = (int) crc.getValue();
+            // El CRC guardado no entra en su propio cálculo
+            if (in.readInt() != expected) return new MessageIndex();
+            return index;
+        } catch (IOException | RuntimeException e) {
+            // Copia truncada o ilegible: se trata como si no la hubiera
+            return new MessageIndex();
+        }
+    }
+
+    /**
+     * Sustituye la copia guardada. Escribe en disco: no llamar desde el hilo principal.
+     */
+    public void save(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+        File temporary = new File(file.getPath() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (FileOutputStream fileOut = new FileOutputStream(temporary)) {
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(fileOut, 64 * 1024), crc));
+            out.writeInt(MAGIC);
+            Varint.write(out, docCount);
+            for (int doc = 0; doc < docCount; doc++) {
+                int start = doc == 0 ? 0 : idEnds[doc - 1];
+                int shared = 0;
+                if (doc > 0) {
+                    int previous = doc == 1 ? 0 : idEnds[doc - 2];
+                    int max = Math.min(start - previous, idEnds[doc] - start);
+                    while (shared < max && idBytes[previous + shared] == idBytes[start + shared]) shared++;
+                }
+                Varint.write(out, shared);
+                Varint.write(out, idEnds[doc] - start - shared);
+                out.write(idBytes, start + shared, idEnds[doc] - start - shared);
+                out.writeInt(textHashes[doc]);
+            }
+            Varint.write(out, deletedCount);
+            for (int doc = deleted.nextSetBit(0), previous = -1; doc >= 0; previous = doc, doc = deleted.nextSetBit(doc + 1)) {
+                Varint.write(out, doc - previous - 1);
+            }
+            out.writeBoolean(lastId != null);
+            if (lastId != null) out.writeUTF(lastId);
+            Varint.write(out, terms.size());
+            byte[] previous = new byte[0];
+            for (Map.Entry<String, PostingList> entry : terms.entrySet()) {
+                byte[] term = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                int shared = 0;
+                int max = Math.min(previous.length, term.length);
+                while (shared < max && previous[shared] == term[shared]) shared++;
+                Varint.write(out, shared);
+                Varint.write(out, term.length - shared);
+                out.write(term, shared, term.length - shared);
+                entry.getValue().writeTo(out);
+                previous = term;
+            }
+            out.writeInt((int) crc.getValue());
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        if (!temporary.renameTo(file)) {
+            throw new IOException("Cannot replace " + file);
+        }
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    private static BitSet union(SortedMap<String, PostingList> range) {
+        BitSet docs = new BitSet();
+        for (PostingList postings : range.values()) {
+            postings.orInto(docs);
+        }
+        return docs;
+    }
+
+    private static int textHash(String text) {
+        return text == null ? 0 : text.hashCode();
+    }
+
+    private int newDoc(String id, int hash) {
+        byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        return newDoc(bytes, bytes.length, hash);
+    }
+
+    private int newDoc(byte[] id, int length, int hash) {
+        int doc = docCount;
+        if (doc == idEnds.length) {
+            idEnds = Arrays.copyOf(idEnds, doc * 2);
+            textHashes = Arrays.copyOf(textHashes, doc * 2);
+        }
+        int start = doc == 0 ? 0 : idEnds[doc - 1];
+        if (start + length > idBytes.length) {
+            idBytes = Arrays.copyOf(idBytes, Math.max(idBytes.length * 2, start + length));
+        }
+        System.arraycopy(id, 0, idBytes, start, length);
+        idEnds[doc] = start + length;
+        textHashes[doc] = hash;
+        docCount++;
+        return doc;
+    }
+
+    private String idOf(int doc) {
+        int start = doc == 0 ? 0 : idEnds[doc - 1];
+        return new String(idBytes, start, idEnds[doc] - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Documento vivo con esa clave. Las ediciones y borrados suelen afectar a lo más reciente: se busca desde
+     * el final.
+     */
+    private int findDoc(String messageId) {
+        if (messageId == null) return -1;
+        byte[] id = messageId.getBytes(StandardCharsets.UTF_8);
+        for (int doc = docCount - 1; doc >= 0; doc--) {
+            int start = doc == 0 ? 0 : idEnds[doc - 1];
+            if (idEnds[doc] - start != id.length || deleted.get(doc)) continue;
+            int i = 0;
+            while (i < id.length && idBytes[start + i] == id[i]) i++;
+            if (i == id.length) return doc;
+        }
+        return -1;
+    }
+
+    private void markDeleted(int doc) {
+        if (deleted.get(doc)) return;
+        deleted.set(doc);
+        deletedCount++;
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.voidchat.search;
+import com.example.voidchat.data.MessageStore;
+import com.example.voidchat.model.Message;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Mantiene el {@link MessageIndex} de una sala en un hilo de fondo y responde a las búsquedas en el principal.
+ *
+ * Al abrirse carga el índice guardado y lo pone al día con lo que el {@link MessageStore} tiene después de la
+ * última clave indexada; a partir de ahí recibe los mismos cambios que el log. Se guarda cada
+ * {@link #SAVE_EVERY} cambios y al llamar a {@link #save()}: si la app muere antes, lo nuevo se recupera del log
+ * al volver a abrir. Las ediciones y borrados no guardados sí se pierden; la pantalla comprueba que el mensaje
+ * sigue existiendo antes de saltar a él.
+ *
+ * Como en {@link com.example.voidchat.contacts.ContactSearch}, sólo se entrega el resultado de la última
+ * búsqueda.
+ */
+public class MessageSearch {
+
+    static final int SAVE_EVERY = 1000;
+    // Mensajes por lectura del log al ponerse al día
+    private static final int CATCH_UP_PAGE = 500;
+
+    // --- Interfaz de Callback ---
+    public interface Callback {
+        void onResults(String query, List<String> messageIds);
+    }
+
+    private final File file;
+    // Debe ser de un solo hilo: de eso depende el orden entre cambios y búsquedas
+    private final Executor worker;
+    private final Executor main;
+    private final AtomicInteger latestQuery = new AtomicInteger();
+    // Sólo se usan desde el hilo de trabajo
+    private MessageIndex index = new MessageIndex();
+    private int unsaved;
+
+    public MessageSearch(File file, Executor worker, Executor main) {
+        this.file = file;
+        this.worker = worker;
+        this.main = main;
+    }
+
+    /**
+     * Carga el índice y lo pone al día con el log. Las búsquedas anteriores a que termine esperan detrás.
+     * @param store Log de la sala, o null si no hay almacenamiento local.
+     */
+    public void open(MessageStore store) {
+        worker.execute(() -> {
+            index = MessageIndex.load(file);
+            if (store == null) return;
+            String after = index.getLastId() != null ? index.getLastId() : "";
+            try {
+                List<Message> page;
+                while (!(page = store.readAfter(after, CATCH_UP_PAGE)).isEmpty()) {
+                    for (Message message : page) {
+                        if (index.add(message)) unsaved++;
+                    }
+                    after = page.get(page.size() - 1).getId();
+                }
+            } catch (IOException e) {
+                // El índice queda incompleto hasta la próxima apertura; buscar sigue funcionando
+            }
+            saveIfNeeded(SAVE_EVERY);
+        });
+    }
+
+    public void add(Message message) {
+        worker.execute(() -> {
+            if (index.add(message)) changed();
+        });
+    }
+
+    public void addAll(List<Message> messages) {
+        List<Message> snapshot = new ArrayList<>(messages);
+        worker.execute(() -> {
+            for (Message message : snapshot) {
+                if (index.add(message)) changed();
+            }
+        });
+    }
+
+    public void remove(String messageId) {
+        worker.execute(() -> {
+            if (index.remove(messageId)) changed();
+        });
+    }
+
+    /**
+     * Busca en segundo plano y entrega el resultado en el hilo principal, salvo que entre tanto llegue otra.
+     * @see MessageIndex#search(String, int)
+     */
+    public void search(String query, int limit, Callback callback) {
+        int generation = latestQuery.incrementAndGet();
+        worker.execute(() -> {
+            if (generation != latestQuery.get()) return;
+            List<String> results = index.search(query, limit);
+            main.execute(() -> {
+                if (generation == latestQuery.get()) callback.onResults(query, results);
+            });
+        });
+    }
+
+    /**
+     * Descarta las búsquedas en curso: su resultado ya no se entregará.
+     */
+    public void cancel() {
+        latestQuery.incrementAndGet();
+    }
+
+    /**
+     * Guarda el índice si tiene cambios, detrás de los cambios pendientes.
+     */
+    public void save() {
+        worker.execute(() -> saveIfNeeded(1));
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    private void changed() {
+        unsaved++;
+        saveIfNeeded(SAVE_EVERY);
+    }
+
+    private void saveIfNeeded(int threshold) {
+        if (unsaved < threshold) return;
+        try {
+            index.save(file);
+            unsaved = 0;
+        } catch (IOException e) {
+            // Se reintenta con el siguiente guardado; lo que falte se recupera del log
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.voidchat.search;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Lista creciente de números de documento, guardada como diferencias con el anterior en varint: un mensaje
+ * nuevo casi siempre tiene el número más alto, así que añadir es escribir uno o dos bytes al final.
+ * Una palabra frecuente en una sala de 1M de mensajes ocupa así poco más de un byte por aparición.
+ *
+ * No se borra nada: los documentos borrados los descarta {@link MessageIndex} al consultar.
+ */
+final class PostingList {
+
+    private byte[] bytes;
+    private int length;
+    private int count;
+    private int last = -1;
+
+    PostingList() {
+        bytes = new byte[4];
+    }
+
+    private PostingList(byte[] bytes, int count, int last) {
+        this.bytes = bytes;
+        this.length = bytes.length;
+        this.count = count;
+        this.last = last;
+    }
+
+    /**
+     * @param doc Mayor que el último añadido; uno repetido (la misma palabra dos veces en un mensaje) se ignora.
+     */
+    void add(int doc) {
+        if (doc <= last) {
+            if (doc == last) return;
+            throw new IllegalArgumentException("Postings must grow: " + doc + " after " + last);
+        }
+        int delta = doc - last;
+        if (length + 5 > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + 5));
+        }
+        // Siete bits por byte, el más alto indica que sigue otro
+        while ((delta & ~0x7F) != 0) {
+            bytes[length++] = (byte) ((delta & 0x7F) | 0x80);
+            delta >>>= 7;
+        }
+        bytes[length++] = (byte) delta;
+        last = doc;
+        count++;
+    }
+
+    int size() { return count; }
+    int byteSize() { return length; }
+    int last() { return last; }
+
+    /**
+     * Marca en {@code docs} todos los documentos de la lista.
+     */
+    void orInto(BitSet docs) {
+        int doc = -1;
+        int position = 0;
+        while (position < length) {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[position++];
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            doc += delta;
+            docs.set(doc);
+        }
+    }
+
+    // --- Persistencia ---
+
+    void writeTo(DataOutputStream out) throws IOException {
+        Varint.write(out, count);
+        Varint.write(out, last + 1);
+        Varint.write(out, length);
+        out.write(bytes, 0, length);
+    }
+
+    static PostingList readFrom(DataInputStream in) throws IOException {
+        int count = Varint.read(in);
+        int last = Varint.read(in) - 1;
+        int length = Varint.read(in);
+        if (count <= 0 || length < count) throw new IOException("Bad posting list");
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        // Sin hueco al final: la siguiente palabra añadida a esta lista ya la copia a un array mayor
+        return new PostingList(bytes, count, last);
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.voidchat.search;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Normalización de texto compartida por los índices de búsqueda: lo que se indexa y lo que se busca pasan por
+ * aquí, así "jose" encuentra "José" y "nunez" encuentra "Núñez".
+ */
+public final class Words {
+
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+
+    private Words() {}
+
+    /**
+     * Minúsculas y sin acentos ni diéresis. El texto ASCII, que es la mayoría, no pasa por Normalizer.
+     */
+    public static String normalize(String text) {
+        if (text == null) return "";
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                text = COMBINING_MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+                break;
+            }
+        }
+        return text.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Palabras de un texto ya normalizado: tramos de letras y números.
+     */
+    public static String[] tokenize(String normalized) {
+        List<String> tokens = new ArrayList<>(4);
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean word = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                tokens.add(normalized.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.voidchat.timeline;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Calcula a qué día local pertenece cada mensaje, la etiqueta de su separador ("Hoy", "Ayer" o la fecha)
+ * y la hora que se muestra bajo la burbuja.
+ *
+ * El día se obtiene con aritmética sobre el desfase horario, que se guarda junto con el tramo en que es
+ * válido (hasta el próximo cambio de horario). Mientras los mensajes caigan en ese tramo, y las etiquetas
+ * ya se hayan calculado, no se crea ningún objeto. No es seguro entre hilos: cada hilo usa su instancia.
+ */
+public final class DayBuckets {
+
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final long MINUTE_MILLIS = 60L * 1000;
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    // Potencia de dos: la posición en la caché es el día enmascarado
+    private static final int LABEL_CACHE_SIZE = 64;
+
+    private final ZoneRules rules;
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("dd MMM yyyy", Locale.getDefault());
+
+    // Desfase vigente y el tramo [offsetValidFrom, offsetValidUntil) en el que no cambia
+    private int offsetMillis;
+    private long offsetValidFrom = Long.MAX_VALUE;
+    private long offsetValidUntil = Long.MIN_VALUE;
+
+    private int today;
+    private long todayEndsAt = Long.MIN_VALUE;
+
+    private final int[] labelDays = new int[LABEL_CACHE_SIZE];
+    private final String[] labels = new String[LABEL_CACHE_SIZE];
+    // "HH:mm" de cada minuto del día, formateado la primera vez que aparece
+    private final String[] hourLabels = new String[MINUTES_PER_DAY];
+
+    public DayBuckets() {
+        this(TimeZone.getDefault());
+    }
+
+    public DayBuckets(TimeZone zone) {
+        rules = zone.toZoneId().getRules();
+        dateFormat.setTimeZone(zone);
+        Arrays.fill(labelDays, Integer.MIN_VALUE);
+    }
+
+    /**
+     * Día local del instante, contado desde la época. Dos mensajes van bajo el mismo separador si devuelven lo mismo.
+     */
+    public int dayOf(long time) {
+        return (int) Math.floorDiv(time + offsetAt(time), DAY_MILLIS);
+    }
+
+    /**
+     * Hora local del instante en formato "HH:mm". Hay a lo sumo una cadena por minuto del día.
+     */
+    public String hourLabel(long time) {
+        int minute = (int) (Math.floorMod(time + offsetAt(time), DAY_MILLIS) / MINUTE_MILLIS);
+        String label = hourLabels[minute];
+        if (label == null) {
+            label = String.format(Locale.getDefault(), "%02d:%02d", minute / 60, minute % 60);
+            hourLabels[minute] = label;
+        }
+        return label;
+    }
+
+    /**
+     * Etiqueta del separador del día. Depende de cuándo se pide ("Hoy" pasa a "Ayer" a medianoche), así que
+     * se resuelve al mostrar el separador y no al crearlo: las filas de TimelineCache sobreviven de un día a otro.
+     */
+    public String labelFor(int day) {
+        return labelFor(day, System.currentTimeMillis());
+    }
+
+    String labelFor(int day, long now) {
+        if (now >= todayEndsAt) {
+            today = dayOf(now);
+            todayEndsAt = (long) (today + 1) * DAY_MILLIS - offsetMillis;
+        }
+        if (day == today) return "Hoy";
+        if (day == today - 1) return "Ayer";
+
+        int slot = day & (LABEL_CACHE_SIZE - 1);
+        if (labelDays[slot] != day) {
+            // Mediodía del día: el formato no depende de dónde caiga un cambio de horario
+            labels[slot] = dateFormat.format(new Date((long) day * DAY_MILLIS + DAY_MILLIS / 2 - offsetMillis));
+            labelDays[slot] = day;
+        }
+        return labels[slot];
+    }
+
+    private int offsetAt(long time) {
+        if (time < offsetValidFrom || time >= offsetValidUntil) {
+            loadOffset(time);
+        }
+        return offsetMillis;
+    }
+
+    private void loadOffset(long time) {
+        Instant instant = Instant.ofEpochMilli(time);
+        offsetMillis = rules.getOffset(instant).getTotalSeconds() * 1000;
+        ZoneOffsetTransition previous = rules.previousTransition(instant);
+        ZoneOffsetTransition next = rules.nextTransition(instant);
+        offsetValidFrom = previous == null ? Long.MIN_VALUE : Math.min(time, previous.toEpochSecond() * 1000);
+        offsetValidUntil = next == null ? Long.MAX_VALUE : next.toEpochSecond() * 1000;
+    }
+}
@@ -0,0 +1,544 @@
+package com.example.voidchat.timeline;
+import com.example.voidchat.model.Message;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Línea de tiempo de una sala: mensajes ordenados por su clave push, con los separadores de fecha ya intercalados.
+ * Los mensajes nuevos se añaden al final en O(1) y se notifican como inserciones puntuales,
+ * de modo que el coste por mensaje no depende de la longitud del historial.
+ *
+ * Sólo guarda una ventana del historial: se amplía por arriba con páginas antiguas y se recorta por el
+ * extremo lejano. Si se recorta por abajo queda "desenganchada" del final en vivo; los mensajes nuevos
+ * sólo avanzan el cursor hasta que se vuelvan a cargar las páginas recientes.
+ *
+ * Los mensajes que llegan por MQTT antes que por Firebase entran como provisionales
+ * ({@link #appendProvisional}): se muestran en su sitio, pero no avanzan el cursor de sincronización hasta que
+ * Firebase, que es el registro duradero, entrega el mismo mensaje con la misma clave y lo confirma. Los
+ * mensajes propios entran igual al pulsar enviar, con su {@link Message.SendState estado de envío}. Los de
+ * otros que Firebase no confirma en {@link #PROVISIONAL_TTL_MILLIS} (p. ej. porque rechazó la escritura) se
+ * retiran con {@link #expireProvisional}.
+ *
+ * Las páginas llegan normalmente construidas por {@link TimelineBuilder}; las variantes que reciben una
+ * lista de mensajes las construyen aquí mismo. Se usa sólo desde el hilo principal.
+ */
+public class MessageTimeline {
+
+    // Firebase suele entregar su copia en un par de segundos; si se retira antes, vuelve a entrar con ella
+    public static final long PROVISIONAL_TTL_MILLIS = 60_000;
+
+    // --- Interfaz de Callback ---
+    public interface Listener {
+        void onInserted(int position, int count);
+        void onChanged(int position);
+        void onRemoved(int position, int count);
+        void onReset();
+    }
+
+    private final List<Message> items = new ArrayList<>();
+    private final List<Message> readOnlyItems = Collections.unmodifiableList(items);
+    private final Set<String> ids = new HashSet<>();
+    // Los de ids que sólo han llegado por MQTT, con la hora en que llegaron; Firebase aún no los ha entregado
+    private final Map<String, Long> provisional = new HashMap<>();
+    private final String currentUserId;
+    // Para las operaciones sueltas del hilo principal; las páginas grandes llegan ya construidas
+    private final RowPreparer rows;
+    private final DayBuckets dayBuckets;
+    private Listener listener;
+    private int lastDay = TimelinePage.NO_DAY;
+    // Último mensaje de la ventana y último mensaje conocido de la sala (el cursor de sincronización)
+    private String lastId;
+    private String cursorId;
+    private boolean detached;
+
+    /**
+     * Sin usuario todos los mensajes se muestran como recibidos; sólo tiene sentido en pruebas.
+     */
+    public MessageTimeline() {
+        this(null);
+    }
+
+    public MessageTimeline(String currentUserId) {
+        this.currentUserId = currentUserId;
+        this.rows = new RowPreparer(currentUserId);
+        this.dayBuckets = rows.dayBuckets;
+    }
+
+    public String getCurrentUserId() { return currentUserId; }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Vista de solo lectura: el adaptador la usa directamente, sin copiar la lista
+    public List<Message> getItems() { return readOnlyItems; }
+    public int size() { return items.size(); }
+    public boolean isEmpty() { return ids.isEmpty(); }
+    public int getMessageCount() { return ids.size(); }
+
+    /**
+     * Clave push del mensaje más reciente de la sala que ya entregó Firebase, esté o no en la ventana.
+     * Sirve de cursor para sincronizar sólo lo posterior; los provisionales no cuentan.
+     */
+    public String getLastId() { return cursorId; }
+
+    public String getOldestLoadedId() {
+        // Con mensajes, la posición 0 siempre es un separador
+        return items.size() > 1 ? items.get(1).getId() : null;
+    }
+
+    public String getNewestLoadedId() { return lastId; }
+
+    /**
+     * Posición del mensaje en la lista, o -1 si no está en la ventana.
+     */
+    public int positionOf(String messageId) {
+        return indexOf(messageId);
+    }
+
+    /**
+     * true si la ventana se recortó por abajo y los mensajes más recientes no están cargados.
+     */
+    public boolean isDetached() { return detached; }
+
+    /** true si el mensaje se muestra pero Firebase aún no lo ha entregado. */
+    public boolean isProvisional(String messageId) { return provisional.containsKey(messageId); }
+
+    // --- Operaciones ---
+
+    public void appendAll(List<Message> messages) {
+        appendAll(TimelinePage.build(messages, rows, false));
+    }
+
+    /**
+     * Mensajes nuevos de la sala. Con la ventana desenganchada sólo avanzan el cursor.
+     */
+    public void appendAll(TimelinePage page) {
+        if (detached) {
+            advanceCursor(page.lastId);
+            return;
+        }
+        appendPage(page);
+    }
+
+    public void appendPage(List<Message> messages) {
+        appendPage(TimelinePage.build(messages, rows, false));
+    }
+
+    /**
+     * Añade al final una página de mensajes más recientes que la ventana.
+     * Si alcanza el cursor, la ventana vuelve a seguir los mensajes en vivo.
+     */
+    public void appendPage(TimelinePage page) {
+        if (page.isEmpty()) {
+            reattachIfCaughtUp();
+            return;
+        }
+        if (lastId != null && page.firstId.compareTo(lastId) <= 0) {
+            // La página se solapa con la ventana (p. ej. la copia de Firebase de un mensaje que ya llegó por
+            // MQTT): se añade mensaje a mensaje
+            for (Message message : page.items) {
+                if (!message.isSeparator()) appendOne(message);
+            }
+            reattachIfCaughtUp();
+            return;
+        }
+        int start = items.size();
+        // Si la página empieza el mismo día en que termina la ventana, ese separador ya está puesto
+        int from = page.firstDay == lastDay ? 1 : 0;
+        items.addAll(from == 0 ? page.items : page.items.subList(from, page.items.size()));
+        addIds(page.items);
+        lastDay = page.lastDay;
+        lastId = page.lastId;
+        advanceCursor(lastId);
+        reattachIfCaughtUp();
+        if (listener != null) {
+            listener.onInserted(start, items.size() - start);
+        }
+    }
+
+    public void prependPage(List<Message> messages) {
+        prependPage(TimelinePage.build(messages, rows, false));
+    }
+
+    /**
+     * Añade al principio una página de mensajes anteriores al más antiguo de la ventana.
+     * Si la página termina el mismo día en que empieza la ventana, el separador de ese día pasa a la página.
+     */
+    public void prependPage(TimelinePage page) {
+        String oldestId = getOldestLoadedId();
+        if (oldestId == null) {
+            appendPage(page);
+            return;
+        }
+        if (page.isEmpty()) return;
+        if (page.lastId.compareTo(oldestId) >= 0) {
+            // Sólo encaja la parte anterior a la ventana
+            List<Message> older = new ArrayList<>(page.messageCount);
+            for (Message message : page.items) {
+                if (!message.isSeparator() && message.getId().compareTo(oldestId) < 0) older.add(message);
+            }
+            if (older.isEmpty()) return;
+            page = TimelinePage.build(older, rows, false);
+        }
+
+        if (page.lastDay == dayBuckets.dayOf(items.get(1).getTime())) {
+            items.remove(0);
+            if (listener != null) {
+                listener.onRemoved(0, 1);
+            }
+        }
+        items.addAll(0, page.items);
+        addIds(page.items);
+        if (listener != null) {
+            listener.onInserted(0, page.items.size());
+        }
+    }
+
+    /**
+     * Descarta los mensajes más antiguos hasta dejar {@code keepMessages}. La ventana sigue empezando por un separador.
+     */
+    public void trimHead(int keepMessages) {
+        int drop = ids.size() - keepMessages;
+        if (drop <= 0) return;
+        // first: posición del primer mensaje que se conserva
+        int first = 0;
+        for (int dropped = 0; dropped < drop; first++) {
+            Message item = items.get(first);
+            if (!item.isSeparator()) {
+                ids.remove(item.getId());
+                provisional.remove(item.getId());
+                dropped++;
+            }
+        }
+        while (items.get(first).isSeparator()) first++;
+
+        if (items.get(first - 1).isSeparator()) {
+            // El día del primer mensaje conservado ya tiene su separador
+            items.subList(0, first - 1).clear();
+            if (listener != null) {
+                listener.onRemoved(0, first - 1);
+            }
+        } else {
+            // El corte cae a mitad de un día: el hueco del último descartado pasa a ser su separador
+            items.subList(0, first - 1).clear();
+            int day = dayBuckets.dayOf(items.get(1).getTime());
+            items.set(0, Message.createSeparator(day));
+            if (listener != null) {
+                if (first > 1) listener.onRemoved(0, first - 1);
+                listener.onChanged(0);
+            }
+        }
+    }
+
+    /**
+     * Descarta los mensajes más recientes hasta dejar {@code keepMessages}. La ventana queda desenganchada del final.
+     */
+    public void trimTail(int keepMessages) {
+        int drop = ids.size() - keepMessages;
+        if (drop <= 0) return;
+        int end = items.size();
+        for (int dropped = 0; dropped < drop; ) {
+            Message item = items.get(--end);
+            if (!item.isSeparator()) {
+                ids.remove(item.getId());
+                provisional.remove(item.getId());
+                dropped++;
+            }
+        }
+        // Un separador sin mensajes detrás también sobra
+        if (items.get(end - 1).isSeparator()) end--;
+        int count = items.size() - end;
+        items.subList(end, items.size()).clear();
+        recomputeTail();
+        detached = true;
+        if (listener != null) {
+            listener.onRemoved(end, count);
+        }
+    }
+
+    public void resetTo(List<Message> messages) {
+        resetTo(TimelinePage.build(messages, rows, false));
+    }
+
+    /**
+     * Sustituye la ventana completa, por ejemplo para saltar al final de la sala desde el historial.
+     */
+    public void resetTo(TimelinePage page) {
+        items.clear();
+        ids.clear();
+        provisional.clear();
+        items.addAll(page.items);
+        addIds(page.items);
+        lastDay = page.lastDay;
+        lastId = page.lastId;
+        advanceCursor(lastId);
+        detached = cursorId != null && (lastId == null || lastId.compareTo(cursorId) < 0);
+        if (listener != null) {
+            listener.onReset();
+        }
+    }
+
+    public void append(Message message) {
+        if (message.getId() == null) return;
+        if (detached && !ids.contains(message.getId())) {
+            advanceCursor(message.getId());
+            return;
+        }
+        appendOne(message);
+    }
+
+    /**
+     * Mensaje recibido por MQTT, o propio recién enviado, con la clave push que le dio el emisor. Se muestra ya, en su sitio por clave,
+     * y queda pendiente de confirmar: cuando Firebase entregue esa clave por {@link #append} se sustituye la
+     * fila en lugar de añadir otra. Con la ventana desenganchada no se muestra; ya llegará por Firebase.
+     */
+    public void appendProvisional(Message message) {
+        if (message.getId() == null || detached || ids.contains(message.getId())) return;
+        provisional.put(message.getId(), System.currentTimeMillis());
+        appendOne(message);
+    }
+
+    /**
+     * Retira los provisionales de otros usuarios que Firebase no ha confirmado en {@link #PROVISIONAL_TTL_MILLIS}.
+     * Los propios se quedan: su estado de envío ya dice si la escritura falló.
+     * @return Milisegundos hasta el siguiente vencimiento, o -1 si no queda ninguno pendiente.
+     */
+    public long expireProvisional(long now) {
+        long next = -1;
+        List<String> expired = null;
+        for (Map.Entry<String, Long> entry : provisional.entrySet()) {
+            int index = indexOf(entry.getKey());
+            if (index < 0 || items.get(index).sendState() != null) continue;
+            long left = entry.getValue() + PROVISIONAL_TTL_MILLIS - now;
+            if (left <= 0) {
+                if (expired == null) expired = new ArrayList<>();
+                expired.add(entry.getKey());
+            } else if (next < 0 || left < next) {
+                next = left;
+            }
+        }
+        if (expired != null) {
+            for (String messageId : expired) remove(messageId);
+        }
+        return next;
+    }
+
+    public void update(Message message) {
+        int index = indexOf(message.getId());
+        if (index < 0) return;
+        // Una fila que ya estaba no se anima otra vez, aunque llegue repetida por el camino en vivo
+        rows.prepareIfNeeded(message, false);
+        message.markShown();
+        items.set(index, message);
+        if (listener != null) {
+            listener.onChanged(index);
+        }
+    }
+
+    /**
+     * Avanza el estado de envío de un mensaje propio y redibuja su fila. Los cambios hacia atrás (una
+     * confirmación que llega tarde) se ignoran; ver {@link Message.SendState}.
+     */
+    public void setSendState(String messageId, Message.SendState state) {
+        int index = indexOf(messageId);
+        if (index < 0) return;
+        if (items.get(index).advanceSendState(state) && listener != null) {
+            listener.onChanged(index);
+        }
+    }
+
+    public void remove(String messageId) {
+        int index = indexOf(messageId);
+        if (index < 0) return;
+        ids.remove(messageId);
+        provisional.remove(messageId);
+
+        // Si el mensaje era el único de su día, el separador sobra también
+        int start = index;
+        boolean previousIsSeparator = index > 0 && items.get(index - 1).isSeparator();
+        boolean nextIsMessage = index + 1 < items.size() && !items.get(index + 1).isSeparator();
+        if (previousIsSeparator && !nextIsMessage) {
+            start = index - 1;
+        }
+        int count = index - start + 1;
+        items.subList(start, index + 1).clear();
+        if (start == items.size()) {
+            recomputeTail();
+        }
+        if (listener != null) {
+            listener.onRemoved(start, count);
+        }
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    private void appendOne(Message message) {
+        if (ids.contains(message.getId())) {
+            if (provisional.containsKey(message.getId())) {
+                confirm(message);
+            } else {
+                update(message);
+            }
+            return;
+        }
+        if (lastId != null && message.getId().compareTo(lastId) < 0) {
+            insertOutOfOrder(message);
+            return;
+        }
+        int start = items.size();
+        appendInternal(message);
+        if (listener != null) {
+            listener.onInserted(start, items.size() - start);
+        }
+    }
+
+    private void appendInternal(Message message) {
+        // Los que ya vienen preparados conservan su marca de recién llegado (p. ej. al reordenar)
+        rows.prepareIfNeeded(message, true);
+        // Agrega un separador de fecha si el día del mensaje es diferente al anterior
+        int messageDay = dayBuckets.dayOf(message.getTime());
+        if (messageDay != lastDay) {
+            lastDay = messageDay;
+            items.add(Message.createSeparator(messageDay));
+        }
+        items.add(message);
+        ids.add(message.getId());
+        lastId = message.getId();
+        if (!provisional.containsKey(lastId)) advanceCursor(lastId);
+    }
+
+    /**
+     * La copia de Firebase de un mensaje que llegó antes por MQTT. Sustituye a la provisional, que ya se
+     * animó al llegar; si se ve igual no se notifica, así la burbuja no parpadea.
+     */
+    private void confirm(Message message) {
+        provisional.remove(message.getId());
+        advanceCursor(message.getId());
+        int index = indexOf(message.getId());
+        Message shown = items.get(index);
+        // El eco de un mensaje propio conserva el estado de envío que ya tenía la fila
+        if (shown.sendState() != null) message.advanceSendState(shown.sendState());
+        rows.prepareIfNeeded(message, false);
+        message.markShown();
+        items.set(index, message);
+        if (listener != null && !looksTheSame(shown, message)) {
+            listener.onChanged(index);
+        }
+    }
+
+    private void addIds(List<Message> pageItems) {
+        for (int i = 0, size = pageItems.size(); i < size; i++) {
+            Message item = pageItems.get(i);
+            if (!item.isSeparator()) ids.add(item.getId());
+        }
+    }
+
+    private static boolean looksTheSame(Message a, Message b) {
+        return a.getTime() == b.getTime()
+                && Objects.equals(a.getText(), b.getText())
+                && Objects.equals(a.getUsername(), b.getUsername())
+                && Objects.equals(a.getAttachmentName(), b.getAttachmentName());
+    }
+
+    private void advanceCursor(String messageId) {
+        if (messageId != null && (cursorId == null || messageId.compareTo(cursorId) > 0)) {
+            cursorId = messageId;
+        }
+    }
+
+    private void reattachIfCaughtUp() {
+        if (detached && lastId != null && lastId.equals(cursorId)) {
+            detached = false;
+        }
+    }
+
+    /**
+     * Un mensaje más antiguo que el último de la ventana, p. ej. el de Firebase que llega detrás de uno
+     * provisional de MQTT. Se busca su sitio por clave y se inserta ahí, con su separador si su día no lo
+     * tiene; el resto de la ventana no se toca.
+     */
+    private void insertOutOfOrder(Message message) {
+        rows.prepareIfNeeded(message, true);
+        int next = firstMessageAfter(message.getId());
+        int day = dayBuckets.dayOf(message.getTime());
+        int nextDay = dayBuckets.dayOf(items.get(next).getTime());
+        Message previous = next > 1 ? items.get(next - 1) : null;
+        int position;
+        List<Message> rowsToInsert = new ArrayList<>(3);
+        if (previous != null && !previous.isSeparator()) {
+            // A mitad de un día: sólo encaja sin más si es de ese mismo día
+            position = next;
+            if (day != nextDay) {
+                rowsToInsert.add(Message.createSeparator(day));
+                rowsToInsert.add(message);
+                rowsToInsert.add(Message.createSeparator(nextDay));
+            } else {
+                rowsToInsert.add(message);
+            }
+        } else {
+            // Entre dos días: al final del anterior, al principio del siguiente o con su propio separador
+            Message before = next >= 2 ? items.get(next - 2) : null;
+            if (before != null && dayBuckets.dayOf(before.getTime()) == day) {
+                position = next - 1;
+            } else if (nextDay == day) {
+                position = next;
+            } else {
+                position = next - 1;
+                rowsToInsert.add(Message.createSeparator(day));
+            }
+            rowsToInsert.add(message);
+        }
+        items.addAll(position, rowsToInsert);
+        ids.add(message.getId());
+        if (!provisional.containsKey(message.getId())) advanceCursor(message.getId());
+        if (listener != null) {
+            listener.onInserted(position, rowsToInsert.size());
+        }
+    }
+
+    // Posición del primer mensaje con clave mayor que messageId; existe porque messageId < lastId.
+    // Búsqueda binaria: cada separador cuenta con la clave del mensaje que lo sigue
+    private int firstMessageAfter(String messageId) {
+        int low = 0;
+        int high = items.size() - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int probe = items.get(middle).isSeparator() ? middle + 1 : middle;
+            if (items.get(probe).getId().compareTo(messageId) > 0) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return items.get(low).isSeparator() ? low + 1 : low;
+    }
+
+    private void recomputeTail() {
+        lastDay = TimelinePage.NO_DAY;
+        lastId = null;
+        for (int i = items.size() - 1; i >= 0; i--) {
+            Message item = items.get(i);
+            if (!item.isSeparator()) {
+                lastDay = dayBuckets.dayOf(item.getTime());
+                lastId = item.getId();
+                return;
+            }
+        }
+    }
+
+    private int indexOf(String messageId) {
+        if (messageId == null || !ids.contains(messageId)) return -1;
+        // Las ediciones y borrados suelen afectar a lo más reciente: buscamos desde el final
+        for (int i = items.size() - 1; i >= 0; i--) {
+            if (messageId.equals(items.get(i).getId())) return i;
+        }
+        return -1;
+    }
+}
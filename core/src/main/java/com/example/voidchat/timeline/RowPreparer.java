@@ -0,0 +1,59 @@
+package com.example.voidchat.timeline;
+import com.example.voidchat.model.Message;
+import java.util.Locale;
+
+/**
+ * Deja calculado en cada mensaje lo que el adaptador necesita para pintarlo: la hora ya formateada, el texto
+ * de la burbuja (con el nombre y el tamaño si es un adjunto), de qué lado va y si acaba de llegar. Al enlazar
+ * la fila sólo se copian referencias.
+ *
+ * Como {@link DayBuckets}, que usa para las fechas, no es seguro entre hilos: cada hilo usa su instancia.
+ */
+public final class RowPreparer {
+
+    private static final String[] SIZE_UNITS = {"kB", "MB", "GB", "TB"};
+
+    final DayBuckets dayBuckets;
+    private final String currentUserId;
+
+    public RowPreparer(String currentUserId) {
+        this(currentUserId, new DayBuckets());
+    }
+
+    public RowPreparer(String currentUserId, DayBuckets dayBuckets) {
+        this.currentUserId = currentUserId;
+        this.dayBuckets = dayBuckets;
+    }
+
+    public void prepare(Message message, boolean newlyArrived) {
+        boolean sentByMe = currentUserId != null && currentUserId.equals(message.getUserId());
+        message.prepareRow(dayBuckets.hourLabel(message.getTime()), bodyLabel(message), sentByMe, newlyArrived);
+    }
+
+    /**
+     * Prepara el mensaje sólo si aún no lo está, para no repetir la animación de uno que ya se mostró.
+     */
+    public void prepareIfNeeded(Message message, boolean newlyArrived) {
+        if (!message.rowPrepared()) prepare(message, newlyArrived);
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    private static String bodyLabel(Message message) {
+        if (!message.hasAttachment()) return message.getText();
+        // El archivo viaja aparte por MQTT; la burbuja muestra qué es y cuánto ocupa
+        return "📎 " + message.getAttachmentName() + " · " + fileSize(message.getAttachmentSize());
+    }
+
+    // Como el Formatter de Android: unidades de 1000 y un decimal por debajo de 10
+    static String fileSize(long bytes) {
+        if (bytes < 1000) return bytes + " B";
+        double value = bytes;
+        int unit = -1;
+        do {
+            value /= 1000;
+            unit++;
+        } while (value >= 1000 && unit < SIZE_UNITS.length - 1);
+        return String.format(Locale.getDefault(), value < 10 ? "%.1f %s" : "%.0f %s", value, SIZE_UNITS[unit]);
+    }
+}
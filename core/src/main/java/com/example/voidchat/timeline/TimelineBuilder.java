@@ -0,0 +1,102 @@
+package com.example.voidchat.timeline;
+import com.example.voidchat.model.Message;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Construye las páginas de la línea de tiempo en un hilo de fondo y las entrega terminadas a MessageTimeline
+ * en el hilo principal, donde sólo se copian las filas y se notifica al adaptador.
+ *
+ * Todas las modificaciones de la línea de tiempo pasan por aquí, incluso las que no construyen nada
+ * ({@link #post}), para que se apliquen en el mismo orden en que llegaron.
+ */
+public class TimelineBuilder {
+
+    private final MessageTimeline timeline;
+    // Debe ser de un solo hilo: de eso depende el orden de aplicación
+    private final Executor worker;
+    private final Executor main;
+    // Sólo se usa desde el hilo de trabajo
+    private final RowPreparer rows;
+
+    public TimelineBuilder(MessageTimeline timeline, Executor worker, Executor main) {
+        this.timeline = timeline;
+        this.worker = worker;
+        this.main = main;
+        this.rows = new RowPreparer(timeline.getCurrentUserId());
+    }
+
+    /**
+     * Mensaje recibido en vivo: es el único camino que marca la fila para animarse al aparecer.
+     */
+    public void append(Message message) {
+        List<Message> messages = Collections.singletonList(message);
+        worker.execute(() -> {
+            TimelinePage page = TimelinePage.build(messages, rows, true);
+            main.execute(() -> timeline.appendAll(page));
+        });
+    }
+
+    /**
+     * Mensaje recibido por MQTT, o propio recién enviado, antes de que lo entregue Firebase; ver {@link MessageTimeline#appendProvisional}.
+     */
+    public void appendProvisional(Message message) {
+        worker.execute(() -> {
+            rows.prepare(message, true);
+            main.execute(() -> timeline.appendProvisional(message));
+        });
+    }
+
+    public void appendAll(List<Message> messages) {
+        worker.execute(() -> {
+            TimelinePage page = TimelinePage.build(messages, rows, false);
+            main.execute(() -> timeline.appendAll(page));
+        });
+    }
+
+    /**
+     * Edición de un mensaje ya mostrado: se prepara aquí y en el hilo principal sólo se sustituye la fila.
+     */
+    public void update(Message message) {
+        worker.execute(() -> {
+            rows.prepare(message, false);
+            main.execute(() -> timeline.update(message));
+        });
+    }
+
+    /**
+     * Estado de envío de un mensaje propio, detrás de la inserción de su fila; ver {@link MessageTimeline#setSendState}.
+     */
+    public void setSendState(String messageId, Message.SendState state) {
+        post(() -> timeline.setSendState(messageId, state));
+    }
+
+    public void appendPage(List<Message> messages) {
+        worker.execute(() -> {
+            TimelinePage page = TimelinePage.build(messages, rows, false);
+            main.execute(() -> timeline.appendPage(page));
+        });
+    }
+
+    public void prependPage(List<Message> messages) {
+        worker.execute(() -> {
+            TimelinePage page = TimelinePage.build(messages, rows, false);
+            main.execute(() -> timeline.prependPage(page));
+        });
+    }
+
+    public void resetTo(List<Message> messages) {
+        worker.execute(() -> {
+            TimelinePage page = TimelinePage.build(messages, rows, false);
+            main.execute(() -> timeline.resetTo(page));
+        });
+    }
+
+    /**
+     * Ejecuta en el hilo principal una operación sobre la línea de tiempo detrás de las páginas pendientes.
+     */
+    public void post(Runnable operation) {
+        worker.execute(() -> main.execute(operation));
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.voidchat.timeline;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Conserva en memoria las líneas de tiempo de las últimas salas abiertas.
+ * Al reabrir un chat se reutiliza la misma instancia y su última clave actúa como cursor,
+ * así sólo se piden a Firebase los mensajes posteriores.
+ */
+public final class TimelineCache {
+
+    private static final int MAX_ROOMS = 8;
+
+    // LinkedHashMap en modo "orden de acceso" nos da un LRU sin estructuras adicionales
+    private static final Map<String, MessageTimeline> timelines =
+            new LinkedHashMap<String, MessageTimeline>(MAX_ROOMS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, MessageTimeline> eldest) {
+                    return size() > MAX_ROOMS;
+                }
+            };
+
+    private TimelineCache() {}
+
+    public static synchronized MessageTimeline get(String chatRoomId, String currentUserId) {
+        // Las filas ya saben de qué lado van: una sesión con otro usuario no puede reutilizarlas
+        String key = currentUserId + "/" + chatRoomId;
+        MessageTimeline timeline = timelines.get(key);
+        if (timeline == null) {
+            timeline = new MessageTimeline(currentUserId);
+            timelines.put(key, timeline);
+        }
+        return timeline;
+    }
+}
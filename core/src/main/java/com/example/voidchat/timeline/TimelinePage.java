@@ -0,0 +1,69 @@
+package com.example.voidchat.timeline;
+import com.example.voidchat.model.Message;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tramo de la línea de tiempo ya construido: mensajes ordenados por clave con sus separadores de fecha.
+ * Se prepara fuera del hilo principal; aplicarlo a MessageTimeline sólo cuesta copiar las filas.
+ */
+public final class TimelinePage {
+
+    static final int NO_DAY = Integer.MIN_VALUE;
+
+    final List<Message> items;
+    final int messageCount;
+    final int firstDay;
+    final int lastDay;
+    final String firstId;
+    final String lastId;
+
+    private TimelinePage(List<Message> items, int messageCount, int firstDay, int lastDay, String firstId, String lastId) {
+        this.items = items;
+        this.messageCount = messageCount;
+        this.firstDay = firstDay;
+        this.lastDay = lastDay;
+        this.firstId = firstId;
+        this.lastId = lastId;
+    }
+
+    /**
+     * Construye la página. Los mensajes deben venir ordenados por clave; se descartan los que no tienen clave
+     * y las claves repetidas consecutivas. La página siempre empieza por el separador de su primer día.
+     * Cada mensaje sale con sus datos de presentación preparados; {@code newlyArrived} marca los que
+     * llegan en vivo y deben animarse al aparecer.
+     */
+    public static TimelinePage build(List<Message> messages, RowPreparer rows, boolean newlyArrived) {
+        DayBuckets dayBuckets = rows.dayBuckets;
+        List<Message> items = new ArrayList<>(messages.size() + messages.size() / 8 + 1);
+        int count = 0;
+        int firstDay = NO_DAY;
+        int lastDay = NO_DAY;
+        String firstId = null;
+        String lastId = null;
+        for (int i = 0, size = messages.size(); i < size; i++) {
+            Message message = messages.get(i);
+            String id = message.getId();
+            if (id == null || id.equals(lastId)) continue;
+            int day = dayBuckets.dayOf(message.getTime());
+            if (day != lastDay) {
+                items.add(Message.createSeparator(day));
+                lastDay = day;
+            }
+            if (firstId == null) {
+                firstId = id;
+                firstDay = day;
+            }
+            rows.prepare(message, newlyArrived);
+            items.add(message);
+            lastId = id;
+            count++;
+        }
+        return new TimelinePage(Collections.unmodifiableList(items), count, firstDay, lastDay, firstId, lastId);
+    }
+
+    public List<Message> getItems() { return items; }
+    public int getMessageCount() { return messageCount; }
+    public boolean isEmpty() { return messageCount == 0; }
+}
@@ -0,0 +1,20 @@
+package com.example.voidchat.trace;
+
+/**
+ * Una marca de tiempo de un mensaje trazado, tal como queda en el fichero de trazas.
+ */
+public final class TraceEvent {
+
+    public final long traceId;
+    public final TraceStage stage;
+    /** Microsegundos desde 1970 según el reloj del teléfono que la anotó. */
+    public final long timeMicros;
+    public final String device;
+
+    public TraceEvent(long traceId, TraceStage stage, long timeMicros, String device) {
+        this.traceId = traceId;
+        this.stage = stage;
+        this.timeMicros = timeMicros;
+        this.device = device;
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.voidchat.trace;
+import com.example.voidchat.metrics.Histogram;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Junta las marcas de uno o varios teléfonos por id de traza y calcula los percentiles de cada tramo del
+ * camino de un mensaje. Si una etapa se anotó varias veces para el mismo mensaje cuenta la primera.
+ *
+ * Los tramos que cruzan de un teléfono a otro llevan la diferencia entre sus relojes; si sale negativa se
+ * cuenta como 0 y aparece en {@link #getSkewed()}.
+ */
+public final class TraceReport {
+
+    /** Un tramo entre dos etapas; sólo cuenta en las trazas que tienen las dos. */
+    public static final class Segment {
+        public final TraceStage from;
+        public final TraceStage to;
+        public final String label;
+
+        Segment(TraceStage from, TraceStage to, String label) {
+            this.from = from;
+            this.to = to;
+            this.label = label;
+        }
+    }
+
+    public static final List<Segment> SEGMENTS = Collections.unmodifiableList(Arrays.asList(
+            new Segment(TraceStage.INPUT, TraceStage.FIREBASE_PUSH, "input -> firebase push"),
+            new Segment(TraceStage.FIREBASE_PUSH, TraceStage.MQTT_PUBLISH, "firebase push -> mqtt publish"),
+            new Segment(TraceStage.MQTT_PUBLISH, TraceStage.MQTT_ARRIVED, "mqtt publish -> arrived"),
+            new Segment(TraceStage.FIREBASE_PUSH, TraceStage.FIREBASE_ARRIVED, "firebase push -> arrived"),
+            new Segment(TraceStage.MQTT_ARRIVED, TraceStage.TIMELINE_INSERTED, "mqtt arrived -> timeline"),
+            new Segment(TraceStage.FIREBASE_ARRIVED, TraceStage.TIMELINE_INSERTED, "firebase arrived -> timeline"),
+            new Segment(TraceStage.TIMELINE_INSERTED, TraceStage.FIRST_BIND, "timeline -> first bind"),
+            new Segment(TraceStage.INPUT, TraceStage.FIRST_BIND, "end to end")));
+
+    private final Map<Long, EnumMap<TraceStage, Long>> traces;
+    private final Map<Segment, Histogram> segments = new HashMap<>();
+    private int skewed;
+
+    private TraceReport(Map<Long, EnumMap<TraceStage, Long>> traces) {
+        this.traces = traces;
+        for (Segment segment : SEGMENTS) {
+            Histogram histogram = new Histogram();
+            for (EnumMap<TraceStage, Long> stages : traces.values()) {
+                Long from = stages.get(segment.from);
+                Long to = stages.get(segment.to);
+                if (from == null || to == null) continue;
+                if (to < from) skewed++;
+                histogram.record(to - from);
+            }
+            segments.put(segment, histogram);
+        }
+    }
+
+    public static TraceReport of(List<TraceEvent> events) {
+        Map<Long, EnumMap<TraceStage, Long>> traces = new HashMap<>();
+        for (TraceEvent event : events) {
+            EnumMap<TraceStage, Long> stages = traces.computeIfAbsent(event.traceId, id -> new EnumMap<>(TraceStage.class));
+            Long previous = stages.get(event.stage);
+            if (previous == null || event.timeMicros < previous) stages.put(event.stage, event.timeMicros);
+        }
+        return new TraceReport(traces);
+    }
+
+    /**
+     * Lee un fichero escrito por {@link Tracer#export}. Para juntar varios teléfonos se concatenan las listas.
+     * @throws IOException si no es un fichero de trazas; los eventos de otras categorías se saltan.
+     */
+    public static List<TraceEvent> read(Reader in) throws IOException {
+        StringBuilder text = new StringBuilder();
+        char[] buffer = new char[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) text.append(buffer, 0, n);
+        List<TraceEvent> events = new ArrayList<>();
+        try {
+            JSONArray traceEvents = new JSONObject(text.toString()).getJSONArray("traceEvents");
+            for (int i = 0; i < traceEvents.length(); i++) {
+                JSONObject event = traceEvents.getJSONObject(i);
+                if (!"message".equals(event.optString("cat"))) continue;
+                JSONObject args = event.getJSONObject("args");
+                long traceId = Tracer.parse(args.getString("trace"));
+                if (traceId == 0) throw new IOException("Bad trace id " + args.getString("trace"));
+                events.add(new TraceEvent(traceId, TraceStage.valueOf(event.getString("name")),
+                        event.getLong("ts"), args.optString("device")));
+            }
+        } catch (JSONException | IllegalArgumentException e) {
+            throw new IOException("Not a trace file: " + e.getMessage(), e);
+        }
+        return events;
+    }
+
+    // --- Métodos Públicos ---
+
+    public int getTraceCount() { return traces.size(); }
+
+    /** Tramos en los que la etapa de llegada se anotó antes que la de salida. */
+    public int getSkewed() { return skewed; }
+
+    /**
+     * @return Las trazas que pasaron por todas las etapas de {@code stages}.
+     */
+    public int countComplete(TraceStage... stages) {
+        int complete = 0;
+        for (EnumMap<TraceStage, Long> trace : traces.values()) {
+            if (trace.keySet().containsAll(Arrays.asList(stages))) complete++;
+        }
+        return complete;
+    }
+
+    /**
+     * @return Los tiempos del tramo en microsegundos.
+     */
+    public Histogram.Snapshot segment(TraceStage from, TraceStage to) {
+        for (Segment segment : SEGMENTS) {
+            if (segment.from == from && segment.to == to) return segments.get(segment).snapshot();
+        }
+        throw new IllegalArgumentException("No segment " + from + " -> " + to);
+    }
+
+    /**
+     * Tabla con un tramo por línea y sus percentiles en milisegundos. Los tramos sin datos no salen.
+     */
+    public String format() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.ROOT, "%d traces%s%n", traces.size(),
+                skewed > 0 ? ", " + skewed + " skewed samples" : ""));
+        out.append(String.format(Locale.ROOT, "%-30s %6s %9s %9s %9s %9s%n", "segment (ms)", "n", "p50", "p90", "p99", "max"));
+        for (Segment segment : SEGMENTS) {
+            Histogram.Snapshot h = segments.get(segment).snapshot();
+            if (h.count == 0) continue;
+            out.append(String.format(Locale.ROOT, "%-30s %6d %9.2f %9.2f %9.2f %9.2f%n", segment.label, h.count,
+                    h.percentile(0.5) / 1000.0, h.percentile(0.9) / 1000.0, h.percentile(0.99) / 1000.0,
+                    h.max / 1000.0));
+        }
+        return out.toString();
+    }
+
+    @Override
+    public String toString() {
+        return format();
+    }
+}
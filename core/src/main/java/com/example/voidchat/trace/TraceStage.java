@@ -0,0 +1,23 @@
+package com.example.voidchat.trace;
+
+/**
+ * Puntos del camino de un mensaje donde se anota la hora, en el orden en que suelen ocurrir. Los tres primeros
+ * ocurren en el teléfono que envía y el resto en el que recibe; un mismo teléfono sólo anota la parte que le
+ * toca de cada mensaje.
+ */
+public enum TraceStage {
+    /** Se pulsó enviar. */
+    INPUT,
+    /** Se llamó a {@code push().setValue} en Firebase. */
+    FIREBASE_PUSH,
+    /** El mensaje quedó en el outbox de MQTT. */
+    MQTT_PUBLISH,
+    /** Paho lo entregó en {@code messageArrived}. */
+    MQTT_ARRIVED,
+    /** Firebase avisó del mensaje nuevo. */
+    FIREBASE_ARRIVED,
+    /** Entró en la línea de tiempo, en el hilo principal. */
+    TIMELINE_INSERTED,
+    /** Primer {@code onBindViewHolder} de su fila. */
+    FIRST_BIND
+}
@@ -0,0 +1,158 @@
+package com.example.voidchat.trace;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Anota cuándo pasa cada mensaje trazado por cada {@link TraceStage} en este teléfono. El id de traza viaja
+ * con el mensaje (en Firebase y en la carga MQTT), así que juntando los ficheros de los dos teléfonos con
+ * {@link TraceReport} se ve dónde se va el tiempo entre pulsar enviar y ver la burbuja en el otro.
+ *
+ * Está apagado por defecto: entonces {@link #newTraceId()} da 0 y nada se anota. Las marcas van a un buffer
+ * circular reservado al crearlo; anotar no reserva memoria y es seguro desde cualquier hilo. Cuando se llena,
+ * las más antiguas se pisan.
+ *
+ * La hora es la del reloj del sistema, para poder comparar teléfonos, pero avanza con {@link System#nanoTime()}
+ * para que un ajuste del reloj no cree saltos dentro de una misma traza. Entre teléfonos distintos la
+ * diferencia de sus relojes se suma a los tramos que cruzan la red.
+ */
+public final class Tracer {
+
+    public static final int DEFAULT_CAPACITY = 16 * 1024;
+
+    private final String device;
+    private final long[] traceIds;
+    private final long[] times;
+    private final byte[] stages;
+    private final long anchorWallMicros = System.currentTimeMillis() * 1_000;
+    private final long anchorNanos = System.nanoTime();
+    private volatile boolean enabled;
+    // Con el cerrojo del tracer
+    private long written;
+
+    /**
+     * @param device Nombre de este teléfono en los ficheros de trazas.
+     */
+    public Tracer(String device, int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be at least 1");
+        this.device = device;
+        this.traceIds = new long[capacity];
+        this.times = new long[capacity];
+        this.stages = new byte[capacity];
+    }
+
+    // --- Métodos Públicos ---
+
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+    public boolean isEnabled() { return enabled; }
+    public String getDevice() { return device; }
+
+    /**
+     * @return Un id nuevo para el mensaje que se va a enviar, o 0 si no se está trazando.
+     */
+    public long newTraceId() {
+        if (!enabled) return 0;
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+
+    public long nowMicros() {
+        return anchorWallMicros + (System.nanoTime() - anchorNanos) / 1_000;
+    }
+
+    public void mark(long traceId, TraceStage stage) {
+        if (traceId == 0 || !enabled) return;
+        mark(traceId, stage, nowMicros());
+    }
+
+    /**
+     * Anota una hora tomada antes, por ejemplo en el hilo de Paho cuando el id aún no se había leído.
+     */
+    public void mark(long traceId, TraceStage stage, long timeMicros) {
+        if (traceId == 0 || !enabled) return;
+        synchronized (this) {
+            int slot = (int) (written % traceIds.length);
+            traceIds[slot] = traceId;
+            times[slot] = timeMicros;
+            stages[slot] = (byte) stage.ordinal();
+            written++;
+        }
+    }
+
+    /**
+     * @return Las marcas que quedan en el buffer, de la más antigua a la más reciente.
+     */
+    public List<TraceEvent> events() {
+        TraceStage[] values = TraceStage.values();
+        synchronized (this) {
+            int count = (int) Math.min(written, traceIds.length);
+            List<TraceEvent> events = new ArrayList<>(count);
+            for (long i = written - count; i < written; i++) {
+                int slot = (int) (i % traceIds.length);
+                events.add(new TraceEvent(traceIds[slot], values[stages[slot]], times[slot], device));
+            }
+            return events;
+        }
+    }
+
+    public synchronized void clear() {
+        written = 0;
+    }
+
+    public TraceReport report() {
+        return TraceReport.of(events());
+    }
+
+    /**
+     * Escribe las marcas en el formato de eventos de trazas de Chrome, que abren Perfetto y chrome://tracing:
+     * un evento instantáneo por marca, con el id de traza en sus argumentos. {@link TraceReport#read} lo lee.
+     */
+    public void export(Writer out) throws IOException {
+        int pid = device.hashCode() & 0x7FFFFFFF;
+        try {
+            JSONArray traceEvents = new JSONArray();
+            traceEvents.put(new JSONObject().put("name", "process_name").put("ph", "M").put("pid", pid)
+                    .put("args", new JSONObject().put("name", device)));
+            for (TraceEvent event : events()) {
+                traceEvents.put(new JSONObject()
+                        .put("name", event.stage.name())
+                        .put("cat", "message")
+                        .put("ph", "i")
+                        .put("s", "g")
+                        .put("ts", event.timeMicros)
+                        .put("pid", pid)
+                        .put("tid", 0)
+                        .put("args", new JSONObject().put("trace", format(event.traceId)).put("device", device)));
+            }
+            out.write(new JSONObject().put("traceEvents", traceEvents).put("displayTimeUnit", "ms").toString());
+        } catch (JSONException e) {
+            throw new IOException("Cannot write trace file", e);
+        }
+        out.flush();
+    }
+
+    /** El id como texto, tal como se guarda en Firebase y en el fichero. */
+    public static String format(long traceId) {
+        return Long.toHexString(traceId);
+    }
+
+    /**
+     * @return El id, o 0 si {@code text} es null o no es un id.
+     */
+    public static long parse(String text) {
+        if (text == null) return 0;
+        try {
+            return Long.parseUnsignedLong(text, 16);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
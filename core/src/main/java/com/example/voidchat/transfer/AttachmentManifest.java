@@ -0,0 +1,115 @@
+package com.example.voidchat.transfer;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Descripción de un adjunto antes de enviarlo: nombre, tipo, tamaño, tamaño de trozo, el CRC32 de cada trozo
+ * y el SHA-256 del fichero entero.
+ *
+ * Los CRC por trozo permiten al receptor descartar un trozo dañado y, tras reiniciar, saber qué trozos del
+ * fichero parcial ya son buenos sin guardar un registro aparte. El SHA-256 confirma el resultado final.
+ */
+public final class AttachmentManifest {
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    public final String name;
+    public final String mimeType;
+    public final long size;
+    public final int chunkSize;
+    private final int[] chunkCrcs;
+    private final byte[] sha256;
+
+    AttachmentManifest(String name, String mimeType, long size, int chunkSize, int[] chunkCrcs, byte[] sha256) {
+        if (chunkSize <= 0) throw new IllegalArgumentException("Bad chunk size " + chunkSize);
+        long expectedChunks = (size + chunkSize - 1) / chunkSize;
+        if (size < 0 || expectedChunks != chunkCrcs.length || sha256.length != 32) {
+            throw new IllegalArgumentException("Inconsistent manifest");
+        }
+        this.name = name;
+        this.mimeType = mimeType;
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.chunkCrcs = chunkCrcs;
+        this.sha256 = sha256;
+    }
+
+    /**
+     * Recorre el fichero una vez, por bloques, para calcular los CRC y el SHA-256. No lo carga en memoria.
+     */
+    public static AttachmentManifest describe(File file, String name, String mimeType, int chunkSize) throws IOException {
+        long size = file.length();
+        int chunkCount = (int) ((size + chunkSize - 1) / chunkSize);
+        int[] crcs = new int[chunkCount];
+        MessageDigest digest = sha256();
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[chunkSize];
+        try (InputStream in = new FileInputStream(file)) {
+            for (int index = 0; index < chunkCount; index++) {
+                int length = (int) Math.min(chunkSize, size - (long) index * chunkSize);
+                readFully(in, buffer, length);
+                crc.reset();
+                crc.update(buffer, 0, length);
+                crcs[index] = (int) crc.getValue();
+                digest.update(buffer, 0, length);
+            }
+        }
+        return new AttachmentManifest(name, mimeType, size, chunkSize, crcs, digest.digest());
+    }
+
+    public int getChunkCount() { return chunkCrcs.length; }
+    public int crcOf(int index) { return chunkCrcs[index]; }
+    public byte[] getSha256() { return sha256.clone(); }
+
+    public long offsetOf(int index) {
+        return (long) index * chunkSize;
+    }
+
+    public int lengthOf(int index) {
+        return (int) Math.min(chunkSize, size - offsetOf(index));
+    }
+
+    boolean matches(byte[] digest) {
+        return MessageDigest.isEqual(sha256, digest);
+    }
+
+    int[] crcs() { return chunkCrcs; }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 está en todas las JVM y en Android
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int n = in.read(buffer, read, length - read);
+            if (n < 0) throw new IOException("File shrank while describing it");
+            read += n;
+        }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof AttachmentManifest)) return false;
+        AttachmentManifest that = (AttachmentManifest) other;
+        return size == that.size && chunkSize == that.chunkSize && name.equals(that.name)
+                && mimeType.equals(that.mimeType) && Arrays.equals(chunkCrcs, that.chunkCrcs)
+                && Arrays.equals(sha256, that.sha256);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(sha256);
+    }
+}
@@ -0,0 +1,222 @@
+package com.example.voidchat.transfer;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.BitSet;
+
+/**
+ * Recompone un adjunto en disco a medida que llegan sus trozos: cada trozo se comprueba con su CRC y se
+ * escribe en su posición de {@code {id}.part}, sin guardar nunca el fichero entero en memoria. Los trozos
+ * pueden llegar desordenados, repetidos o antes que el manifiesto. El tema de datos es del broker compartido:
+ * antes del manifiesto sólo se aceptan los primeros {@link #MAX_EARLY_CHUNKS} trozos, de hasta
+ * {@link #MAX_CHUNK_SIZE}, para que una carga mal formada no reserve memoria ni escriba lejos en el disco.
+ *
+ * Para reanudar tras cerrar la app no hace falta un registro de lo recibido: al abrir, los trozos del
+ * fichero parcial cuyo CRC coincide con el del manifiesto ya están bien. {@link #firstMissing()} es lo que
+ * se le pide al emisor. Cuando están todos se comprueba el SHA-256 del fichero y se renombra a {@code {id}}.
+ *
+ * No es seguro entre hilos: las cargas de una transferencia se entregan en orden desde un solo hilo.
+ */
+public final class AttachmentReceiver implements Closeable {
+
+    private static final String PART = ".part";
+    private static final String MANIFEST = ".manifest";
+    private static final int VERIFY_BUFFER = 64 * 1024;
+    // Cotas para lo que llega sin manifiesto que lo respalde: como mucho 64 trozos de 1 MB en disco
+    static final int MAX_CHUNK_SIZE = 1024 * 1024;
+    static final int MAX_EARLY_CHUNKS = 64;
+
+    private final File partFile;
+    private final File manifestFile;
+    private final File target;
+    private RandomAccessFile part;
+    private AttachmentManifest manifest;
+    private final BitSet received = new BitSet();
+    private boolean complete;
+    private int duplicates;
+
+    private AttachmentReceiver(File directory, String transferId) {
+        this.partFile = new File(directory, transferId + PART);
+        this.manifestFile = new File(directory, transferId + MANIFEST);
+        this.target = new File(directory, transferId);
+    }
+
+    /**
+     * Abre la recepción de {@code transferId} en {@code directory}, recuperando lo que hubiera de antes.
+     */
+    public static AttachmentReceiver open(File directory, String transferId) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        AttachmentReceiver receiver = new AttachmentReceiver(directory, transferId);
+        if (receiver.target.exists()) {
+            receiver.complete = true;
+            return receiver;
+        }
+        receiver.part = new RandomAccessFile(receiver.partFile, "rw");
+        if (receiver.manifestFile.exists()) {
+            try {
+                receiver.manifest = TransferFrame.readManifest(Files.readAllBytes(receiver.manifestFile.toPath()));
+                receiver.recover();
+            } catch (IllegalArgumentException e) {
+                // Manifiesto dañado: se pedirá de nuevo
+                receiver.manifest = null;
+                receiver.received.clear();
+            }
+        }
+        return receiver;
+    }
+
+    // --- Métodos Públicos ---
+
+    /**
+     * Aplica una carga del tema de datos.
+     * @return true si con ella el adjunto quedó completo y verificado.
+     * @throws IllegalArgumentException si la carga está mal formada o el trozo llegó dañado; se descarta.
+     * @throws IOException si no se pudo escribir, o si el fichero completo no coincide con el manifiesto (en ese
+     *                     caso se vuelve a empezar y {@link #firstMissing()} vale 0).
+     */
+    public boolean onFrame(byte[] payload) throws IOException {
+        if (complete) return false;
+        int kind = TransferFrame.kindOf(payload);
+        if (kind == TransferFrame.KIND_MANIFEST) {
+            if (manifest == null) acceptManifest(payload);
+        } else if (kind == TransferFrame.KIND_CHUNK) {
+            acceptChunk(payload);
+        } else {
+            throw new IllegalArgumentException("Resume request on the data topic");
+        }
+        return checkComplete();
+    }
+
+    /**
+     * @return El primer trozo que falta: desde ahí se le pide al emisor que reanude.
+     */
+    public int firstMissing() {
+        return received.nextClearBit(0);
+    }
+
+    /**
+     * @return La petición de reanudación para el tema {@code resume}, o null si ya está completo.
+     */
+    public byte[] resumeRequest() {
+        return complete ? null : TransferFrame.resume(firstMissing(), manifest == null);
+    }
+
+    public boolean isComplete() { return complete; }
+    public AttachmentManifest getManifest() { return manifest; }
+    public int getReceivedChunks() { return received.cardinality(); }
+    public int getDuplicates() { return duplicates; }
+    /** El fichero final; sólo existe cuando {@link #isComplete()}. */
+    public File getFile() { return target; }
+
+    @Override
+    public void close() throws IOException {
+        if (part != null) {
+            part.close();
+            part = null;
+        }
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    private void acceptManifest(byte[] payload) throws IOException {
+        AttachmentManifest candidate = TransferFrame.readManifest(payload);
+        // Lo que llegó antes que el manifiesto debe cuadrar con él
+        for (int index = received.nextSetBit(0); index >= 0; index = received.nextSetBit(index + 1)) {
+            if (index >= candidate.getChunkCount() || !chunkMatches(candidate, index)) {
+                received.clear(index);
+            }
+        }
+        File tmp = new File(manifestFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(payload);
+            out.getFD().sync();
+        }
+        Files.move(tmp.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        manifest = candidate;
+        if (part.length() > manifest.size) part.setLength(manifest.size);
+    }
+
+    private void acceptChunk(byte[] frame) throws IOException {
+        int index = TransferFrame.chunkIndex(frame);
+        int chunkSize = TransferFrame.chunkSizeOf(frame);
+        if (index < 0 || chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE
+                || TransferFrame.chunkLength(frame) > chunkSize) {
+            throw new IllegalArgumentException("Bad chunk header");
+        }
+        if (manifest == null && index >= MAX_EARLY_CHUNKS) {
+            // Sin manifiesto no se sabe cuánto mide el fichero; se pedirá de nuevo al reanudar
+            throw new IllegalArgumentException("Chunk " + index + " before the manifest");
+        }
+        if (received.get(index)) {
+            duplicates++;
+            return;
+        }
+        if (!TransferFrame.isIntact(frame)) throw new IllegalArgumentException("Corrupt chunk " + index);
+        if (manifest != null && (index >= manifest.getChunkCount() || chunkSize != manifest.chunkSize
+                || TransferFrame.chunkLength(frame) != manifest.lengthOf(index)
+                || TransferFrame.chunkCrc(frame) != manifest.crcOf(index))) {
+            throw new IllegalArgumentException("Chunk " + index + " does not match the manifest");
+        }
+        part.seek((long) index * chunkSize);
+        part.write(frame, TransferFrame.CHUNK_HEADER, TransferFrame.chunkLength(frame));
+        received.set(index);
+    }
+
+    private boolean checkComplete() throws IOException {
+        if (manifest == null || received.cardinality() < manifest.getChunkCount()) return false;
+        part.getFD().sync();
+        if (!manifest.matches(digest())) {
+            received.clear();
+            part.setLength(0);
+            throw new IOException("Attachment does not match its manifest digest");
+        }
+        close();
+        Files.move(partFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(manifestFile.toPath());
+        complete = true;
+        return true;
+    }
+
+    /**
+     * Marca como recibidos los trozos del fichero parcial que ya coinciden con el manifiesto.
+     */
+    private void recover() throws IOException {
+        long available = part.length();
+        for (int index = 0; index < manifest.getChunkCount(); index++) {
+            if (manifest.offsetOf(index) + manifest.lengthOf(index) > available) break;
+            if (chunkMatches(manifest, index)) received.set(index);
+        }
+    }
+
+    private boolean chunkMatches(AttachmentManifest candidate, int index) throws IOException {
+        int length = candidate.lengthOf(index);
+        if (candidate.offsetOf(index) + length > part.length()) return false;
+        byte[] buffer = new byte[length];
+        part.seek(candidate.offsetOf(index));
+        part.readFully(buffer);
+        return TransferFrame.crcOf(buffer, 0, length) == candidate.crcOf(index);
+    }
+
+    private byte[] digest() throws IOException {
+        MessageDigest digest = AttachmentManifest.sha256();
+        byte[] buffer = new byte[VERIFY_BUFFER];
+        part.seek(0);
+        long remaining = manifest.size;
+        while (remaining > 0) {
+            int n = part.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (n < 0) break;
+            digest.update(buffer, 0, n);
+            remaining -= n;
+        }
+        return digest.digest();
+    }
+}
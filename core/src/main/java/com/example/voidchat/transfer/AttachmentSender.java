@@ -0,0 +1,239 @@
+package com.example.voidchat.transfer;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.BitSet;
+import java.util.concurrent.Executor;
+
+/**
+ * Envía un fichero como manifiesto más trozos, con a lo sumo {@code maxInFlight} trozos esperando confirmación
+ * del broker (contrapresión): cada trozo se lee del disco justo antes de publicarlo, así que la memoria no
+ * crece con el tamaño del fichero.
+ *
+ * El emisor recuerda qué trozos confirmó el broker. Si se pierde la conexión se detiene, y {@link #resume()}
+ * sigue desde el primer trozo sin confirmar en lugar de empezar de cero. Un receptor que llegó tarde o
+ * perdió trozos pide con {@link #resumeFrom} lo que le falta; repetir un trozo no hace daño porque el
+ * receptor descarta los que ya tiene.
+ *
+ * La lectura y las publicaciones van en {@code worker}, que debe ser de un solo hilo. Es seguro entre hilos.
+ */
+public final class AttachmentSender implements Closeable {
+
+    // --- Interfaces ---
+
+    public interface Publisher {
+        /**
+         * Publica sin bloquear y avisa del resultado por {@code completion}.
+         * @return false si no hay conexión: no se publicó y no habrá aviso.
+         */
+        boolean publish(String topic, byte[] payload, Completion completion);
+    }
+
+    public interface Completion {
+        void onAcked();
+        void onFailed(Throwable error);
+    }
+
+    // Se llama desde el hilo del worker o desde los de la conexión
+    public interface Listener {
+        void onProgress(int ackedChunks, int chunkCount);
+        /** Todos los trozos están en el broker. Puede repetirse si un receptor pide reanudar. */
+        void onSent();
+        /** Se perdió la conexión; se sigue con {@link #resume()}. */
+        void onStalled(Throwable error);
+    }
+
+    private final String topic;
+    private final AttachmentManifest manifest;
+    private final RandomAccessFile file;
+    private final Publisher publisher;
+    private final int maxInFlight;
+    private final Executor worker;
+    private final Listener listener;
+    private final BitSet acked = new BitSet();
+    private int ackedCount;
+    private int next;
+    private int inFlight;
+    private boolean manifestPending = true;
+    private boolean paused = true;
+    private boolean closed;
+    private long published;
+
+    public AttachmentSender(String topic, File file, AttachmentManifest manifest, Publisher publisher,
+                            int maxInFlight, Executor worker, Listener listener) throws IOException {
+        if (maxInFlight < 1) throw new IllegalArgumentException("maxInFlight must be at least 1");
+        if (file.length() != manifest.size) throw new IOException("File does not match its manifest");
+        this.topic = topic;
+        this.manifest = manifest;
+        this.file = new RandomAccessFile(file, "r");
+        this.publisher = publisher;
+        this.maxInFlight = maxInFlight;
+        this.worker = worker;
+        this.listener = listener;
+    }
+
+    // --- Métodos Públicos ---
+
+    public void start() {
+        resumeFrom(0, true);
+    }
+
+    /**
+     * Sigue desde el primer trozo que el broker no ha confirmado, por ejemplo al reconectar.
+     */
+    public void resume() {
+        synchronized (this) {
+            next = Math.min(next, acked.nextClearBit(0));
+            paused = false;
+        }
+        worker.execute(this::pump);
+    }
+
+    /**
+     * Vuelve a enviar desde {@code fromChunk} hasta el final, a petición de un receptor.
+     */
+    public void resumeFrom(int fromChunk, boolean withManifest) {
+        synchronized (this) {
+            next = Math.max(0, Math.min(next, fromChunk));
+            manifestPending |= withManifest;
+            paused = false;
+        }
+        worker.execute(this::pump);
+    }
+
+    public AttachmentManifest getManifest() { return manifest; }
+    public synchronized int getAckedChunks() { return ackedCount; }
+    public synchronized boolean isSent() { return ackedCount == manifest.getChunkCount() && !manifestPending; }
+    /** Trozos publicados contando las repeticiones. */
+    public synchronized long getPublishedChunks() { return published; }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            paused = true;
+        }
+        worker.execute(() -> {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // Sólo se leía
+            }
+        });
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    /**
+     * Publica mientras haya sitio en la ventana. Sólo corre en el worker, que es el único que lee el fichero.
+     */
+    private void pump() {
+        while (true) {
+            byte[] payload;
+            int index;
+            synchronized (this) {
+                if (paused || closed || inFlight >= maxInFlight) return;
+                if (manifestPending) {
+                    index = -1;
+                    manifestPending = false;
+                } else if (next < manifest.getChunkCount()) {
+                    index = next++;
+                } else {
+                    return;
+                }
+                inFlight++;
+            }
+            try {
+                payload = index < 0 ? TransferFrame.manifest(manifest) : read(index);
+            } catch (IOException e) {
+                stall(index, e);
+                return;
+            }
+            if (!publisher.publish(topic, payload, new ChunkCompletion(index))) {
+                // Sin conexión: se retoma con resume() al reconectar
+                stall(index, new IOException("Not connected"));
+                return;
+            }
+            if (index >= 0) {
+                synchronized (this) {
+                    published++;
+                }
+            }
+        }
+    }
+
+    private byte[] read(int index) throws IOException {
+        int length = manifest.lengthOf(index);
+        byte[] frame = TransferFrame.newChunk(index, manifest.chunkSize, length);
+        file.seek(manifest.offsetOf(index));
+        file.readFully(frame, TransferFrame.CHUNK_HEADER, length);
+        TransferFrame.seal(frame);
+        return frame;
+    }
+
+    private void rewind(int index) {
+        if (index < 0) {
+            manifestPending = true;
+        } else {
+            next = Math.min(next, index);
+        }
+    }
+
+    private void stall(int index, Throwable error) {
+        boolean notify;
+        synchronized (this) {
+            inFlight--;
+            rewind(index);
+            notify = !paused && !closed;
+            paused = true;
+        }
+        if (notify) listener.onStalled(error);
+    }
+
+    /**
+     * Con sesión persistente Paho avisa de un fallo al perder la conexión y, con el mismo token, del éxito
+     * tras reenviarlo: el sitio en la ventana se libera sólo con el primer aviso.
+     */
+    private final class ChunkCompletion implements Completion {
+        private final int index;
+        // Con el cerrojo del emisor
+        private boolean settled;
+
+        ChunkCompletion(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void onAcked() {
+            boolean sent;
+            int progress;
+            boolean open;
+            synchronized (AttachmentSender.this) {
+                open = !closed;
+                if (!settled) inFlight--;
+                settled = true;
+                if (index >= 0 && !acked.get(index)) {
+                    acked.set(index);
+                    ackedCount++;
+                }
+                progress = ackedCount;
+                sent = next == manifest.getChunkCount() && inFlight == 0 && !manifestPending
+                        && ackedCount == manifest.getChunkCount();
+            }
+            if (index >= 0) listener.onProgress(progress, manifest.getChunkCount());
+            if (sent) listener.onSent();
+            if (open) worker.execute(AttachmentSender.this::pump);
+        }
+
+        @Override
+        public void onFailed(Throwable error) {
+            boolean release;
+            synchronized (AttachmentSender.this) {
+                release = !settled;
+                settled = true;
+            }
+            if (release) stall(index, error);
+        }
+    }
+}
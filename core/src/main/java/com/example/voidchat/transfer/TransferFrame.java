@@ -0,0 +1,189 @@
+package com.example.voidchat.transfer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+/**
+ * Formato de los adjuntos por MQTT. Cada transferencia usa dos temas:
+ * <ul>
+ *   <li>{@code attach/{sala}/{id}/data}: el manifiesto y los trozos, del emisor a los receptores (QoS 1);</li>
+ *   <li>{@code attach/{sala}/{id}/resume}: las peticiones de reanudación de los receptores al emisor.</li>
+ * </ul>
+ * Todas las cargas empiezan por la versión y el tipo. Un trozo lleva además su índice, el tamaño de trozo (para
+ * escribirlo en su sitio aunque el manifiesto no haya llegado aún) y el CRC32 de sus datos, que van detrás
+ * sin copiar: el emisor lee del fichero directamente sobre la carga.
+ */
+public final class TransferFrame {
+
+    public static final int KIND_MANIFEST = 1;
+    public static final int KIND_CHUNK = 2;
+    public static final int KIND_RESUME = 3;
+    // Los trozos no pueden perderse: una carga perdida obligaría a pedirla de nuevo
+    public static final int QOS = 1;
+
+    static final int VERSION = 1;
+    // versión, tipo, índice, tamaño de trozo, CRC32
+    static final int CHUNK_HEADER = 2 + 4 + 4 + 4;
+    private static final String PREFIX = "attach/";
+
+    private TransferFrame() {
+    }
+
+    // --- Temas ---
+
+    public static String dataTopic(String room, String transferId) {
+        return PREFIX + room + '/' + transferId + "/data";
+    }
+
+    public static String resumeTopic(String room, String transferId) {
+        return PREFIX + room + '/' + transferId + "/resume";
+    }
+
+    // --- Manifiesto ---
+
+    public static byte[] manifest(AttachmentManifest manifest) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + 4 * manifest.getChunkCount());
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeByte(KIND_MANIFEST);
+            out.writeUTF(manifest.name);
+            out.writeUTF(manifest.mimeType);
+            out.writeLong(manifest.size);
+            out.writeInt(manifest.chunkSize);
+            out.write(manifest.getSha256());
+            out.writeInt(manifest.getChunkCount());
+            for (int crc : manifest.crcs()) {
+                out.writeInt(crc);
+            }
+        } catch (IOException e) {
+            // ByteArrayOutputStream no lanza IOException
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @throws IllegalArgumentException si la carga no es un manifiesto válido.
+     */
+    public static AttachmentManifest readManifest(byte[] payload) {
+        check(payload, KIND_MANIFEST);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload, 2, payload.length - 2))) {
+            String name = in.readUTF();
+            String mimeType = in.readUTF();
+            long size = in.readLong();
+            int chunkSize = in.readInt();
+            byte[] sha256 = new byte[32];
+            in.readFully(sha256);
+            int chunkCount = in.readInt();
+            if (chunkCount < 0 || chunkCount > in.available() / 4) {
+                throw new IllegalArgumentException("Bad chunk count " + chunkCount);
+            }
+            int[] crcs = new int[chunkCount];
+            for (int i = 0; i < chunkCount; i++) {
+                crcs[i] = in.readInt();
+            }
+            return new AttachmentManifest(name, mimeType, size, chunkSize, crcs, sha256);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Truncated manifest", e);
+        }
+    }
+
+    // --- Trozos ---
+
+    /**
+     * Reserva una carga para el trozo {@code index} con la cabecera escrita; los datos se copian a partir de
+     * {@link #CHUNK_HEADER} y después se cierra con {@link #seal}.
+     */
+    static byte[] newChunk(int index, int chunkSize, int length) {
+        byte[] frame = new byte[CHUNK_HEADER + length];
+        frame[0] = VERSION;
+        frame[1] = KIND_CHUNK;
+        putInt(frame, 2, index);
+        putInt(frame, 6, chunkSize);
+        return frame;
+    }
+
+    static void seal(byte[] frame) {
+        putInt(frame, 10, crcOf(frame, CHUNK_HEADER, frame.length - CHUNK_HEADER));
+    }
+
+    public static byte[] chunk(int index, int chunkSize, byte[] data, int length) {
+        byte[] frame = newChunk(index, chunkSize, length);
+        System.arraycopy(data, 0, frame, CHUNK_HEADER, length);
+        seal(frame);
+        return frame;
+    }
+
+    public static int chunkIndex(byte[] frame) { return getInt(frame, 2); }
+    public static int chunkSizeOf(byte[] frame) { return getInt(frame, 6); }
+    public static int chunkCrc(byte[] frame) { return getInt(frame, 10); }
+    public static int chunkLength(byte[] frame) { return frame.length - CHUNK_HEADER; }
+
+    /**
+     * @return true si los datos del trozo coinciden con el CRC de su cabecera.
+     */
+    public static boolean isIntact(byte[] frame) {
+        return crcOf(frame, CHUNK_HEADER, chunkLength(frame)) == chunkCrc(frame);
+    }
+
+    // --- Reanudación ---
+
+    /**
+     * Pide al emisor que vuelva a enviar desde el trozo {@code fromChunk} hasta el final y, si
+     * {@code needManifest}, también el manifiesto.
+     */
+    public static byte[] resume(int fromChunk, boolean needManifest) {
+        byte[] frame = new byte[7];
+        frame[0] = VERSION;
+        frame[1] = KIND_RESUME;
+        frame[2] = (byte) (needManifest ? 1 : 0);
+        putInt(frame, 3, fromChunk);
+        return frame;
+    }
+
+    public static boolean resumeNeedsManifest(byte[] frame) { return frame[2] != 0; }
+    public static int resumeFrom(byte[] frame) { return getInt(frame, 3); }
+
+    /**
+     * @return El tipo de la carga ({@link #KIND_MANIFEST}, {@link #KIND_CHUNK} o {@link #KIND_RESUME}).
+     * @throws IllegalArgumentException si no es una carga de este formato.
+     */
+    public static int kindOf(byte[] payload) {
+        if (payload.length < 2 || payload[0] != VERSION) {
+            throw new IllegalArgumentException("Not a transfer frame");
+        }
+        int kind = payload[1];
+        if ((kind == KIND_CHUNK && payload.length < CHUNK_HEADER) || (kind == KIND_RESUME && payload.length != 7)
+                || kind < KIND_MANIFEST || kind > KIND_RESUME) {
+            throw new IllegalArgumentException("Malformed transfer frame of kind " + kind);
+        }
+        return kind;
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    static int crcOf(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static void check(byte[] payload, int kind) {
+        if (kindOf(payload) != kind) throw new IllegalArgumentException("Unexpected frame kind " + payload[1]);
+    }
+
+    private static void putInt(byte[] frame, int offset, int value) {
+        frame[offset] = (byte) (value >>> 24);
+        frame[offset + 1] = (byte) (value >>> 16);
+        frame[offset + 2] = (byte) (value >>> 8);
+        frame[offset + 3] = (byte) value;
+    }
+
+    private static int getInt(byte[] frame, int offset) {
+        return (frame[offset] & 0xFF) << 24 | (frame[offset + 1] & 0xFF) << 16
+                | (frame[offset + 2] & 0xFF) << 8 | (frame[offset + 3] & 0xFF);
+    }
+}
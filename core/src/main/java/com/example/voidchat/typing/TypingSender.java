@@ -0,0 +1,73 @@
+package com.example.voidchat.typing;
+
+/**
+ * Decide cuándo avisar de que el usuario escribe. Antes cada pulsación escribía en Firebase; aquí, mientras
+ * se escribe, sale como mucho un aviso "escribiendo" cada {@link #REFRESH_MILLIS} (para que el receptor no
+ * lo dé por caducado) y un único "dejó de escribir" al vaciar el campo, enviar o pasar
+ * {@link #IDLE_MILLIS} sin pulsar nada.
+ *
+ * No usa temporizadores propios: quien lo usa llama a {@link #checkIdle} cuando se le indica. Los tiempos
+ * se pasan en cada llamada para poder probarlo sin reloj. No es seguro entre hilos: desde el hilo principal.
+ */
+public final class TypingSender {
+
+    public static final long REFRESH_MILLIS = 3_000;
+    public static final long IDLE_MILLIS = 2_000;
+
+    // --- Interfaz de Callback ---
+    public interface Transport {
+        void send(boolean typing);
+    }
+
+    private final Transport transport;
+    private boolean typing;
+    private long lastSent;
+    private long lastInput;
+
+    public TypingSender(Transport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Cambió el texto del campo.
+     * @return Milisegundos tras los que llamar a {@link #checkIdle}, o -1 si no hace falta.
+     */
+    public long onInput(boolean hasText, long now) {
+        if (!hasText) {
+            stop();
+            return -1;
+        }
+        lastInput = now;
+        if (!typing || now - lastSent >= REFRESH_MILLIS) {
+            typing = true;
+            lastSent = now;
+            transport.send(true);
+        }
+        return IDLE_MILLIS;
+    }
+
+    /**
+     * Comprueba si el usuario dejó de escribir.
+     * @return Milisegundos hasta la siguiente comprobación, o -1 si ya no hace falta.
+     */
+    public long checkIdle(long now) {
+        if (!typing) return -1;
+        long idle = now - lastInput;
+        if (idle >= IDLE_MILLIS) {
+            stop();
+            return -1;
+        }
+        return IDLE_MILLIS - idle;
+    }
+
+    /**
+     * Mensaje enviado o pantalla cerrada: si se estaba escribiendo, avisa una vez.
+     */
+    public void stop() {
+        if (!typing) return;
+        typing = false;
+        transport.send(false);
+    }
+
+    public boolean isTyping() { return typing; }
+}
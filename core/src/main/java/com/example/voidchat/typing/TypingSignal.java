@@ -0,0 +1,50 @@
+package com.example.voidchat.typing;
+
+/**
+ * Formato del aviso de escritura por MQTT: el tema {@code typing/{sala}/{uid}} identifica sala y usuario,
+ * y la carga es un solo byte (1 escribiendo, 0 dejó de escribir). Se publica con QoS 0 y sin retener:
+ * si se pierde, el receptor lo da por caducado solo.
+ */
+public final class TypingSignal {
+
+    private static final String PREFIX = "typing/";
+    private static final byte TYPING = 1;
+    private static final byte STOPPED = 0;
+
+    private TypingSignal() {
+    }
+
+    public static String topic(String chatRoomId, String userId) {
+        return PREFIX + chatRoomId + "/" + userId;
+    }
+
+    /**
+     * Filtro con el que una sala escucha a todos sus participantes.
+     */
+    public static String roomFilter(String chatRoomId) {
+        return PREFIX + chatRoomId + "/+";
+    }
+
+    /**
+     * @return El UID del tema, o null si no es un tema de escritura.
+     */
+    public static String userIdOf(String topic) {
+        if (!topic.startsWith(PREFIX)) return null;
+        int slash = topic.lastIndexOf('/');
+        return slash > PREFIX.length() ? topic.substring(slash + 1) : null;
+    }
+
+    public static byte[] encode(boolean typing) {
+        return new byte[] {typing ? TYPING : STOPPED};
+    }
+
+    /**
+     * @throws IllegalArgumentException si la carga no tiene este formato.
+     */
+    public static boolean decode(byte[] payload) {
+        if (payload.length != 1 || (payload[0] != TYPING && payload[0] != STOPPED)) {
+            throw new IllegalArgumentException("Not a typing signal");
+        }
+        return payload[0] == TYPING;
+    }
+}
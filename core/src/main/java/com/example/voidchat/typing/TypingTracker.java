@@ -0,0 +1,69 @@
+package com.example.voidchat.typing;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Quién está escribiendo en la sala, según los avisos recibidos. Cada "escribiendo" vale durante
+ * {@link #EXPIRY_MILLIS}: si el emisor se queda sin red o se pierde su "dejó de escribir" (QoS 0), el
+ * indicador desaparece solo. El plazo cubre la pérdida de un refresco entero del emisor.
+ *
+ * No es seguro entre hilos: desde el hilo principal.
+ */
+public final class TypingTracker {
+
+    public static final long EXPIRY_MILLIS = 2 * TypingSender.REFRESH_MILLIS + 1_000;
+
+    private final Map<String, Long> expiresAt = new HashMap<>();
+
+    /**
+     * @return true si cambió quién está escribiendo.
+     */
+    public boolean onSignal(String userId, boolean typing, long now) {
+        if (typing) {
+            return expiresAt.put(userId, now + EXPIRY_MILLIS) == null;
+        }
+        return expiresAt.remove(userId) != null;
+    }
+
+    /**
+     * Olvida los avisos caducados.
+     * @return true si cambió quién está escribiendo.
+     */
+    public boolean expire(long now) {
+        boolean changed = false;
+        Iterator<Long> iterator = expiresAt.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() <= now) {
+                iterator.remove();
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Milisegundos hasta la próxima caducidad, para programar {@link #expire}; -1 si no hay nadie escribiendo.
+     */
+    public long millisUntilNextExpiry(long now) {
+        long next = Long.MAX_VALUE;
+        for (long time : expiresAt.values()) {
+            next = Math.min(next, time);
+        }
+        return next == Long.MAX_VALUE ? -1 : Math.max(0, next - now);
+    }
+
+    public boolean isTyping(String userId) {
+        return expiresAt.containsKey(userId);
+    }
+
+    public Set<String> typingUsers() {
+        return Collections.unmodifiableSet(expiresAt.keySet());
+    }
+
+    public void clear() {
+        expiresAt.clear();
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.voidchat.contacts;
+
+import com.example.voidchat.model.User;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ContactDirectoryTest {
+
+    private static User user(String uid, String name) {
+        return new User(uid, uid + "@example.com", name, "");
+    }
+
+    /**
+     * Anota las notificaciones como texto para comparar secuencias enteras.
+     */
+    private static List<String> record(ContactDirectory directory) {
+        List<String> events = new ArrayList<>();
+        directory.setListener(new ContactDirectory.Listener() {
+            @Override public void onInserted(int position) { events.add("+" + position); }
+            @Override public void onChanged(int position) { events.add("~" + position); }
+            @Override public void onMoved(int from, int to) { events.add(from + ">" + to); }
+            @Override public void onRemoved(int position) { events.add("-" + position); }
+            @Override public void onReset() { events.add("reset"); }
+        });
+        return events;
+    }
+
+    private static List<String> names(ContactDirectory directory) {
+        List<String> names = new ArrayList<>();
+        for (User user : directory.getUsers()) names.add(user.getDisplayName());
+        return names;
+    }
+
+    @Test
+    public void keepsFirebaseOrderAndNotifiesSingleRows() {
+        ContactDirectory directory = new ContactDirectory("me");
+        List<String> events = record(directory);
+        directory.upsert(user("c", "Carla"));
+        directory.upsert(user("a", "Ana"));
+        directory.upsert(user("b", "Beto"));
+        // Sin nombre va primero, como en orderByChild
+        directory.upsert(user("x", null));
+        directory.upsert(user("me", "Yo"));
+        assertEquals(Arrays.asList(null, "Ana", "Beto", "Carla"), names(directory));
+        assertEquals(Arrays.asList("+0", "+0", "+1", "+0"), events);
+        assertEquals(2, directory.indexOf("b"));
+        assertEquals(-1, directory.indexOf("me"));
+    }
+
+    @Test
+    public void unchangedProfileNotifiesNothing() {
+        ContactDirectory directory = new ContactDirectory("me");
+        directory.upsert(user("a", "Ana"));
+        List<String> events = record(directory);
+        assertFalse(directory.upsert(user("a", "Ana")));
+        assertTrue(events.isEmpty());
+        User changed = new User("a", "nueva@example.com", "Ana", "");
+        assertTrue(directory.upsert(changed));
+        assertEquals(Collections.singletonList("~0"), events);
+    }
+
+    @Test
+    public void renameMovesTheRow() {
+        ContactDirectory directory = new ContactDirectory("me");
+        directory.upsert(user("a", "Ana"));
+        directory.upsert(user("b", "Beto"));
+        directory.upsert(user("c", "Carla"));
+        List<String> events = record(directory);
+        directory.upsert(user("a", "Zoe"));
+        assertEquals(Arrays.asList("Beto", "Carla", "Zoe"), names(directory));
+        assertEquals(Arrays.asList("0>2", "~2"), events);
+        assertEquals(2, directory.indexOf("a"));
+        directory.remove("b");
+        assertEquals(Arrays.asList("0>2", "~2", "-0"), events);
+    }
+
+    @Test
+    public void pageDropsContactsDeletedWhileAway() {
+        ContactDirectory directory = new ContactDirectory("me");
+        // Copia local: Beto se borró en el servidor desde entonces
+        directory.resetTo(Arrays.asList(user("a", "Ana"), user("b", "Beto"), user("c", "Carla"), user("z", "Zoe")));
+        List<String> events = record(directory);
+        User through = user("c", "Carla");
+        directory.applyPage(null, through, Arrays.asList(user("a", "Ana"), user("c", "Carla")));
+        // Zoe queda fuera del tramo de la página: sigue hasta que llegue la suya
+        assertEquals(Arrays.asList("Ana", "Carla", "Zoe"), names(directory));
+        assertEquals(Collections.singletonList("-1"), events);
+
+        directory.applyPage(through, null, Collections.singletonList(user("d", "Dani")));
+        assertEquals(Arrays.asList("Ana", "Carla", "Dani"), names(directory));
+    }
+
+    @Test
+    public void ties_areBrokenByUid() {
+        ContactDirectory directory = new ContactDirectory("me");
+        directory.upsert(user("b", "Ana"));
+        directory.upsert(user("a", "Ana"));
+        assertEquals("a", directory.get(0).getUid());
+        assertEquals(1, directory.indexOf("b"));
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.voidchat.contacts;
+
+import com.example.voidchat.model.User;
+import com.example.voidchat.search.Words;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ContactSearchIndexTest {
+
+    private static final String[] FIRST = {"José", "María", "Ana", "Ángel", "Lucía", "Iñaki", "Sofía", "Martín",
+            "Mariana", "Ramón", "Begoña", "Óscar", "Anaís", "Jesús", "Raúl"};
+    private static final String[] LAST = {"Hernández", "Núñez", "García", "Martínez", "Peña", "López", "Ibáñez",
+            "Muñoz", "Fernández", "Sánchez", "Álvarez", "Castaño"};
+
+    private static User user(String uid, String name, String email) {
+        return new User(uid, email, name, "");
+    }
+
+    private static List<String> uids(List<User> users) {
+        List<String> uids = new ArrayList<>();
+        for (User user : users) uids.add(user.getUid());
+        return uids;
+    }
+
+    @Test
+    public void ignoresCaseAndAccents() {
+        ContactSearchIndex index = new ContactSearchIndex();
+        index.add(user("1", "José Núñez", "jose@example.com"));
+        index.add(user("2", "Begoña Peña", "bego@example.com"));
+        assertEquals(List.of("1"), uids(index.search("JOSE", 10)));
+        assertEquals(List.of("1"), uids(index.search("nunez", 10)));
+        assertEquals(List.of("1"), uids(index.search("NÚÑ", 10)));
+        assertEquals(List.of("2"), uids(index.search("pena", 10)));
+        assertEquals(List.of("2"), uids(index.search("Begoña", 10)));
+        assertTrue(index.search("  ¿? ", 10).isEmpty());
+    }
+
+    @Test
+    public void ranksFirstNameThenOtherWordsThenEmailThenSubstring() {
+        ContactSearchIndex index = new ContactSearchIndex();
+        index.add(user("substring", "Rosa Mariana", "rosa@example.com"));
+        index.add(user("email", "Pedro Soto", "mar.soto@example.com"));
+        index.add(user("other", "Luis Martínez", "luis@example.com"));
+        index.add(user("first-b", "Mario Ruiz", "mruiz@example.com"));
+        index.add(user("first-a", "María López", "mlopez@example.com"));
+        // "mar" en medio de palabra: sólo por trigramas
+        index.add(user("inner", "Omar Díaz", "odiaz@example.com"));
+        List<String> found = uids(index.search("mar", 10));
+        assertEquals(List.of("first-a", "first-b", "substring", "other", "email", "inner"), found);
+    }
+
+    @Test
+    public void everyWordMustMatch() {
+        ContactSearchIndex index = new ContactSearchIndex();
+        index.add(user("1", "Ana María Castaño", "ana@example.com"));
+        index.add(user("2", "Ana López", "alopez@example.com"));
+        index.add(user("3", "Mariana Ruiz", "mruiz@example.com"));
+        // Mariana entra en el último grupo: "ana" en medio de palabra y "ma" al principio de una
+        assertEquals(List.of("1", "3"), uids(index.search("ana ma", 10)));
+        assertEquals(List.of("1"), uids(index.search("cast ana", 10)));
+        assertEquals(List.of("3", "1"), uids(index.search("mari", 10)));
+    }
+
+    @Test
+    public void findsTextInsideWordsAndEmailDomains() {
+        ContactSearchIndex index = new ContactSearchIndex();
+        index.add(user("1", "Raúl Hernández", "raul@uchile.cl"));
+        index.add(user("2", "Sofía Fernández", "sofia@gmail.com"));
+        assertEquals(List.of("1", "2"), uids(index.search("nandez", 10)));
+        assertEquals(List.of("1"), uids(index.search("uchile", 10)));
+        // Dos letras en medio de palabra no bastan: sólo prefijos
+        assertTrue(index.search("nd", 10).isEmpty());
+    }
+
+    @Test
+    public void updatesAndRemovalsAreIncremental() {
+        ContactSearchIndex index = new ContactSearchIndex();
+        index.add(user("1", "Ana López", "ana@example.com"));
+        index.add(user("2", "Óscar Peña", "oscar@example.com"));
+        assertEquals(List.of("1"), uids(index.search("lopez", 10)));
+
+        index.add(user("1", "Ana Ibáñez", "ana@example.com"));
+        assertTrue(index.search("lopez", 10).isEmpty());
+        assertEquals(List.of("1"), uids(index.search("ibanez", 10)));
+        assertEquals(2, index.size());
+
+        assertTrue(index.remove("2"));
+        assertFalse(index.remove("2"));
+        assertTrue(index.search("oscar", 10).isEmpty());
+        assertTrue(index.search("pena", 10).isEmpty());
+        // El identificador libre se reutiliza sin mezclar datos del anterior
+        index.add(user("3", "Raúl Muñoz", "raul@example.com"));
+        assertEquals(List.of("3"), uids(index.search("munoz", 10)));
+        assertTrue(index.search("pena", 10).isEmpty());
+    }
+
+    @Test
+    public void limitCutsTheWalk() {
+        ContactSearchIndex index = new ContactSearchIndex();
+        for (int i = 0; i < 500; i++) {
+            index.add(user("u" + i, "Ana " + LAST[i % LAST.length], "ana" + i + "@example.com"));
+        }
+        assertEquals(20, index.search("a", 20).size());
+        assertEquals(500, index.search("ana", 1000).size());
+    }
+
+    @Test
+    public void matchesAReferenceScan() {
+        Random random = new Random(42);
+        ContactSearchIndex index = new ContactSearchIndex();
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 3_000; i++) {
+            String name = FIRST[random.nextInt(FIRST.length)] + " " + LAST[random.nextInt(LAST.length)];
+            User user = user("u" + i, name, "user" + i + "@example.com");
+            users.add(user);
+            index.add(user);
+        }
+        // Algunas bajas y cambios para ejercitar la reutilización de identificadores
+        for (int i = 0; i < 300; i++) {
+            int victim = random.nextInt(users.size());
+            index.remove(users.get(victim).getUid());
+            User replacement = user(users.get(victim).getUid(), FIRST[random.nextInt(FIRST.length)], "x" + i + "@example.com");
+            users.set(victim, replacement);
+            index.add(replacement);
+        }
+        String[] queries = {"a", "mar", "ANA", "nez", "martin", "ángel hern", "pena", "ia", "user12", "zzz", "s g"};
+        for (String query : queries) {
+            Set<String> expected = reference(users, query);
+            List<User> found = index.search(query, Integer.MAX_VALUE);
+            Set<String> foundUids = new HashSet<>(uids(found));
+            assertEquals("Duplicates for " + query, found.size(), foundUids.size());
+            assertTrue("Unexpected match for " + query, expected.containsAll(foundUids));
+            // Sin límite, el índice encuentra exactamente lo mismo que el recorrido lineal
+            assertEquals("Missing matches for " + query, expected.size(), foundUids.size());
+        }
+    }
+
+    /**
+     * Recorrido lineal con las mismas reglas: cada palabra buscada empieza una palabra del contacto (nombre o
+     * parte local del email) o, si mide tres o más, aparece en el nombre o el email.
+     */
+    private static Set<String> reference(List<User> users, String query) {
+        String[] terms = Words.tokenize(Words.normalize(query));
+        Set<String> matches = new HashSet<>();
+        for (User user : users) {
+            String name = Words.normalize(user.getDisplayName());
+            String email = Words.normalize(user.getEmail());
+            String text = name + "\n" + email;
+            String[] words = Words.tokenize(name + " " + email.substring(0, email.indexOf('@')));
+            boolean all = true;
+            for (String term : terms) {
+                boolean prefix = false;
+                for (String word : words) prefix |= word.startsWith(term);
+                if (!prefix && (term.length() < 3 || !text.contains(term))) all = false;
+            }
+            if (all) matches.add(user.getUid());
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.voidchat.contacts;
+
+import com.example.voidchat.model.User;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class ContactSearchTest {
+
+    /**
+     * Ejecutor manual: las tareas esperan hasta que la prueba las ejecuta.
+     */
+    private static final class ManualExecutor implements Executor {
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) task.run();
+        }
+    }
+
+    @Test
+    public void onlyTheLatestQueryIsDelivered() {
+        ManualExecutor worker = new ManualExecutor();
+        ManualExecutor main = new ManualExecutor();
+        ContactSearch search = new ContactSearch(worker, main);
+        search.upsert(new User("1", "ana@example.com", "Ana", ""));
+        search.upsert(new User("2", "anibal@example.com", "Aníbal", ""));
+        List<String> delivered = new ArrayList<>();
+        search.search("a", 10, (query, results) -> delivered.add(query + "=" + results.size()));
+        search.search("an", 10, (query, results) -> delivered.add(query + "=" + results.size()));
+        search.search("ani", 10, (query, results) -> delivered.add(query + "=" + results.size()));
+        worker.runAll();
+        main.runAll();
+        assertEquals(List.of("ani=1"), delivered);
+    }
+
+    @Test
+    public void searchSeesEarlierChangesAndCancelDropsResults() {
+        ManualExecutor worker = new ManualExecutor();
+        ManualExecutor main = new ManualExecutor();
+        ContactSearch search = new ContactSearch(worker, main);
+        List<User> users = new ArrayList<>();
+        users.add(new User("1", "ana@example.com", "Ana", ""));
+        search.rebuild(users);
+        search.remove("1");
+        List<Integer> sizes = new ArrayList<>();
+        search.search("ana", 10, (query, results) -> sizes.add(results.size()));
+        worker.runAll();
+        main.runAll();
+        assertEquals(List.of(0), sizes);
+
+        search.upsert(new User("2", "ana@example.com", "Ana", ""));
+        search.search("ana", 10, (query, results) -> sizes.add(results.size()));
+        worker.runAll();
+        search.cancel();
+        main.runAll();
+        assertEquals(List.of(0), sizes);
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.voidchat.data;
+
+import com.example.voidchat.model.User;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ContactCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTripKeepsNullFields() throws Exception {
+        ContactCache cache = new ContactCache(new File(folder.getRoot(), "contacts/cache.bin"));
+        assertTrue(cache.load().isEmpty());
+        cache.save(Arrays.asList(new User("a", "ana@example.com", "Ana", ""), new User("b", null, null, null)));
+
+        List<User> loaded = new ContactCache(new File(folder.getRoot(), "contacts/cache.bin")).load();
+        assertEquals(2, loaded.size());
+        assertEquals("Ana", loaded.get(0).getDisplayName());
+        assertEquals("ana@example.com", loaded.get(0).getEmail());
+        assertNull(loaded.get(1).getDisplayName());
+        assertNull(loaded.get(1).getProfileImageUrl());
+    }
+
+    @Test
+    public void corruptCopyLoadsAsEmpty() throws Exception {
+        File file = folder.newFile("cache.bin");
+        ContactCache cache = new ContactCache(file);
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            users.add(new User("u" + i, "u" + i + "@example.com", "Usuario " + i, ""));
+        }
+        cache.save(users);
+        assertEquals(100, cache.load().size());
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long middle = raf.length() / 2;
+            raf.seek(middle);
+            int original = raf.read();
+            raf.seek(middle);
+            raf.write(~original);
+        }
+        assertTrue(cache.load().isEmpty());
+
+        // Truncado a mitad de escritura
+        cache.save(users);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+        assertTrue(cache.load().isEmpty());
+    }
+}
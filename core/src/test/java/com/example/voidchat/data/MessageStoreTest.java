@@ -0,0 +1,192 @@
+package com.example.voidchat.data;
+
+import com.example.voidchat.model.Message;
+import com.example.voidchat.timeline.MessageTimeline;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas locales del log de mensajes: lectura de la cola, borrados y recuperación tras un corte.
+ */
+public class MessageStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static Message message(int index) {
+        Message message = new Message("u" + (index % 2), "User", "mensaje número " + index, 1_700_000_000_000L + index);
+        message.setId(String.format("-N%08d", index));
+        return message;
+    }
+
+    @Test
+    public void readLast_returnsNewestMessagesInKeyOrder() throws Exception {
+        File dir = folder.newFolder("room");
+        try (MessageStore store = MessageStore.open(dir)) {
+            for (int i = 0; i < 10; i++) {
+                store.append(message(i));
+            }
+        }
+        try (MessageStore store = MessageStore.open(dir)) {
+            List<Message> last = store.readLast(3);
+            assertEquals(3, last.size());
+            assertEquals(message(7).getId(), last.get(0).getId());
+            assertEquals("mensaje número 9", last.get(2).getText());
+            assertEquals(message(9).getId(), store.getLastId());
+        }
+    }
+
+    @Test
+    public void laterRecordsWinOverEarlierOnes() throws Exception {
+        try (MessageStore store = MessageStore.open(folder.newFolder("room"))) {
+            store.appendAll(Arrays.asList(message(0), message(1), message(2)));
+            store.delete(message(1).getId());
+            Message edited = new Message("u0", "User", "editado", message(0).getTime());
+            edited.setId(message(0).getId());
+            store.append(edited);
+
+            List<Message> last = store.readLast(10);
+            assertEquals(2, last.size());
+            assertEquals("editado", last.get(0).getText());
+            assertEquals(message(2).getId(), last.get(1).getId());
+        }
+    }
+
+    @Test
+    public void attachmentFieldsSurviveReopeningNextToOlderRecords() throws Exception {
+        File dir = folder.newFolder("room");
+        Message photo = message(1);
+        photo.setAttachment("foto.jpg", "image/jpeg", 123_456L);
+        try (MessageStore store = MessageStore.open(dir)) {
+            store.append(message(0));
+            store.append(photo);
+        }
+        try (MessageStore store = MessageStore.open(dir)) {
+            List<Message> last = store.readLast(2);
+            assertFalse(last.get(0).hasAttachment());
+            assertEquals("foto.jpg", last.get(1).getAttachmentName());
+            assertEquals("image/jpeg", last.get(1).getAttachmentType());
+            assertEquals(123_456L, last.get(1).getAttachmentSize());
+        }
+    }
+
+    @Test
+    public void open_dropsTornRecordAtTheTail() throws Exception {
+        File dir = folder.newFolder("room");
+        try (MessageStore store = MessageStore.open(dir)) {
+            store.appendAll(Arrays.asList(message(0), message(1)));
+        }
+        File segment = dir.listFiles()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 5);
+        }
+        try (MessageStore store = MessageStore.open(dir)) {
+            assertEquals(message(0).getId(), store.getLastId());
+            store.append(message(2));
+            assertEquals(2, store.readLast(10).size());
+        }
+    }
+
+    @Test
+    public void readLast_spansSegments() throws Exception {
+        File dir = folder.newFolder("room");
+        int count = 0;
+        try (MessageStore store = MessageStore.open(dir)) {
+            List<Message> batch = new ArrayList<>();
+            while (dir.listFiles().length < 3) {
+                batch.clear();
+                for (int i = 0; i < 1000; i++) {
+                    batch.add(message(count++));
+                }
+                store.appendAll(batch);
+            }
+        }
+        try (MessageStore store = MessageStore.open(dir)) {
+            List<Message> all = store.readLast(count);
+            assertEquals(count, all.size());
+            assertEquals(message(0).getId(), all.get(0).getId());
+        }
+    }
+
+    @Test
+    public void reopenedRoomFillsTheFirstScreenInKeyOrder() throws Exception {
+        File dir = folder.newFolder("room");
+        int count = 5_000;
+        try (MessageStore store = MessageStore.open(dir)) {
+            List<Message> batch = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                batch.add(message(i));
+                if (batch.size() == 500) {
+                    store.appendAll(batch);
+                    batch.clear();
+                }
+            }
+        }
+
+        // Lo que ChatActivity lee del disco antes del primer frame
+        MessageTimeline timeline = new MessageTimeline();
+        try (MessageStore store = MessageStore.open(dir)) {
+            List<Message> firstScreen = store.readLast(50);
+            assertEquals(50, firstScreen.size());
+            for (int i = 0; i < firstScreen.size(); i++) {
+                assertEquals(message(count - 50 + i).getId(), firstScreen.get(i).getId());
+            }
+            timeline.appendAll(firstScreen);
+        }
+        assertEquals(50, timeline.getMessageCount());
+        assertEquals(message(count - 1).getId(), timeline.getLastId());
+    }
+
+    @Test
+    public void readBeforeAndAfter_pageAroundAKey() throws Exception {
+        try (MessageStore store = MessageStore.open(folder.newFolder("room"))) {
+            for (int i = 0; i < 100; i++) {
+                store.append(message(i));
+            }
+            store.delete(message(48).getId());
+
+            List<Message> older = store.readBefore(message(50).getId(), 5);
+            assertEquals(5, older.size());
+            assertEquals(message(44).getId(), older.get(0).getId());
+            assertEquals(message(49).getId(), older.get(4).getId());
+
+            // Lo escrito después de construir el índice también se pagina
+            store.append(message(100));
+            List<Message> newer = store.readAfter(message(97).getId(), 5);
+            assertEquals(3, newer.size());
+            assertEquals(message(100).getId(), newer.get(2).getId());
+        }
+    }
+
+    @Test
+    public void readAround_centersOnTheKeyAndStopsAtTheEdges() throws Exception {
+        try (MessageStore store = MessageStore.open(folder.newFolder("room"))) {
+            for (int i = 0; i < 100; i++) {
+                store.append(message(i));
+            }
+            List<Message> middle = store.readAround(message(50).getId(), 10);
+            assertEquals(10, middle.size());
+            assertEquals(message(45).getId(), middle.get(0).getId());
+
+            List<Message> start = store.readAround(message(2).getId(), 10);
+            assertEquals(message(0).getId(), start.get(0).getId());
+            List<Message> end = store.readAround(message(98).getId(), 10);
+            assertEquals(10, end.size());
+            assertEquals(message(99).getId(), end.get(9).getId());
+
+            // Un resultado de búsqueda ya borrado no tiene página a la que saltar
+            store.delete(message(50).getId());
+            assertTrue(store.readAround(message(50).getId(), 10).isEmpty());
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.example.voidchat.engine;
+
+import com.example.voidchat.mqtt.MessagePayload;
+import com.example.voidchat.mqtt.Outbox;
+import com.example.voidchat.testing.EmbeddedBroker;
+import com.example.voidchat.trace.Tracer;
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * El motor de la app fuera de Android: dos clientes en la misma sala de un broker embebido.
+ */
+public class ChatEngineTest {
+
+    private static final String ROOM = "chat/alice_bob";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private EmbeddedBroker broker;
+    private TestEngine alice;
+    private TestEngine bob;
+
+    @Before
+    public void setUp() throws IOException {
+        broker = EmbeddedBroker.start(folder.newFolder("broker"));
+        alice = new TestEngine(broker.getUri(), "alice", folder.newFolder("alice"));
+        bob = new TestEngine(broker.getUri(), "bob", folder.newFolder("bob"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        alice.shutdown();
+        bob.shutdown();
+        assertTrue(alice.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(bob.awaitTermination(5, TimeUnit.SECONDS));
+        broker.close();
+    }
+
+    @Test
+    public void messagesReachTheOtherClientWithTheirId() throws Exception {
+        Room aliceRoom = alice.join(ROOM);
+        Room bobRoom = bob.join(ROOM);
+
+        alice.sendMessage(ROOM, new MessagePayload("m-1", "hola bob", "alice", null,
+                System.currentTimeMillis(), 0));
+        MessagePayload received = bobRoom.payloads.poll(10, TimeUnit.SECONDS);
+        assertNotNull(received);
+        assertEquals("m-1", received.id);
+        assertEquals("hola bob", received.text);
+        assertEquals("alice", received.userId);
+        assertTrue(received.time > 0);
+        // La suscripción también devuelve el propio
+        assertEquals("m-1", aliceRoom.payloads.poll(10, TimeUnit.SECONDS).id);
+        assertTrue(aliceRoom.delivered.await(10, TimeUnit.SECONDS));
+        assertEquals("m-1", aliceRoom.deliveredIds.poll(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void theLastListenerToLeaveUnsubscribes() throws Exception {
+        Room first = bob.join(ROOM);
+        Room second = bob.join(ROOM);
+        alice.join(ROOM);
+
+        bob.unsubscribe(ROOM, first);
+        alice.sendMessage(ROOM, new MessagePayload("m-1", "sigues ahí?", "alice", null,
+                System.currentTimeMillis(), 0));
+        assertEquals("m-1", second.payloads.poll(10, TimeUnit.SECONDS).id);
+        assertNull(first.payloads.poll(200, TimeUnit.MILLISECONDS));
+
+        bob.unsubscribe(ROOM, second);
+        // El UNSUBSCRIBE sale en el hilo de red; un mensaje del propio bob detrás sirve de barrera
+        Room other = bob.join("chat/other");
+        bob.sendMessage("chat/other", new MessagePayload("m-2", "barrera", "bob", null,
+                System.currentTimeMillis(), 0));
+        assertEquals("m-2", other.payloads.poll(10, TimeUnit.SECONDS).id);
+        alice.sendMessage(ROOM, new MessagePayload("m-3", "adiós", "alice", null,
+                System.currentTimeMillis(), 0));
+        assertNull(second.payloads.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void signalsArriveUntouched() throws Exception {
+        BlockingQueue<byte[]> signals = new LinkedBlockingQueue<>();
+        Room room = bob.join(ROOM);
+        bob.subscribeSignals("typing/+", (topic, payload) -> signals.add(payload));
+        // El SUBSCRIBE de los avisos sale antes que este mensaje, en el mismo hilo de red
+        bob.sendMessage(ROOM, new MessagePayload("m-1", "barrera", "bob", null,
+                System.currentTimeMillis(), 0));
+        assertEquals("m-1", room.payloads.poll(10, TimeUnit.SECONDS).id);
+
+        // Sin sesión los avisos se descartan: alice conecta al entrar en la sala
+        alice.join(ROOM);
+        alice.publishSignal("typing/alice", new byte[] {1, 2, 3});
+        assertArrayEquals(new byte[] {1, 2, 3}, signals.poll(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void everyPayloadFormatIsReadByEveryClient() throws Exception {
+        // Lo bastante largo para que la versión comprimida salga comprimida
+        String text = "nos vemos mañana a las ocho en la puerta del cine, no llegues tarde que empieza puntual";
+        Room bobRoom = bob.join(ROOM);
+        for (ChatEngine.PayloadFormat format : ChatEngine.PayloadFormat.values()) {
+            TestEngine sender = new TestEngine(broker.getUri(), "carol-" + format, folder.newFolder("carol-" + format),
+                    format);
+            try {
+                Room senderRoom = sender.join(ROOM);
+                sender.sendMessage(ROOM, new MessagePayload("m-" + format, text, "carol", "Carol",
+                        System.currentTimeMillis(), 0));
+                MessagePayload received = bobRoom.payloads.poll(10, TimeUnit.SECONDS);
+                assertNotNull(format.name(), received);
+                assertEquals(text, received.text);
+                assertEquals("carol", received.userId);
+                assertEquals("m-" + format, received.id);
+                assertEquals("Carol", received.username);
+
+                // Y en sentido contrario, desde el formato por defecto
+                bob.sendMessage(ROOM, new MessagePayload("r-" + format, text, "bob", null,
+                        System.currentTimeMillis(), 0));
+                MessagePayload reply;
+                do {
+                    reply = senderRoom.payloads.poll(10, TimeUnit.SECONDS);
+                    assertNotNull(format.name(), reply);
+                } while (!("r-" + format).equals(reply.id));
+                assertEquals(text, reply.text);
+                assertEquals("r-" + format, bobRoom.payloads.poll(10, TimeUnit.SECONDS).id);
+            } finally {
+                sender.shutdown();
+                assertTrue(sender.awaitTermination(5, TimeUnit.SECONDS));
+            }
+        }
+    }
+
+    @Test
+    public void messagesLeftInTheOutboxAreReportedDeliveredAfterARestart() throws Exception {
+        // Lo que dejó la ejecución anterior sin PUBACK: el proceso murió con el mensaje en el outbox
+        File outboxDir = folder.newFolder("carol");
+        try (Outbox outbox = Outbox.open(outboxDir)) {
+            outbox.add(ROOM, new MessagePayload("m-1", "¿llegó?", "carol", null, System.currentTimeMillis(), 0)
+                    .encodeJson(), 1, "m-1");
+        }
+
+        TestEngine carol = new TestEngine(broker.getUri(), "carol", outboxDir);
+        try {
+            Room room = carol.join(ROOM);
+            assertEquals("m-1", room.deliveredIds.poll(10, TimeUnit.SECONDS));
+        } finally {
+            carol.shutdown();
+            assertTrue(carol.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void theDefaultFormatIsReadByClientsThatOnlyKnowJson() throws Exception {
+        // Un cliente instalado antes del formato binario: Paho a secas y el análisis JSON que hacía MQTTManager
+        BlockingQueue<String> parsed = new LinkedBlockingQueue<>();
+        MqttAsyncClient legacy = new MqttAsyncClient(broker.getUri(), "legacy-" + System.nanoTime(), null);
+        legacy.setCallback(new MqttCallback() {
+            @Override public void connectionLost(Throwable cause) { }
+            @Override public void messageArrived(String topic, MqttMessage message) {
+                try {
+                    JSONObject obj = new JSONObject(new String(message.getPayload()));
+                    parsed.add(obj.getString("userId") + ": " + obj.getString("text"));
+                } catch (JSONException e) {
+                    parsed.add("Error parsing message: " + e.getMessage());
+                }
+            }
+            @Override public void deliveryComplete(IMqttDeliveryToken token) { }
+        });
+        legacy.connect().waitForCompletion(10_000);
+        legacy.subscribe(ROOM, 1).waitForCompletion(10_000);
+        try {
+            Room aliceRoom = alice.join(ROOM);
+            alice.sendMessage(ROOM, new MessagePayload("m-1", "hola a los que no se han actualizado", "alice",
+                    "Alice", System.currentTimeMillis(), 0));
+            assertEquals("alice: hola a los que no se han actualizado", parsed.poll(10, TimeUnit.SECONDS));
+            // Los clientes nuevos siguen teniendo el id para reconocer la copia de Firebase
+            assertEquals("m-1", aliceRoom.payloads.poll(10, TimeUnit.SECONDS).id);
+        } finally {
+            legacy.disconnect().waitForCompletion(10_000);
+            legacy.close();
+        }
+    }
+
+    // --- Clases de Apoyo ---
+
+    private static final class TestEngine extends ChatEngine {
+        private final String name;
+        private final File outbox;
+
+        TestEngine(String serverUri, String name, File outbox) {
+            this(serverUri, name, outbox, DEFAULT_PAYLOAD_FORMAT);
+        }
+
+        TestEngine(String serverUri, String name, File outbox, PayloadFormat format) {
+            super(serverUri, DEFAULT_MAX_IN_FLIGHT, format, new Tracer(name, 1), Executors.defaultThreadFactory());
+            this.name = name;
+            this.outbox = outbox;
+        }
+
+        /** Se registra y espera a que la suscripción esté activa. */
+        Room join(String topic) throws InterruptedException {
+            Room room = new Room();
+            subscribe(topic, room);
+            assertTrue(room.connected.await(10, TimeUnit.SECONDS));
+            return room;
+        }
+
+        @Override protected String getClientId() { return name; }
+        @Override protected File getOutboxDirectory() { return outbox; }
+        @Override protected String getSignedInUserId() { return name; }
+
+        @Override
+        protected MqttConnectOptions createConnectOptions() {
+            MqttConnectOptions options = new MqttConnectOptions();
+            options.setConnectionTimeout(5);
+            return options;
+        }
+    }
+
+    private static final class Room implements ChatEngine.MQTTListener {
+        final BlockingQueue<MessagePayload> payloads = new LinkedBlockingQueue<>();
+        final CountDownLatch connected = new CountDownLatch(1);
+        final CountDownLatch delivered = new CountDownLatch(1);
+        final BlockingQueue<String> deliveredIds = new LinkedBlockingQueue<>();
+
+        @Override public void onConnected() { connected.countDown(); }
+        @Override public void onDisconnected() { }
+        @Override public void onMessage(String topic, String msg, String senderUid) { }
+        @Override public void onPayload(String topic, MessagePayload payload) { payloads.add(payload); }
+        @Override public void onDelivered(long publishId) { delivered.countDown(); }
+        @Override public void onMessageDelivered(String messageId) { deliveredIds.add(messageId); }
+        @Override public void onPublishFailed(long publishId, String error) { }
+        @Override public void onError(String error) { }
+    }
+}
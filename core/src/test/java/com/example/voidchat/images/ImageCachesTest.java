@@ -0,0 +1,59 @@
+package com.example.voidchat.images;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class ImageCachesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void memoryCache_boundsBytesAndEvictsLeastRecentlyUsed() {
+        MemoryCache<String, byte[]> cache = new MemoryCache<>(100, value -> value.length);
+        cache.put("a", new byte[40]);
+        cache.put("b", new byte[40]);
+        assertNotNull(cache.get("a"));
+        cache.put("c", new byte[40]);
+        // "b" era la menos usada: "a" se leyó después
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertEquals(80, cache.getBytes());
+        assertEquals(1, cache.getEvictions());
+
+        // Sustituir una entrada descuenta su tamaño anterior
+        cache.put("a", new byte[10]);
+        assertEquals(50, cache.getBytes());
+        // Lo que no cabe entero no vacía la caché
+        cache.put("huge", new byte[101]);
+        assertNull(cache.get("huge"));
+        assertEquals(50, cache.getBytes());
+    }
+
+    @Test
+    public void diskCache_trimsOldestAndSurvivesReopening() throws Exception {
+        File dir = folder.newFolder("avatars");
+        DiskCache cache = DiskCache.open(dir, 250);
+        cache.put("http://x/a", new byte[100]);
+        cache.put("http://x/b", new byte[100]);
+        assertNotNull(cache.get("http://x/a"));
+        cache.put("http://x/c", new byte[100]);
+        assertNull(cache.get("http://x/b"));
+        assertEquals(200, cache.getBytes());
+        assertEquals(2, dir.listFiles().length);
+
+        // Un temporal de una escritura interrumpida se descarta al abrir
+        assertTrue(new File(dir, "partial.tmp").createNewFile());
+        DiskCache reopened = DiskCache.open(dir, 250);
+        assertEquals(200, reopened.getBytes());
+        assertEquals(100, reopened.get("http://x/c").length);
+        assertFalse(new File(dir, "partial.tmp").exists());
+        // Con menos espacio se borra lo usado hace más tiempo
+        assertEquals(100, DiskCache.open(dir, 150).getBytes());
+    }
+}
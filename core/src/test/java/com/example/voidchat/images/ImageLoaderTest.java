@@ -0,0 +1,223 @@
+package com.example.voidchat.images;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * ImageLoader contra un servidor HTTP local que cuenta las peticiones. El hilo de la prueba hace de hilo
+ * principal: las entregas esperan en una cola hasta que la prueba las ejecuta.
+ */
+public class ImageLoaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+    // Las rutas que empiezan por /slow esperan a que la prueba abra la puerta
+    private final CountDownLatch gate = new CountDownLatch(1);
+    private final CountDownLatch slowStarted = new CountDownLatch(1);
+    private final BlockingQueue<Runnable> mainQueue = new LinkedBlockingQueue<>();
+    private final AtomicInteger decodes = new AtomicInteger();
+    private ExecutorService worker;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            requests.computeIfAbsent(path, key -> new AtomicInteger()).incrementAndGet();
+            if (path.startsWith("/slow")) {
+                slowStarted.countDown();
+                try {
+                    gate.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            byte[] body = ("image" + path).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(path.startsWith("/missing") ? 404 : 200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        worker = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        gate.countDown();
+        worker.shutdownNow();
+        server.stop(0);
+    }
+
+    @Test
+    public void repeatedLoadsHitMemoryAndColdStartsHitDisk() throws Exception {
+        DiskCache disk = DiskCache.open(folder.newFolder("avatars"), 1024 * 1024);
+        ImageLoader<String> loader = loader(1024 * 1024, disk);
+        List<String> loaded = new ArrayList<>();
+        // Veinte contactos, recorridos cinco veces como al desplazar la lista arriba y abajo
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 20; i++) {
+                loader.load(url("/u" + i), 48, 48, target(loaded));
+            }
+            runMainUntil(() -> loaded.size() == 20);
+            loaded.clear();
+        }
+        assertEquals(20, loader.getDownloads());
+        assertEquals(80, loader.getMemoryCache().getHits());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(1, requests.get("/u" + i).get());
+        }
+
+        // Otro proceso: memoria vacía, disco lleno
+        ImageLoader<String> restarted = loader(1024 * 1024, disk);
+        for (int i = 0; i < 20; i++) {
+            restarted.load(url("/u" + i), 48, 48, target(loaded));
+        }
+        runMainUntil(() -> loaded.size() == 20);
+        assertEquals(20, restarted.getDiskHits());
+        assertEquals(0, restarted.getDownloads());
+        assertEquals("image/u3@48", loaded.get(3));
+    }
+
+    @Test
+    public void duplicateRequestsShareOneDownload() throws Exception {
+        ImageLoader<String> loader = loader(1024 * 1024, null);
+        List<String> loaded = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            loader.load(url("/slow-a"), 48, 48, target(loaded));
+        }
+        assertTrue(slowStarted.await(10, TimeUnit.SECONDS));
+        gate.countDown();
+        runMainUntil(() -> loaded.size() == 3);
+        assertEquals(2, loader.getCoalesced());
+        assertEquals(1, requests.get("/slow-a").get());
+        assertEquals(1, decodes.get());
+    }
+
+    @Test
+    public void recyclingCancelsQueuedAndRunningWork() throws Exception {
+        ImageLoader<String> loader = loader(1024 * 1024, null);
+        List<String> loaded = new ArrayList<>();
+        // Un único hilo: la lenta ocupa el hilo y las otras esperan en cola
+        ImageLoader<String>.Request slow = loader.load(url("/slow-b"), 48, 48, target(loaded));
+        assertTrue(slowStarted.await(10, TimeUnit.SECONDS));
+        List<ImageLoader<String>.Request> queued = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            queued.add(loader.load(url("/q" + i), 48, 48, target(loaded)));
+        }
+        // Las filas se reciclan antes de que lleguen sus imágenes
+        slow.cancel();
+        for (ImageLoader<String>.Request request : queued) {
+            request.cancel();
+        }
+        gate.countDown();
+
+        // Una carga posterior pasa por el mismo hilo: cuando llega, las canceladas ya no van a ejecutarse
+        loader.load(url("/after"), 48, 48, target(loaded));
+        runMainUntil(() -> loaded.size() == 1);
+        assertEquals("image/after@48", loaded.get(0));
+        assertEquals(6, loader.getAbandoned());
+        for (int i = 0; i < 5; i++) {
+            assertNull(requests.get("/q" + i));
+        }
+        // La descarga lenta ya había empezado, pero no se decodifica
+        assertEquals(1, decodes.get());
+    }
+
+    @Test
+    public void cancellingOneOfTwoWaitersKeepsTheWorkForTheOther() throws Exception {
+        ImageLoader<String> loader = loader(1024 * 1024, null);
+        List<String> first = new ArrayList<>();
+        List<String> second = new ArrayList<>();
+        ImageLoader<String>.Request request = loader.load(url("/slow-c"), 48, 48, target(first));
+        loader.load(url("/slow-c"), 48, 48, target(second));
+        request.cancel();
+        gate.countDown();
+        runMainUntil(() -> second.size() == 1);
+        assertTrue(first.isEmpty());
+        assertEquals(0, loader.getAbandoned());
+    }
+
+    @Test
+    public void failuresAreReportedAndNotCached() throws Exception {
+        ImageLoader<String> loader = loader(1024 * 1024, DiskCache.open(folder.newFolder("avatars"), 1024));
+        List<String> loaded = new ArrayList<>();
+        loader.load(url("/missing"), 48, 48, target(loaded));
+        runMainUntil(() -> loaded.size() == 1);
+        assertEquals("failed", loaded.get(0));
+        loader.load(url("/missing"), 48, 48, target(loaded));
+        runMainUntil(() -> loaded.size() == 2);
+        assertEquals(2, requests.get("/missing").get());
+    }
+
+    @Test
+    public void sampleSize_isTheLargestPowerOfTwoThatStaysAboveTheTarget() {
+        assertEquals(1, ImageLoader.sampleSize(96, 96, 96, 96));
+        assertEquals(2, ImageLoader.sampleSize(200, 200, 96, 96));
+        assertEquals(8, ImageLoader.sampleSize(1024, 768, 96, 96));
+        // Manda el lado que antes se quedaría corto
+        assertEquals(4, ImageLoader.sampleSize(4000, 400, 96, 96));
+        assertEquals(1, ImageLoader.sampleSize(50, 50, 96, 96));
+        assertEquals(1, ImageLoader.sampleSize(1024, 1024, 0, 0));
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    private ImageLoader<String> loader(long memoryBytes, DiskCache disk) {
+        MemoryCache<String, String> memory = new MemoryCache<>(memoryBytes, String::length);
+        ImageLoader.Decoder<String> decoder = (data, width, height) -> {
+            decodes.incrementAndGet();
+            return new String(data, StandardCharsets.UTF_8) + "@" + width;
+        };
+        return new ImageLoader<>(memory, disk, new HttpFetcher(1024 * 1024), decoder, worker, mainQueue::add);
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    private static ImageLoader.Target<String> target(List<String> loaded) {
+        return new ImageLoader.Target<String>() {
+            @Override public void onLoaded(String image) { loaded.add(image); }
+            @Override public void onFailed() { loaded.add("failed"); }
+        };
+    }
+
+    private void runMainUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            Runnable task = mainQueue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            assertNotNull("Timed out", task);
+            task.run();
+        }
+    }
+}
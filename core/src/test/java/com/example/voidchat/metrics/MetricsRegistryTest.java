@@ -0,0 +1,142 @@
+package com.example.voidchat.metrics;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class MetricsRegistryTest {
+
+    @Test
+    public void histogramPercentilesStayWithinTheBucketError() {
+        Histogram histogram = new Histogram();
+        long[] values = new long[100_000];
+        Random random = new Random(3);
+        for (int i = 0; i < values.length; i++) {
+            // Latencias con cola larga, de microsegundos a segundos
+            values[i] = (long) Math.exp(random.nextDouble() * 14);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(values.length, snapshot.count);
+        assertEquals(values[values.length - 1], snapshot.max);
+        for (double quantile : new double[] {0.5, 0.9, 0.99, 0.999}) {
+            long exact = values[(int) Math.ceil(quantile * values.length) - 1];
+            long estimate = snapshot.percentile(quantile);
+            assertTrue(quantile + ": " + estimate + " vs " + exact, estimate >= exact);
+            assertTrue(quantile + ": " + estimate + " vs " + exact, estimate <= exact + exact / 16 + 1);
+        }
+        assertEquals(0, new Histogram().snapshot().percentile(0.99));
+    }
+
+    @Test
+    public void everyValueFallsInABucketThatContainsIt() {
+        for (long value : new long[] {0, 1, 31, 32, 33, 63, 64, 1_000, 999_999, Long.MAX_VALUE}) {
+            int index = Histogram.index(value);
+            assertTrue(index < Histogram.BUCKETS);
+            assertTrue(value + " above its bucket", value <= Histogram.highestIn(index));
+            assertTrue(value + " below its bucket", index == 0 || value > Histogram.highestIn(index - 1));
+        }
+    }
+
+    @Test
+    public void recordingDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Histogram histogram = new Histogram();
+        Counter counter = new Counter();
+        long thread = Thread.currentThread().getId();
+        // Primero en caliente, para que el JIT no cuente
+        for (int i = 0; i < 200_000; i++) {
+            histogram.record(i);
+            counter.increment();
+        }
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 1_000_000; i++) {
+            histogram.record(i * 37L);
+            counter.increment();
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        assertTrue("Allocated " + allocated + " bytes", allocated < 1_024);
+    }
+
+    @Test
+    public void concurrentRecordingLosesNothing() throws Exception {
+        Histogram histogram = new Histogram();
+        Counter counter = new Counter();
+        int threads = 8;
+        int each = 50_000;
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            new Thread(() -> {
+                for (int i = 0; i < each; i++) {
+                    histogram.record(offset * each + i);
+                    counter.increment();
+                }
+                done.countDown();
+            }).start();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(threads * each, histogram.snapshot().count);
+        assertEquals(threads * each - 1, histogram.snapshot().max);
+        assertEquals(threads * each, counter.get());
+    }
+
+    @Test
+    public void snapshotReadsEveryKindAndDumpsOneLineEach() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("mqtt.reconnects").add(3);
+        assertSame(registry.counter("mqtt.reconnects"), registry.counter("mqtt.reconnects"));
+        AtomicInteger queue = new AtomicInteger(7);
+        registry.gauge("mqtt.queue", queue::get);
+        registry.histogram("mqtt.publish_ack_us").record(850);
+
+        MetricsSnapshot first = registry.snapshot();
+        queue.set(2);
+        assertEquals(3, first.value("mqtt.reconnects"));
+        assertEquals(7, first.value("mqtt.queue"));
+        assertEquals(2, registry.snapshot().value("mqtt.queue"));
+        assertEquals(1, first.histogram("mqtt.publish_ack_us").count);
+
+        String[] lines = first.dump().split("\n");
+        assertEquals(3, lines.length);
+        assertTrue(lines[0], lines[0].startsWith("mqtt.reconnects") && lines[0].endsWith(" 3"));
+        assertTrue(lines[2], lines[2].contains("n=1") && lines[2].contains("max=850"));
+        try {
+            registry.histogram("mqtt.reconnects");
+            fail("Name reused for another kind of metric");
+        } catch (IllegalArgumentException expected) {
+            // Un nombre, una métrica
+        }
+    }
+
+    @Test
+    public void meteredExecutorRecordsTheBacklog() throws Exception {
+        Histogram depth = new Histogram();
+        MeteredExecutor executor = new MeteredExecutor(depth);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            executor.execute(() -> { });
+        }
+        assertEquals(10, executor.getQueueDepth());
+        release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(11, depth.snapshot().count);
+        assertEquals(10, depth.snapshot().max);
+    }
+}
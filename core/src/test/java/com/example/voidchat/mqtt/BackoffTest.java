@@ -0,0 +1,46 @@
+package com.example.voidchat.mqtt;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas locales de la espera entre reconexiones.
+ */
+public class BackoffTest {
+
+    @Test
+    public void delaysGrowWithinHalfAndFullCeiling() {
+        Backoff backoff = new Backoff(100, 10_000, new Random(42));
+        long ceiling = 100;
+        for (int i = 0; i < 12; i++) {
+            long delay = backoff.nextDelayMillis();
+            assertTrue("Attempt " + i + ": " + delay, delay >= ceiling / 2 && delay <= ceiling);
+            ceiling = Math.min(10_000, ceiling * 2);
+        }
+    }
+
+    @Test
+    public void resetStartsOverAndHugeAttemptsDoNotOverflow() {
+        Backoff backoff = new Backoff(100, 10_000, new Random(1));
+        for (int i = 0; i < 100; i++) {
+            assertTrue(backoff.nextDelayMillis() <= 10_000);
+        }
+        backoff.reset();
+        assertEquals(0, backoff.getAttempt());
+        assertTrue(backoff.nextDelayMillis() <= 100);
+    }
+
+    @Test
+    public void clientsDoNotRetryInLockstep() {
+        Backoff one = new Backoff(1_000, 60_000, new Random(1));
+        Backoff two = new Backoff(1_000, 60_000, new Random(2));
+        int equal = 0;
+        for (int i = 0; i < 8; i++) {
+            if (one.nextDelayMillis() == two.nextDelayMillis()) equal++;
+        }
+        assertTrue(equal < 2);
+    }
+}
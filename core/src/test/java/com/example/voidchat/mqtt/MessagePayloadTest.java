@@ -0,0 +1,114 @@
+package com.example.voidchat.mqtt;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas locales del formato binario de MessagePayload y de su compatibilidad con el JSON anterior.
+ */
+public class MessagePayloadTest {
+
+    @Test
+    public void encodeThenDecode_keepsAllFields() {
+        MessagePayload decoded = MessagePayload.decode(
+                new MessagePayload("-Nabc", "¿Qué tal? 👋", "uid-1", "Marce", 1_700_000_000_123L).encode());
+        assertEquals("-Nabc", decoded.id);
+        assertEquals("¿Qué tal? 👋", decoded.text);
+        assertEquals("uid-1", decoded.userId);
+        assertEquals("Marce", decoded.username);
+        assertEquals(1_700_000_000_123L, decoded.time);
+    }
+
+    @Test
+    public void encodeThenDecode_keepsTheTraceId() {
+        // Los ids de traza son aleatorios de 64 bits: también negativos
+        for (long traceId : new long[] {1, 0x1234_5678_9abcL, -7_310_022_119_114_452_733L}) {
+            MessagePayload decoded = MessagePayload.decode(
+                    new MessagePayload(null, "hola", "uid-1", "Marce", 42, traceId).encode());
+            assertEquals(traceId, decoded.traceId);
+            assertEquals("Marce", decoded.username);
+        }
+        assertEquals(0, MessagePayload.decode(new MessagePayload("hola", "uid-1").encode()).traceId);
+    }
+
+    @Test
+    public void encodeThenDecode_optionalFieldsMayBeMissing() {
+        byte[] payload = new MessagePayload("hola", "uid-1").encode();
+        MessagePayload decoded = MessagePayload.decode(payload);
+        assertEquals("hola", decoded.text);
+        assertNull(decoded.id);
+        assertNull(decoded.username);
+        assertEquals(0, decoded.time);
+        // versión, banderas y dos cadenas cortas
+        assertEquals(2 + 1 + 4 + 1 + 5, payload.length);
+    }
+
+    @Test
+    public void encode_writesTheSameUtf8AsTheJdk() {
+        for (String text : Arrays.asList("", "ascii", "ñandú", "€uro", "𝄞 clave", "suelto \uD800 sustituto")) {
+            MessagePayload decoded = MessagePayload.decode(new MessagePayload(text, "u").encode());
+            assertEquals(new String(text.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8), decoded.text);
+        }
+    }
+
+    @Test
+    public void decode_readsPayloadsFromOlderClients() throws JSONException {
+        byte[] payload = "{\"text\":\"hola\",\"userId\":\"uid-2\"}".getBytes(StandardCharsets.UTF_8);
+        assertEquals("hola", MessagePayload.decode(payload).text);
+        assertEquals("uid-2", MessagePayload.decode(new MessagePayload("hola", "uid-2").encodeJson()).userId);
+    }
+
+    @Test
+    public void json_carriesTheOptionalFieldsAsExtraKeys() throws JSONException {
+        MessagePayload decoded = MessagePayload.decode(
+                new MessagePayload("-Nabc", "hola", "uid-1", "Marce", 42, 7).encodeJson());
+        assertEquals("-Nabc", decoded.id);
+        assertEquals("hola", decoded.text);
+        assertEquals("uid-1", decoded.userId);
+        assertEquals("Marce", decoded.username);
+        assertEquals(42, decoded.time);
+        assertEquals(7, decoded.traceId);
+        assertNull(MessagePayload.decode(new MessagePayload("hola", "uid-2").encodeJson()).id);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_rejectsJsonWithoutSender() {
+        MessagePayload.decode("{\"text\":\"hola\"}".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void decode_rejectsTruncatedAndUnknownPayloads() {
+        byte[] payload = new MessagePayload("-Nabc", "hola", "uid-1", "Marce", 42).encode();
+        for (int length = 0; length < payload.length; length++) {
+            assertRejected(Arrays.copyOf(payload, length));
+        }
+        byte[] future = payload.clone();
+        future[0] = 2;
+        assertRejected(future);
+    }
+
+    @Test
+    public void bytesOnWire_binaryIsSmallerThanJson() throws JSONException {
+        MessagePayload message = new MessagePayload(
+                null, "¿Nos vemos mañana a las 18:00?", "kQ3x9Vt2bWc7LmN1pRsT4uYz8Ae5", null, 0);
+        int json = message.encodeJson().length;
+        int binary = message.encode().length;
+        System.out.printf(Locale.ROOT, "Payload bytes: json %d, binary %d%n", json, binary);
+        assertTrue(binary < json);
+    }
+
+    private static void assertRejected(byte[] payload) {
+        try {
+            MessagePayload.decode(payload);
+            fail("Accepted " + Arrays.toString(payload));
+        } catch (IllegalArgumentException expected) {
+            // esperado
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.voidchat.mqtt;
+
+import com.example.voidchat.testing.EmbeddedBroker;
+import io.moquette.interception.AbstractInterceptHandler;
+import io.moquette.interception.messages.InterceptPublishMessage;
+
+import io.netty.buffer.ByteBuf;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Prueba de la sesión persistente contra un broker embebido que se detiene y vuelve a arrancar a mitad de
+ * una ráfaga. El broker anota cada publicación que recibe; al final tienen que estar todas, y la primera
+ * aparición de cada una en el orden en que se publicaron. Las repeticiones (QoS 1) se admiten.
+ */
+public class MqttSessionRestartTest {
+
+    private static final String TOPIC = "chat/restart";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private EmbeddedBroker broker;
+    // Textos en el orden en que llegaron al broker, entre todos los arranques
+    private final List<String> received = new ArrayList<>();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final Semaphore delivered = new Semaphore(0);
+    private MqttSession session;
+
+    @Before
+    public void setUp() throws IOException {
+        broker = EmbeddedBroker.stopped(folder.newFolder("broker"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (session != null) session.stop();
+        broker.close();
+    }
+
+    @Test
+    public void burstSurvivesBrokerRestart() throws Exception {
+        startBroker();
+        Outbox outbox = Outbox.open(folder.newFolder("outbox"));
+        CountDownLatch connected = new CountDownLatch(1);
+        session = newSession(outbox, connected);
+        session.start();
+        assertTrue(connected.await(10, TimeUnit.SECONDS));
+
+        int total = 300;
+        for (int i = 0; i < total; i++) {
+            if (i == 100) {
+                // A mitad de la ráfaga: se espera a que una parte esté confirmada y se mata el broker
+                assertTrue(delivered.tryAcquire(50, 10, TimeUnit.SECONDS));
+                delivered.release(50);
+                broker.stop();
+            }
+            if (i == 200) {
+                startBroker();
+            }
+            session.publish(TOPIC, new MessagePayload("m" + i, "uid-1").encode(), 1);
+        }
+
+        assertTrue("Not everything was confirmed", delivered.tryAcquire(total, 60, TimeUnit.SECONDS));
+        assertEquals(0, outbox.size());
+        assertEquals(0, session.getWindow().getInFlight());
+        assertTrue(connections.get() >= 2);
+        assertAllInOrder(total);
+
+        MqttMetrics metrics = session.getMetrics();
+        assertEquals(connections.get(), metrics.connects.get());
+        assertEquals(connections.get() - 1, metrics.reconnects.get());
+        assertTrue(metrics.connectionsLost.get() >= 1);
+        assertTrue(metrics.connectFailures.get() >= 1);
+        // Cada publicación confirmada tiene su latencia; las que se repitieron tras el corte, más de una
+        assertTrue(metrics.publishAck.snapshot().count >= total);
+        assertEquals(connections.get(), metrics.handshakeTime.snapshot().count);
+        // La reconexión esperó a que volviera el broker
+        assertTrue(metrics.connectTime.snapshot().max >= 100);
+        System.out.print(metrics.registry.snapshot().dump());
+    }
+
+    @Test
+    public void outboxSurvivesAProcessRestart() throws Exception {
+        // Sin broker: todo se queda en disco
+        Outbox outbox = Outbox.open(folder.newFolder("outbox"));
+        session = newSession(outbox, new CountDownLatch(1));
+        session.start();
+        for (int i = 0; i < 20; i++) {
+            session.publish(TOPIC, new MessagePayload("m" + i, "uid-1").encode(), 1);
+        }
+        session.stop();
+        outbox.close();
+
+        // "Otro proceso": outbox reabierto y cliente nuevo con el mismo identificador
+        startBroker();
+        Outbox reopened = Outbox.open(folder.getRoot().toPath().resolve("outbox").toFile());
+        assertEquals(20, reopened.size());
+        CountDownLatch connected = new CountDownLatch(1);
+        session = newSession(reopened, connected);
+        session.start();
+        assertTrue(connected.await(10, TimeUnit.SECONDS));
+        assertTrue(delivered.tryAcquire(20, 30, TimeUnit.SECONDS));
+        assertEquals(0, reopened.size());
+        assertAllInOrder(20);
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    private MqttSession newSession(Outbox outbox, CountDownLatch connected) throws Exception {
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setConnectionTimeout(2);
+        // Esperas cortas para que la prueba no dure lo que una reconexión real
+        Backoff backoff = new Backoff(50, 500, new Random(7));
+        return new MqttSession(broker.getUri(), "restart-test", options, outbox, 8, backoff,
+                new MqttSession.Callback() {
+                    @Override public void onConnected(boolean sessionPresent) {
+                        connections.incrementAndGet();
+                        connected.countDown();
+                    }
+                    @Override public void onConnectionLost(Throwable cause) { }
+                    @Override public void onMessage(String topic, byte[] payload) { }
+                    @Override public void onDelivered(long publishId, String topic) { delivered.release(); }
+                });
+    }
+
+    private void startBroker() throws IOException {
+        broker.restart(new AbstractInterceptHandler() {
+            @Override
+            public String getID() {
+                return "recorder";
+            }
+
+            @Override
+            public void onSessionLoopError(Throwable error) {
+                // Los errores del broker no importan aquí: lo que cuenta es lo que llegó
+            }
+
+            @Override
+            public void onPublish(InterceptPublishMessage message) {
+                ByteBuf buffer = message.getPayload();
+                byte[] bytes = new byte[buffer.readableBytes()];
+                buffer.getBytes(buffer.readerIndex(), bytes);
+                synchronized (received) {
+                    received.add(MessagePayload.decode(bytes).text);
+                }
+                super.onPublish(message);
+            }
+        });
+    }
+
+    private void assertAllInOrder(int total) {
+        List<String> firstSeen = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        int duplicates;
+        synchronized (received) {
+            for (String text : received) {
+                if (seen.add(text)) firstSeen.add(text);
+            }
+            duplicates = received.size() - firstSeen.size();
+        }
+        System.out.println("Broker restart: " + total + " published, " + duplicates + " duplicates, "
+                + connections.get() + " connections");
+        assertEquals(total, firstSeen.size());
+        for (int i = 0; i < total; i++) {
+            assertEquals("m" + i, firstSeen.get(i));
+        }
+    }
+}
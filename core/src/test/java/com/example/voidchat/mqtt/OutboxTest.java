@@ -0,0 +1,166 @@
+package com.example.voidchat.mqtt;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas locales del outbox en disco.
+ */
+public class OutboxTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void batchesComeOutInOrderAndOnlyOnce() throws IOException {
+        try (Outbox outbox = Outbox.open(folder.getRoot())) {
+            for (int i = 0; i < 5; i++) {
+                outbox.add("chat/a", new byte[] {(byte) i}, 1);
+            }
+            List<Outbox.Entry> first = outbox.takeBatch(3);
+            assertEquals(3, first.size());
+            assertEquals(0, first.get(0).payload[0]);
+            assertEquals(2, first.get(2).payload[0]);
+
+            List<Outbox.Entry> second = outbox.takeBatch(3);
+            assertEquals(2, second.size());
+            assertEquals(3, second.get(0).payload[0]);
+            assertTrue(outbox.takeBatch(3).isEmpty());
+            assertEquals(5, outbox.size());
+        }
+    }
+
+    @Test
+    public void unackedEntriesSurviveReopeningInOrder() throws IOException {
+        long second;
+        try (Outbox outbox = Outbox.open(folder.getRoot())) {
+            long first = outbox.add("chat/a", "uno".getBytes(), 1);
+            second = outbox.add("chat/a", "dos".getBytes(), 1);
+            outbox.add("chat/b", "tres".getBytes(), 1);
+            outbox.takeBatch(3);
+            assertEquals("chat/a", outbox.ack(first));
+        }
+        try (Outbox outbox = Outbox.open(folder.getRoot())) {
+            assertEquals(2, outbox.size());
+            List<Outbox.Entry> batch = outbox.takeBatch(10);
+            assertEquals(second, batch.get(0).id);
+            assertEquals("dos", new String(batch.get(0).payload));
+            assertEquals("chat/b", batch.get(1).topic);
+            // Los identificadores siguen creciendo tras reabrir
+            assertTrue(outbox.add("chat/a", new byte[0], 1) > batch.get(1).id);
+        }
+    }
+
+    @Test
+    public void outOfOrderAcksOnlyAdvanceOverTheHead() throws IOException {
+        try (Outbox outbox = Outbox.open(folder.getRoot())) {
+            long a = outbox.add("t", new byte[] {1}, 1);
+            long b = outbox.add("t", new byte[] {2}, 1);
+            long c = outbox.add("t", new byte[] {3}, 1);
+            outbox.takeBatch(3);
+            outbox.ack(b);
+            outbox.ack(c);
+            assertEquals(3, outbox.size());
+            outbox.ack(a);
+            assertEquals(0, outbox.size());
+            assertNull(outbox.ack(a));
+        }
+        // Vacía, el fichero se trunca
+        assertEquals(0, new File(folder.getRoot(), Outbox.FILE_NAME).length());
+    }
+
+    @Test
+    public void requeueFromResendsTheRestInOrder() throws IOException {
+        try (Outbox outbox = Outbox.open(folder.getRoot())) {
+            long a = outbox.add("t", new byte[] {1}, 1);
+            long b = outbox.add("t", new byte[] {2}, 1);
+            outbox.add("t", new byte[] {3}, 1);
+            outbox.takeBatch(3);
+            outbox.ack(a);
+            outbox.requeueFrom(b);
+            List<Outbox.Entry> again = outbox.takeBatch(10);
+            assertEquals(2, again.size());
+            assertEquals(b, again.get(0).id);
+        }
+    }
+
+    @Test
+    public void tornTailIsDiscarded() throws IOException {
+        try (Outbox outbox = Outbox.open(folder.getRoot())) {
+            outbox.add("t", "completo".getBytes(), 1);
+            outbox.add("t", "a medias".getBytes(), 1);
+        }
+        File log = new File(folder.getRoot(), Outbox.FILE_NAME);
+        try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+        try (Outbox outbox = Outbox.open(folder.getRoot())) {
+            assertEquals(1, outbox.size());
+            assertEquals("completo", new String(outbox.takeBatch(1).get(0).payload));
+            // Lo siguiente se escribe tras el último registro válido
+            outbox.add("t", "nuevo".getBytes(), 1);
+        }
+        try (Outbox outbox = Outbox.open(folder.getRoot())) {
+            assertEquals(2, outbox.size());
+        }
+    }
+
+    @Test
+    public void messageKeysSurviveReopeningAndCompaction() throws IOException {
+        long keyed;
+        try (Outbox outbox = Outbox.open(folder.getRoot())) {
+            outbox.add("chat/a", "sin clave".getBytes(), 1);
+            keyed = outbox.add("chat/a", "con clave".getBytes(), 1, "-Nabc");
+            assertEquals(Collections.singletonMap(keyed, "-Nabc"), outbox.pendingKeys());
+        }
+        try (Outbox outbox = Outbox.open(folder.getRoot())) {
+            assertEquals(Collections.singletonMap(keyed, "-Nabc"), outbox.pendingKeys());
+            // El reenvío sigue llevando la clave, también después de reescribir el log
+            long stuck = outbox.add("t", new byte[64], 1);
+            for (int i = 0; i < 600; i++) {
+                outbox.add("t", new byte[64], 1);
+            }
+            for (Outbox.Entry entry : outbox.takeBatch(1000)) {
+                if (entry.id != keyed && entry.id != stuck) outbox.ack(entry.id);
+            }
+            outbox.ack(stuck);
+        }
+        try (Outbox outbox = Outbox.open(folder.getRoot())) {
+            assertEquals(Collections.singletonMap(keyed, "-Nabc"), outbox.pendingKeys());
+            outbox.takeBatch(10);
+            outbox.ack(keyed);
+            assertTrue(outbox.pendingKeys().isEmpty());
+        }
+    }
+
+    @Test
+    public void longBacklogIsCompacted() throws IOException {
+        try (Outbox outbox = Outbox.open(folder.getRoot())) {
+            // Siempre queda uno pendiente, así que el log nunca se vacía del todo
+            long stuck = outbox.add("t", new byte[64], 1);
+            for (int i = 0; i < 2000; i++) {
+                outbox.add("t", new byte[64], 1);
+            }
+            List<Outbox.Entry> batch = outbox.takeBatch(3000);
+            for (Outbox.Entry entry : batch) {
+                if (entry.id != stuck && entry.id <= stuck + 1900) outbox.ack(entry.id);
+            }
+            assertEquals(2001, outbox.size());
+            outbox.ack(stuck);
+            assertEquals(100, outbox.size());
+        }
+        assertTrue(new File(folder.getRoot(), Outbox.FILE_NAME).length() < 100 * 200);
+        try (Outbox outbox = Outbox.open(folder.getRoot())) {
+            assertEquals(100, outbox.size());
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.voidchat.mqtt;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas de la compresión con diccionario de las cargas y del entrenador del diccionario.
+ */
+public class PayloadCompressorTest {
+
+    private static final String USER_ID = "kQ3x9Vt2bWc7LmN1pRsT4uYz8Ae5";
+    // Ninguno está en core/dictionary/chat-es.txt: así se mide lo que se gana con mensajes nuevos
+    private static final List<String> HELD_OUT = Arrays.asList(
+            "¿Nos vemos mañana a las 18:00 en la cafetería de siempre? Llevo los apuntes",
+            "vale, te espero en la puerta del metro, no tardes",
+            "jajajaja no me lo puedo creer, ¿en serio te dijo eso?",
+            "¿A qué hora sales del trabajo hoy? Podemos tomar algo",
+            "Estoy llegando, hay muchísimo tráfico en la entrada de la ciudad",
+            "perdona que no te contestara antes, estaba en clase",
+            "Buenas noches!! Mañana hablamos con calma, descansa mucho",
+            "¿me pasas la ubicación del restaurante? No lo encuentro",
+            "Ya he hecho el bizum de la cena, mira a ver si te ha llegado",
+            "Qué pena que no puedas venir el sábado, otro día quedamos",
+            "¿Has visto el mensaje del grupo? Han cambiado la hora de la reunión",
+            "feliz cumpleaños!!! que pases un día genial, un abrazo enorme 🎉🎂",
+            "llámame cuando puedas, tengo que contarte una cosa",
+            "no te preocupes, ya compro yo el pan cuando pase por el súper",
+            "¿Qué tal te fue la entrevista? Cuéntame todo");
+
+    private final PayloadCompressor compressor = new PayloadCompressor(PayloadDictionary.builtIn());
+
+    @Test
+    public void compressThenDecompress_keepsAllFields() {
+        byte[] plain = new MessagePayload("-Nabc", HELD_OUT.get(0), USER_ID, "Marce", 1_700_000_000_123L).encode();
+        byte[] compressed = compressor.compress(plain);
+        assertTrue(compressed.length < plain.length);
+        assertEquals(MessagePayload.VERSION, compressed[0]);
+        assertEquals(PayloadDictionary.BUILT_IN_ID, compressed[2]);
+
+        MessagePayload decoded = MessagePayload.decode(compressor.decompress(compressed));
+        assertEquals("-Nabc", decoded.id);
+        assertEquals(HELD_OUT.get(0), decoded.text);
+        assertEquals(USER_ID, decoded.userId);
+        assertEquals("Marce", decoded.username);
+        assertEquals(1_700_000_000_123L, decoded.time);
+        // Otra instancia, como la del que recibe, lee lo mismo
+        assertArrayEquals(plain, new PayloadCompressor(PayloadDictionary.builtIn()).decompress(compressed));
+    }
+
+    @Test
+    public void smallJsonAndIncompressiblePayloadsPassUnchanged() throws JSONException {
+        byte[] small = new MessagePayload("ok 👍", USER_ID).encode();
+        assertTrue(small.length < PayloadCompressor.DEFAULT_THRESHOLD);
+        assertSame(small, compressor.compress(small));
+
+        byte[] json = new MessagePayload(HELD_OUT.get(1), USER_ID).encodeJson();
+        assertSame(json, compressor.compress(json));
+        assertSame(json, compressor.decompress(json));
+
+        byte[] noise = new byte[40];
+        new Random(1).nextBytes(noise);
+        byte[] random = new MessagePayload(new String(noise, StandardCharsets.ISO_8859_1), USER_ID).encode();
+        assertSame(random, compressor.compress(random));
+        assertSame(random, compressor.decompress(random));
+    }
+
+    @Test
+    public void damagedOrForeignPayloadsAreRejected() {
+        byte[] compressed = compressor.compress(new MessagePayload(HELD_OUT.get(2), USER_ID).encode());
+        try {
+            MessagePayload.decode(compressed);
+            fail("Compressed payload decoded without decompressing");
+        } catch (IllegalArgumentException expected) {
+            // Hay que pasar antes por el compresor
+        }
+        for (int length = 2; length < compressed.length; length++) {
+            assertRejected(Arrays.copyOf(compressed, length));
+        }
+        byte[] foreign = compressed.clone();
+        foreign[2] = 2;
+        assertRejected(foreign);
+        byte[] trailing = Arrays.copyOf(compressed, compressed.length + 1);
+        assertRejected(trailing);
+    }
+
+    @Test
+    public void trainer_putsTheMostSharedFragmentsLast() {
+        List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            samples.add(("nos vemos mañana " + i).getBytes(StandardCharsets.UTF_8));
+            if (i % 5 == 0) samples.add(("te llamo luego " + i).getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] dictionary = DictionaryTrainer.train(samples, 64);
+        assertTrue(dictionary.length <= 64);
+        String text = new String(dictionary, StandardCharsets.UTF_8);
+        assertTrue(text, text.contains("te llamo luego"));
+        assertTrue(text, text.lastIndexOf("nos vemos mañana") > text.indexOf("te llamo luego"));
+        assertEquals(16, DictionaryTrainer.train(samples, 16).length);
+    }
+
+    @Test
+    public void bytesOnWire_dictionaryBeatsPlainDeflate() {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        byte[] buffer = new byte[1024];
+        int plain = 0;
+        int deflated = 0;
+        int compressed = 0;
+        for (String text : HELD_OUT) {
+            byte[] payload = new MessagePayload(null, text, USER_ID, null, 1_700_000_000_123L).encode();
+            plain += payload.length;
+            compressed += compressor.compress(payload).length;
+            deflater.reset();
+            deflater.setInput(payload, 2, payload.length - 2);
+            deflater.finish();
+            deflated += Math.min(payload.length, 3 + deflater.deflate(buffer));
+        }
+        deflater.end();
+        System.out.printf(Locale.ROOT, "Payload bytes over %d messages: plain %d, deflate %d (%.2f), dictionary %d (%.2f)%n",
+                HELD_OUT.size(), plain, deflated, (double) deflated / plain, compressed, (double) compressed / plain);
+        assertTrue(compressed < deflated);
+        assertTrue(compressed < plain * 0.85);
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    private void assertRejected(byte[] payload) {
+        try {
+            compressor.decompress(payload);
+            fail("Accepted " + Arrays.toString(payload));
+        } catch (IllegalArgumentException expected) {
+            // Se descarta como cualquier carga mal formada
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.voidchat.mqtt;
+
+import com.example.voidchat.testing.EmbeddedBroker;
+import com.example.voidchat.testing.TcpProxy;
+
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Prueba de carga de PublishWindow contra un broker embebido, detrás de un proxy que añade latencia
+ * como la de una red móvil. Con la ventana de 1 se reproduce el envío bloqueante anterior: un mensaje por
+ * ida y vuelta. Los números se imprimen; las aserciones sólo exigen que el rendimiento crezca con la ventana.
+ */
+public class PublishWindowLoadTest {
+
+    private static final int MESSAGES = 120;
+    private static final long ONE_WAY_DELAY_MILLIS = 10;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private EmbeddedBroker broker;
+    private TcpProxy proxy;
+    // Los callbacks corren en hilos de Paho: los fallos se cuentan y se comprueban al final
+    private final AtomicInteger failures = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        broker = EmbeddedBroker.start(folder.newFolder("broker"));
+        proxy = new TcpProxy(broker.getPort(), ONE_WAY_DELAY_MILLIS);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        assertEquals(0, failures.get());
+        proxy.close();
+        broker.close();
+    }
+
+    @Test
+    public void throughputGrowsWithTheWindow() throws Exception {
+        double one = messagesPerSecond(1);
+        double eight = messagesPerSecond(8);
+        double thirtyTwo = messagesPerSecond(32);
+        System.out.printf(Locale.ROOT,
+                "QoS 1, RTT %d ms: window 1 -> %.0f msg/s, window 8 -> %.0f msg/s, window 32 -> %.0f msg/s%n",
+                2 * ONE_WAY_DELAY_MILLIS, one, eight, thirtyTwo);
+        assertTrue(eight > 3 * one);
+        assertTrue(thirtyTwo > eight);
+    }
+
+    @Test
+    public void windowIsNeverExceeded() throws Exception {
+        MqttAsyncClient client = connect(4);
+        AtomicInteger maxSeen = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(40);
+        PublishWindow[] holder = new PublishWindow[1];
+        PublishWindow window = new PublishWindow(client, 4, new PublishWindow.Listener() {
+            @Override public void onDelivered(long publishId) {
+                maxSeen.accumulateAndGet(holder[0].getInFlight(), Math::max);
+                done.countDown();
+            }
+            @Override public void onFailed(long publishId, Throwable error) { failures.incrementAndGet(); }
+        });
+        holder[0] = window;
+        for (int i = 0; i < 40; i++) {
+            window.publish(i, "chat/load", new byte[16], 1);
+            maxSeen.accumulateAndGet(window.getInFlight(), Math::max);
+        }
+        // Lo que no cabe espera en la cola en lugar de llegar a Paho
+        assertTrue(window.getWaiting() > 0);
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertTrue(maxSeen.get() <= 4);
+        assertEquals(0, window.getWaiting());
+        client.disconnect().waitForCompletion();
+        client.close();
+    }
+
+    @Test
+    public void fullQueueRejectsTheProducer() throws Exception {
+        MqttAsyncClient client = connect(2);
+        CountDownLatch delivered = new CountDownLatch(5);
+        List<Long> rejected = new CopyOnWriteArrayList<>();
+        PublishWindow window = new PublishWindow(client, 2, 3, new PublishWindow.Listener() {
+            @Override public void onDelivered(long publishId) { delivered.countDown(); }
+            @Override public void onFailed(long publishId, Throwable error) {
+                if (((MqttException) error).getReasonCode() == MqttException.REASON_CODE_MAX_INFLIGHT) {
+                    rejected.add(publishId);
+                } else {
+                    failures.incrementAndGet();
+                }
+            }
+        }, false);
+        // Dos en vuelo y tres esperando: con la ida y vuelta del proxy ninguno se confirma antes del sexto
+        for (int i = 0; i < 5; i++) {
+            assertTrue(window.publish(i, "chat/load", new byte[16], 1));
+        }
+        assertEquals(2, window.getInFlight());
+        assertEquals(3, window.getWaiting());
+        assertFalse(window.publish(5, "chat/load", new byte[16], 1));
+        assertFalse(window.publish(6, "chat/load", new byte[16], 1));
+        assertEquals(Arrays.asList(5L, 6L), rejected);
+        assertEquals(3, window.getWaiting());
+
+        // Al vaciarse vuelve a aceptar
+        assertTrue(delivered.await(30, TimeUnit.SECONDS));
+        assertTrue(window.publish(7, "chat/load", new byte[16], 1));
+        client.disconnect().waitForCompletion();
+        client.close();
+    }
+
+    private double messagesPerSecond(int maxInFlight) throws Exception {
+        MqttAsyncClient client = connect(maxInFlight);
+        CountDownLatch done = new CountDownLatch(MESSAGES);
+        PublishWindow window = new PublishWindow(client, maxInFlight, new PublishWindow.Listener() {
+            @Override public void onDelivered(long publishId) { done.countDown(); }
+            @Override public void onFailed(long publishId, Throwable error) { failures.incrementAndGet(); }
+        });
+        byte[] payload = new MessagePayload("-N0001", "hola, ¿qué tal?", "uid-1", "Marce", 1L).encode();
+        long start = System.nanoTime();
+        for (int i = 0; i < MESSAGES; i++) {
+            window.publish(i, "chat/load", payload, 1);
+        }
+        assertTrue("Timed out with window " + maxInFlight, done.await(60, TimeUnit.SECONDS));
+        double seconds = (System.nanoTime() - start) / 1e9;
+        client.disconnect().waitForCompletion();
+        client.close();
+        return MESSAGES / seconds;
+    }
+
+    private MqttAsyncClient connect(int maxInFlight) throws Exception {
+        MqttAsyncClient client = new MqttAsyncClient(proxy.getUri(),
+                "load-" + maxInFlight + "-" + System.nanoTime(), null);
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setCleanSession(true);
+        options.setMaxInflight(maxInFlight);
+        client.connect(options).waitForCompletion(10_000);
+        return client;
+    }
+}
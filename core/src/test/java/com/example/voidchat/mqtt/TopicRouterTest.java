@@ -0,0 +1,159 @@
+package com.example.voidchat.mqtt;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas locales del enrutado por temas: conteo de referencias, comodines y cambios durante el despacho.
+ */
+public class TopicRouterTest {
+
+    @Test
+    public void onlyFirstAddAndLastRemoveTouchTheBroker() {
+        TopicRouter<String> router = new TopicRouter<>();
+        assertTrue(router.add("chat/a", "screen1"));
+        assertFalse(router.add("chat/a", "screen2"));
+        assertEquals(2, router.referenceCount("chat/a"));
+
+        assertFalse(router.remove("chat/a", "screen1"));
+        assertTrue(router.remove("chat/a", "screen2"));
+        assertEquals(0, router.referenceCount("chat/a"));
+        assertTrue(router.topics().isEmpty());
+    }
+
+    @Test
+    public void removingAnUnknownListenerChangesNothing() {
+        TopicRouter<String> router = new TopicRouter<>();
+        router.add("chat/a", "screen1");
+        assertFalse(router.remove("chat/a", "other"));
+        assertFalse(router.remove("chat/b", "screen1"));
+        assertEquals(1, router.referenceCount("chat/a"));
+    }
+
+    @Test
+    public void matchIsAStableSnapshot() {
+        TopicRouter<String> router = new TopicRouter<>();
+        router.add("chat/a", "screen1");
+        List<String> snapshot = router.match("chat/a");
+        router.add("chat/a", "screen2");
+
+        // Quien estaba despachando con la lista anterior no ve el cambio a mitad
+        assertEquals(Collections.singletonList("screen1"), snapshot);
+        assertEquals(Arrays.asList("screen1", "screen2"), router.match("chat/a"));
+        assertTrue(router.match("chat/none").isEmpty());
+    }
+
+    @Test
+    public void allListenersHasNoDuplicates() {
+        TopicRouter<String> router = new TopicRouter<>();
+        router.add("chat/a", "screen1");
+        router.add("chat/b", "screen1");
+        router.add("chat/b", "screen2");
+        assertEquals(2, router.allListeners().size());
+        assertEquals(2, router.topics().size());
+    }
+
+    @Test
+    public void wildcardsFollowMqttRules() {
+        TopicRouter<String> router = new TopicRouter<>();
+        router.add("presence/+", "contacts");
+        router.add("typing/+/+", "typing");
+        router.add("chat/#", "all-chats");
+        router.add("#", "debug");
+
+        assertEquals(Arrays.asList("contacts", "debug"), router.match("presence/uid-1"));
+        assertEquals(Collections.singletonList("debug"), router.match("presence/uid-1/extra"));
+        assertEquals(Arrays.asList("typing", "debug"), router.match("typing/room/uid-1"));
+        // # también cubre el nivel padre
+        assertEquals(Arrays.asList("all-chats", "debug"), router.match("chat"));
+        assertEquals(Arrays.asList("all-chats", "debug"), router.match("chat/a/b/c"));
+        // Los temas de sistema no coinciden con comodines en el primer nivel
+        assertTrue(router.match("$SYS/broker").isEmpty());
+    }
+
+    @Test
+    public void aListenerOnTwoMatchingFiltersIsCalledOnce() {
+        TopicRouter<String> router = new TopicRouter<>();
+        router.add("chat/a", "screen");
+        router.add("chat/+", "screen");
+        assertEquals(Collections.singletonList("screen"), router.match("chat/a"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void multiLevelWildcardMustBeLast() {
+        new TopicRouter<String>().add("chat/#/a", "x");
+    }
+
+    @Test
+    public void agreesWithTheReferenceMatcher() {
+        Random random = new Random(11);
+        String[] levels = {"chat", "presence", "a", "b", "+", "#"};
+        TopicRouter<String> router = new TopicRouter<>();
+        List<String> filters = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            StringBuilder filter = new StringBuilder();
+            int depth = 1 + random.nextInt(4);
+            for (int level = 0; level < depth; level++) {
+                String part = levels[random.nextInt(level == depth - 1 ? levels.length : levels.length - 1)];
+                if (level > 0) filter.append('/');
+                filter.append(part);
+            }
+            String value = filter.toString();
+            if (!filters.contains(value)) {
+                filters.add(value);
+                router.add(value, value);
+            }
+        }
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder topic = new StringBuilder();
+            int depth = 1 + random.nextInt(5);
+            for (int level = 0; level < depth; level++) {
+                if (level > 0) topic.append('/');
+                topic.append(levels[random.nextInt(4)]);
+            }
+            List<String> expected = new ArrayList<>();
+            for (String filter : filters) {
+                if (TopicRouter.matches(filter, topic.toString())) expected.add(filter);
+            }
+            List<String> actual = new ArrayList<>(router.match(topic.toString()));
+            Collections.sort(expected);
+            Collections.sort(actual);
+            assertEquals(topic.toString(), expected, actual);
+        }
+    }
+
+    @Test
+    public void dispatchKeepsWorkingWhileFiltersChange() throws InterruptedException {
+        TopicRouter<String> router = new TopicRouter<>();
+        router.add("chat/stable", "stable");
+        AtomicInteger misses = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(1);
+        Thread dispatcher = new Thread(() -> {
+            while (done.getCount() > 0) {
+                if (!router.match("chat/stable").contains("stable")) misses.incrementAndGet();
+                router.match("chat/churn");
+            }
+        });
+        dispatcher.start();
+        for (int i = 0; i < 20_000; i++) {
+            router.add("chat/churn", "churn" + (i % 8));
+            router.add("chat/+", "wild");
+            router.remove("chat/+", "wild");
+            router.remove("chat/churn", "churn" + (i % 8));
+        }
+        done.countDown();
+        dispatcher.join(TimeUnit.SECONDS.toMillis(10));
+        assertEquals(0, misses.get());
+        assertEquals(Collections.singleton("chat/stable"), router.topics());
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.voidchat.presence;
+
+import com.example.voidchat.testing.EmbeddedBroker;
+import com.example.voidchat.testing.TcpProxy;
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Presencia contra un broker embebido: los usuarios se conectan a través de un proxy que puede cortar sus
+ * conexiones de golpe (proceso muerto) o dejarlas mudas (red perdida sin aviso), y un observador suscrito a
+ * {@code presence/+} mide cuánto tarda en verlos desconectados. Los tiempos se imprimen.
+ */
+public class PresenceConvergenceTest {
+
+    private static final int KEEP_ALIVE_SECONDS = 1;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private EmbeddedBroker broker;
+    private TcpProxy proxy;
+    private final List<MqttAsyncClient> clients = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        broker = EmbeddedBroker.start(folder.newFolder("broker"));
+        proxy = new TcpProxy(broker.getPort(), 0);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (MqttAsyncClient client : clients) {
+            try {
+                if (client.isConnected()) client.disconnectForcibly(0, 1_000, false);
+                client.close(true);
+            } catch (MqttException ignored) {
+                // Ya estaba caído
+            }
+        }
+        proxy.close();
+        broker.close();
+    }
+
+    @Test
+    public void killedClientsConvergeToOffline() throws Exception {
+        BlockingQueue<Change> changes = watch();
+        int users = 20;
+        for (int i = 0; i < users; i++) {
+            goOnline("user-" + i);
+        }
+        awaitAll(changes, users, true, 10_000);
+
+        // El socket se cierra sin DISCONNECT: el broker lo nota en el acto y publica los Last Will
+        long start = System.nanoTime();
+        proxy.cut();
+        long millis = awaitAll(changes, users, false, 10_000) - start;
+        System.out.printf(Locale.ROOT, "Presence, %d killed clients: all offline after %d ms%n",
+                users, TimeUnit.NANOSECONDS.toMillis(millis));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(millis) < 2_000);
+    }
+
+    @Test
+    public void silentDropConvergesWithinKeepAlive() throws Exception {
+        BlockingQueue<Change> changes = watch();
+        goOnline("user-silent");
+        awaitAll(changes, 1, true, 10_000);
+
+        // Nada se cierra: sólo el keep-alive del broker (1,5 veces el del cliente) descubre la caída
+        long start = System.nanoTime();
+        proxy.freeze();
+        long millis = TimeUnit.NANOSECONDS.toMillis(awaitAll(changes, 1, false, 10_000) - start);
+        System.out.printf(Locale.ROOT, "Presence, silent drop with keep-alive %d s: offline after %d ms%n",
+                KEEP_ALIVE_SECONDS, millis);
+        assertTrue(millis < KEEP_ALIVE_SECONDS * 3_000L + 1_000);
+    }
+
+    @Test
+    public void lateSubscriberGetsRetainedState() throws Exception {
+        MqttAsyncClient online = goOnline("user-a");
+        MqttAsyncClient leaving = goOnline("user-b");
+        // Cierre de sesión ordenado: el Last Will no salta, se publica el estado a mano
+        leaving.publish(PresenceSignal.topic("user-b"), PresenceSignal.encode(false, 1234L),
+                PresenceSignal.QOS, true).waitForCompletion(5_000);
+        leaving.disconnect().waitForCompletion(5_000);
+
+        BlockingQueue<Change> changes = watch();
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < 2; i++) {
+            Change change = changes.poll(5, TimeUnit.SECONDS);
+            assertNotNull(change);
+            seen.add(change.userId);
+            if (change.userId.equals("user-a")) {
+                assertTrue(change.online);
+            } else {
+                assertFalse(change.online);
+                assertEquals(1234L, change.changedAt);
+            }
+        }
+        assertEquals(2, seen.size());
+        assertTrue(online.isConnected());
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    /**
+     * Conecta un usuario por el proxy con su Last Will y publica "en línea" retenido, como hace la app.
+     */
+    private MqttAsyncClient goOnline(String userId) throws MqttException {
+        MqttAsyncClient client = new MqttAsyncClient(proxy.getUri(), "presence-" + userId, null);
+        clients.add(client);
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setKeepAliveInterval(KEEP_ALIVE_SECONDS);
+        PresenceSignal.setWill(options, userId);
+        client.connect(options).waitForCompletion(10_000);
+        client.publish(PresenceSignal.topic(userId), PresenceSignal.encode(true, System.currentTimeMillis()),
+                PresenceSignal.QOS, true).waitForCompletion(5_000);
+        return client;
+    }
+
+    /**
+     * Observador conectado directamente al broker, fuera del alcance del proxy.
+     */
+    private BlockingQueue<Change> watch() throws MqttException {
+        BlockingQueue<Change> changes = new LinkedBlockingQueue<>();
+        MqttAsyncClient watcher = new MqttAsyncClient(broker.getUri(), "watcher-" + System.nanoTime(), null);
+        clients.add(watcher);
+        watcher.setCallback(new MqttCallback() {
+            @Override public void connectionLost(Throwable cause) { }
+            @Override public void deliveryComplete(IMqttDeliveryToken token) { }
+            @Override public void messageArrived(String topic, MqttMessage message) {
+                byte[] payload = message.getPayload();
+                changes.add(new Change(PresenceSignal.userIdOf(topic), PresenceSignal.isOnline(payload),
+                        PresenceSignal.changedAt(payload), System.nanoTime()));
+            }
+        });
+        watcher.connect(new MqttConnectOptions()).waitForCompletion(10_000);
+        watcher.subscribe(PresenceSignal.FILTER, PresenceSignal.QOS).waitForCompletion(5_000);
+        return changes;
+    }
+
+    /**
+     * Espera a que {@code users} usuarios distintos lleguen al estado pedido.
+     * @return El instante (nanoTime) en que llegó el último.
+     */
+    private static long awaitAll(BlockingQueue<Change> changes, int users, boolean online, long timeoutMillis)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        Set<String> reached = new HashSet<>();
+        long last = 0;
+        while (reached.size() < users) {
+            Change change = changes.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            assertNotNull("Only " + reached.size() + " of " + users + " converged", change);
+            if (change.online == online && reached.add(change.userId)) last = change.receivedAt;
+        }
+        return last;
+    }
+
+    private static final class Change {
+        final String userId;
+        final boolean online;
+        final long changedAt;
+        final long receivedAt;
+
+        Change(String userId, boolean online, long changedAt, long receivedAt) {
+            this.userId = userId;
+            this.online = online;
+            this.changedAt = changedAt;
+            this.receivedAt = receivedAt;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.voidchat.presence;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PresenceTrackerTest {
+
+    @Test
+    public void reportsOnlyRealChanges() {
+        PresenceTracker tracker = new PresenceTracker();
+        // El retenido llega otra vez en cada suscripción: la segunda vez no cambia nada
+        assertTrue(tracker.onSignal("a", true, 100, 1_000));
+        assertFalse(tracker.onSignal("a", true, 100, 2_000));
+        assertTrue(tracker.onSignal("a", false, 0, 3_000));
+        assertFalse(tracker.onSignal("a", false, 0, 4_000));
+        // Sin estado previo ya se mostraba desconectado
+        assertFalse(tracker.onSignal("b", false, 0, 1_000));
+    }
+
+    @Test
+    public void lastSeenUsesArrivalTimeWhenTheSignalHasNone() {
+        PresenceTracker tracker = new PresenceTracker();
+        tracker.onSignal("a", false, 500, 1_000);
+        assertEquals(500, tracker.lastSeen("a"));
+        // Last Will: sin hora propia
+        tracker.onSignal("b", false, 0, 1_000);
+        assertEquals(1_000, tracker.lastSeen("b"));
+        tracker.onSignal("b", true, 2_000, 2_000);
+        assertTrue(tracker.isOnline("b"));
+        assertEquals(0, tracker.lastSeen("b"));
+        assertEquals(0, tracker.lastSeen("unknown"));
+    }
+
+    @Test
+    public void signalRoundTrip() {
+        byte[] payload = PresenceSignal.encode(true, 1_700_000_000_123L);
+        assertTrue(PresenceSignal.isOnline(payload));
+        assertEquals(1_700_000_000_123L, PresenceSignal.changedAt(payload));
+        // Retenido borrado
+        assertFalse(PresenceSignal.isOnline(new byte[0]));
+        assertEquals("uid-1", PresenceSignal.userIdOf(PresenceSignal.topic("uid-1")));
+        assertNull(PresenceSignal.userIdOf("typing/room/uid-1"));
+        assertNull(PresenceSignal.userIdOf("presence/a/b"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsForeignPayloads() {
+        PresenceSignal.isOnline(new byte[] {7});
+    }
+}
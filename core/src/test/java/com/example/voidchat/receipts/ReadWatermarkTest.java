@@ -0,0 +1,77 @@
+package com.example.voidchat.receipts;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas locales de la marca de lectura, con tiempos simulados.
+ */
+public class ReadWatermarkTest {
+
+    private final List<String> sent = new ArrayList<>();
+    private final ReadWatermark watermark = new ReadWatermark(sent::add);
+
+    @Test
+    public void scrollingThroughManyMessagesWritesOnlyTheLastKey() {
+        assertEquals(ReadWatermark.WINDOW_MILLIS, watermark.onSeen("-a000", 0));
+        // 100 mensajes en 400 ms: antes serían 100 confirmaciones
+        for (int i = 1; i < 100; i++) {
+            assertEquals(-1, watermark.onSeen(String.format("-a%03d", i), i * 4L));
+        }
+        assertEquals(100, watermark.flush(400));
+        assertEquals(-1, watermark.flush(ReadWatermark.WINDOW_MILLIS));
+        assertEquals(Collections.singletonList("-a099"), sent);
+    }
+
+    @Test
+    public void writesAtMostOncePerInterval() {
+        watermark.onSeen("-a", 0);
+        watermark.flush(ReadWatermark.WINDOW_MILLIS);
+
+        // El siguiente avance espera a que pase el intervalo desde la última escritura
+        long delay = watermark.onSeen("-b", 600);
+        assertEquals(ReadWatermark.WINDOW_MILLIS + ReadWatermark.INTERVAL_MILLIS - 600, delay);
+        watermark.onSeen("-c", 1_000);
+        assertEquals(-1, watermark.flush(600 + delay));
+        assertEquals(Arrays.asList("-a", "-c"), sent);
+    }
+
+    @Test
+    public void neverMovesBackwards() {
+        watermark.onSeen("-c", 0);
+        watermark.flush(ReadWatermark.WINDOW_MILLIS);
+        // Un mensaje antiguo al volver a subir por el historial no cuenta
+        assertEquals(-1, watermark.onSeen("-a", 10_000));
+        assertEquals("-c", watermark.getSeen());
+
+        // Otro dispositivo ya leyó más allá: lo de antes no se escribe
+        watermark.onStored("-e");
+        assertEquals(-1, watermark.onSeen("-d", 20_000));
+        watermark.onStored("-b");
+        assertEquals("-e", watermark.getSeen());
+        assertEquals(Collections.singletonList("-c"), sent);
+    }
+
+    @Test
+    public void flushNowSendsThePendingAdvanceOnce() {
+        watermark.onSeen("-a", 0);
+        watermark.flushNow(10);
+        watermark.flushNow(20);
+        assertEquals(-1, watermark.flush(ReadWatermark.WINDOW_MILLIS));
+        assertEquals(Collections.singletonList("-a"), sent);
+    }
+
+    @Test
+    public void isReadComparesPushKeys() {
+        assertTrue(ReadWatermark.isRead("-Nabc", "-Nabd"));
+        assertTrue(ReadWatermark.isRead("-Nabd", "-Nabd"));
+        assertFalse(ReadWatermark.isRead("-Nabe", "-Nabd"));
+        assertFalse(ReadWatermark.isRead("-Nabc", null));
+    }
+}
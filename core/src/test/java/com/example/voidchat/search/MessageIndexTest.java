@@ -0,0 +1,164 @@
+package com.example.voidchat.search;
+
+import com.example.voidchat.model.Message;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MessageIndexTest {
+
+    private static final String[] WORDS = {"hola", "holanda", "mañana", "cumpleaños", "cumple", "nos", "vemos",
+            "en", "la", "plaza", "café", "cafetería", "qué", "tal", "llegó", "llego", "tarde", "temprano", "ok"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static Message message(int index, String text) {
+        Message message = new Message("u" + (index % 2), "User", text, 1_700_000_000_000L + index);
+        message.setId(String.format(Locale.ROOT, "-N%08d", index));
+        return message;
+    }
+
+    static Message message(int index) {
+        return message(index, "");
+    }
+
+    @Test
+    public void search_matchesWordPrefixesIgnoringAccentsNewestFirst() {
+        MessageIndex index = new MessageIndex();
+        index.add(message(0, "¡Feliz cumpleaños!"));
+        index.add(message(1, "nos vemos en el café"));
+        index.add(message(2, "Mañana es tu cumple"));
+        index.add(message(3, "la cafetería de la plaza"));
+
+        assertEquals(Arrays.asList(message(2).getId(), message(0).getId()), index.search("CUMPLE", 10));
+        assertEquals(Arrays.asList(message(3).getId(), message(1).getId()), index.search("cafe", 10));
+        assertEquals(Collections.singletonList(message(2).getId()), index.search("manana", 10));
+        // Todas las palabras deben estar, cada una como prefijo
+        assertEquals(Collections.singletonList(message(3).getId()), index.search("caf pla", 10));
+        assertTrue(index.search("caf zzz", 10).isEmpty());
+        // Sólo prefijos: lo que aparece en medio de una palabra no cuenta
+        assertTrue(index.search("pleaños", 10).isEmpty());
+        assertTrue(index.search("¿?", 10).isEmpty());
+        assertEquals(1, index.search("c", 1).size());
+    }
+
+    @Test
+    public void editsAndDeletesHideTheOldText() {
+        MessageIndex index = new MessageIndex();
+        index.add(message(0, "llego tarde"));
+        index.add(message(1, "ok"));
+        assertFalse(index.add(message(0, "llego tarde")));
+
+        assertTrue(index.add(message(0, "llego temprano")));
+        assertTrue(index.search("tarde", 10).isEmpty());
+        assertEquals(Collections.singletonList(message(0).getId()), index.search("temprano", 10));
+
+        assertTrue(index.remove(message(0).getId()));
+        assertFalse(index.remove(message(0).getId()));
+        assertTrue(index.search("llego", 10).isEmpty());
+        assertEquals(1, index.size());
+        assertEquals(message(1).getId(), index.getLastId());
+    }
+
+    @Test
+    public void saveAndLoad_keepsEverything() throws Exception {
+        MessageIndex index = new MessageIndex();
+        List<Message> messages = randomRoom(3000, new Random(3));
+        for (Message message : messages) {
+            index.add(message);
+        }
+        index.remove(messages.get(10).getId());
+        index.add(message(20, "texto editado"));
+        File file = new File(folder.getRoot(), "search.idx");
+        index.save(file);
+
+        MessageIndex loaded = MessageIndex.load(file);
+        assertEquals(index.size(), loaded.size());
+        assertEquals(index.getLastId(), loaded.getLastId());
+        for (String query : new String[]{"hola", "caf", "cumple vemos", "editado", "l", "tarde ok"}) {
+            assertEquals(query, index.search(query, 100), loaded.search(query, 100));
+        }
+        // Sigue creciendo tras cargar: las listas leídas aceptan documentos nuevos
+        loaded.add(message(5000, "holanda"));
+        assertEquals(message(5000).getId(), loaded.search("holanda", 1).get(0));
+    }
+
+    @Test
+    public void load_corruptOrMissingFileGivesAnEmptyIndex() throws Exception {
+        File file = new File(folder.getRoot(), "search.idx");
+        assertEquals(0, MessageIndex.load(file).size());
+
+        MessageIndex index = new MessageIndex();
+        index.add(message(0, "hola"));
+        index.save(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length() - 6);
+            raf.writeByte(raf.readByte() ^ 0x5A);
+        }
+        MessageIndex loaded = MessageIndex.load(file);
+        assertEquals(0, loaded.size());
+        assertNull(loaded.getLastId());
+    }
+
+    @Test
+    public void search_agreesWithALinearScan() {
+        Random random = new Random(11);
+        List<Message> messages = randomRoom(5000, random);
+        MessageIndex index = new MessageIndex();
+        for (Message message : messages) {
+            index.add(message);
+        }
+        for (int i = 0; i < 200; i++) {
+            String word = WORDS[random.nextInt(WORDS.length)];
+            String query = word.substring(0, 1 + random.nextInt(word.length()));
+            if (random.nextBoolean()) query += " " + WORDS[random.nextInt(WORDS.length)];
+            assertEquals(query, linearScan(messages, query, 30), index.search(query, 30));
+        }
+    }
+
+    private static List<Message> randomRoom(int size, Random random) {
+        List<Message> messages = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int w = 1 + random.nextInt(6); w > 0; w--) {
+                text.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(4) == 0 ? ", " : " ");
+            }
+            messages.add(message(i, text.toString()));
+        }
+        return messages;
+    }
+
+    private static List<String> linearScan(List<Message> messages, String query, int limit) {
+        String[] terms = Words.tokenize(Words.normalize(query));
+        List<String> results = new ArrayList<>();
+        for (int i = messages.size() - 1; i >= 0 && results.size() < limit; i--) {
+            String[] words = Words.tokenize(Words.normalize(messages.get(i).getText()));
+            boolean all = true;
+            for (String term : terms) {
+                boolean found = false;
+                for (String word : words) {
+                    if (word.startsWith(term)) {
+                        found = true;
+                        break;
+                    }
+                }
+                all &= found;
+            }
+            if (all) results.add(messages.get(i).getId());
+        }
+        return results;
+    }
+}
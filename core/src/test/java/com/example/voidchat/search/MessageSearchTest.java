@@ -0,0 +1,62 @@
+package com.example.voidchat.search;
+
+import com.example.voidchat.data.MessageStore;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static com.example.voidchat.search.MessageIndexTest.message;
+import static org.junit.Assert.*;
+
+public class MessageSearchTest {
+
+    private static final Executor DIRECT = Runnable::run;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void open_catchesUpWithWhatTheLogGotAfterTheLastSave() throws Exception {
+        File room = folder.newFolder("room");
+        File indexFile = new File(room, "search.idx");
+        List<List<String>> delivered = new ArrayList<>();
+        try (MessageStore store = MessageStore.open(room)) {
+            store.append(message(0, "nos vemos mañana"));
+            MessageSearch search = new MessageSearch(indexFile, DIRECT, DIRECT);
+            search.open(store);
+            search.save();
+            assertTrue(indexFile.isFile());
+
+            // La app muere con mensajes ya escritos en el log pero no en el índice
+            store.append(message(1, "mañana no puedo"));
+            store.append(message(2, "ok"));
+        }
+        try (MessageStore store = MessageStore.open(room)) {
+            MessageSearch search = new MessageSearch(indexFile, DIRECT, DIRECT);
+            search.open(store);
+            search.search("mañana", 10, (query, ids) -> delivered.add(ids));
+            search.remove(message(1).getId());
+            search.search("mañana", 10, (query, ids) -> delivered.add(ids));
+        }
+        assertEquals(List.of(List.of(message(1).getId(), message(0).getId()), List.of(message(0).getId())), delivered);
+    }
+
+    @Test
+    public void savesOnItsOwnEveryFewChanges() {
+        File indexFile = new File(folder.getRoot(), "search.idx");
+        MessageSearch search = new MessageSearch(indexFile, DIRECT, DIRECT);
+        search.open(null);
+        for (int i = 0; i < MessageSearch.SAVE_EVERY - 1; i++) {
+            search.add(message(i, "hola " + i));
+        }
+        assertFalse(indexFile.exists());
+        search.add(message(MessageSearch.SAVE_EVERY, "hola"));
+        assertEquals(MessageSearch.SAVE_EVERY, MessageIndex.load(indexFile).size());
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.voidchat.testing;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Proxy TCP hacia un puerto local para simular la red móvil en las pruebas:
+ * <ul>
+ *   <li>retrasa cada tramo en ambos sentidos sin dejar de leer, así la latencia no limita el caudal;</li>
+ *   <li>{@link #freeze()} deja de entregar datos sin cerrar nada, como una red que se queda muda;</li>
+ *   <li>{@link #cut()} cierra todas las conexiones de golpe, como un proceso que muere.</li>
+ * </ul>
+ */
+public final class TcpProxy implements Closeable {
+
+    private final ServerSocket server;
+    private final int targetPort;
+    private final long delayNanos;
+    private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+    private volatile boolean frozen;
+
+    public TcpProxy(int targetPort, long delayMillis) throws IOException {
+        this.server = new ServerSocket(0);
+        this.targetPort = targetPort;
+        this.delayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        daemon(this::acceptLoop);
+    }
+
+    public int getPort() { return server.getLocalPort(); }
+
+    public String getUri() {
+        return "tcp://127.0.0.1:" + getPort();
+    }
+
+    /**
+     * Los datos dejan de llegar en ambos sentidos; las conexiones siguen abiertas.
+     */
+    public void freeze() {
+        frozen = true;
+    }
+
+    /**
+     * Cierra todas las conexiones abiertas. Las siguientes se aceptan con normalidad.
+     */
+    public void cut() {
+        frozen = false;
+        for (Socket socket : sockets) {
+            closeQuietly(socket);
+        }
+        sockets.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        cut();
+    }
+
+    private void acceptLoop() {
+        try {
+            while (true) {
+                Socket downstream = server.accept();
+                Socket upstream = new Socket("127.0.0.1", targetPort);
+                downstream.setTcpNoDelay(true);
+                upstream.setTcpNoDelay(true);
+                sockets.add(downstream);
+                sockets.add(upstream);
+                pipe(downstream, upstream);
+                pipe(upstream, downstream);
+            }
+        } catch (IOException closed) {
+            // El proxy se cerró
+        }
+    }
+
+    private void pipe(Socket from, Socket to) {
+        BlockingQueue<Object[]> chunks = new LinkedBlockingQueue<>();
+        daemon(() -> {
+            byte[] buffer = new byte[8192];
+            try (InputStream in = from.getInputStream()) {
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    if (frozen) continue;
+                    chunks.put(new Object[] {System.nanoTime() + delayNanos, Arrays.copyOf(buffer, read)});
+                }
+            } catch (IOException | InterruptedException closed) {
+                // Conexión terminada
+            }
+            // Congelado, el cierre tampoco llega al otro lado: sólo lo detecta el keep-alive
+            if (!frozen) closeQuietly(to);
+        });
+        daemon(() -> {
+            try (OutputStream out = to.getOutputStream()) {
+                while (true) {
+                    Object[] chunk = chunks.take();
+                    long wait = (long) chunk[0] - System.nanoTime();
+                    if (wait > 0) LockSupport.parkNanos(wait);
+                    if (frozen) continue;
+                    out.write((byte[]) chunk[1]);
+                    out.flush();
+                }
+            } catch (IOException | InterruptedException closed) {
+                // Conexión terminada
+            }
+        });
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // Ya estaba cerrado
+        }
+    }
+
+    private static void daemon(Runnable task) {
+        Thread thread = new Thread(task, "tcp-proxy");
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.voidchat.timeline;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas locales de DayBuckets contra el cálculo con Calendar que se usaba antes.
+ */
+public class DayBucketsTest {
+
+    private static final long HOUR = 60L * 60 * 1000;
+    private static final long DAY = 24 * HOUR;
+
+    @Test
+    public void dayOf_matchesCalendarAcrossDaylightSavingChanges() {
+        TimeZone zone = TimeZone.getTimeZone("Europe/Madrid");
+        DayBuckets dayBuckets = new DayBuckets(zone);
+        Calendar a = Calendar.getInstance(zone);
+        Calendar b = Calendar.getInstance(zone);
+        Random random = new Random(42);
+        long start = 1_700_000_000_000L;
+        long previous = start;
+        for (int i = 0; i < 20_000; i++) {
+            // Pasos de hasta 5 horas: se cruzan medianoches y los cambios de horario de dos años
+            long time = previous + (long) (random.nextDouble() * 5 * HOUR);
+            a.setTimeInMillis(previous);
+            b.setTimeInMillis(time);
+            boolean sameDay = a.get(Calendar.YEAR) == b.get(Calendar.YEAR)
+                    && a.get(Calendar.DAY_OF_YEAR) == b.get(Calendar.DAY_OF_YEAR);
+            assertEquals("at " + time, sameDay, dayBuckets.dayOf(previous) == dayBuckets.dayOf(time));
+            previous = time;
+        }
+    }
+
+    @Test
+    public void labelFor_followsTheClockNotTheDayItWasFirstAskedOn() {
+        DayBuckets dayBuckets = new DayBuckets();
+        long now = System.currentTimeMillis();
+        int today = dayBuckets.dayOf(now);
+
+        assertEquals("Hoy", dayBuckets.labelFor(today, now));
+        // Pasada la medianoche, el mismo separador ya es de ayer y el de ayer lleva fecha
+        assertEquals("Ayer", dayBuckets.labelFor(today, now + DAY));
+        assertNotEquals("Ayer", dayBuckets.labelFor(today - 1, now + DAY));
+    }
+
+    @Test
+    public void labelFor_todayYesterdayAndDates() {
+        DayBuckets dayBuckets = new DayBuckets();
+        long now = System.currentTimeMillis();
+        int today = dayBuckets.dayOf(now);
+
+        assertEquals("Hoy", dayBuckets.labelFor(today));
+        assertEquals("Ayer", dayBuckets.labelFor(today - 1));
+        String older = dayBuckets.labelFor(dayBuckets.dayOf(now - 10 * DAY));
+        // Memorizada: la segunda vez devuelve la misma instancia
+        assertSame(older, dayBuckets.labelFor(dayBuckets.dayOf(now - 10 * DAY)));
+    }
+
+    @Test
+    public void hourLabel_matchesSimpleDateFormatAndIsShared() {
+        TimeZone zone = TimeZone.getTimeZone("Europe/Madrid");
+        DayBuckets dayBuckets = new DayBuckets(zone);
+        SimpleDateFormat format = new SimpleDateFormat("HH:mm", Locale.getDefault());
+        format.setTimeZone(zone);
+        Random random = new Random(7);
+        long start = 1_700_000_000_000L;
+        for (int i = 0; i < 5_000; i++) {
+            long time = start + (long) (random.nextDouble() * 400 * DAY);
+            assertEquals("at " + time, format.format(new Date(time)), dayBuckets.hourLabel(time));
+        }
+        // Mismo minuto en otro día: misma cadena, sin volver a formatear
+        assertSame(dayBuckets.hourLabel(start), dayBuckets.hourLabel(start + 3 * DAY));
+    }
+}
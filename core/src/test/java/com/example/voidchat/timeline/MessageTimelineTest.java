@@ -0,0 +1,355 @@
+package com.example.voidchat.timeline;
+
+import com.example.voidchat.model.Message;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas locales de MessageTimeline: separadores e inserciones puntuales.
+ */
+public class MessageTimelineTest {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private static final long NOW = System.currentTimeMillis();
+
+    private static Message message(String id, long time) {
+        Message message = new Message("u1", "User", "text " + id, time);
+        message.setId(id);
+        return message;
+    }
+
+    @Test
+    public void appendAll_insertsSeparatorPerDay() {
+        MessageTimeline timeline = new MessageTimeline();
+        timeline.appendAll(Arrays.asList(
+                message("-a", NOW - 2 * DAY),
+                message("-b", NOW - 2 * DAY + 1),
+                message("-c", NOW)));
+
+        List<Message> items = timeline.getItems();
+        assertEquals(5, items.size());
+        assertTrue(items.get(0).isSeparator());
+        assertTrue(items.get(3).isSeparator());
+        assertEquals(new DayBuckets().dayOf(NOW), items.get(3).getSeparatorDay());
+        assertEquals("-c", timeline.getLastId());
+    }
+
+    @Test
+    public void append_notifiesOnlyTheNewRows() {
+        MessageTimeline timeline = new MessageTimeline();
+        RecordingListener listener = new RecordingListener();
+        timeline.setListener(listener);
+
+        timeline.append(message("-a", NOW));
+        timeline.append(message("-b", NOW));
+
+        assertEquals(Arrays.asList("insert 0 2", "insert 2 1"), listener.events);
+    }
+
+    @Test
+    public void append_duplicateIdIsAnUpdate() {
+        MessageTimeline timeline = new MessageTimeline();
+        timeline.append(message("-a", NOW));
+        RecordingListener listener = new RecordingListener();
+        timeline.setListener(listener);
+
+        timeline.append(message("-a", NOW));
+
+        assertEquals(2, timeline.size());
+        assertEquals(Arrays.asList("change 1"), listener.events);
+    }
+
+    @Test
+    public void append_olderIdKeepsKeyOrder() {
+        MessageTimeline timeline = new MessageTimeline();
+        timeline.append(message("-b", NOW));
+        timeline.append(message("-a", NOW));
+
+        assertEquals("-a", timeline.getItems().get(1).getId());
+        assertEquals("-b", timeline.getLastId());
+    }
+
+    @Test
+    public void remove_lastMessageOfDayDropsItsSeparator() {
+        MessageTimeline timeline = new MessageTimeline();
+        timeline.appendAll(Arrays.asList(message("-a", NOW - 2 * DAY), message("-b", NOW)));
+        RecordingListener listener = new RecordingListener();
+        timeline.setListener(listener);
+
+        timeline.remove("-b");
+
+        assertEquals(2, timeline.size());
+        assertEquals("-a", timeline.getNewestLoadedId());
+        // El cursor de sincronización no retrocede: -b ya se vio
+        assertEquals("-b", timeline.getLastId());
+        assertEquals(Arrays.asList("remove 2 2"), listener.events);
+    }
+
+    @Test
+    public void prependPage_sameDayMovesTheSeparatorToThePage() {
+        MessageTimeline timeline = new MessageTimeline();
+        timeline.appendAll(Arrays.asList(message("-c", NOW), message("-d", NOW)));
+        RecordingListener listener = new RecordingListener();
+        timeline.setListener(listener);
+
+        timeline.prependPage(Arrays.asList(message("-a", NOW - 2 * DAY), message("-b", NOW)));
+
+        List<Message> items = timeline.getItems();
+        assertEquals(6, items.size());
+        assertTrue(items.get(2).isSeparator());
+        assertEquals("-b", items.get(3).getId());
+        assertEquals("-c", items.get(4).getId());
+        assertEquals(Arrays.asList("remove 0 1", "insert 0 4"), listener.events);
+    }
+
+    @Test
+    public void trimHead_keepsASeparatorInFront() {
+        MessageTimeline timeline = new MessageTimeline();
+        timeline.appendAll(Arrays.asList(message("-a", NOW), message("-b", NOW), message("-c", NOW)));
+
+        timeline.trimHead(2);
+
+        List<Message> items = timeline.getItems();
+        assertEquals(3, items.size());
+        assertTrue(items.get(0).isSeparator());
+        assertEquals("-b", timeline.getOldestLoadedId());
+    }
+
+    @Test
+    public void trimTail_detachesUntilTheNewestPageIsBack() {
+        MessageTimeline timeline = new MessageTimeline();
+        timeline.appendAll(Arrays.asList(message("-a", NOW - 2 * DAY), message("-b", NOW), message("-c", NOW)));
+
+        timeline.trimTail(1);
+        assertTrue(timeline.isDetached());
+        assertEquals(2, timeline.size());
+
+        // Los mensajes en vivo sólo mueven el cursor mientras la ventana está desenganchada
+        timeline.append(message("-d", NOW));
+        assertEquals(2, timeline.size());
+        assertEquals("-d", timeline.getLastId());
+
+        timeline.appendPage(Arrays.asList(message("-b", NOW), message("-c", NOW), message("-d", NOW)));
+        assertFalse(timeline.isDetached());
+        assertEquals(6, timeline.size());
+    }
+
+    @Test
+    public void appendProvisional_showsTheRowButLeavesTheCursorAlone() {
+        MessageTimeline timeline = new MessageTimeline();
+        timeline.append(message("-a", NOW));
+        RecordingListener listener = new RecordingListener();
+        timeline.setListener(listener);
+
+        timeline.appendProvisional(message("-b", NOW));
+
+        assertEquals(3, timeline.size());
+        assertTrue(timeline.isProvisional("-b"));
+        assertEquals("-b", timeline.getNewestLoadedId());
+        // Firebase todavía no lo ha entregado: al volver a sincronizar hay que pedirlo
+        assertEquals("-a", timeline.getLastId());
+        assertEquals(Arrays.asList("insert 2 1"), listener.events);
+    }
+
+    @Test
+    public void append_firebaseCopyConfirmsTheProvisionalRow() {
+        MessageTimeline timeline = new MessageTimeline();
+        timeline.appendProvisional(message("-a", NOW));
+        timeline.appendProvisional(message("-b", NOW));
+        RecordingListener listener = new RecordingListener();
+        timeline.setListener(listener);
+
+        Message confirmed = message("-a", NOW);
+        timeline.append(confirmed);
+        // Otro texto (p. ej. editado entre tanto): la fila se redibuja
+        Message edited = new Message("u1", "User", "editado", NOW);
+        edited.setId("-b");
+        timeline.append(edited);
+
+        assertEquals(3, timeline.size());
+        assertSame(confirmed, timeline.getItems().get(1));
+        assertFalse(timeline.isProvisional("-a"));
+        assertFalse(timeline.isProvisional("-b"));
+        assertEquals("-b", timeline.getLastId());
+        assertEquals(Arrays.asList("change 2"), listener.events);
+    }
+
+    @Test
+    public void append_olderFirebaseMessageBehindAProvisionalOneIsASingleInsert() {
+        MessageTimeline timeline = new MessageTimeline();
+        timeline.append(message("-a", NOW));
+        timeline.appendProvisional(message("-c", NOW));
+        RecordingListener listener = new RecordingListener();
+        timeline.setListener(listener);
+
+        // Firebase entrega uno anterior al que ya llegó por MQTT: no se reconstruye la ventana
+        timeline.append(message("-b", NOW));
+
+        assertEquals(Arrays.asList("insert 2 1"), listener.events);
+        assertEquals("-b", timeline.getItems().get(2).getId());
+        assertEquals("-c", timeline.getNewestLoadedId());
+        assertEquals("-b", timeline.getLastId());
+    }
+
+    @Test
+    public void append_olderMessageOfItsOwnDayBringsItsSeparator() {
+        MessageTimeline timeline = new MessageTimeline();
+        timeline.append(message("-a", NOW - 2 * DAY));
+        timeline.appendProvisional(message("-d", NOW));
+        RecordingListener listener = new RecordingListener();
+        timeline.setListener(listener);
+
+        timeline.append(message("-b", NOW - DAY));
+        // Del mismo día que -b: va detrás, bajo el mismo separador
+        timeline.append(message("-c", NOW - DAY + 1));
+
+        assertEquals(Arrays.asList("insert 2 2", "insert 4 1"), listener.events);
+        List<Message> items = timeline.getItems();
+        assertEquals(7, items.size());
+        assertEquals(new DayBuckets().dayOf(NOW - DAY), items.get(2).getSeparatorDay());
+        assertEquals("-c", items.get(4).getId());
+        assertTrue(items.get(5).isSeparator());
+        assertEquals("-d", items.get(6).getId());
+    }
+
+    @Test
+    public void appendProvisional_ignoredWhileDetachedOrAlreadyShown() {
+        MessageTimeline timeline = new MessageTimeline();
+        timeline.appendAll(Arrays.asList(message("-a", NOW), message("-b", NOW)));
+        Message shown = timeline.getItems().get(2);
+
+        // Una copia tardía por MQTT de algo que Firebase ya entregó no la sustituye
+        timeline.appendProvisional(message("-b", NOW));
+        assertSame(shown, timeline.getItems().get(2));
+        assertFalse(timeline.isProvisional("-b"));
+
+        timeline.trimTail(1);
+        timeline.appendProvisional(message("-c", NOW));
+        assertEquals(2, timeline.size());
+        assertFalse(timeline.isProvisional("-c"));
+    }
+
+    @Test
+    public void remove_forgetsTheProvisionalRow() {
+        MessageTimeline timeline = new MessageTimeline();
+        timeline.append(message("-a", NOW));
+        timeline.appendProvisional(message("-b", NOW));
+
+        timeline.remove("-b");
+        assertFalse(timeline.isProvisional("-b"));
+
+        // Si luego llega por Firebase es un mensaje nuevo
+        timeline.append(message("-b", NOW));
+        assertEquals(3, timeline.size());
+        assertEquals("-b", timeline.getLastId());
+    }
+
+    @Test
+    public void expireProvisional_dropsOthersUnconfirmedRowsButKeepsMine() {
+        MessageTimeline timeline = new MessageTimeline();
+        timeline.append(message("-a", NOW));
+        timeline.appendProvisional(message("-b", NOW));
+        Message mine = message("-c", NOW);
+        mine.advanceSendState(Message.SendState.FAILED);
+        timeline.appendProvisional(mine);
+        long arrived = System.currentTimeMillis();
+
+        assertTrue(timeline.expireProvisional(arrived) > 0);
+        assertEquals(4, timeline.size());
+
+        // Firebase nunca entregó -b (p. ej. rechazó la escritura): se retira; el propio sigue para reintentarlo
+        RecordingListener listener = new RecordingListener();
+        timeline.setListener(listener);
+        assertEquals(-1, timeline.expireProvisional(arrived + MessageTimeline.PROVISIONAL_TTL_MILLIS));
+        assertEquals(Collections.singletonList("remove 2 1"), listener.events);
+        assertFalse(timeline.isProvisional("-b"));
+        assertTrue(timeline.isProvisional("-c"));
+        assertEquals("-a", timeline.getLastId());
+    }
+
+    @Test
+    public void setSendState_survivesTheEchoAndOnlyMovesForward() {
+        MessageTimeline timeline = new MessageTimeline("u1");
+        Message local = message("-a", NOW);
+        local.advanceSendState(Message.SendState.PENDING);
+        timeline.appendProvisional(local);
+        RecordingListener listener = new RecordingListener();
+        timeline.setListener(listener);
+
+        // El eco de Firebase llega antes que la confirmación de la escritura
+        timeline.append(message("-a", NOW));
+        assertEquals(Message.SendState.PENDING, timeline.getItems().get(1).sendState());
+
+        timeline.setSendState("-a", Message.SendState.DELIVERED);
+        timeline.setSendState("-a", Message.SendState.SENT); // Tarde: ya estaba más allá
+        timeline.setSendState("-b", Message.SendState.SENT); // Fuera de la ventana
+        assertEquals(Message.SendState.DELIVERED, timeline.getItems().get(1).sendState());
+        assertEquals(Arrays.asList("change 1"), listener.events);
+    }
+
+    @Test
+    public void sendState_failedMessagesCanOnlyBeRetried() {
+        Message message = message("-a", NOW);
+        assertNull(message.sendState());
+        assertTrue(message.advanceSendState(Message.SendState.PENDING));
+        assertTrue(message.advanceSendState(Message.SendState.FAILED));
+        assertFalse(message.advanceSendState(Message.SendState.SENT));
+        assertTrue(message.advanceSendState(Message.SendState.PENDING));
+        assertTrue(message.advanceSendState(Message.SendState.SENT));
+        assertFalse(message.advanceSendState(Message.SendState.FAILED));
+    }
+
+    @Test
+    public void rows_comePreparedAndOnlyLiveMessagesAnimate() {
+        MessageTimeline timeline = new MessageTimeline("u1");
+        TimelineBuilder builder = new TimelineBuilder(timeline, Runnable::run, Runnable::run);
+        Message mine = message("-a", NOW);
+        Message theirs = new Message("u2", "Other", "hola", NOW);
+        theirs.setId("-b");
+        builder.appendAll(Arrays.asList(mine, theirs));
+
+        Message live = message("-c", NOW);
+        builder.append(live);
+
+        assertTrue(mine.sentByMe());
+        assertFalse(theirs.sentByMe());
+        assertNotNull(theirs.hourLabel());
+        assertFalse(mine.newlyArrived());
+        assertTrue(live.newlyArrived());
+
+        // Una edición sustituye la fila sin volver a animarla
+        Message edited = message("-c", NOW);
+        builder.update(edited);
+        assertSame(edited, timeline.getItems().get(3));
+        assertFalse(edited.newlyArrived());
+    }
+
+    @Test
+    public void rows_attachmentLabelIsPreparedWithTheRow() {
+        MessageTimeline timeline = new MessageTimeline("u1");
+        Message text = message("-a", NOW);
+        Message attachment = message("-b", NOW);
+        attachment.setAttachment("foto.jpg", "image/jpeg", 2_400_000);
+        timeline.appendAll(Arrays.asList(text, attachment));
+
+        assertEquals("text -a", text.bodyLabel());
+        assertTrue(attachment.bodyLabel(), attachment.bodyLabel().startsWith("📎 foto.jpg · 2"));
+        assertTrue(attachment.bodyLabel(), attachment.bodyLabel().endsWith(" MB"));
+        assertEquals("999 B", RowPreparer.fileSize(999));
+    }
+
+    private static class RecordingListener implements MessageTimeline.Listener {
+        final List<String> events = new ArrayList<>();
+        @Override public void onInserted(int position, int count) { events.add("insert " + position + " " + count); }
+        @Override public void onChanged(int position) { events.add("change " + position); }
+        @Override public void onRemoved(int position, int count) { events.add("remove " + position + " " + count); }
+        @Override public void onReset() { events.add("reset"); }
+    }
+}
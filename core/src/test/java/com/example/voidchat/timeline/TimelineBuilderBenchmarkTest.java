@@ -0,0 +1,131 @@
+package com.example.voidchat.timeline;
+
+import com.example.voidchat.model.Message;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tiempo de hilo principal por actualización en una sala de 10k mensajes.
+ *
+ * Compara la reconstrucción completa que hacía ChatActivity.onDataChange (un Calendar por mensaje y tres
+ * Calendar más un SimpleDateFormat por separador) con TimelineBuilder, donde el hilo principal sólo aplica
+ * la página ya construida. Los números se imprimen; la aserción sólo exige que el camino nuevo gane.
+ */
+public class TimelineBuilderBenchmarkTest {
+
+    private static final int ROOM_SIZE = 10_000;
+    private static final int UPDATES = 200;
+    private static final long MINUTE = 60L * 1000;
+
+    /** Ejecuta en el acto y acumula el tiempo pasado dentro: hace de hilo principal. */
+    private static class TimedExecutor implements Executor {
+        long nanos;
+        @Override
+        public void execute(Runnable command) {
+            long start = System.nanoTime();
+            command.run();
+            nanos += System.nanoTime() - start;
+        }
+    }
+
+    private static List<Message> room(int size) {
+        List<Message> messages = new ArrayList<>(size);
+        long start = System.currentTimeMillis() - size * 30 * MINUTE;
+        for (int i = 0; i < size; i++) {
+            messages.add(message(i, start + i * 30 * MINUTE));
+        }
+        return messages;
+    }
+
+    private static Message message(int index, long time) {
+        Message message = new Message("u1", "User", "hola " + index, time);
+        message.setId(String.format(Locale.ROOT, "-N%08d", index));
+        return message;
+    }
+
+    @Test
+    public void mainThreadTimePerUpdate_10kRoom() {
+        List<Message> room = room(ROOM_SIZE + UPDATES);
+        List<Message> initial = room.subList(0, ROOM_SIZE);
+
+        // Camino anterior: cada actualización reconstruye la sala entera en el hilo principal
+        List<Message> snapshot = new ArrayList<>(initial);
+        legacyRebuild(snapshot); // calentamiento
+        long legacyStart = System.nanoTime();
+        for (int i = 0; i < UPDATES; i++) {
+            snapshot.add(room.get(ROOM_SIZE + i));
+            legacyRebuild(snapshot);
+        }
+        double legacyPerUpdate = (System.nanoTime() - legacyStart) / (double) UPDATES;
+
+        // Camino nuevo: el trabajo de fechas va en el "hilo de fondo" y al principal sólo llega la página
+        MessageTimeline timeline = new MessageTimeline();
+        TimedExecutor main = new TimedExecutor();
+        TimelineBuilder builder = new TimelineBuilder(timeline, Runnable::run, main);
+        builder.appendAll(initial);
+        double initialLoadMillis = main.nanos / 1e6;
+        main.nanos = 0;
+        for (int i = 0; i < UPDATES; i++) {
+            builder.append(room.get(ROOM_SIZE + i));
+        }
+        double builderPerUpdate = main.nanos / (double) UPDATES;
+
+        System.out.printf(Locale.ROOT,
+                "Timeline 10k: legacy rebuild %.1f us/update, builder %.2f us/update on main (initial load %.2f ms on main)%n",
+                legacyPerUpdate / 1e3, builderPerUpdate / 1e3, initialLoadMillis);
+        assertEquals(ROOM_SIZE + UPDATES, timeline.getMessageCount());
+        assertTrue(builderPerUpdate < legacyPerUpdate);
+    }
+
+    // --- Copia del bucle que hacía ChatActivity.onDataChange ---
+
+    private static List<Object> legacyRebuild(List<Message> messages) {
+        // Entonces cada separador era un Message con la etiqueta ya puesta; aquí la fila es la etiqueta
+        List<Object> messageList = new ArrayList<>();
+        long lastDate = -1;
+        for (Message message : messages) {
+            long messageDay = getDayStart(message.getTime());
+            if (messageDay != lastDate) {
+                lastDate = messageDay;
+                messageList.add(getLabelForDate(message.getTime()));
+            }
+            messageList.add(message);
+        }
+        return messageList;
+    }
+
+    private static long getDayStart(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    private static String getLabelForDate(long time) {
+        Calendar today = Calendar.getInstance();
+        Calendar yesterday = Calendar.getInstance();
+        yesterday.add(Calendar.DAY_OF_YEAR, -1);
+        Calendar messageDate = Calendar.getInstance();
+        messageDate.setTimeInMillis(time);
+        if (isSameDay(messageDate, today)) return "Hoy";
+        if (isSameDay(messageDate, yesterday)) return "Ayer";
+        return new SimpleDateFormat("dd MMM yyyy", Locale.getDefault()).format(time);
+    }
+
+    private static boolean isSameDay(Calendar c1, Calendar c2) {
+        return c1.get(Calendar.YEAR) == c2.get(Calendar.YEAR) &&
+                c1.get(Calendar.DAY_OF_YEAR) == c2.get(Calendar.DAY_OF_YEAR);
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.voidchat.trace;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TracerTest {
+
+    @Test
+    public void disabledTracerHandsOutNoIdsAndRecordsNothing() {
+        Tracer tracer = new Tracer("pixel", 8);
+        assertEquals(0, tracer.newTraceId());
+        tracer.mark(42, TraceStage.INPUT);
+        assertTrue(tracer.events().isEmpty());
+
+        tracer.setEnabled(true);
+        assertNotEquals(0, tracer.newTraceId());
+        tracer.mark(0, TraceStage.INPUT);
+        assertTrue("Untraced messages leave no marks", tracer.events().isEmpty());
+    }
+
+    @Test
+    public void fullBufferKeepsTheNewestMarks() {
+        Tracer tracer = new Tracer("pixel", 4);
+        tracer.setEnabled(true);
+        for (int i = 1; i <= 6; i++) {
+            tracer.mark(i, TraceStage.INPUT, i * 100L);
+        }
+        List<TraceEvent> events = tracer.events();
+        assertEquals(4, events.size());
+        assertEquals(3, events.get(0).traceId);
+        assertEquals(600, events.get(3).timeMicros);
+        tracer.clear();
+        assertTrue(tracer.events().isEmpty());
+    }
+
+    @Test
+    public void exportedFileReadsBackAndMergesAcrossDevices() throws IOException {
+        long traceId = -0x1234_5678_9abcL; // Los ids negativos también salen en hexadecimal
+        Tracer sender = new Tracer("alice", 16);
+        Tracer receiver = new Tracer("bob", 16);
+        sender.setEnabled(true);
+        receiver.setEnabled(true);
+        sender.mark(traceId, TraceStage.INPUT, 1_000);
+        sender.mark(traceId, TraceStage.MQTT_PUBLISH, 3_000);
+        receiver.mark(traceId, TraceStage.MQTT_ARRIVED, 2_500); // Reloj de bob por detrás
+        receiver.mark(traceId, TraceStage.FIRST_BIND, 21_000);
+        receiver.mark(traceId, TraceStage.FIRST_BIND, 40_000); // Segundo bind de la misma fila
+
+        List<TraceEvent> events = new ArrayList<>();
+        for (Tracer tracer : new Tracer[] {sender, receiver}) {
+            StringWriter file = new StringWriter();
+            tracer.export(file);
+            events.addAll(TraceReport.read(new StringReader(file.toString())));
+        }
+        assertEquals(5, events.size());
+        assertEquals("bob", events.get(2).device);
+        assertEquals(traceId, events.get(2).traceId);
+
+        TraceReport report = TraceReport.of(events);
+        assertEquals(1, report.getTraceCount());
+        assertEquals(1, report.countComplete(TraceStage.INPUT, TraceStage.FIRST_BIND));
+        assertEquals(0, report.countComplete(TraceStage.FIREBASE_ARRIVED));
+        assertEquals(20_000, report.segment(TraceStage.INPUT, TraceStage.FIRST_BIND).max);
+        assertEquals(1, report.getSkewed());
+        assertTrue(report.format(), report.format().contains("end to end"));
+    }
+
+    @Test(expected = IOException.class)
+    public void readRejectsFilesThatAreNotTraces() throws IOException {
+        TraceReport.read(new StringReader("{\"events\": []}"));
+    }
+
+    @Test
+    public void traceIdsSurviveTheTextForm() {
+        assertEquals(-1L, Tracer.parse(Tracer.format(-1L)));
+        assertEquals(0, Tracer.parse(null));
+        assertEquals(0, Tracer.parse("no es un id"));
+    }
+}
@@ -0,0 +1,260 @@
+package com.example.voidchat.trace;
+
+import com.example.voidchat.model.Message;
+import com.example.voidchat.mqtt.Backoff;
+import com.example.voidchat.mqtt.MessagePayload;
+import com.example.voidchat.mqtt.MqttSession;
+import com.example.voidchat.mqtt.Outbox;
+import com.example.voidchat.mqtt.PayloadCompressor;
+import com.example.voidchat.mqtt.PayloadDictionary;
+import com.example.voidchat.testing.EmbeddedBroker;
+import com.example.voidchat.timeline.MessageTimeline;
+import com.example.voidchat.timeline.TimelineBuilder;
+
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Dos clientes en la misma sala, contra un broker embebido, con el mismo reparto de hilos que la app: un hilo
+ * de red que publica, otro que lee las cargas, la línea de tiempo construida en un hilo de fondo y un "hilo
+ * principal" que enlaza las filas nuevas en el siguiente frame (cada 16 ms). Cada cliente exporta su fichero
+ * de trazas y el desglose de la latencia sale de juntar los dos.
+ *
+ * No hay Firebase: la burbuja entra en la línea de tiempo al llegar por MQTT, y la marca de Firebase se anota
+ * junto a la de entrada. Los dos clientes comparten reloj, así que los tramos entre ellos no llevan desfase.
+ */
+public class TwoClientTraceLoadTest {
+
+    private static final String TOPIC = "chat/trace-room";
+    private static final int MESSAGES = 200;
+    private static final long FRAME_MICROS = 16_667;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private EmbeddedBroker broker;
+    private final List<Client> clients = new ArrayList<>();
+    // Los fallos de los hilos de los clientes se cuentan y se comprueban al final
+    private final AtomicInteger failures = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        broker = EmbeddedBroker.start(folder.newFolder("broker"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (Client client : clients) client.close();
+        broker.close();
+    }
+
+    @Test
+    public void latencyBreakdownAcrossTwoClients() throws Exception {
+        Client alice = new Client("alice");
+        Client bob = new Client("bob");
+        alice.start();
+        bob.start();
+
+        Thread aliceTyping = new Thread(() -> alice.sendMany("hola bob"));
+        Thread bobTyping = new Thread(() -> bob.sendMany("hola alice"));
+        aliceTyping.start();
+        bobTyping.start();
+        aliceTyping.join();
+        bobTyping.join();
+        assertTrue("alice did not see every message", alice.bound.await(30, TimeUnit.SECONDS));
+        assertTrue("bob did not see every message", bob.bound.await(30, TimeUnit.SECONDS));
+        assertEquals(0, failures.get());
+
+        File traces = folder.newFolder("traces");
+        List<TraceEvent> events = new ArrayList<>();
+        for (Client client : clients) {
+            File file = new File(traces, client.name + ".json");
+            try (Writer out = new FileWriter(file)) {
+                client.tracer.export(out);
+            }
+            try (Reader in = new FileReader(file)) {
+                events.addAll(TraceReport.read(in));
+            }
+        }
+        TraceReport report = TraceReport.of(events);
+
+        assertEquals(2 * MESSAGES, report.getTraceCount());
+        assertEquals(2 * MESSAGES, report.countComplete(TraceStage.INPUT, TraceStage.FIREBASE_PUSH,
+                TraceStage.MQTT_PUBLISH, TraceStage.MQTT_ARRIVED, TraceStage.TIMELINE_INSERTED, TraceStage.FIRST_BIND));
+        assertEquals(0, report.getSkewed());
+        // Las filas esperan al frame siguiente: nunca más de uno
+        for (Client client : clients) {
+            assertEquals(client.name, 0, client.lateBinds.get());
+        }
+        assertTrue(report.segment(TraceStage.INPUT, TraceStage.FIRST_BIND).percentile(0.5) > 0);
+    }
+
+    /**
+     * Un teléfono: su sesión MQTT, su tracer y su pantalla de chat reducida a la línea de tiempo.
+     */
+    private final class Client implements MessageTimeline.Listener {
+        final String name;
+        final Tracer tracer;
+        final CountDownLatch bound = new CountDownLatch(MESSAGES);
+        final ExecutorService network = Executors.newSingleThreadExecutor();
+        final ExecutorService dispatch = Executors.newSingleThreadExecutor();
+        final ExecutorService timelineWorker = Executors.newSingleThreadExecutor();
+        final ScheduledExecutorService main = Executors.newSingleThreadScheduledExecutor();
+        final PayloadCompressor publishCompressor = new PayloadCompressor(PayloadDictionary.builtIn());
+        final PayloadCompressor arrivalCompressor = new PayloadCompressor(PayloadDictionary.builtIn());
+        final MessageTimeline timeline;
+        final TimelineBuilder builder;
+        final MqttSession session;
+        final CountDownLatch connected = new CountDownLatch(1);
+        // Sólo desde main
+        final List<Message> pendingBind = new ArrayList<>();
+        // Frame en que entró cada fila pendiente; las que no se enlazan en el siguiente se cuentan aquí
+        final Map<Message, Integer> insertedInFrame = new HashMap<>();
+        final AtomicInteger lateBinds = new AtomicInteger();
+        int frames;
+        boolean framePending;
+
+        Client(String name) throws Exception {
+            this.name = name;
+            tracer = new Tracer(name, Tracer.DEFAULT_CAPACITY);
+            tracer.setEnabled(true);
+            timeline = new MessageTimeline(name);
+            timeline.setListener(this);
+            builder = new TimelineBuilder(timeline, timelineWorker, main);
+            MqttConnectOptions options = new MqttConnectOptions();
+            options.setConnectionTimeout(2);
+            session = new MqttSession(broker.getUri(), name, options, Outbox.open(folder.newFolder(name)), 16,
+                    new Backoff(50, 500, new Random(1)), new MqttSession.Callback() {
+                        @Override public void onConnected(boolean sessionPresent) { connected.countDown(); }
+                        @Override public void onConnectionLost(Throwable cause) { failures.incrementAndGet(); }
+                        @Override public void onMessage(String topic, byte[] payload) { arrived(payload); }
+                        @Override public void onDelivered(long publishId, String topic) { }
+                    });
+            clients.add(this);
+        }
+
+        void start() throws Exception {
+            session.start();
+            assertTrue(connected.await(10, TimeUnit.SECONDS));
+            session.subscribe(new String[] {TOPIC}, new int[] {1}).waitForCompletion(5_000);
+        }
+
+        /** Lo que hace ChatActivity.sendMessage y después MQTTManager.sendMessage. */
+        void sendMany(String text) {
+            for (int i = 0; i < MESSAGES; i++) {
+                long traceId = tracer.newTraceId();
+                tracer.mark(traceId, TraceStage.INPUT);
+                tracer.mark(traceId, TraceStage.FIREBASE_PUSH);
+                String id = String.format("%s-%06d", name, i);
+                String body = text + " " + i;
+                network.execute(() -> {
+                    try {
+                        byte[] payload = new MessagePayload(id, body, name, null, System.currentTimeMillis(),
+                                traceId).encode();
+                        // La hora se toma antes: la sesión puede enviarlo, y el otro recibirlo, antes de volver
+                        long publishAt = tracer.nowMicros();
+                        session.publish(TOPIC, publishCompressor.compress(payload), 1);
+                        tracer.mark(traceId, TraceStage.MQTT_PUBLISH, publishAt);
+                    } catch (IOException e) {
+                        failures.incrementAndGet();
+                    }
+                });
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        /** Lo que hacen MQTTManager al recibir y ChatActivity al añadir el mensaje. */
+        void arrived(byte[] message) {
+            long arrivedAt = tracer.nowMicros();
+            dispatch.execute(() -> {
+                MessagePayload payload;
+                try {
+                    payload = MessagePayload.decode(arrivalCompressor.decompress(message));
+                } catch (IllegalArgumentException e) {
+                    failures.incrementAndGet();
+                    return;
+                }
+                if (payload.userId.equals(name)) return;
+                tracer.mark(payload.traceId, TraceStage.MQTT_ARRIVED, arrivedAt);
+                Message received = new Message(payload.userId, payload.userId, payload.text, payload.time);
+                received.setId(payload.id);
+                received.setTraceId(Tracer.format(payload.traceId));
+                builder.append(received);
+            });
+        }
+
+        // --- Línea de tiempo, en main ---
+
+        @Override
+        public void onInserted(int position, int count) {
+            for (int i = position; i < position + count; i++) {
+                Message message = timeline.getItems().get(i);
+                if (message.isSeparator()) continue;
+                tracer.mark(Tracer.parse(message.getTraceId()), TraceStage.TIMELINE_INSERTED);
+                pendingBind.add(message);
+                insertedInFrame.put(message, frames);
+            }
+            if (!framePending && !pendingBind.isEmpty()) {
+                framePending = true;
+                long now = tracer.nowMicros();
+                main.schedule(this::frame, FRAME_MICROS - now % FRAME_MICROS, TimeUnit.MICROSECONDS);
+            }
+        }
+
+        /** El frame siguiente enlaza las filas nuevas, como onBindViewHolder. */
+        private void frame() {
+            framePending = false;
+            frames++;
+            for (Message message : pendingBind) {
+                if (insertedInFrame.remove(message) != frames - 1) lateBinds.incrementAndGet();
+                if (message.markTraceBound()) {
+                    tracer.mark(Tracer.parse(message.getTraceId()), TraceStage.FIRST_BIND);
+                    bound.countDown();
+                }
+            }
+            pendingBind.clear();
+        }
+
+        @Override public void onChanged(int position) { }
+        @Override public void onRemoved(int position, int count) { }
+        @Override public void onReset() { }
+
+        void close() throws Exception {
+            session.stop();
+            for (ExecutorService executor : new ExecutorService[] {network, dispatch, timelineWorker, main}) {
+                executor.shutdownNow();
+            }
+            publishCompressor.close();
+            arrivalCompressor.close();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.voidchat.transfer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AttachmentReceiverTest {
+
+    private static final int CHUNK = 16 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void reassemblesChunksInAnyOrderIgnoringDuplicatesAndDamage() throws Exception {
+        File source = randomFile("photo.jpg", 20 * CHUNK + 123);
+        AttachmentManifest manifest = AttachmentManifest.describe(source, "photo.jpg", "image/jpeg", CHUNK);
+        assertEquals(21, manifest.getChunkCount());
+        assertEquals(manifest, TransferFrame.readManifest(TransferFrame.manifest(manifest)));
+
+        List<byte[]> frames = chunks(source, manifest);
+        Collections.shuffle(frames, new Random(7));
+        File inbox = folder.newFolder("inbox");
+        AttachmentReceiver receiver = AttachmentReceiver.open(inbox, "t1");
+        // La mitad de los trozos llega antes que el manifiesto
+        for (int i = 0; i < 10; i++) {
+            assertFalse(receiver.onFrame(frames.get(i)));
+        }
+        assertFalse(receiver.onFrame(TransferFrame.manifest(manifest)));
+        assertFalse(receiver.onFrame(frames.get(3)));
+        assertEquals(1, receiver.getDuplicates());
+
+        byte[] damaged = frames.get(10).clone();
+        damaged[damaged.length - 1] ^= 1;
+        try {
+            receiver.onFrame(damaged);
+            fail("Damaged chunk accepted");
+        } catch (IllegalArgumentException expected) {
+            // Se descarta y se recibirá de nuevo
+        }
+        assertEquals(10, receiver.getReceivedChunks());
+
+        boolean completed = false;
+        for (int i = 10; i < frames.size(); i++) {
+            completed = receiver.onFrame(frames.get(i));
+        }
+        assertTrue(completed);
+        assertTrue(receiver.isComplete());
+        assertNull(receiver.resumeRequest());
+        assertArrayEquals(Files.readAllBytes(source.toPath()), Files.readAllBytes(receiver.getFile().toPath()));
+        // Sólo queda el fichero final
+        assertEquals(Collections.singletonList("t1"), Arrays.asList(inbox.list()));
+    }
+
+    @Test
+    public void reopeningResumesFromTheFirstMissingChunk() throws Exception {
+        File source = randomFile("video.mp4", 40 * CHUNK);
+        AttachmentManifest manifest = AttachmentManifest.describe(source, "video.mp4", "video/mp4", CHUNK);
+        List<byte[]> frames = chunks(source, manifest);
+        File inbox = folder.newFolder("inbox");
+
+        AttachmentReceiver receiver = AttachmentReceiver.open(inbox, "t2");
+        assertEquals(0, TransferFrame.resumeFrom(receiver.resumeRequest()));
+        assertTrue(TransferFrame.resumeNeedsManifest(receiver.resumeRequest()));
+        receiver.onFrame(TransferFrame.manifest(manifest));
+        for (int i = 0; i < 25; i++) {
+            receiver.onFrame(frames.get(i));
+        }
+        // Un hueco más adelante: también se recupera
+        receiver.onFrame(frames.get(30));
+        receiver.close();
+
+        AttachmentReceiver reopened = AttachmentReceiver.open(inbox, "t2");
+        assertEquals(manifest, reopened.getManifest());
+        assertEquals(26, reopened.getReceivedChunks());
+        assertEquals(25, reopened.firstMissing());
+        byte[] request = reopened.resumeRequest();
+        assertEquals(25, TransferFrame.resumeFrom(request));
+        assertFalse(TransferFrame.resumeNeedsManifest(request));
+
+        boolean completed = false;
+        for (int i = TransferFrame.resumeFrom(request); i < frames.size(); i++) {
+            completed = reopened.onFrame(frames.get(i));
+        }
+        assertTrue(completed);
+        assertEquals(1, reopened.getDuplicates());
+        assertArrayEquals(Files.readAllBytes(source.toPath()), Files.readAllBytes(reopened.getFile().toPath()));
+        assertTrue(AttachmentReceiver.open(inbox, "t2").isComplete());
+    }
+
+    @Test
+    public void chunksThatContradictTheManifestAreRejected() throws Exception {
+        File source = randomFile("a.bin", 4 * CHUNK);
+        File other = randomFile("b.bin", 4 * CHUNK);
+        AttachmentManifest manifest = AttachmentManifest.describe(source, "a.bin", "application/octet-stream", CHUNK);
+        AttachmentManifest otherManifest = AttachmentManifest.describe(other, "b.bin", "application/octet-stream", CHUNK);
+        AttachmentReceiver receiver = AttachmentReceiver.open(folder.newFolder("inbox"), "t3");
+        // Un trozo de otro fichero llegado antes del manifiesto se olvida al recibirlo
+        receiver.onFrame(chunks(other, otherManifest).get(0));
+        receiver.onFrame(TransferFrame.manifest(manifest));
+        assertEquals(0, receiver.getReceivedChunks());
+        try {
+            receiver.onFrame(chunks(other, otherManifest).get(1));
+            fail("Foreign chunk accepted");
+        } catch (IllegalArgumentException expected) {
+            // El CRC no es el del manifiesto
+        }
+        for (byte[] frame : chunks(source, manifest)) {
+            receiver.onFrame(frame);
+        }
+        assertTrue(receiver.isComplete());
+    }
+
+    @Test
+    public void framesFarOutOfRangeBeforeTheManifestAreDropped() throws Exception {
+        File inbox = folder.newFolder("inbox");
+        AttachmentReceiver receiver = AttachmentReceiver.open(inbox, "t4");
+        byte[] data = new byte[16];
+        byte[][] hostile = {
+                TransferFrame.chunk(Integer.MAX_VALUE - 1, CHUNK, data, data.length),
+                TransferFrame.chunk(AttachmentReceiver.MAX_EARLY_CHUNKS, CHUNK, data, data.length),
+                TransferFrame.chunk(0, AttachmentReceiver.MAX_CHUNK_SIZE + 1, data, data.length),
+                TransferFrame.chunk(0, 8, data, data.length), // Más datos que su tamaño de trozo
+        };
+        for (byte[] frame : hostile) {
+            try {
+                receiver.onFrame(frame);
+                fail("Out of range chunk accepted");
+            } catch (IllegalArgumentException expected) {
+                // Se descarta sin tocar el disco
+            }
+        }
+        assertEquals(0, receiver.getReceivedChunks());
+        assertEquals(0, new File(inbox, "t4.part").length());
+        receiver.close();
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    private File randomFile(String name, int size) throws Exception {
+        byte[] data = new byte[size];
+        new Random(name.hashCode()).nextBytes(data);
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    private static List<byte[]> chunks(File source, AttachmentManifest manifest) throws Exception {
+        byte[] data = Files.readAllBytes(source.toPath());
+        List<byte[]> frames = new ArrayList<>();
+        for (int index = 0; index < manifest.getChunkCount(); index++) {
+            byte[] chunk = Arrays.copyOfRange(data, (int) manifest.offsetOf(index),
+                    (int) manifest.offsetOf(index) + manifest.lengthOf(index));
+            frames.add(TransferFrame.chunk(index, manifest.chunkSize, chunk, chunk.length));
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,319 @@
+package com.example.voidchat.transfer;
+
+import com.example.voidchat.testing.EmbeddedBroker;
+import com.example.voidchat.testing.TcpProxy;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.security.MessageDigest;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Adjuntos de extremo a extremo contra un broker embebido: un cliente envía con AttachmentSender y otro
+ * recompone con AttachmentReceiver, cada uno con su conexión. Los números de la transferencia grande se
+ * imprimen; las aserciones exigen que el fichero llegue intacto y que la memoria no crezca con su tamaño.
+ */
+public class AttachmentTransferLoadTest {
+
+    private static final String ROOM = "room-1";
+    private static final int WINDOW = 16;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private EmbeddedBroker broker;
+    private TcpProxy proxy;
+    private ExecutorService worker;
+    // Los callbacks corren en hilos de Paho: los fallos se cuentan y se comprueban al final
+    private final AtomicInteger failures = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        broker = EmbeddedBroker.start(folder.newFolder("broker"));
+        proxy = new TcpProxy(broker.getPort(), 0);
+        worker = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        worker.shutdownNow();
+        proxy.close();
+        broker.close();
+        assertEquals(0, failures.get());
+    }
+
+    @Test
+    public void fiftyMegabytesStreamWithBoundedHeap() throws Exception {
+        int size = 50 * 1024 * 1024;
+        File source = randomFile("big.bin", size);
+        AttachmentManifest manifest = AttachmentManifest.describe(source, "big.bin", "application/octet-stream",
+                AttachmentManifest.DEFAULT_CHUNK_SIZE);
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        long baseline = memory.getHeapMemoryUsage().getUsed();
+
+        CountDownLatch received = new CountDownLatch(1);
+        AttachmentReceiver receiver = AttachmentReceiver.open(folder.newFolder("inbox"), "big");
+        MqttAsyncClient receiving = receiver(broker.getUri(), "big", receiver, received);
+        MqttAsyncClient sending = connect(broker.getUri(), "sender", null);
+        CountDownLatch sent = new CountDownLatch(1);
+        AttachmentSender sender = new AttachmentSender(TransferFrame.dataTopic(ROOM, "big"), source, manifest,
+                publisher(sending), WINDOW, worker, listener(sent));
+
+        // Lo que sigue vivo tras una recolección: la basura de los trozos ya enviados no cuenta
+        AtomicLong peak = new AtomicLong();
+        Thread sampler = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                System.gc();
+                peak.accumulateAndGet(memory.getHeapMemoryUsage().getUsed() - baseline, Math::max);
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        long start = System.nanoTime();
+        sampler.start();
+        sender.start();
+        assertTrue("Receiver timed out", received.await(180, TimeUnit.SECONDS));
+        double seconds = (System.nanoTime() - start) / 1e9;
+        sampler.interrupt();
+        sampler.join();
+        assertTrue(sent.await(10, TimeUnit.SECONDS));
+
+        System.out.printf(Locale.ROOT, "50 MB in %d chunks of %d KB, window %d: %.1f s, %.1f MB/s, peak live heap +%.1f MB%n",
+                manifest.getChunkCount(), manifest.chunkSize / 1024, WINDOW, seconds, 50 / seconds,
+                peak.get() / (1024.0 * 1024));
+        assertEquals(manifest.getChunkCount(), sender.getPublishedChunks());
+        assertArrayEquals(manifest.getSha256(), sha256(receiver.getFile()));
+        assertTrue("Peak live heap grew " + peak.get() + " bytes", peak.get() < size / 2);
+        sender.close();
+        disconnect(sending);
+        disconnect(receiving);
+    }
+
+    @Test
+    public void senderResumesFromTheLastAckedChunkAfterACut() throws Exception {
+        File source = randomFile("cut.bin", 8 * 1024 * 1024);
+        AttachmentManifest manifest = AttachmentManifest.describe(source, "cut.bin", "application/octet-stream",
+                16 * 1024);
+        int chunks = manifest.getChunkCount();
+        CountDownLatch received = new CountDownLatch(1);
+        AttachmentReceiver receiver = AttachmentReceiver.open(folder.newFolder("inbox"), "cut");
+        MqttAsyncClient receiving = receiver(broker.getUri(), "cut", receiver, received);
+
+        // El emisor pasa por el proxy; cuando lleva un cuarto confirmado se le corta la conexión
+        CountDownLatch stalled = new CountDownLatch(1);
+        MqttAsyncClient sending = connect(proxy.getUri(), "sender", null);
+        AttachmentSender.Listener listener = new AttachmentSender.Listener() {
+            @Override public void onProgress(int ackedChunks, int chunkCount) {
+                if (ackedChunks == chunks / 4) proxy.cut();
+            }
+            @Override public void onSent() { }
+            @Override public void onStalled(Throwable error) { stalled.countDown(); }
+        };
+        AttachmentSender sender = new AttachmentSender(TransferFrame.dataTopic(ROOM, "cut"), source, manifest,
+                publisher(sending), WINDOW, worker, listener);
+        sender.start();
+        assertTrue(stalled.await(30, TimeUnit.SECONDS));
+        int ackedBeforeCut = sender.getAckedChunks();
+        assertTrue(ackedBeforeCut >= chunks / 4 && ackedBeforeCut < chunks);
+
+        reconnect(sending);
+        sender.resume();
+        assertTrue("Receiver timed out", received.await(60, TimeUnit.SECONDS));
+        assertArrayEquals(manifest.getSha256(), sha256(receiver.getFile()));
+        // Sólo se repite lo que estaba en vuelo al cortar, no lo ya confirmado
+        long repeated = sender.getPublishedChunks() - chunks;
+        System.out.printf(Locale.ROOT, "Cut after %d of %d chunks: %d repeated%n", ackedBeforeCut, chunks, repeated);
+        assertTrue("Repeated " + repeated, repeated <= 2 * WINDOW);
+        sender.close();
+        disconnect(sending);
+        disconnect(receiving);
+    }
+
+    @Test
+    public void lateReceiverAsksForWhatItIsMissing() throws Exception {
+        File source = randomFile("late.bin", 2 * 1024 * 1024);
+        AttachmentManifest manifest = AttachmentManifest.describe(source, "late.bin", "application/octet-stream",
+                16 * 1024);
+        int chunks = manifest.getChunkCount();
+        AttachmentSender[] holder = new AttachmentSender[1];
+        // El emisor escucha las peticiones de reanudación de su transferencia
+        MqttAsyncClient sending = connect(broker.getUri(), "sender", (topic, payload) -> {
+            if (TransferFrame.kindOf(payload) == TransferFrame.KIND_RESUME) {
+                holder[0].resumeFrom(TransferFrame.resumeFrom(payload), TransferFrame.resumeNeedsManifest(payload));
+            }
+        });
+        sending.subscribe(TransferFrame.resumeTopic(ROOM, "late"), TransferFrame.QOS).waitForCompletion(10_000);
+        CountDownLatch sent = new CountDownLatch(1);
+        AttachmentSender sender = new AttachmentSender(TransferFrame.dataTopic(ROOM, "late"), source, manifest,
+                publisher(sending), WINDOW, worker, listener(sent));
+        holder[0] = sender;
+        // Nadie escucha todavía: el broker descarta todo
+        sender.start();
+        assertTrue(sent.await(30, TimeUnit.SECONDS));
+
+        // El receptor ya tenía media transferencia de una ejecución anterior
+        File inbox = folder.newFolder("inbox");
+        AttachmentReceiver previous = AttachmentReceiver.open(inbox, "late");
+        previous.onFrame(TransferFrame.manifest(manifest));
+        byte[] buffer = new byte[manifest.chunkSize];
+        try (InputStream in = new FileInputStream(source)) {
+            for (int index = 0; index < chunks / 2; index++) {
+                int length = manifest.lengthOf(index);
+                assertEquals(length, in.read(buffer, 0, length));
+                previous.onFrame(TransferFrame.chunk(index, manifest.chunkSize, buffer, length));
+            }
+        }
+        previous.close();
+
+        CountDownLatch received = new CountDownLatch(1);
+        AttachmentReceiver receiver = AttachmentReceiver.open(inbox, "late");
+        MqttAsyncClient receiving = receiver(broker.getUri(), "late", receiver, received);
+        receiving.publish(TransferFrame.resumeTopic(ROOM, "late"), receiver.resumeRequest(), TransferFrame.QOS, false);
+        assertTrue("Receiver timed out", received.await(30, TimeUnit.SECONDS));
+        assertArrayEquals(manifest.getSha256(), sha256(receiver.getFile()));
+        assertEquals(chunks + chunks / 2, sender.getPublishedChunks());
+        sender.close();
+        disconnect(sending);
+        disconnect(receiving);
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    private MqttAsyncClient receiver(String uri, String transferId, AttachmentReceiver receiver,
+                                     CountDownLatch received) throws Exception {
+        MqttAsyncClient client = connect(uri, "receiver-" + transferId, (topic, payload) -> {
+            try {
+                if (receiver.onFrame(payload)) received.countDown();
+            } catch (IOException | IllegalArgumentException e) {
+                failures.incrementAndGet();
+            }
+        });
+        client.subscribe(TransferFrame.dataTopic(ROOM, transferId), TransferFrame.QOS).waitForCompletion(10_000);
+        return client;
+    }
+
+    private MqttAsyncClient connect(String uri, String clientId, OnMessage onMessage) throws Exception {
+        MqttAsyncClient client = new MqttAsyncClient(uri, clientId + "-" + System.nanoTime(), null);
+        client.setCallback(new MqttCallback() {
+            @Override public void connectionLost(Throwable cause) { }
+            @Override public void messageArrived(String topic, MqttMessage message) {
+                if (onMessage != null) onMessage.accept(topic, message.getPayload());
+            }
+            @Override public void deliveryComplete(IMqttDeliveryToken token) { }
+        });
+        client.connect(options()).waitForCompletion(10_000);
+        return client;
+    }
+
+    // El corte llega a Paho después que el atasco al emisor: puede que aún esté cerrando la conexión anterior
+    private static void reconnect(MqttAsyncClient client) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (true) {
+            try {
+                client.connect(options()).waitForCompletion(10_000);
+                return;
+            } catch (MqttException e) {
+                if (e.getReasonCode() != MqttException.REASON_CODE_CLIENT_DISCONNECTING
+                        || System.nanoTime() > deadline) throw e;
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    private static MqttConnectOptions options() {
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setCleanSession(true);
+        options.setMaxInflight(WINDOW * 2);
+        return options;
+    }
+
+    private static AttachmentSender.Publisher publisher(MqttAsyncClient client) {
+        return (topic, payload, completion) -> {
+            if (!client.isConnected()) return false;
+            try {
+                client.publish(topic, payload, TransferFrame.QOS, false, null, new IMqttActionListener() {
+                    @Override public void onSuccess(IMqttToken token) { completion.onAcked(); }
+                    @Override public void onFailure(IMqttToken token, Throwable error) { completion.onFailed(error); }
+                });
+                return true;
+            } catch (MqttException e) {
+                return false;
+            }
+        };
+    }
+
+    private AttachmentSender.Listener listener(CountDownLatch sent) {
+        return new AttachmentSender.Listener() {
+            @Override public void onProgress(int ackedChunks, int chunkCount) { }
+            @Override public void onSent() { sent.countDown(); }
+            @Override public void onStalled(Throwable error) { failures.incrementAndGet(); }
+        };
+    }
+
+    private File randomFile(String name, int size) throws IOException {
+        File file = folder.newFile(name);
+        Random random = new Random(size);
+        byte[] buffer = new byte[1024 * 1024];
+        try (OutputStream out = new FileOutputStream(file)) {
+            for (int written = 0; written < size; written += buffer.length) {
+                random.nextBytes(buffer);
+                out.write(buffer, 0, Math.min(buffer.length, size - written));
+            }
+        }
+        return file;
+    }
+
+    private static byte[] sha256(File file) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return digest.digest();
+    }
+
+    private static void disconnect(MqttAsyncClient client) throws MqttException {
+        if (client.isConnected()) client.disconnect().waitForCompletion(5_000);
+        client.close();
+    }
+
+    private interface OnMessage {
+        void accept(String topic, byte[] payload);
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.voidchat.typing;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas locales de la máquina de estados del emisor, con tiempos simulados.
+ */
+public class TypingSenderTest {
+
+    private final List<Boolean> sent = new ArrayList<>();
+    private final TypingSender sender = new TypingSender(sent::add);
+
+    @Test
+    public void aBurstOfKeystrokesSendsOneTypingAndOneStopped() {
+        // 40 pulsaciones en 2 s: antes eran 40 escrituras en Firebase
+        for (long now = 0; now < 2_000; now += 50) {
+            sender.onInput(true, now);
+        }
+        assertEquals(-1, sender.checkIdle(1_950 + TypingSender.IDLE_MILLIS));
+        assertEquals(Arrays.asList(true, false), sent);
+    }
+
+    @Test
+    public void longTypingRefreshesAtMostOncePerInterval() {
+        for (long now = 0; now <= 10_000; now += 100) {
+            sender.onInput(true, now);
+        }
+        // 0, 3000, 6000 y 9000
+        assertEquals(Arrays.asList(true, true, true, true), sent);
+    }
+
+    @Test
+    public void idleCheckWaitsForTheLastKeystroke() {
+        assertEquals(TypingSender.IDLE_MILLIS, sender.onInput(true, 0));
+        sender.onInput(true, 1_500);
+        // El temporizador del primer pulso llega antes de tiempo: hay que volver a mirar después
+        assertEquals(1_500, sender.checkIdle(2_000));
+        assertTrue(sender.isTyping());
+        assertEquals(-1, sender.checkIdle(3_500));
+        assertFalse(sender.isTyping());
+    }
+
+    @Test
+    public void clearingTheFieldOrSendingStopsOnce() {
+        sender.onInput(true, 0);
+        assertEquals(-1, sender.onInput(false, 100));
+        sender.onInput(false, 200);
+        sender.stop();
+        assertEquals(Arrays.asList(true, false), sent);
+
+        sender.onInput(true, 300);
+        sender.stop();
+        assertEquals(Arrays.asList(true, false, true, false), sent);
+    }
+}
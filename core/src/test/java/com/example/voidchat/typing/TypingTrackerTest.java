@@ -0,0 +1,55 @@
+package com.example.voidchat.typing;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas locales del receptor: caducidad de avisos y formato del tema.
+ */
+public class TypingTrackerTest {
+
+    @Test
+    public void typingExpiresWithoutAStoppedSignal() {
+        TypingTracker tracker = new TypingTracker();
+        assertTrue(tracker.onSignal("uid-1", true, 0));
+        assertEquals(TypingTracker.EXPIRY_MILLIS, tracker.millisUntilNextExpiry(0));
+        assertFalse(tracker.expire(TypingTracker.EXPIRY_MILLIS - 1));
+        assertTrue(tracker.isTyping("uid-1"));
+        assertTrue(tracker.expire(TypingTracker.EXPIRY_MILLIS));
+        assertFalse(tracker.isTyping("uid-1"));
+        assertEquals(-1, tracker.millisUntilNextExpiry(TypingTracker.EXPIRY_MILLIS));
+    }
+
+    @Test
+    public void refreshesExtendAndStoppedClears() {
+        TypingTracker tracker = new TypingTracker();
+        tracker.onSignal("uid-1", true, 0);
+        // Un refresco no cambia lo que se ve, sólo alarga el plazo
+        assertFalse(tracker.onSignal("uid-1", true, TypingSender.REFRESH_MILLIS));
+        assertFalse(tracker.expire(TypingTracker.EXPIRY_MILLIS));
+        assertTrue(tracker.onSignal("uid-1", false, TypingSender.REFRESH_MILLIS + 10));
+        assertFalse(tracker.onSignal("uid-1", false, TypingSender.REFRESH_MILLIS + 20));
+        assertTrue(tracker.typingUsers().isEmpty());
+    }
+
+    @Test
+    public void oneLostRefreshDoesNotMakeTheIndicatorFlicker() {
+        assertTrue(TypingTracker.EXPIRY_MILLIS > 2 * TypingSender.REFRESH_MILLIS);
+    }
+
+    @Test
+    public void topicsCarryRoomAndUser() {
+        String topic = TypingSignal.topic("a_b", "uid-1");
+        assertEquals("typing/a_b/+", TypingSignal.roomFilter("a_b"));
+        assertEquals("uid-1", TypingSignal.userIdOf(topic));
+        assertNull(TypingSignal.userIdOf("chat/a_b"));
+        assertTrue(TypingSignal.decode(TypingSignal.encode(true)));
+        assertFalse(TypingSignal.decode(TypingSignal.encode(false)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void otherPayloadsAreRejected() {
+        TypingSignal.decode(new byte[] {1, 2});
+    }
+}
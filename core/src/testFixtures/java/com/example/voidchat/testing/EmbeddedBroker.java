@@ -0,0 +1,88 @@
+package com.example.voidchat.testing;
+
+import io.moquette.broker.Server;
+import io.moquette.broker.config.MemoryConfig;
+import io.moquette.interception.InterceptHandler;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Properties;
+
+/**
+ * Broker Moquette en memoria para las pruebas, escuchando en 127.0.0.1. Se puede detener y volver a
+ * arrancar en el mismo puerto para simular una caída del broker.
+ */
+public final class EmbeddedBroker implements Closeable {
+
+    private final int port;
+    private final File dataDirectory;
+    private Server server;
+
+    private EmbeddedBroker(int port, File dataDirectory) {
+        this.port = port;
+        this.dataDirectory = dataDirectory;
+    }
+
+    /**
+     * Arranca en un puerto libre.
+     */
+    public static EmbeddedBroker start(File dataDirectory) throws IOException {
+        EmbeddedBroker broker = new EmbeddedBroker(freePort(), dataDirectory);
+        broker.restart();
+        return broker;
+    }
+
+    /**
+     * Prepara el broker en un puerto libre sin arrancarlo, para probar clientes que empiezan sin red.
+     */
+    public static EmbeddedBroker stopped(File dataDirectory) throws IOException {
+        return new EmbeddedBroker(freePort(), dataDirectory);
+    }
+
+    public synchronized void restart(InterceptHandler... handlers) throws IOException {
+        if (server != null) throw new IllegalStateException("Already running");
+        Properties config = new Properties();
+        config.setProperty("host", "127.0.0.1");
+        config.setProperty("port", String.valueOf(port));
+        config.setProperty("allow_anonymous", "true");
+        config.setProperty("persistence_enabled", "false");
+        config.setProperty("data_path", dataDirectory.getAbsolutePath());
+        // Moquette corta por defecto a 8 KB; los brokers de verdad admiten los trozos de los adjuntos
+        config.setProperty("netty.mqtt.message_size", String.valueOf(1024 * 1024));
+        server = new Server();
+        server.startServer(new MemoryConfig(config));
+        for (InterceptHandler handler : handlers) {
+            server.addInterceptHandler(handler);
+        }
+    }
+
+    public synchronized void stop() {
+        if (server != null) {
+            server.stopServer();
+            server = null;
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return server != null;
+    }
+
+    public int getPort() { return port; }
+
+    public String getUri() {
+        return "tcp://127.0.0.1:" + port;
+    }
+
+    @Override
+    public void close() {
+        stop();
+    }
+
+    public static int freePort() throws IOException {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            return probe.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+// Generador de carga: miles de clientes simulados con el motor de :core contra un broker MQTT.
+//   ./gradlew :loadtest:run --args="--clients 2000 --room-size 10 --messages 20"
+// Sin --broker arranca uno embebido. Con Java 21 cada cliente simulado corre en hilos virtuales.
+plugins {
+    application
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_17
+    targetCompatibility = JavaVersion.VERSION_17
+}
+
+dependencies {
+    implementation(project(":core"))
+    implementation(testFixtures(project(":core")))
+    implementation(libs.json)
+    testImplementation(libs.junit)
+}
+
+application {
+    mainClass.set("com.example.voidchat.loadtest.LoadGenerator")
+    // Cada cliente tiene sus hilos de Paho: la pila por defecto se come la memoria antes que el heap
+    applicationDefaultJvmArgs = listOf("-Xss256k", "-Xmx2g")
+}
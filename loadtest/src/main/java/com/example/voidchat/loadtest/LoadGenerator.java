@@ -0,0 +1,232 @@
+package com.example.voidchat.loadtest;
+
+import com.example.voidchat.metrics.Counter;
+import com.example.voidchat.metrics.Histogram;
+import com.example.voidchat.testing.EmbeddedBroker;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Miles de clientes simulados, repartidos en salas, contra un broker MQTT: cada uno conecta con el mismo
+ * {@link com.example.voidchat.engine.ChatEngine} que la app, se suscribe a su sala y envía mensajes con una
+ * pausa entre uno y otro, como quien escribe. Mide cuántos mensajes entrega el broker por segundo, cuánto
+ * tarda cada uno de un cliente a otro y cuánta memoria cuesta cada cliente.
+ *
+ * El guion de cada cliente corre en su propio hilo, virtual si la JVM los tiene (Java 21): esperar entre
+ * mensajes no ocupa un hilo de plataforma. Los hilos de red y de reparto del motor también son virtuales;
+ * los de Paho, no.
+ */
+public final class LoadGenerator {
+
+    private static final String[] TEXTS = {
+            "hola, ¿qué tal?", "ya estoy llegando", "¿vienes esta noche a la cena?", "vale, nos vemos luego",
+            "jajaja no puede ser", "¿me pasas la dirección?", "gracias!!", "mañana te llamo y lo hablamos",
+    };
+
+    /** Parámetros de una ejecución; los de la línea de órdenes tienen el mismo nombre con guiones. */
+    public static final class Config {
+        public int clients = 1_000;
+        public int roomSize = 10;
+        public int messages = 20;
+        // Pausa media entre dos mensajes de un cliente; cada una varía un 50 % arriba o abajo
+        public long intervalMillis = 1_000;
+        // Los clientes conectan repartidos en este tiempo, no todos en el mismo instante
+        public long rampMillis = 10_000;
+        public long timeoutSeconds = 300;
+        // null: broker embebido en este proceso
+        public String brokerUri;
+        // Outboxes de los clientes y datos del broker; null: una carpeta temporal que se borra al terminar
+        public File workDirectory;
+
+        public static Config parse(String[] args) {
+            Config config = new Config();
+            for (int i = 0; i < args.length; i += 2) {
+                if (i + 1 >= args.length) throw new IllegalArgumentException("Missing value for " + args[i]);
+                String value = args[i + 1];
+                switch (args[i]) {
+                    case "--clients": config.clients = Integer.parseInt(value); break;
+                    case "--room-size": config.roomSize = Integer.parseInt(value); break;
+                    case "--messages": config.messages = Integer.parseInt(value); break;
+                    case "--interval": config.intervalMillis = Long.parseLong(value); break;
+                    case "--ramp": config.rampMillis = Long.parseLong(value); break;
+                    case "--timeout": config.timeoutSeconds = Long.parseLong(value); break;
+                    case "--broker": config.brokerUri = value; break;
+                    case "--work-dir": config.workDirectory = new File(value); break;
+                    default: throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            if (config.clients < 2 || config.roomSize < 2) {
+                throw new IllegalArgumentException("Need at least two clients per room");
+            }
+            return config;
+        }
+
+        /** Entregas esperadas: cada mensaje llega a los demás de su sala. La última sala puede ser menor. */
+        long expectedDeliveries() {
+            long expected = 0;
+            for (int first = 0; first < clients; first += roomSize) {
+                long size = Math.min(roomSize, clients - first);
+                expected += messages * size * (size - 1);
+            }
+            return expected;
+        }
+    }
+
+    /** Lo que anotan los clientes al recibir; compartido por todos. */
+    static final class Results {
+        final Histogram latencyMicros = new Histogram();
+        final Counter publishFailures = new Counter();
+        final Counter errors = new Counter();
+        final AtomicLong lastDeliveryNanos = new AtomicLong();
+        private final SimulatedClient[] clients;
+
+        Results(int clients) {
+            this.clients = new SimulatedClient[clients];
+        }
+
+        SimulatedClient client(int index) {
+            return clients[index];
+        }
+
+        void delivered(long latencyNanos) {
+            latencyMicros.record(latencyNanos / 1_000);
+            lastDeliveryNanos.accumulateAndGet(System.nanoTime(), Math::max);
+        }
+    }
+
+    private LoadGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadReport report = run(Config.parse(args));
+        System.out.print(report.format());
+        System.exit(report.isComplete() ? 0 : 1);
+    }
+
+    public static LoadReport run(Config config) throws IOException, InterruptedException {
+        boolean temporary = config.workDirectory == null;
+        File workDirectory = temporary ? Files.createTempDirectory("voidchat-load").toFile() : config.workDirectory;
+        EmbeddedBroker broker = null;
+        String brokerUri = config.brokerUri;
+        if (brokerUri == null) {
+            broker = EmbeddedBroker.start(new File(workDirectory, "broker"));
+            brokerUri = broker.getUri();
+        }
+        ThreadFactory virtual = virtualThreadFactory();
+        ThreadFactory threads = virtual != null ? virtual : runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        };
+        Results results = new Results(config.clients);
+        try {
+            long baselineHeap = usedHeapAfterGc();
+            for (int i = 0; i < config.clients; i++) {
+                String topic = "load/room-" + (i / config.roomSize);
+                results.clients[i] = new SimulatedClient(brokerUri, i, topic, config.messages,
+                        new File(workDirectory, "clients/" + i), threads, results);
+            }
+
+            CountDownLatch connected = new CountDownLatch(config.clients);
+            CountDownLatch go = new CountDownLatch(1);
+            CountDownLatch finished = new CountDownLatch(config.clients);
+            long connectStart = System.nanoTime();
+            for (SimulatedClient client : results.clients) {
+                threads.newThread(() -> script(config, client, connected, go, finished)).start();
+            }
+            if (!connected.await(config.timeoutSeconds, TimeUnit.SECONDS)) {
+                throw new IllegalStateException(connected.getCount() + " clients did not connect");
+            }
+            long connectNanos = System.nanoTime() - connectStart;
+            // Todos conectados y suscritos, antes de que empiecen los mensajes
+            long clientsHeap = usedHeapAfterGc() - baselineHeap;
+            int liveThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+
+            long sendStart = System.nanoTime();
+            go.countDown();
+            long expected = config.expectedDeliveries();
+            long deadline = sendStart + TimeUnit.SECONDS.toNanos(config.timeoutSeconds);
+            while (results.latencyMicros.snapshot().count < expected && System.nanoTime() < deadline) {
+                Thread.sleep(100);
+            }
+            finished.await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            Histogram.Snapshot latency = results.latencyMicros.snapshot();
+            long sendNanos = Math.max(1, results.lastDeliveryNanos.get() - sendStart);
+            return new LoadReport(config.clients, config.roomSize, (long) config.clients * config.messages,
+                    expected, latency, sendNanos, connectNanos, clientsHeap / config.clients,
+                    (double) liveThreads / config.clients, virtual != null,
+                    results.publishFailures.get(), results.errors.get());
+        } finally {
+            for (SimulatedClient client : results.clients) {
+                if (client != null) client.shutdown();
+            }
+            for (SimulatedClient client : results.clients) {
+                if (client != null) client.awaitTermination(10, TimeUnit.SECONDS);
+            }
+            if (broker != null) broker.close();
+            if (temporary) delete(workDirectory);
+        }
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    private static void script(Config config, SimulatedClient client, CountDownLatch connected, CountDownLatch go,
+                               CountDownLatch finished) {
+        try {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            Thread.sleep(random.nextLong(config.rampMillis + 1));
+            client.join();
+            if (!client.subscribed.await(config.timeoutSeconds, TimeUnit.SECONDS)) return;
+            connected.countDown();
+            go.await();
+            for (int i = 0; i < config.messages; i++) {
+                // Cada uno empieza en un momento distinto y luego sigue a su ritmo
+                Thread.sleep(config.intervalMillis / 2 + random.nextLong(config.intervalMillis + 1));
+                client.send(i, TEXTS[random.nextInt(TEXTS.length)]);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            finished.countDown();
+        }
+    }
+
+    /**
+     * {@code Thread.ofVirtual().factory()} si la JVM es de Java 21 o posterior; si no, null. Se busca por
+     * reflexión para que el módulo siga compilando con Java 17.
+     */
+    static ThreadFactory virtualThreadFactory() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(ofVirtual.invoke(null));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) delete(child);
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.voidchat.loadtest;
+
+import com.example.voidchat.metrics.Histogram;
+
+import java.util.Locale;
+
+/**
+ * Resultado de una ejecución de {@link LoadGenerator}. La memoria es la del heap tras recoger basura con todos
+ * los clientes conectados, antes de enviar; con el broker embebido incluye también lo que él guarda de cada
+ * conexión. Los hilos son los de plataforma: los virtuales no cuentan.
+ */
+public final class LoadReport {
+
+    public final int clients;
+    public final int roomSize;
+    public final long sent;
+    public final long expected;
+    /** Del envío a la entrega en el otro cliente, en microsegundos. */
+    public final Histogram.Snapshot latency;
+    /** Desde que empiezan los envíos hasta la última entrega. */
+    public final long sendNanos;
+    /** Hasta que el último cliente quedó suscrito. */
+    public final long connectNanos;
+    public final long heapBytesPerClient;
+    public final double threadsPerClient;
+    public final boolean virtualThreads;
+    public final long publishFailures;
+    public final long errors;
+
+    LoadReport(int clients, int roomSize, long sent, long expected, Histogram.Snapshot latency, long sendNanos,
+               long connectNanos, long heapBytesPerClient, double threadsPerClient, boolean virtualThreads,
+               long publishFailures, long errors) {
+        this.clients = clients;
+        this.roomSize = roomSize;
+        this.sent = sent;
+        this.expected = expected;
+        this.latency = latency;
+        this.sendNanos = sendNanos;
+        this.connectNanos = connectNanos;
+        this.heapBytesPerClient = heapBytesPerClient;
+        this.threadsPerClient = threadsPerClient;
+        this.virtualThreads = virtualThreads;
+        this.publishFailures = publishFailures;
+        this.errors = errors;
+    }
+
+    // --- Métodos Públicos ---
+
+    public long getDelivered() { return latency.count; }
+
+    public boolean isComplete() { return latency.count >= expected; }
+
+    /** Entregas por segundo, contando cada copia que recibe cada miembro de la sala. */
+    public double getDeliveriesPerSecond() {
+        return latency.count * 1e9 / sendNanos;
+    }
+
+    public String format() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.ROOT, "%-18s %d in rooms of %d, %s threads%n", "clients", clients, roomSize,
+                virtualThreads ? "virtual" : "platform"));
+        out.append(String.format(Locale.ROOT, "%-18s %.1f s%n", "connect", connectNanos / 1e9));
+        out.append(String.format(Locale.ROOT, "%-18s sent %d, delivered %d of %d%n", "messages", sent,
+                latency.count, expected));
+        out.append(String.format(Locale.ROOT, "%-18s %.0f msg/s delivered, %.0f msg/s sent%n", "throughput",
+                getDeliveriesPerSecond(), sent * 1e9 / sendNanos));
+        out.append(String.format(Locale.ROOT, "%-18s p50 %.2f  p99 %.2f  max %.2f%n", "latency (ms)",
+                latency.percentile(0.5) / 1000.0, latency.percentile(0.99) / 1000.0, latency.max / 1000.0));
+        out.append(String.format(Locale.ROOT, "%-18s %.1f KB heap, %.1f platform threads%n", "per client",
+                heapBytesPerClient / 1024.0, threadsPerClient));
+        out.append(String.format(Locale.ROOT, "%-18s %d publish, %d other%n", "failures", publishFailures, errors));
+        return out.toString();
+    }
+
+    @Override
+    public String toString() {
+        return format();
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.voidchat.loadtest;
+
+import com.example.voidchat.engine.ChatEngine;
+import com.example.voidchat.mqtt.MessagePayload;
+import com.example.voidchat.trace.Tracer;
+
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Un teléfono simulado: el mismo {@link ChatEngine} que la app, con su outbox en disco, en una sala con otros
+ * clientes. Cada mensaje lleva en su id quién lo envió y su número, así quien lo recibe encuentra cuándo salió.
+ */
+final class SimulatedClient extends ChatEngine {
+
+    private final int index;
+    private final String topic;
+    private final File outboxDirectory;
+    private final LoadGenerator.Results results;
+    // Cuándo (System.nanoTime) se envió cada mensaje; la lee el hilo de reparto de los demás clientes
+    private final AtomicLongArray sentAt;
+    final CountDownLatch subscribed = new CountDownLatch(1);
+
+    SimulatedClient(String serverUri, int index, String topic, int messages, File outboxDirectory,
+                    ThreadFactory threadFactory, LoadGenerator.Results results) {
+        super(serverUri, DEFAULT_MAX_IN_FLIGHT, new Tracer("load", 1), threadFactory);
+        this.index = index;
+        this.topic = topic;
+        this.outboxDirectory = outboxDirectory;
+        this.results = results;
+        this.sentAt = new AtomicLongArray(messages);
+    }
+
+    // --- Métodos Públicos ---
+
+    /** Se registra en la sala; conecta la primera vez. */
+    void join() {
+        subscribe(topic, new MQTTListener() {
+            @Override public void onConnected() { subscribed.countDown(); }
+            @Override public void onDisconnected() { }
+            @Override public void onMessage(String topic, String msg, String senderUid) { }
+            @Override public void onPayload(String topic, MessagePayload payload) { arrived(payload); }
+            @Override public void onDelivered(long publishId) { }
+            @Override public void onPublishFailed(long publishId, String error) { results.publishFailures.increment(); }
+            @Override public void onError(String error) { results.errors.increment(); }
+        });
+    }
+
+    void send(int sequence, String text) {
+        sentAt.set(sequence, System.nanoTime());
+        sendMessage(topic, new MessagePayload(messageId(index, sequence), text, getUserId(), null,
+                System.currentTimeMillis(), 0));
+    }
+
+    long sentAt(int sequence) {
+        return sentAt.get(sequence);
+    }
+
+    // --- Métodos de ChatEngine ---
+
+    @Override
+    protected String getClientId() {
+        return String.format("load-%06d", index);
+    }
+
+    @Override
+    protected File getOutboxDirectory() {
+        return outboxDirectory;
+    }
+
+    @Override
+    protected String getSignedInUserId() {
+        return getUserId();
+    }
+
+    @Override
+    protected MqttConnectOptions createConnectOptions() {
+        MqttConnectOptions options = new MqttConnectOptions();
+        // Con miles conectando a la vez el broker tarda en aceptar a los últimos
+        options.setConnectionTimeout(60);
+        options.setKeepAliveInterval(60);
+        return options;
+    }
+
+    // --- Métodos Privados de Utilidad ---
+
+    private String getUserId() {
+        return "user-" + index;
+    }
+
+    private void arrived(MessagePayload payload) {
+        long now = System.nanoTime();
+        if (payload.id == null) return;
+        int separator = payload.id.indexOf('-');
+        int sender = Integer.parseInt(payload.id.substring(1, separator));
+        if (sender == index) return; // El propio, de vuelta por la suscripción
+        int sequence = Integer.parseInt(payload.id.substring(separator + 1));
+        results.delivered(now - results.client(sender).sentAt(sequence));
+    }
+
+    static String messageId(int client, int sequence) {
+        return "c" + client + "-" + sequence;
+    }
+}
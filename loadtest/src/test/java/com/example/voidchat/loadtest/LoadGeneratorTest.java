@@ -0,0 +1,36 @@
+package com.example.voidchat.loadtest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class LoadGeneratorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void everyMessageReachesTheRestOfItsRoom() throws Exception {
+        LoadGenerator.Config config = LoadGenerator.Config.parse(new String[] {
+                "--clients", "50", "--room-size", "8", "--messages", "5", "--interval", "200", "--ramp", "500",
+                "--timeout", "60", "--work-dir", folder.getRoot().getPath()});
+        // Seis salas de 8 y una de 2
+        assertEquals(6 * 5 * 8 * 7 + 5 * 2, config.expectedDeliveries());
+
+        LoadReport report = LoadGenerator.run(config);
+        System.out.print(report.format());
+        assertTrue(report.isComplete());
+        assertEquals(config.expectedDeliveries(), report.getDelivered());
+        assertEquals(250, report.sent);
+        assertEquals(0, report.publishFailures);
+        assertTrue(report.latency.percentile(0.5) > 0);
+        assertTrue(report.getDeliveriesPerSecond() > 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownOptionsAreRejected() {
+        LoadGenerator.Config.parse(new String[] {"--client", "10"});
+    }
+}
@@ -21,3 +21,6 @@ dependencyResolutionManagement {
 
 rootProject.name = "voidchat"
 include(":app")
+include(":core")
+include(":benchmark")
+include(":loadtest")